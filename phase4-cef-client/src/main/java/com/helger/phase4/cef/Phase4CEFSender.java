@@ -40,6 +40,7 @@ import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderBDXR;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderBDXR2;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.http.AS4HttpClientPool;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.sender.AbstractAS4UserMessageBuilderMIMEPayload;
 import com.helger.phase4.util.Phase4Exception;
@@ -104,7 +105,10 @@ public final class Phase4CEFSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4CEFHttpClientSettings ());
+        if (AS4HttpClientPool.isEnabled ())
+          httpClientFactory (Phase4CEFHttpClientSettings.getSharedHttpClientFactory ());
+        else
+          httpClientFactory (new Phase4CEFHttpClientSettings ());
       }
       catch (final Exception ex)
       {
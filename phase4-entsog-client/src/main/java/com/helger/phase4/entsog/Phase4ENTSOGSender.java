@@ -32,6 +32,7 @@ import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.http.AS4HttpClientPool;
 import com.helger.phase4.sender.AS4BidirectionalClientHelper;
 import com.helger.phase4.sender.AbstractAS4UserMessageBuilder;
 import com.helger.phase4.util.AS4ResourceHelper;
@@ -86,7 +87,10 @@ public final class Phase4ENTSOGSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4ENTSOGHttpClientSettings ());
+        if (AS4HttpClientPool.isEnabled ())
+          httpClientFactory (Phase4ENTSOGHttpClientSettings.getSharedHttpClientFactory ());
+        else
+          httpClientFactory (new Phase4ENTSOGHttpClientSettings ());
         setSigningKeyIdentifierType (DEFAULT_KEY_IDENTIFIER_TYPE);
         encryptionKeyIdentifierType (DEFAULT_KEY_IDENTIFIER_TYPE);
       }
@@ -39,6 +39,7 @@ import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.http.AS4HttpClientPool;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.sender.AbstractAS4UserMessageBuilderMIMEPayload;
 import com.helger.phase4.util.Phase4Exception;
@@ -98,7 +99,10 @@ public final class Phase4EudamedSender
       // Override default values
       try
       {
-        httpClientFactory (new Phase4EudamedHttpClientSettings ());
+        if (AS4HttpClientPool.isEnabled ())
+          httpClientFactory (Phase4EudamedHttpClientSettings.getSharedHttpClientFactory ());
+        else
+          httpClientFactory (new Phase4EudamedHttpClientSettings ());
       }
       catch (final Exception ex)
       {
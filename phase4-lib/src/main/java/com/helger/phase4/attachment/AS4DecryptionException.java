@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Special exception type for decryption errors that occur while a lazily
+ * decrypted attachment is read.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4DecryptionException extends RuntimeException
+{
+  public AS4DecryptionException (@Nonnull final Exception ex)
+  {
+    super (ex);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * A simple pool of direct {@link ByteBuffer}s of a fixed capacity. Allocating
+ * direct buffers is expensive, so released buffers are kept for reuse up to a
+ * maximum number.<br>
+ * All buffers - the ones in use and the ones kept for reuse - count against
+ * the global {@link AS4IncomingAttachmentMemoryBudget}. Buffers that are not
+ * kept for reuse are freed immediately.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DirectByteBufferPool
+{
+  private final int m_nBufferCapacity;
+  private final int m_nMaxPooledBuffers;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final Deque <ByteBuffer> m_aPool = new ArrayDeque <> ();
+
+  public AS4DirectByteBufferPool (@Nonnegative final int nBufferCapacity, @Nonnegative final int nMaxPooledBuffers)
+  {
+    ValueEnforcer.isGT0 (nBufferCapacity, "BufferCapacity");
+    ValueEnforcer.isGE0 (nMaxPooledBuffers, "MaxPooledBuffers");
+    m_nBufferCapacity = nBufferCapacity;
+    m_nMaxPooledBuffers = nMaxPooledBuffers;
+  }
+
+  /**
+   * @return The capacity of each buffer in bytes.
+   */
+  @Nonnegative
+  public final int getBufferCapacity ()
+  {
+    return m_nBufferCapacity;
+  }
+
+  /**
+   * @return The maximum number of buffers kept for reuse.
+   */
+  @Nonnegative
+  public final int getMaxPooledBuffers ()
+  {
+    return m_nMaxPooledBuffers;
+  }
+
+  /**
+   * @return The number of buffers currently available for reuse.
+   */
+  @Nonnegative
+  public int getPooledBufferCount ()
+  {
+    return m_aLock.lockedInt (m_aPool::size);
+  }
+
+  /**
+   * @return The number of bytes currently kept for reuse. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getPooledBytes ()
+  {
+    return (long) getPooledBufferCount () * m_nBufferCapacity;
+  }
+
+  /**
+   * @return A cleared direct buffer with {@link #getBufferCapacity()} bytes
+   *         capacity. Either from the pool or newly allocated. May be
+   *         <code>null</code> if a new buffer is needed but the
+   *         {@link AS4IncomingAttachmentMemoryBudget} is exhausted.
+   */
+  @Nullable
+  public ByteBuffer acquire ()
+  {
+    final ByteBuffer aPooled = m_aLock.lockedGet (m_aPool::pollFirst);
+    if (aPooled != null)
+    {
+      // Already reserved
+      aPooled.clear ();
+      return aPooled;
+    }
+    if (!AS4IncomingAttachmentMemoryBudget.tryReserve (m_nBufferCapacity))
+      return null;
+    return ByteBuffer.allocateDirect (m_nBufferCapacity);
+  }
+
+  private void _free (@Nonnull final ByteBuffer aBuffer)
+  {
+    // Don't wait for the garbage collector
+    AS4IOHelper.unmap (aBuffer);
+    AS4IncomingAttachmentMemoryBudget.release (m_nBufferCapacity);
+  }
+
+  /**
+   * Return a buffer acquired via {@link #acquire()} to the pool.
+   *
+   * @param aBuffer
+   *        The buffer to release. May not be <code>null</code>. The buffer may
+   *        not be used by the caller afterwards.
+   */
+  public void release (@Nonnull final ByteBuffer aBuffer)
+  {
+    ValueEnforcer.notNull (aBuffer, "Buffer");
+    ValueEnforcer.isTrue (aBuffer.isDirect () && aBuffer.capacity () == m_nBufferCapacity,
+                          "Buffer was not acquired from this pool");
+    final boolean bPooled = m_aLock.lockedBoolean ( () -> {
+      if (m_aPool.size () >= m_nMaxPooledBuffers)
+        return false;
+      m_aPool.addLast (aBuffer);
+      return true;
+    });
+    if (!bPooled)
+      _free (aBuffer);
+  }
+
+  /**
+   * Free all buffers kept for reuse and release them from the
+   * {@link AS4IncomingAttachmentMemoryBudget}.
+   */
+  public void clear ()
+  {
+    final ByteBuffer [] aBuffers = m_aLock.lockedGet ( () -> {
+      final ByteBuffer [] ret = m_aPool.toArray (new ByteBuffer [0]);
+      m_aPool.clear ();
+      return ret;
+    });
+    for (final ByteBuffer aBuffer : aBuffers)
+      _free (aBuffer);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BufferCapacity", m_nBufferCapacity)
+                                       .append ("MaxPooledBuffers", m_nMaxPooledBuffers)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A global budget for the number of bytes of incoming attachments that are
+ * kept in memory (heap or direct buffers). If the budget is exhausted,
+ * attachments are spilled to disk instead.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4IncomingAttachmentMemoryBudget
+{
+  public static final long DEFAULT_MAX_BYTES = 256L * CGlobal.BYTES_PER_MEGABYTE;
+
+  private static final AtomicLong MAX_BYTES = new AtomicLong (DEFAULT_MAX_BYTES);
+  private static final AtomicLong RESERVED_BYTES = new AtomicLong (0);
+
+  private AS4IncomingAttachmentMemoryBudget ()
+  {}
+
+  /**
+   * @return The maximum number of bytes that may be reserved. Always &gt; 0.
+   */
+  @Nonnegative
+  public static long getMaxBytes ()
+  {
+    return MAX_BYTES.get ();
+  }
+
+  /**
+   * @param nMaxBytes
+   *        The maximum number of bytes that may be reserved. Must be &gt; 0.
+   *        Already reserved bytes are not affected.
+   */
+  public static void setMaxBytes (@Nonnegative final long nMaxBytes)
+  {
+    ValueEnforcer.isGT0 (nMaxBytes, "MaxBytes");
+    MAX_BYTES.set (nMaxBytes);
+  }
+
+  /**
+   * @return The number of currently reserved bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public static long getReservedBytes ()
+  {
+    return RESERVED_BYTES.get ();
+  }
+
+  /**
+   * Try to reserve the provided number of bytes.
+   *
+   * @param nBytes
+   *        The number of bytes to reserve. Must be &ge; 0.
+   * @return <code>true</code> if the bytes were reserved and must be released
+   *         via {@link #release(long)} later, <code>false</code> if the budget
+   *         is exhausted.
+   */
+  public static boolean tryReserve (@Nonnegative final long nBytes)
+  {
+    ValueEnforcer.isGE0 (nBytes, "Bytes");
+    final long nMax = MAX_BYTES.get ();
+    while (true)
+    {
+      final long nCurrent = RESERVED_BYTES.get ();
+      if (nCurrent + nBytes > nMax)
+        return false;
+      if (RESERVED_BYTES.compareAndSet (nCurrent, nCurrent + nBytes))
+        return true;
+    }
+  }
+
+  /**
+   * Release previously reserved bytes.
+   *
+   * @param nBytes
+   *        The number of bytes to release. Must be &ge; 0.
+   */
+  public static void release (@Nonnegative final long nBytes)
+  {
+    ValueEnforcer.isGE0 (nBytes, "Bytes");
+    RESERVED_BYTES.addAndGet (-nBytes);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An {@link IHasInputStream} that wraps an input stream provider that can be
+ * read only once. On the first request, the content is copied into a
+ * temporary file and all requests read from this file.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4LazyCopyInputStreamProvider implements IHasInputStream
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4LazyCopyInputStreamProvider.class);
+
+  private final IHasInputStream m_aSrcISP;
+  private final AS4ResourceHelper m_aResHelper;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private File m_aTempFile;
+
+  public AS4LazyCopyInputStreamProvider (@Nonnull final IHasInputStream aSrcISP,
+                                         @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aSrcISP, "SrcISP");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    m_aSrcISP = aSrcISP;
+    m_aResHelper = aResHelper;
+  }
+
+  /**
+   * @return <code>true</code> if the content was already copied.
+   */
+  public boolean isCopied ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_aTempFile != null);
+  }
+
+  @Nonnull
+  private File _getOrCreateTempFile () throws IOException
+  {
+    m_aLock.lock ();
+    try
+    {
+      if (m_aTempFile == null)
+      {
+        final File aTempFile = m_aResHelper.createTempFile ();
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Copying content on first demand to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+        final InputStream aSrcIS = m_aSrcISP.getInputStream ();
+        if (aSrcIS == null)
+          throw new IllegalStateException ("Failed to create InputStream from " + m_aSrcISP);
+        if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSrcIS, FileHelper.getBufferedOutputStream (aTempFile))
+                        .isFailure ())
+          throw new IOException ("Failed to copy content to temporary file '" + aTempFile.getAbsolutePath () + "'");
+        m_aTempFile = aTempFile;
+      }
+      return m_aTempFile;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    try
+    {
+      return FileHelper.getBufferedInputStream (_getOrCreateTempFile ());
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+  }
+
+  public boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SrcISP", m_aSrcISP).getToString ();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.WrappedInputStream;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A reference counter for memory that is shared between the owner (usually
+ * the {@link com.helger.phase4.util.AS4ResourceHelper} of a request) and all
+ * input streams created from it. The release action (unmapping a file or
+ * returning direct buffers to the pool) is run exactly once, after the owner
+ * and all readers released their reference. This avoids that a reader, that
+ * is still active after the request processing finished (e.g. an asynchronous
+ * SPI), accesses unmapped or reused memory.<br>
+ * Note: readers that never close their stream keep the memory until the
+ * garbage collector cleans it up.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+final class AS4ReferenceCountedResource
+{
+  private final Runnable m_aReleaseAction;
+  // The owner holds the first reference
+  private final AtomicInteger m_aRefCount = new AtomicInteger (1);
+
+  AS4ReferenceCountedResource (@Nonnull final Runnable aReleaseAction)
+  {
+    ValueEnforcer.notNull (aReleaseAction, "ReleaseAction");
+    m_aReleaseAction = aReleaseAction;
+  }
+
+  /**
+   * @return The current number of references. 0 if the resource was already
+   *         released.
+   */
+  @Nonnegative
+  int getReferenceCount ()
+  {
+    return m_aRefCount.get ();
+  }
+
+  /**
+   * Acquire an additional reference.
+   *
+   * @throws IllegalStateException
+   *         if the resource was already released
+   */
+  void acquire ()
+  {
+    while (true)
+    {
+      final int nCurrent = m_aRefCount.get ();
+      if (nCurrent <= 0)
+        throw new IllegalStateException ("The attachment content was already released");
+      if (m_aRefCount.compareAndSet (nCurrent, nCurrent + 1))
+        return;
+    }
+  }
+
+  /**
+   * Release a reference. The release action is run if this was the last
+   * reference. Must be called exactly once per reference.
+   */
+  void release ()
+  {
+    if (m_aRefCount.decrementAndGet () == 0)
+      m_aReleaseAction.run ();
+  }
+
+  /**
+   * Acquire a reference for the provided input stream, that is released when
+   * the returned stream is closed.
+   *
+   * @param aIS
+   *        The input stream that reads the shared memory. May not be
+   *        <code>null</code>.
+   * @return The wrapped input stream. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         if the resource was already released
+   */
+  @Nonnull
+  InputStream getReferencingInputStream (@Nonnull final InputStream aIS)
+  {
+    acquire ();
+    final AtomicBoolean aClosed = new AtomicBoolean (false);
+    return new WrappedInputStream (aIS)
+    {
+      @Override
+      public void close () throws IOException
+      {
+        try
+        {
+          super.close ();
+        }
+        finally
+        {
+          // Release only once, even if closed multiple times
+          if (aClosed.compareAndSet (false, true))
+            release ();
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("RefCount", m_aRefCount.get ()).getToString ();
+  }
+}
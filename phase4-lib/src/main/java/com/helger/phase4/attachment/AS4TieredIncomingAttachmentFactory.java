@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.ByteBufferInputStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4IOHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An {@link IAS4IncomingAttachmentFactory} that stores the decoded content of
+ * incoming attachments in different tiers, depending on the size:
+ * <ol>
+ * <li>Small attachments (&le; heap threshold) are kept in a heap byte
+ * array</li>
+ * <li>Medium attachments (&le; direct threshold) are kept in chunks of pooled
+ * direct {@link ByteBuffer}s, that are acquired as the data arrives</li>
+ * <li>Large attachments are written to a temporary file that is memory mapped
+ * for reading</li>
+ * </ol>
+ * Heap and direct memory (including the pooled direct buffers) is limited by
+ * the global {@link AS4IncomingAttachmentMemoryBudget} - if it is exhausted,
+ * the attachment is spilled to disk. Memory is released and files are unmapped
+ * when the {@link AS4ResourceHelper} and all input streams created for the
+ * attachment are closed. This allows e.g. an asynchronous SPI to read the
+ * attachment after the request processing finished - but it must close the
+ * streams. Repeated reads (e.g. for signature
+ * digest, decryption and SPI processing) therefore don't require additional
+ * file system calls.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4TieredIncomingAttachmentFactory implements IAS4IncomingAttachmentFactory
+{
+  public static final int DEFAULT_HEAP_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  public static final int DEFAULT_DIRECT_THRESHOLD = 4 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_DIRECT_CHUNK_SIZE = 256 * CGlobal.BYTES_PER_KILOBYTE;
+  public static final int DEFAULT_MAX_POOLED_BUFFERS = 64;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4TieredIncomingAttachmentFactory.class);
+
+  private final int m_nHeapThreshold;
+  private final int m_nDirectThreshold;
+  private final AS4DirectByteBufferPool m_aDirectPool;
+
+  /**
+   * Constructor with default thresholds.
+   */
+  public AS4TieredIncomingAttachmentFactory ()
+  {
+    this (DEFAULT_HEAP_THRESHOLD, DEFAULT_DIRECT_THRESHOLD, DEFAULT_MAX_POOLED_BUFFERS);
+  }
+
+  /**
+   * Constructor using the default direct buffer chunk size.
+   *
+   * @param nHeapThreshold
+   *        Maximum size in bytes to be kept on the heap. Must be &gt; 0.
+   * @param nDirectThreshold
+   *        Maximum size in bytes to be kept in direct buffers. If this value
+   *        is &le; the heap threshold, no direct buffers are used.
+   * @param nMaxPooledBuffers
+   *        Maximum number of direct buffer chunks kept for reuse. Must be
+   *        &ge; 0.
+   */
+  public AS4TieredIncomingAttachmentFactory (@Nonnegative final int nHeapThreshold,
+                                             final int nDirectThreshold,
+                                             @Nonnegative final int nMaxPooledBuffers)
+  {
+    this (nHeapThreshold, nDirectThreshold, DEFAULT_DIRECT_CHUNK_SIZE, nMaxPooledBuffers);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nHeapThreshold
+   *        Maximum size in bytes to be kept on the heap. Must be &gt; 0.
+   * @param nDirectThreshold
+   *        Maximum size in bytes to be kept in direct buffers. If this value
+   *        is &le; the heap threshold, no direct buffers are used.
+   * @param nDirectChunkSize
+   *        The size in bytes of each direct buffer chunk. Must be &gt; 0. It
+   *        is limited to the direct threshold.
+   * @param nMaxPooledBuffers
+   *        Maximum number of direct buffer chunks kept for reuse. Must be
+   *        &ge; 0.
+   */
+  public AS4TieredIncomingAttachmentFactory (@Nonnegative final int nHeapThreshold,
+                                             final int nDirectThreshold,
+                                             @Nonnegative final int nDirectChunkSize,
+                                             @Nonnegative final int nMaxPooledBuffers)
+  {
+    ValueEnforcer.isGT0 (nHeapThreshold, "HeapThreshold");
+    ValueEnforcer.isGT0 (nDirectChunkSize, "DirectChunkSize");
+    m_nHeapThreshold = nHeapThreshold;
+    if (nDirectThreshold > nHeapThreshold)
+    {
+      m_nDirectThreshold = nDirectThreshold;
+      m_aDirectPool = new AS4DirectByteBufferPool (Math.min (nDirectChunkSize, nDirectThreshold), nMaxPooledBuffers);
+    }
+    else
+    {
+      m_nDirectThreshold = 0;
+      m_aDirectPool = null;
+    }
+  }
+
+  /**
+   * @return The maximum size in bytes to be kept on the heap.
+   */
+  @Nonnegative
+  public final int getHeapThreshold ()
+  {
+    return m_nHeapThreshold;
+  }
+
+  /**
+   * @return The maximum size in bytes to be kept in direct buffers or 0 if no
+   *         direct buffers are used.
+   */
+  @Nonnegative
+  public final int getDirectThreshold ()
+  {
+    return m_nDirectThreshold;
+  }
+
+  /**
+   * @return The pool of the direct buffer chunks or <code>null</code> if no
+   *         direct buffers are used.
+   */
+  @Nullable
+  public final AS4DirectByteBufferPool getDirectPool ()
+  {
+    return m_aDirectPool;
+  }
+
+  @Nonnull
+  public WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                           @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                        MessagingException
+  {
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    final Enumeration <Header> aEnum = aBodyPart.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      aHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+    return createAttachment (aHeaders, aBodyPart.getRawInputStream (), aResHelper);
+  }
+
+  @Override
+  @Nonnull
+  public WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                           @Nonnull @WillClose final InputStream aBodyIS,
+                                           @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                        MessagingException
+  {
+    final IHasInputStream aISP;
+    try (final InputStream aIS = WSS4JAttachment.getContentTransferDecodedInputStream (aHeaders, aBodyIS))
+    {
+      aISP = _store (aIS, aResHelper);
+    }
+    return WSS4JAttachment.createIncomingAttachment (aHeaders, aISP, aResHelper);
+  }
+
+  @Nonnull
+  private static InputStream _getInputStream (@Nonnull final ICommonsList <ByteBuffer> aChunks)
+  {
+    if (aChunks.size () == 1)
+      return new ByteBufferInputStream (aChunks.getFirst ().asReadOnlyBuffer ());
+
+    final ICommonsList <InputStream> aStreams = new CommonsArrayList <> (aChunks.size ());
+    for (final ByteBuffer aChunk : aChunks)
+      aStreams.add (new ByteBufferInputStream (aChunk.asReadOnlyBuffer ()));
+    return new SequenceInputStream (Collections.enumeration (aStreams));
+  }
+
+  private void _releaseChunks (@Nonnull final ICommonsList <ByteBuffer> aChunks)
+  {
+    for (final ByteBuffer aChunk : aChunks)
+      m_aDirectPool.release (aChunk);
+  }
+
+  @Nonnull
+  private IHasInputStream _store (@Nonnull @WillNotClose final InputStream aIS,
+                                  @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    // Tier 1: heap
+    // Read one byte more than allowed, to determine if the threshold is
+    // exceeded
+    final byte [] aHeapBuffer = new byte [m_nHeapThreshold + 1];
+    final int nHeapBuffered = AS4IOHelper.readFully (aIS, aHeapBuffer, 0, aHeapBuffer.length);
+    if (nHeapBuffered <= m_nHeapThreshold && AS4IncomingAttachmentMemoryBudget.tryReserve (nHeapBuffered))
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Keeping incoming attachment with " + nHeapBuffered + " bytes on the heap");
+
+      aResHelper.addCloseable ( () -> AS4IncomingAttachmentMemoryBudget.release (nHeapBuffered));
+      final byte [] aData = Arrays.copyOf (aHeapBuffer, nHeapBuffered);
+      return HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aData));
+    }
+
+    // The bytes in aHeapBuffer from nPendingOfs to nPendingLen are not yet
+    // stored
+    int nPendingOfs = 0;
+    int nPendingLen = nHeapBuffered;
+
+    // Tier 2: pooled direct buffer chunks, acquired on demand
+    final ICommonsList <ByteBuffer> aChunks = new CommonsArrayList <> ();
+    boolean bKeepChunks = false;
+    try
+    {
+      if (nHeapBuffered > m_nHeapThreshold && m_aDirectPool != null)
+      {
+        long nTotal = 0;
+        while (nPendingLen >= 0 && nTotal + nPendingLen <= m_nDirectThreshold)
+        {
+          while (nPendingOfs < nPendingLen)
+          {
+            ByteBuffer aChunk = aChunks.getLast ();
+            if (aChunk == null || !aChunk.hasRemaining ())
+            {
+              aChunk = m_aDirectPool.acquire ();
+              if (aChunk == null)
+              {
+                // Memory budget exhausted
+                break;
+              }
+              aChunks.add (aChunk);
+            }
+            final int nLen = Math.min (nPendingLen - nPendingOfs, aChunk.remaining ());
+            aChunk.put (aHeapBuffer, nPendingOfs, nLen);
+            nPendingOfs += nLen;
+            nTotal += nLen;
+          }
+          if (nPendingOfs < nPendingLen)
+            break;
+
+          // Use the heap buffer as transfer buffer
+          nPendingOfs = 0;
+          nPendingLen = aIS.read (aHeapBuffer, 0, aHeapBuffer.length);
+        }
+
+        if (nPendingLen < 0)
+        {
+          // End of stream reached - everything fits
+          for (final ByteBuffer aChunk : aChunks)
+            aChunk.flip ();
+          bKeepChunks = true;
+
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Keeping incoming attachment with " +
+                          nTotal +
+                          " bytes in " +
+                          aChunks.size () +
+                          " direct buffer(s)");
+
+          // Return the chunks to the pool only after the resource helper and
+          // all readers are closed - otherwise a reader could see the data of
+          // another message
+          final AS4ReferenceCountedResource aRef = new AS4ReferenceCountedResource ( () -> _releaseChunks (aChunks));
+          aResHelper.addCloseable (aRef::release);
+          return HasInputStream.multiple ( () -> aRef.getReferencingInputStream (_getInputStream (aChunks)));
+        }
+      }
+
+      // Tier 3: memory mapped file
+      final File aTempFile = aResHelper.createTempFile ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Spilling incoming attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+      final long nFileSize;
+      try (final FileChannel aFC = FileChannel.open (aTempFile.toPath (),
+                                                     StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING))
+      {
+        // Everything stored so far
+        for (final ByteBuffer aChunk : aChunks)
+        {
+          aChunk.flip ();
+          while (aChunk.hasRemaining ())
+            aFC.write (aChunk);
+        }
+        if (nPendingLen > nPendingOfs)
+        {
+          final ByteBuffer aPending = ByteBuffer.wrap (aHeapBuffer, nPendingOfs, nPendingLen - nPendingOfs);
+          while (aPending.hasRemaining ())
+            aFC.write (aPending);
+        }
+
+        // And the rest
+        if (nPendingLen >= 0)
+          StreamHelper.copyInputStreamToOutputStream (aIS, Channels.newOutputStream (aFC));
+        nFileSize = aFC.size ();
+      }
+
+      if (nFileSize > Integer.MAX_VALUE)
+      {
+        // Too large to be mapped in one piece
+        return HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile));
+      }
+
+      final ByteBuffer aMapped;
+      try (final FileChannel aFC = FileChannel.open (aTempFile.toPath (), StandardOpenOption.READ))
+      {
+        // The mapping stays valid after the channel is closed
+        aMapped = aFC.map (FileChannel.MapMode.READ_ONLY, 0, nFileSize);
+      }
+      // Unmap only after the resource helper and all readers are closed -
+      // accessing an unmapped buffer crashes the JVM. Unmapping early is
+      // important, because the file stays locked on Windows and the address
+      // space is only released upon garbage collection otherwise.
+      final AS4ReferenceCountedResource aRef = new AS4ReferenceCountedResource ( () -> {
+        AS4IOHelper.unmap (aMapped);
+        // The resource helper cannot delete the file on Windows, as long as it
+        // is mapped
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aTempFile);
+      });
+      aResHelper.addCloseable (aRef::release);
+      return HasInputStream.multiple ( () -> {
+        final InputStream aMappedIS = new ByteBufferInputStream (aMapped.asReadOnlyBuffer ());
+        return aRef.getReferencingInputStream (aMappedIS);
+      });
+    }
+    finally
+    {
+      if (!bKeepChunks)
+        _releaseChunks (aChunks);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("HeapThreshold", m_nHeapThreshold)
+                                       .append ("DirectThreshold", m_nDirectThreshold)
+                                       .append ("DirectPool", m_aDirectPool)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines how decrypted incoming attachments are made available to the message
+ * processors. The values are ordered from the least to the most conservative
+ * mode.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public enum EAS4DecryptedAttachmentMode implements IHasID <String>
+{
+  /**
+   * The decrypted content is streamed directly from the decryption (and
+   * decompression) into the consumer. It can be read only once. Decryption
+   * errors only occur while reading and are thrown as
+   * {@link AS4DecryptionException}. If this happens inside a message
+   * processor, the message is answered with EBMS:0102 (failed decryption) -
+   * message processors must therefore not swallow this exception.<br>
+   * <b>Security note:</b> the integrity of the content (e.g. the AES-GCM
+   * authentication tag) can only be verified after the last byte was read. The
+   * consumer therefore receives plaintext that is not yet verified and must
+   * not act upon it (e.g. forward or persist it as final) before the stream
+   * was read completely without an exception. This mode must be enabled
+   * explicitly via
+   * {@link com.helger.phase4.config.AS4Configuration#isIncomingAttachmentsStreamingEnabled()}
+   * - otherwise {@link #LAZY_COPY} is used instead.
+   */
+  STREAMING ("streaming"),
+  /**
+   * The decrypted content is copied into a temporary file when it is read for
+   * the first time. All reads use this single copy. Decryption errors only
+   * occur while reading and are handled like in {@link #STREAMING}. As the
+   * whole content is decrypted before the first
+   * byte is handed out, an integrity check failure prevents the consumer from
+   * seeing any content.
+   */
+  LAZY_COPY ("lazy-copy"),
+  /**
+   * The decrypted content is copied into a temporary file directly after the
+   * security header was processed, so that decryption errors are reported
+   * while the security header is processed. This is the default and was the
+   * only behaviour prior to 1.4.4.
+   */
+  EAGER_COPY ("eager-copy");
+
+  public static final EAS4DecryptedAttachmentMode DEFAULT = EAGER_COPY;
+
+  private final String m_sID;
+
+  EAS4DecryptedAttachmentMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if the decrypted content can be read more than
+   *         once in this mode.
+   */
+  public boolean isReadMultiple ()
+  {
+    return this != STREAMING;
+  }
+
+  /**
+   * Get the more conservative of this and the other mode.
+   *
+   * @param eOther
+   *        The other mode. May not be <code>null</code>.
+   * @return The mode that fulfills the requirements of both. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public EAS4DecryptedAttachmentMode getMoreConservative (@Nonnull final EAS4DecryptedAttachmentMode eOther)
+  {
+    return compareTo (eOther) >= 0 ? this : eOther;
+  }
+
+  /**
+   * Get the mode that is effectively used. {@link #STREAMING} is only used if
+   * it is explicitly enabled, because the content is handed out before its
+   * integrity was verified.
+   *
+   * @param bStreamingEnabled
+   *        <code>true</code> if the {@link #STREAMING} mode is enabled,
+   *        <code>false</code> if not.
+   * @return {@link #LAZY_COPY} if this is {@link #STREAMING} and streaming is
+   *         not enabled, this otherwise. Never <code>null</code>.
+   * @see com.helger.phase4.config.AS4Configuration#isIncomingAttachmentsStreamingEnabled()
+   */
+  @Nonnull
+  public EAS4DecryptedAttachmentMode getEffective (final boolean bStreamingEnabled)
+  {
+    return this == STREAMING && !bStreamingEnabled ? LAZY_COPY : this;
+  }
+
+  @Nullable
+  public static EAS4DecryptedAttachmentMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4DecryptedAttachmentMode.class, sID);
+  }
+}
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Map;
 
@@ -29,12 +30,15 @@ import javax.activation.DataHandler;
 import javax.activation.DataSource;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.mail.Header;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
 
 import org.apache.wss4j.common.ext.Attachment;
 import org.slf4j.Logger;
@@ -58,6 +62,7 @@ import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.util.AS4IOHelper;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -159,7 +164,9 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     final InputStream ret = m_aISP.getInputStream ();
     if (ret == null)
       throw new IllegalStateException ("Got no InputStream from " + m_aISP);
-    aResourceHelper.addCloseable (ret);
+    // If the resource helper is already closed (e.g. when reading from an
+    // asynchronous SPI) the caller must close the stream
+    aResourceHelper.addCloseableIfNotClosing (ret);
     return ret;
   }
 
@@ -499,6 +506,9 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     return ret;
   }
 
+  /** The maximum number of bytes of an incoming attachment kept in memory */
+  private static final int MAX_IN_MEMORY_BYTES = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
   /**
    * Check if an incoming attachment can be kept in memory, or if a temporary
    * file is needed.
@@ -509,7 +519,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    */
   public static boolean canBeKeptInMemory (final long nBytes)
   {
-    return nBytes <= 64 * CGlobal.BYTES_PER_KILOBYTE;
+    return nBytes <= MAX_IN_MEMORY_BYTES;
   }
 
   @Nonnull
@@ -606,4 +616,148 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     return ret;
   }
+
+  /**
+   * Get the MIME part body stream with the Content-Transfer-Encoding of the
+   * provided headers decoded on the fly.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The raw MIME part body. May not be <code>null</code>.
+   * @return The decoded stream. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is not supported
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static InputStream getContentTransferDecodedInputStream (@Nonnull final InternetHeaders aHeaders,
+                                                                  @Nonnull final InputStream aBodyIS) throws MessagingException
+  {
+    final String sEncoding = StringHelper.trim (aHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null));
+    return StringHelper.hasText (sEncoding) ? MimeUtility.decode (aBodyIS, sEncoding) : aBodyIS;
+  }
+
+  /**
+   * Create an incoming attachment from the already parsed MIME part headers and
+   * a provider for the already decoded content.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aISP
+   *        The provider of the decoded content. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                          @Nonnull final IHasInputStream aISP,
+                                                          @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aISP, "ISP");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    // Same default as in MimeBodyPart
+    final String sContentType = aHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null);
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, sContentType != null ? sContentType : "text/plain");
+
+    // Reference in Content-ID header is: "<ID>"
+    final String sRealContentID = StringHelper.trimStartAndEnd (aHeaders.getHeader (CHttpHeader.CONTENT_ID, null),
+                                                                '<',
+                                                                '>');
+    ret.setId (sRealContentID);
+    ret.setSourceStreamProvider (aISP);
+
+    // Read all MIME part headers
+    final Enumeration <Header> aEnum = aHeaders.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+
+    // These headers are mandatory and overwrite headers from the MIME body part
+    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
+    ret.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + ret.getId () + CONTENT_ID_SUFFIX);
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+
+    return ret;
+  }
+
+  /**
+   * Create an incoming attachment from the already parsed MIME part headers and
+   * the raw MIME part body. In contrast to
+   * {@link #createIncomingFileAttachment(MimeBodyPart, AS4ResourceHelper)} the
+   * body is never fully read into memory: at most
+   * {@link #canBeKeptInMemory(long)} bytes are buffered and larger bodies are
+   * streamed directly into a temporary file.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The raw (potentially Content-Transfer-Encoded) MIME part body. May
+   *        not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is not supported
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                              @Nonnull @WillClose final InputStream aBodyIS,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws MessagingException,
+                                                                                                           IOException
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aBodyIS, "BodyIS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final IHasInputStream aISP;
+    // Decode the content transfer encoding on the fly
+    try (final InputStream aIS = getContentTransferDecodedInputStream (aHeaders, aBodyIS))
+    {
+      // Read one byte more than allowed, to determine if the threshold is
+      // exceeded
+      final byte [] aBuffer = new byte [MAX_IN_MEMORY_BYTES + 1];
+      final int nBuffered = AS4IOHelper.readFully (aIS, aBuffer, 0, aBuffer.length);
+
+      if (canBeKeptInMemory (nBuffered))
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Keeping WSS4J attachment with " + nBuffered + " bytes in-memory");
+
+        final byte [] aData = Arrays.copyOf (aBuffer, nBuffered);
+        aISP = HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aData));
+      }
+      else
+      {
+        // Write to temp file
+        final File aTempFile = aResHelper.createTempFile ();
+
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Streaming WSS4J attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+        try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+        {
+          aOS.write (aBuffer, 0, nBuffered);
+          StreamHelper.copyInputStreamToOutputStream (aIS, aOS);
+        }
+        aISP = HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile));
+      }
+    }
+
+    final WSS4JAttachment ret = createIncomingAttachment (aHeaders, aISP, aResHelper);
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Finished handling of incoming WSS4J attachment");
+
+    return ret;
+  }
 }
@@ -19,6 +19,8 @@ package com.helger.phase4.client;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -454,23 +456,123 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
     // Create a new message ID for each build!
     final String sMessageID = createMessageID ();
     final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
-    HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
-    final HttpHeaderMap aBuiltHttpHeaders = aBuiltMsg.getCustomHeaders ();
 
+    // Keep the HTTP response status line for external evaluation
+    final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
+    // Keep the HTTP response headers for external evaluation
+    final HttpHeaderMap aResponseHeaders = new HttpHeaderMap ();
+
+    final T aResponseContent = m_aHttpPoster.sendGenericMessageWithRetries (sURL,
+                                                                            aBuiltMsg.getCustomHeaders (),
+                                                                            _getEntityToSend (aBuiltMsg,
+                                                                                              aOutgoingDumper),
+                                                                            sMessageID,
+                                                                            m_aHttpRetrySettings,
+                                                                            _createKeepingResponseHandler (aResponseHandler,
+                                                                                                           aStatusLineKeeper,
+                                                                                                           aResponseHeaders),
+                                                                            aOutgoingDumper,
+                                                                            aRetryCallback);
+    return new AS4ClientSentMessage <> (aBuiltMsg, aStatusLineKeeper.get (), aResponseHeaders, aResponseContent);
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageWithRetries(String, HttpClientResponseHandler, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * The message is built (incl. signing and encryption) in the calling thread.
+   * The HTTP tries are performed in the provided transport executor via
+   * {@link IHttpPoster#sendGenericMessageWithRetriesAsync(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback, Executor)},
+   * so no thread is blocked while waiting for a retry.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain
+   *        object. May not be <code>null</code>.
+   * @param aCallback
+   *        An optional callback for the different stages of building the
+   *        document. May be <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If
+   *        <code>null</code> the global outgoing dumper from
+   *        {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level.
+   *        May be <code>null</code>.
+   * @param aTransportExecutor
+   *        The executor to perform the HTTP tries in. May not be
+   *        <code>null</code>.
+   * @return A future with the sent message. Never <code>null</code>.
+   * @throws IOException
+   *         in case of error when building the message
+   * @throws WSSecurityException
+   *         In case there is an issue with signing/encryption
+   * @throws MessagingException
+   *         in case something happens in MIME wrapping
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final <T> CompletableFuture <AS4ClientSentMessage <T>> sendMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                                             @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                                             @Nullable final IAS4ClientBuildMessageCallback aCallback,
+                                                                                             @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                             @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                                             @Nonnull final Executor aTransportExecutor) throws IOException,
+                                                                                                                                          WSSecurityException,
+                                                                                                                                          MessagingException
+  {
+    ValueEnforcer.notNull (aTransportExecutor, "TransportExecutor");
+
+    // Create a new message ID for each build!
+    final String sMessageID = createMessageID ();
+    final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
+
+    // Keep the HTTP response status line for external evaluation
+    final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
+    // Keep the HTTP response headers for external evaluation
+    final HttpHeaderMap aResponseHeaders = new HttpHeaderMap ();
+
+    final CompletableFuture <T> aResponseContent = m_aHttpPoster.sendGenericMessageWithRetriesAsync (sURL,
+                                                                                                   aBuiltMsg.getCustomHeaders (),
+                                                                                                   _getEntityToSend (aBuiltMsg,
+                                                                                                                     aOutgoingDumper),
+                                                                                                   sMessageID,
+                                                                                                   m_aHttpRetrySettings,
+                                                                                                   _createKeepingResponseHandler (aResponseHandler,
+                                                                                                                                  aStatusLineKeeper,
+                                                                                                                                  aResponseHeaders),
+                                                                                                   aOutgoingDumper,
+                                                                                                   aRetryCallback,
+                                                                                                   aTransportExecutor);
+    return aResponseContent.thenApply (x -> new AS4ClientSentMessage <> (aBuiltMsg,
+                                                                        aStatusLineKeeper.get (),
+                                                                        aResponseHeaders,
+                                                                        x));
+  }
+
+  @Nonnull
+  private HttpEntity _getEntityToSend (@Nonnull final AS4ClientBuiltMessage aBuiltMsg,
+                                       @Nullable final IAS4OutgoingDumper aOutgoingDumper) throws IOException
+  {
+    final HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
     if (m_aHttpRetrySettings.isRetryEnabled () ||
         aOutgoingDumper != null ||
         AS4DumpManager.getOutgoingDumper () != null)
     {
       // Ensure a repeatable entity is provided
-      aBuiltEntity = m_aResHelper.createRepeatableHttpEntity (aBuiltEntity);
+      return m_aResHelper.createRepeatableHttpEntity (aBuiltEntity);
     }
+    return aBuiltEntity;
+  }
 
-    // Keep the HTTP response status line for external evaluation
-    final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
-    // Keep the HTTP response headers for external evaluation
-    final HttpHeaderMap aResponseHeaders = new HttpHeaderMap ();
-
-    final HttpClientResponseHandler <T> aRealResponseHandler = x -> {
+  @Nonnull
+  private static <T> HttpClientResponseHandler <T> _createKeepingResponseHandler (@Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                                  @Nonnull final Wrapper <StatusLine> aStatusLineKeeper,
+                                                                                  @Nonnull final HttpHeaderMap aResponseHeaders)
+  {
+    return x -> {
       // Remember the HTTP response data
       aStatusLineKeeper.set (new StatusLine (x));
       final Header [] aHeaders = x.getHeaders ();
@@ -480,14 +582,5 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
       // Call the original handler
       return aResponseHandler.handleResponse (x);
     };
-    final T aResponseContent = m_aHttpPoster.sendGenericMessageWithRetries (sURL,
-                                                                            aBuiltHttpHeaders,
-                                                                            aBuiltEntity,
-                                                                            sMessageID,
-                                                                            m_aHttpRetrySettings,
-                                                                            aRealResponseHandler,
-                                                                            aOutgoingDumper,
-                                                                            aRetryCallback);
-    return new AS4ClientSentMessage <> (aBuiltMsg, aStatusLineKeeper.get (), aResponseHeaders, aResponseContent);
   }
 }
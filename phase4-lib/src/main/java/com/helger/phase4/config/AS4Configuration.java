@@ -18,6 +18,7 @@ package com.helger.phase4.config;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -61,8 +62,44 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The boolean property to run synchronized WSS4J actions concurrently
+   * instead of one after the other. Only evaluated if
+   * {@link #PROPERTY_PHASE4_WSS4J_SYNCSECURITY} is enabled.
+   *
+   * @since 1.4.4
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = "phase4.wss4j.syncsecurity.concurrent";
+  public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = false;
+
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  /**
+   * The boolean property to enable the reuse of pooled HTTP clients for
+   * outgoing messages.
+   *
+   * @since 1.4.4
+   */
+  public static final String PROPERTY_PHASE4_HTTP_POOLING_ENABLED = "phase4.http.pooling.enabled";
+  public static final boolean DEFAULT_PHASE4_HTTP_POOLING_ENABLED = false;
+  public static final String PROPERTY_PHASE4_HTTP_CIRCUITBREAKER_ENABLED = "phase4.http.circuitbreaker.enabled";
+  public static final boolean DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_ENABLED = false;
+  public static final String PROPERTY_PHASE4_HTTP_RETRYBUDGET_ENABLED = "phase4.http.retrybudget.enabled";
+  public static final boolean DEFAULT_PHASE4_HTTP_RETRYBUDGET_ENABLED = false;
+  public static final String PROPERTY_PHASE4_INCOMING_PRESCAN_ENABLED = "phase4.incoming.prescan.enabled";
+  public static final boolean DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED = false;
+  public static final String PROPERTY_PHASE4_INCOMING_ATTACHMENTS_STREAMING_ENABLED = "phase4.incoming.attachments.streaming.enabled";
+  public static final boolean DEFAULT_PHASE4_INCOMING_ATTACHMENTS_STREAMING_ENABLED = false;
+  public static final String PROPERTY_PHASE4_INCOMING_DUPLICATE_BUCKETED = "phase4.incoming.duplicate.bucketed";
+  public static final boolean DEFAULT_PHASE4_INCOMING_DUPLICATE_BUCKETED = false;
+  public static final String PROPERTY_PHASE4_INCOMING_DUPLICATE_FILTER_ENABLED = "phase4.incoming.duplicate.filter.enabled";
+  public static final boolean DEFAULT_PHASE4_INCOMING_DUPLICATE_FILTER_ENABLED = false;
+  public static final String PROPERTY_PHASE4_PMODE_JSON_DIRECTORY = "phase4.pmode.json.directory";
+  public static final String PROPERTY_PHASE4_PMODE_JSON_WATCH = "phase4.pmode.json.watch";
+  public static final boolean DEFAULT_PHASE4_PMODE_JSON_WATCH = true;
+  public static final String PROPERTY_PHASE4_RECEIVER_VIRTUALTHREADS_ENABLED = "phase4.receiver.virtualthreads.enabled";
+  public static final boolean DEFAULT_PHASE4_RECEIVER_VIRTUALTHREADS_ENABLED = false;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -111,6 +148,10 @@ public final class AS4Configuration
   private static final IConfig DEFAULT_INSTANCE = Config.create (VP);
   private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
   private static IConfig s_aConfig = DEFAULT_INSTANCE;
+  private static final AtomicLong SNAPSHOT_VERSION = new AtomicLong (0);
+  // Read without locking on the hot paths
+  private static volatile AS4ConfigurationSnapshot s_aSnapshot = new AS4ConfigurationSnapshot (DEFAULT_INSTANCE,
+                                                                                               SNAPSHOT_VERSION.incrementAndGet ());
 
   private AS4Configuration ()
   {}
@@ -150,6 +191,7 @@ public final class AS4Configuration
     {
       ret = s_aConfig;
       s_aConfig = aNewConfig;
+      s_aSnapshot = new AS4ConfigurationSnapshot (aNewConfig, SNAPSHOT_VERSION.incrementAndGet ());
     }
     finally
     {
@@ -161,6 +203,38 @@ public final class AS4Configuration
     return ret;
   }
 
+  /**
+   * @return The snapshot of the configuration values that are queried per
+   *         message. It is recreated with every call to
+   *         {@link #setConfig(IConfig)}. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static AS4ConfigurationSnapshot getSnapshot ()
+  {
+    return s_aSnapshot;
+  }
+
+  /**
+   * Re-evaluate the configuration snapshot from the current configuration.
+   * This is only needed if the values of the current {@link IConfig} were
+   * changed without calling {@link #setConfig(IConfig)}, e.g. after reloading
+   * the underlying configuration resources.
+   *
+   * @return The new snapshot. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static AS4ConfigurationSnapshot refreshSnapshot ()
+  {
+    return RW_LOCK.writeLockedGet ( () -> {
+      final AS4ConfigurationSnapshot ret = new AS4ConfigurationSnapshot (s_aConfig,
+                                                                         SNAPSHOT_VERSION.incrementAndGet ());
+      s_aSnapshot = ret;
+      return ret;
+    });
+  }
+
   /**
    * @return <code>true</code> to enable the global debugging mode.
    */
@@ -218,15 +292,22 @@ public final class AS4Configuration
    */
   public static boolean isWSS4JSynchronizedSecurity ()
   {
-    if (false)
-    {
-      // This should work, but doesn't in all cases
-      return getConfig ().getAsBoolean (PROPERTY_PHASE4_WSS4J_SYNCSECURITY, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
-    }
+    return getSnapshot ().isWSS4JSynchronizedSecurity ();
+  }
 
-    // Parse manually
-    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_SYNCSECURITY);
-    return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
+  /**
+   * @return <code>true</code> if the synchronized WSS4J actions should not be
+   *         serialized by a global lock, but may run in parallel. The global
+   *         WSS4J initialization is still performed exactly once for all
+   *         parallel actions. This is only relevant if
+   *         {@link #isWSS4JSynchronizedSecurity()} returns <code>true</code>.
+   *         The configuration item is
+   *         <code>phase4.wss4j.syncsecurity.concurrent</code>.
+   * @since 1.4.4
+   */
+  public static boolean isWSS4JSynchronizedSecurityConcurrent ()
+  {
+    return getSnapshot ().isWSS4JSynchronizedSecurityConcurrent ();
   }
 
   /**
@@ -252,6 +333,144 @@ public final class AS4Configuration
                                    DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES);
   }
 
+  /**
+   * @return <code>true</code> if outgoing HTTP messages should be sent via
+   *         long-lived, pooled HTTP clients instead of a new HTTP client per
+   *         transmission. Taken from the configuration item
+   *         <code>phase4.http.pooling.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isHttpPoolingEnabled ()
+  {
+    return getSnapshot ().isHttpPoolingEnabled ();
+  }
+
+  /**
+   * @return <code>true</code> if outgoing HTTP messages should be guarded by
+   *         a circuit breaker per destination URL. Taken from the configuration
+   *         item <code>phase4.http.circuitbreaker.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isHttpCircuitBreakerEnabled ()
+  {
+    return getSnapshot ().isHttpCircuitBreakerEnabled ();
+  }
+
+  /**
+   * @return <code>true</code> if HTTP retries should be limited by a global
+   *         retry budget. Taken from the configuration item
+   *         <code>phase4.http.retrybudget.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isHttpRetryBudgetEnabled ()
+  {
+    return getSnapshot ().isHttpRetryBudgetEnabled ();
+  }
+
+  /**
+   * @return <code>true</code> if the ebMS header of incoming messages should
+   *         be pre-scanned via StAX, to reject duplicates and messages with
+   *         unknown PModes before signature verification and decryption.
+   *         Taken from the configuration item
+   *         <code>phase4.incoming.prescan.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isIncomingPreScanEnabled ()
+  {
+    return getSnapshot ().isIncomingPreScanEnabled ();
+  }
+
+  /**
+   * @return <code>true</code> if message processors may receive decrypted
+   *         attachments in the
+   *         {@link com.helger.phase4.attachment.EAS4DecryptedAttachmentMode#STREAMING}
+   *         mode. In this mode the decrypted content is handed out before its
+   *         integrity was verified. Taken from the configuration item
+   *         <code>phase4.incoming.attachments.streaming.enabled</code>.
+   *         Defaults to <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isIncomingAttachmentsStreamingEnabled ()
+  {
+    return getSnapshot ().isIncomingAttachmentsStreamingEnabled ();
+  }
+
+  /**
+   * @return <code>true</code> if the time bucketed duplicate manager with a
+   *         binary journal should be used instead of the XML based one, if
+   *         file system persistence is used. Taken from the configuration item
+   *         <code>phase4.incoming.duplicate.bucketed</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isIncomingDuplicateBucketed ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_DUPLICATE_BUCKETED);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_DUPLICATE_BUCKETED);
+  }
+
+  /**
+   * @return <code>true</code> if a Bloom filter should be used in front of the
+   *         incoming duplicate manager, so that only probable duplicates are
+   *         checked against the duplicate manager. Taken from the
+   *         configuration item
+   *         <code>phase4.incoming.duplicate.filter.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isIncomingDuplicateFilterEnabled ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_DUPLICATE_FILTER_ENABLED);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_DUPLICATE_FILTER_ENABLED);
+  }
+
+  /**
+   * @return The directory to read the PModes from as JSON files. Taken from
+   *         the configuration item <code>phase4.pmode.json.directory</code>. If
+   *         present, the manager factories use a
+   *         {@link com.helger.phase4.model.pmode.PModeManagerJsonDirectory}.
+   *         May be <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nullable
+  public static String getPModeJsonDirectory ()
+  {
+    return getConfig ().getAsString (PROPERTY_PHASE4_PMODE_JSON_DIRECTORY);
+  }
+
+  /**
+   * @return <code>true</code> if the PMode JSON directory should be watched
+   *         for changes. Taken from the configuration item
+   *         <code>phase4.pmode.json.watch</code>. Defaults to
+   *         <code>true</code>.
+   * @since 1.4.4
+   */
+  public static boolean isPModeJsonWatch ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_PMODE_JSON_WATCH);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_PMODE_JSON_WATCH);
+  }
+
+  /**
+   * @return <code>true</code> if the receiver should use virtual threads for
+   *         the SPI invocation and the asynchronous responses, if the runtime
+   *         supports them. Taken from the configuration item
+   *         <code>phase4.receiver.virtualthreads.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.4
+   */
+  public static boolean isReceiverVirtualThreadsEnabled ()
+  {
+    return getSnapshot ().isReceiverVirtualThreadsEnabled ();
+  }
+
   /**
    * @return The dumping base path. Taken from the configuration item
    *         <code>phase4.dump.path</code>.
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.config;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.config.IConfig;
+
+/**
+ * An immutable snapshot of all phase4 configuration values that are queried
+ * per message. Evaluating them from a multi-source {@link IConfig} on each
+ * access is comparatively expensive, so {@link AS4Configuration} creates a new
+ * snapshot every time the configuration is changed via
+ * {@link AS4Configuration#setConfig(IConfig)} or
+ * {@link AS4Configuration#refreshSnapshot()}.<br>
+ * Note: this class should not depend on any other phase4 class to avoid
+ * startup issues, and cyclic dependencies.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@Immutable
+public final class AS4ConfigurationSnapshot
+{
+  /**
+   * The configuration key of the WSS4J RSA 1.5 key transport flag. Must be
+   * identical to
+   * {@link com.helger.phase4.crypto.AS4CryptoProperties#ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM}.
+   */
+  public static final String PROPERTY_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM = "org.apache.wss4j.dom.handler.RequestData.allowRSA15KeyTransportAlgorithm";
+  /**
+   * Must be identical to
+   * {@link com.helger.phase4.crypto.IAS4CryptoFactory#DEFAULT_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM}.
+   */
+  public static final boolean DEFAULT_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM = false;
+
+  private final long m_nVersion;
+  private final boolean m_bWSS4JSynchronizedSecurity;
+  private final boolean m_bWSS4JSynchronizedSecurityConcurrent;
+  private final boolean m_bAllowRSA15KeyTransportAlgorithm;
+  private final boolean m_bHttpPoolingEnabled;
+  private final boolean m_bHttpCircuitBreakerEnabled;
+  private final boolean m_bHttpRetryBudgetEnabled;
+  private final boolean m_bIncomingPreScanEnabled;
+  private final boolean m_bIncomingAttachmentsStreamingEnabled;
+  private final boolean m_bReceiverVirtualThreadsEnabled;
+
+  private static boolean _getBool (@Nonnull final IConfig aConfig, @Nonnull final String sKey, final boolean bDefault)
+  {
+    // Parse manually
+    final String sValue = aConfig.getAsString (sKey);
+    return StringParser.parseBool (sValue, bDefault);
+  }
+
+  /**
+   * Constructor that evaluates all values from the provided configuration.
+   *
+   * @param aConfig
+   *        The configuration to read from. May not be <code>null</code>.
+   * @param nVersion
+   *        The version of this snapshot. Increases with every change.
+   */
+  public AS4ConfigurationSnapshot (@Nonnull final IConfig aConfig, final long nVersion)
+  {
+    ValueEnforcer.notNull (aConfig, "Config");
+    m_nVersion = nVersion;
+    m_bWSS4JSynchronizedSecurity = _getBool (aConfig,
+                                             AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY,
+                                             AS4Configuration.DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
+    m_bWSS4JSynchronizedSecurityConcurrent = _getBool (aConfig,
+                                                       AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT,
+                                                       AS4Configuration.DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT);
+    m_bAllowRSA15KeyTransportAlgorithm = _getBool (aConfig,
+                                                   PROPERTY_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM,
+                                                   DEFAULT_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM);
+    m_bHttpPoolingEnabled = _getBool (aConfig,
+                                      AS4Configuration.PROPERTY_PHASE4_HTTP_POOLING_ENABLED,
+                                      AS4Configuration.DEFAULT_PHASE4_HTTP_POOLING_ENABLED);
+    m_bHttpCircuitBreakerEnabled = _getBool (aConfig,
+                                             AS4Configuration.PROPERTY_PHASE4_HTTP_CIRCUITBREAKER_ENABLED,
+                                             AS4Configuration.DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_ENABLED);
+    m_bHttpRetryBudgetEnabled = _getBool (aConfig,
+                                          AS4Configuration.PROPERTY_PHASE4_HTTP_RETRYBUDGET_ENABLED,
+                                          AS4Configuration.DEFAULT_PHASE4_HTTP_RETRYBUDGET_ENABLED);
+    m_bIncomingPreScanEnabled = _getBool (aConfig,
+                                          AS4Configuration.PROPERTY_PHASE4_INCOMING_PRESCAN_ENABLED,
+                                          AS4Configuration.DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED);
+    m_bIncomingAttachmentsStreamingEnabled = _getBool (aConfig,
+                                                       AS4Configuration.PROPERTY_PHASE4_INCOMING_ATTACHMENTS_STREAMING_ENABLED,
+                                                       AS4Configuration.DEFAULT_PHASE4_INCOMING_ATTACHMENTS_STREAMING_ENABLED);
+    m_bReceiverVirtualThreadsEnabled = _getBool (aConfig,
+                                                 AS4Configuration.PROPERTY_PHASE4_RECEIVER_VIRTUALTHREADS_ENABLED,
+                                                 AS4Configuration.DEFAULT_PHASE4_RECEIVER_VIRTUALTHREADS_ENABLED);
+  }
+
+  /**
+   * @return The version of this snapshot. Each new snapshot has a higher
+   *         version than the previous one.
+   */
+  public long getVersion ()
+  {
+    return m_nVersion;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_WSS4J_SYNCSECURITY}.
+   */
+  public boolean isWSS4JSynchronizedSecurity ()
+  {
+    return m_bWSS4JSynchronizedSecurity;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT}.
+   */
+  public boolean isWSS4JSynchronizedSecurityConcurrent ()
+  {
+    return m_bWSS4JSynchronizedSecurityConcurrent;
+  }
+
+  /**
+   * @return The value of {@link #PROPERTY_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM}.
+   */
+  public boolean isAllowRSA15KeyTransportAlgorithm ()
+  {
+    return m_bAllowRSA15KeyTransportAlgorithm;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_HTTP_POOLING_ENABLED}.
+   */
+  public boolean isHttpPoolingEnabled ()
+  {
+    return m_bHttpPoolingEnabled;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_HTTP_CIRCUITBREAKER_ENABLED}.
+   */
+  public boolean isHttpCircuitBreakerEnabled ()
+  {
+    return m_bHttpCircuitBreakerEnabled;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_HTTP_RETRYBUDGET_ENABLED}.
+   */
+  public boolean isHttpRetryBudgetEnabled ()
+  {
+    return m_bHttpRetryBudgetEnabled;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_INCOMING_PRESCAN_ENABLED}.
+   */
+  public boolean isIncomingPreScanEnabled ()
+  {
+    return m_bIncomingPreScanEnabled;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_INCOMING_ATTACHMENTS_STREAMING_ENABLED}.
+   */
+  public boolean isIncomingAttachmentsStreamingEnabled ()
+  {
+    return m_bIncomingAttachmentsStreamingEnabled;
+  }
+
+  /**
+   * @return The value of
+   *         {@link AS4Configuration#PROPERTY_PHASE4_RECEIVER_VIRTUALTHREADS_ENABLED}.
+   */
+  public boolean isReceiverVirtualThreadsEnabled ()
+  {
+    return m_bReceiverVirtualThreadsEnabled;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Version", m_nVersion)
+                                       .append ("WSS4JSynchronizedSecurity", m_bWSS4JSynchronizedSecurity)
+                                       .append ("WSS4JSynchronizedSecurityConcurrent",
+                                                m_bWSS4JSynchronizedSecurityConcurrent)
+                                       .append ("AllowRSA15KeyTransportAlgorithm", m_bAllowRSA15KeyTransportAlgorithm)
+                                       .append ("HttpPoolingEnabled", m_bHttpPoolingEnabled)
+                                       .append ("HttpCircuitBreakerEnabled", m_bHttpCircuitBreakerEnabled)
+                                       .append ("HttpRetryBudgetEnabled", m_bHttpRetryBudgetEnabled)
+                                       .append ("IncomingPreScanEnabled", m_bIncomingPreScanEnabled)
+                                       .append ("IncomingAttachmentsStreamingEnabled",
+                                                m_bIncomingAttachmentsStreamingEnabled)
+                                       .append ("ReceiverVirtualThreadsEnabled", m_bReceiverVirtualThreadsEnabled)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+
+/**
+ * Writes dumps asynchronously in background threads. The thread creating the
+ * dump only writes into a memory buffer. When the dump stream is closed, the
+ * buffer is handed to a queue that is bounded both by the number of dumps and
+ * by the total number of buffered bytes. The background writers take batches
+ * of dumps from the queue, write all files of a batch and afterwards sync all
+ * of them to disk at once.<br>
+ * If the queue is full, the {@link EAS4DumpOverflowPolicy} decides what
+ * happens. Dumps that are larger than the maximum buffer size are written
+ * synchronously to avoid unlimited memory usage.<br>
+ * This class must be closed to write the pending dumps. Dumps closed after
+ * this class was closed are written synchronously.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4AsyncDumpWriter implements AutoCloseable
+{
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+  public static final int DEFAULT_WRITER_THREADS = 1;
+  public static final int DEFAULT_BATCH_SIZE = 64;
+  public static final int DEFAULT_MAX_BUFFER_BYTES = 4 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_MAX_QUEUED_BYTES = 64 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final EAS4DumpOverflowPolicy DEFAULT_OVERFLOW_POLICY = EAS4DumpOverflowPolicy.BLOCK;
+  public static final boolean DEFAULT_SYNC = true;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncDumpWriter.class);
+
+  private static final class Job
+  {
+    private final File m_aFile;
+    private final NonBlockingByteArrayOutputStream m_aBuffer;
+
+    Job (@Nonnull final File aFile, @Nonnull final NonBlockingByteArrayOutputStream aBuffer)
+    {
+      m_aFile = aFile;
+      m_aBuffer = aBuffer;
+    }
+  }
+
+  /**
+   * The output stream handed to the dumpers. Buffers in memory and switches to
+   * direct writing if the buffer grows too large.
+   */
+  private final class AsyncDumpOutputStream extends OutputStream
+  {
+    private final File m_aFile;
+    private NonBlockingByteArrayOutputStream m_aBuffer = new NonBlockingByteArrayOutputStream ();
+    private FileOutputStream m_aDirectOS;
+    private boolean m_bClosed = false;
+
+    AsyncDumpOutputStream (@Nonnull final File aFile)
+    {
+      m_aFile = aFile;
+    }
+
+    @Nonnull
+    private OutputStream _getTarget (final int nAdditionalBytes) throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("Dump stream for '" + m_aFile.getAbsolutePath () + "' is already closed");
+
+      if (m_aDirectOS == null && m_aBuffer.size () + (long) nAdditionalBytes > m_nMaxBufferBytes)
+      {
+        // Too large for the queue
+        m_aDirectOS = _openFile (m_aFile);
+        m_aBuffer.writeTo (m_aDirectOS);
+        m_aBuffer = null;
+        m_aDirectCount.incrementAndGet ();
+      }
+      return m_aDirectOS != null ? m_aDirectOS : m_aBuffer;
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      _getTarget (1).write (b);
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      _getTarget (nLen).write (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+
+      if (m_aDirectOS != null)
+      {
+        try
+        {
+          if (m_bSync)
+            m_aDirectOS.getFD ().sync ();
+        }
+        finally
+        {
+          m_aDirectOS.close ();
+        }
+      }
+      else
+        _enqueue (new Job (m_aFile, m_aBuffer));
+    }
+  }
+
+  private final int m_nMaxBufferBytes;
+  private final int m_nMaxQueuedBytes;
+  private final int m_nBatchSize;
+  private final EAS4DumpOverflowPolicy m_eOverflowPolicy;
+  private final boolean m_bSync;
+  private final BlockingQueue <Job> m_aQueue;
+  // One permit per queued byte
+  private final Semaphore m_aQueuedBytesPermits;
+  private final ICommonsList <Thread> m_aWriterThreads = new CommonsArrayList <> ();
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+  private final AtomicLong m_aQueuedBytes = new AtomicLong (0);
+  private final AtomicLong m_aWrittenCount = new AtomicLong (0);
+  private final AtomicLong m_aDroppedCount = new AtomicLong (0);
+  private final AtomicLong m_aSpilledCount = new AtomicLong (0);
+  private final AtomicLong m_aDirectCount = new AtomicLong (0);
+  private final AtomicLong m_aErrorCount = new AtomicLong (0);
+
+  /**
+   * Constructor with default settings.
+   */
+  public AS4AsyncDumpWriter ()
+  {
+    this (DEFAULT_QUEUE_CAPACITY,
+          DEFAULT_MAX_QUEUED_BYTES,
+          DEFAULT_WRITER_THREADS,
+          DEFAULT_BATCH_SIZE,
+          DEFAULT_MAX_BUFFER_BYTES,
+          DEFAULT_OVERFLOW_POLICY,
+          DEFAULT_SYNC);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nQueueCapacity
+   *        The maximum number of dumps waiting to be written. Must be &gt; 0.
+   * @param nMaxQueuedBytes
+   *        The maximum total number of bytes of all dumps waiting to be
+   *        written. Must be &ge; nMaxBufferBytes.
+   * @param nWriterThreads
+   *        The number of background writer threads. Must be &gt; 0.
+   * @param nBatchSize
+   *        The maximum number of dumps a writer handles at once. Must be &gt;
+   *        0.
+   * @param nMaxBufferBytes
+   *        The maximum number of bytes of a single dump to be buffered in
+   *        memory. Larger dumps are written synchronously. Must be &gt; 0.
+   * @param eOverflowPolicy
+   *        What to do if the queue is full. May not be <code>null</code>.
+   * @param bSync
+   *        <code>true</code> to sync the written files to disk,
+   *        <code>false</code> to leave this up to the operating system.
+   */
+  public AS4AsyncDumpWriter (@Nonnegative final int nQueueCapacity,
+                             @Nonnegative final int nMaxQueuedBytes,
+                             @Nonnegative final int nWriterThreads,
+                             @Nonnegative final int nBatchSize,
+                             @Nonnegative final int nMaxBufferBytes,
+                             @Nonnull final EAS4DumpOverflowPolicy eOverflowPolicy,
+                             final boolean bSync)
+  {
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nWriterThreads, "WriterThreads");
+    ValueEnforcer.isGT0 (nBatchSize, "BatchSize");
+    ValueEnforcer.isGT0 (nMaxBufferBytes, "MaxBufferBytes");
+    ValueEnforcer.isTrue (nMaxQueuedBytes >= nMaxBufferBytes, "MaxQueuedBytes must be >= MaxBufferBytes");
+    ValueEnforcer.notNull (eOverflowPolicy, "OverflowPolicy");
+
+    m_nMaxBufferBytes = nMaxBufferBytes;
+    m_nMaxQueuedBytes = nMaxQueuedBytes;
+    m_nBatchSize = nBatchSize;
+    m_eOverflowPolicy = eOverflowPolicy;
+    m_bSync = bSync;
+    m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+    m_aQueuedBytesPermits = new Semaphore (nMaxQueuedBytes);
+
+    for (int i = 0; i < nWriterThreads; ++i)
+    {
+      final Thread t = new Thread (this::_runWriter, CAS4.LIB_NAME + "-dump-writer-" + (i + 1));
+      t.setDaemon (true);
+      t.start ();
+      m_aWriterThreads.add (t);
+    }
+  }
+
+  @Nonnull
+  private static FileOutputStream _openFile (@Nonnull final File aFile) throws IOException
+  {
+    final File aParent = aFile.getParentFile ();
+    if (aParent != null)
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aParent);
+    return new FileOutputStream (aFile);
+  }
+
+  private void _onDequeued (@Nonnull final Job aJob)
+  {
+    final int nSize = aJob.m_aBuffer.size ();
+    m_aQueuedBytes.addAndGet (-nSize);
+    m_aQueuedBytesPermits.release (nSize);
+  }
+
+  private void _handleOverflow (@Nonnull final Job aJob) throws IOException
+  {
+    switch (m_eOverflowPolicy)
+    {
+      case DROP:
+        m_aDroppedCount.incrementAndGet ();
+        LOGGER.warn ("Dump queue is full - dropping dump to '" + aJob.m_aFile.getAbsolutePath () + "'");
+        return;
+      case SPILL:
+        m_aSpilledCount.incrementAndGet ();
+        _writeSync (aJob);
+        return;
+      default:
+        throw new IllegalStateException ("Unsupported overflow policy " + m_eOverflowPolicy);
+    }
+  }
+
+  private void _enqueue (@Nonnull final Job aJob) throws IOException
+  {
+    if (m_aClosed.get ())
+    {
+      // No more background writing
+      _writeSync (aJob);
+      return;
+    }
+
+    final int nSize = aJob.m_aBuffer.size ();
+    if (m_eOverflowPolicy == EAS4DumpOverflowPolicy.BLOCK)
+    {
+      try
+      {
+        // Wait for both, the bytes and the queue slot
+        m_aQueuedBytesPermits.acquire (nSize);
+        m_aQueuedBytes.addAndGet (nSize);
+        try
+        {
+          m_aQueue.put (aJob);
+        }
+        catch (final InterruptedException ex)
+        {
+          _onDequeued (aJob);
+          throw ex;
+        }
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new IOException ("Interrupted while waiting to dump to '" + aJob.m_aFile.getAbsolutePath () + "'", ex);
+      }
+    }
+    else
+    {
+      if (!m_aQueuedBytesPermits.tryAcquire (nSize))
+      {
+        _handleOverflow (aJob);
+        return;
+      }
+      m_aQueuedBytes.addAndGet (nSize);
+      if (!m_aQueue.offer (aJob))
+      {
+        _onDequeued (aJob);
+        _handleOverflow (aJob);
+        return;
+      }
+    }
+
+    // close() may have drained the queue in the meantime - if the job can
+    // still be removed, nobody else will write it
+    if (m_aClosed.get () && m_aQueue.remove (aJob))
+    {
+      _onDequeued (aJob);
+      _writeSync (aJob);
+    }
+  }
+
+  private void _writeSync (@Nonnull final Job aJob) throws IOException
+  {
+    try (final FileOutputStream aFOS = _openFile (aJob.m_aFile))
+    {
+      aJob.m_aBuffer.writeTo (aFOS);
+      if (m_bSync)
+        aFOS.getFD ().sync ();
+    }
+    m_aWrittenCount.incrementAndGet ();
+  }
+
+  private void _writeBatch (@Nonnull final ICommonsList <Job> aBatch)
+  {
+    final ICommonsList <FileOutputStream> aOpenStreams = new CommonsArrayList <> (aBatch.size ());
+    try
+    {
+      // Write all first
+      for (final Job aJob : aBatch)
+      {
+        try
+        {
+          final FileOutputStream aFOS = _openFile (aJob.m_aFile);
+          aOpenStreams.add (aFOS);
+          aJob.m_aBuffer.writeTo (aFOS);
+          m_aWrittenCount.incrementAndGet ();
+        }
+        catch (final IOException ex)
+        {
+          m_aErrorCount.incrementAndGet ();
+          LOGGER.error ("Failed to write dump to '" + aJob.m_aFile.getAbsolutePath () + "'", ex);
+        }
+      }
+
+      // Sync all at once
+      if (m_bSync)
+        for (final FileOutputStream aFOS : aOpenStreams)
+        {
+          try
+          {
+            aFOS.getFD ().sync ();
+          }
+          catch (final IOException ex)
+          {
+            m_aErrorCount.incrementAndGet ();
+            LOGGER.error ("Failed to sync dump file", ex);
+          }
+        }
+    }
+    finally
+    {
+      for (final FileOutputStream aFOS : aOpenStreams)
+        StreamHelper.close (aFOS);
+      for (final Job aJob : aBatch)
+        _onDequeued (aJob);
+    }
+  }
+
+  private void _runWriter ()
+  {
+    final ICommonsList <Job> aBatch = new CommonsArrayList <> (m_nBatchSize);
+    while (true)
+    {
+      try
+      {
+        final Job aFirst = m_aQueue.poll (100, TimeUnit.MILLISECONDS);
+        if (aFirst == null)
+        {
+          if (m_aClosed.get () && m_aQueue.isEmpty ())
+            break;
+          continue;
+        }
+        aBatch.add (aFirst);
+        m_aQueue.drainTo (aBatch, m_nBatchSize - 1);
+        _writeBatch (aBatch);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        break;
+      }
+      catch (final RuntimeException ex)
+      {
+        m_aErrorCount.incrementAndGet ();
+        LOGGER.error ("Error in dump writer", ex);
+      }
+      finally
+      {
+        aBatch.clear ();
+      }
+    }
+  }
+
+  /**
+   * Open a new dump stream for the provided file. The data is written when
+   * the returned stream is closed.
+   *
+   * @param aFile
+   *        The file to dump to. May not be <code>null</code>.
+   * @return A new output stream that must be closed by the caller. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public OutputStream openStream (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    return new AsyncDumpOutputStream (aFile);
+  }
+
+  /**
+   * @return The overflow policy used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4DumpOverflowPolicy getOverflowPolicy ()
+  {
+    return m_eOverflowPolicy;
+  }
+
+  /**
+   * @return The number of dumps waiting to be written. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getQueueDepth ()
+  {
+    return m_aQueue.size ();
+  }
+
+  /**
+   * @return The maximum total number of bytes waiting to be written. Always
+   *         &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxQueuedBytes ()
+  {
+    return m_nMaxQueuedBytes;
+  }
+
+  /**
+   * @return The number of bytes waiting to be written. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getQueuedBytes ()
+  {
+    return m_aQueuedBytes.get ();
+  }
+
+  /**
+   * @return The number of dumps written via the queue or via
+   *         {@link EAS4DumpOverflowPolicy#SPILL}. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getWrittenCount ()
+  {
+    return m_aWrittenCount.get ();
+  }
+
+  /**
+   * @return The number of dumps dropped because of
+   *         {@link EAS4DumpOverflowPolicy#DROP}. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getDroppedCount ()
+  {
+    return m_aDroppedCount.get ();
+  }
+
+  /**
+   * @return The number of dumps written synchronously because of
+   *         {@link EAS4DumpOverflowPolicy#SPILL}. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getSpilledCount ()
+  {
+    return m_aSpilledCount.get ();
+  }
+
+  /**
+   * @return The number of dumps written synchronously because they exceeded
+   *         the maximum buffer size. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getDirectCount ()
+  {
+    return m_aDirectCount.get ();
+  }
+
+  /**
+   * @return The number of dumps that could not be written. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getErrorCount ()
+  {
+    return m_aErrorCount.get ();
+  }
+
+  /**
+   * Stop accepting new dumps for the queue, write all pending dumps and wait
+   * for the writer threads to finish. Dumps closed afterwards are written
+   * synchronously - no dump is silently lost.
+   */
+  public void close ()
+  {
+    if (m_aClosed.compareAndSet (false, true))
+    {
+      for (final Thread t : m_aWriterThreads)
+      {
+        try
+        {
+          t.join ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          break;
+        }
+      }
+
+      // Anything that was queued while shutting down
+      Job aJob;
+      while ((aJob = m_aQueue.poll ()) != null)
+      {
+        _onDequeued (aJob);
+        try
+        {
+          _writeSync (aJob);
+        }
+        catch (final IOException ex)
+        {
+          m_aErrorCount.incrementAndGet ();
+          LOGGER.error ("Failed to write dump to '" + aJob.m_aFile.getAbsolutePath () + "'", ex);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxBufferBytes", m_nMaxBufferBytes)
+                                       .append ("MaxQueuedBytes", m_nMaxQueuedBytes)
+                                       .append ("BatchSize", m_nBatchSize)
+                                       .append ("OverflowPolicy", m_eOverflowPolicy)
+                                       .append ("Sync", m_bSync)
+                                       .append ("QueueDepth", m_aQueue.size ())
+                                       .getToString ();
+  }
+}
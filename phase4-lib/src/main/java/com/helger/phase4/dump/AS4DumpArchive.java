@@ -0,0 +1,753 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An append-only archive for dumps, as an alternative to one file per
+ * message. The dumps are written into segments. A new segment is started when
+ * the current segment exceeds a maximum size or a maximum age, and whenever
+ * the archive is opened.<br>
+ * Each dump is compressed on its own as a GZIP member, so that it can be read
+ * without reading the rest of the segment. Each segment consists of two files:
+ * <ul>
+ * <li><code>*.as4seg</code> contains the compressed dumps</li>
+ * <li><code>*.as4idx</code> contains one index record per dump, with the
+ * AS4 message ID, the incoming unique ID and the position in the segment
+ * file</li>
+ * </ul>
+ * A truncated last index record (e.g. from a crash while writing) is ignored.
+ * If appending a dump fails, the segment is truncated to the last complete
+ * dump and a new segment is started for the next dump.<br>
+ * The lookups by message ID and incoming unique ID scan the segment index
+ * files. Only the index of the current segment and of a limited number of
+ * recently used segments are kept in memory, so the memory usage does not
+ * grow with the number of archived dumps.<br>
+ * The retention is handled on segment level via
+ * {@link #deleteSegmentsOlderThan(Instant)}.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DumpArchive implements AutoCloseable
+{
+  public static final String SEGMENT_EXTENSION = ".as4seg";
+  public static final String INDEX_EXTENSION = ".as4idx";
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * CGlobal.BYTES_PER_MEGABYTE;
+  public static final Duration DEFAULT_MAX_SEGMENT_DURATION = Duration.ofHours (1);
+  public static final int DEFAULT_MAX_CACHED_SEGMENT_INDICES = 16;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpArchive.class);
+  private static final int INDEX_MAGIC = 0x50344449;
+
+  /**
+   * The lookup index of a single segment.
+   */
+  private static final class SegmentIndex
+  {
+    private final ICommonsMap <String, ICommonsList <AS4DumpArchiveEntry>> m_aEntriesByMessageID = new CommonsHashMap <> ();
+    private final ICommonsMap <String, AS4DumpArchiveEntry> m_aEntryByIncomingUniqueID = new CommonsHashMap <> ();
+
+    void add (@Nonnull final AS4DumpArchiveEntry aEntry)
+    {
+      final String sMessageID = aEntry.getMessageID ();
+      if (StringHelper.hasText (sMessageID))
+        m_aEntriesByMessageID.computeIfAbsent (sMessageID, k -> new CommonsArrayList <> (1)).add (aEntry);
+
+      // Entries are added in order - keep the oldest one
+      final String sIncomingUniqueID = aEntry.getIncomingUniqueID ();
+      if (StringHelper.hasText (sIncomingUniqueID))
+        m_aEntryByIncomingUniqueID.putIfAbsent (sIncomingUniqueID, aEntry);
+    }
+
+    @Nullable
+    ICommonsList <AS4DumpArchiveEntry> getAllByMessageID (@Nonnull final String sMessageID)
+    {
+      return m_aEntriesByMessageID.get (sMessageID);
+    }
+
+    @Nullable
+    AS4DumpArchiveEntry getByIncomingUniqueID (@Nonnull final String sIncomingUniqueID)
+    {
+      return m_aEntryByIncomingUniqueID.get (sIncomingUniqueID);
+    }
+  }
+
+  private final File m_aDirectory;
+  private final long m_nMaxSegmentBytes;
+  private final Duration m_aMaxSegmentDuration;
+  private final int m_nMaxCachedSegmentIndices;
+  private final AtomicInteger m_aSegmentCounter = new AtomicInteger (0);
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private String m_sSegmentName;
+  @GuardedBy ("m_aLock")
+  private Instant m_aSegmentStartDT;
+  @GuardedBy ("m_aLock")
+  private FileOutputStream m_aSegmentFOS;
+  @GuardedBy ("m_aLock")
+  private DataOutputStream m_aIndexDOS;
+  @GuardedBy ("m_aLock")
+  private long m_nSegmentBytes;
+  @GuardedBy ("m_aLock")
+  private boolean m_bClosed = false;
+
+  // Segment indices - lock order is m_aLock before m_aIndexLock
+  private final SimpleLock m_aIndexLock = new SimpleLock ();
+  @GuardedBy ("m_aIndexLock")
+  private String m_sCurrentIndexName;
+  @GuardedBy ("m_aIndexLock")
+  private SegmentIndex m_aCurrentIndex;
+  // Least recently used first
+  @GuardedBy ("m_aIndexLock")
+  private final ICommonsOrderedMap <String, SegmentIndex> m_aCachedIndices = new CommonsLinkedHashMap <> ();
+
+  /**
+   * Constructor using the default segment limits.
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not
+   *        exist. May not be <code>null</code>.
+   */
+  public AS4DumpArchive (@Nonnull final File aDirectory)
+  {
+    this (aDirectory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_SEGMENT_DURATION);
+  }
+
+  /**
+   * Constructor using the default number of cached segment indices.
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not
+   *        exist. May not be <code>null</code>.
+   * @param nMaxSegmentBytes
+   *        The compressed size after which a new segment is started. Must be
+   *        &gt; 0.
+   * @param aMaxSegmentDuration
+   *        The age after which a new segment is started. May not be
+   *        <code>null</code>.
+   */
+  public AS4DumpArchive (@Nonnull final File aDirectory,
+                         @Nonnegative final long nMaxSegmentBytes,
+                         @Nonnull final Duration aMaxSegmentDuration)
+  {
+    this (aDirectory, nMaxSegmentBytes, aMaxSegmentDuration, DEFAULT_MAX_CACHED_SEGMENT_INDICES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not
+   *        exist. May not be <code>null</code>.
+   * @param nMaxSegmentBytes
+   *        The compressed size after which a new segment is started. Must be
+   *        &gt; 0.
+   * @param aMaxSegmentDuration
+   *        The age after which a new segment is started. May not be
+   *        <code>null</code>.
+   * @param nMaxCachedSegmentIndices
+   *        The maximum number of segment indices, besides the one of the
+   *        current segment, to keep in memory for the lookups. Must be &ge; 0.
+   */
+  public AS4DumpArchive (@Nonnull final File aDirectory,
+                         @Nonnegative final long nMaxSegmentBytes,
+                         @Nonnull final Duration aMaxSegmentDuration,
+                         @Nonnegative final int nMaxCachedSegmentIndices)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nMaxSegmentBytes, "MaxSegmentBytes");
+    ValueEnforcer.notNull (aMaxSegmentDuration, "MaxSegmentDuration");
+    ValueEnforcer.isFalse (aMaxSegmentDuration.isNegative () || aMaxSegmentDuration.isZero (),
+                           "MaxSegmentDuration must be positive");
+    ValueEnforcer.isGE0 (nMaxCachedSegmentIndices, "MaxCachedSegmentIndices");
+
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory);
+    m_aDirectory = aDirectory;
+    m_nMaxSegmentBytes = nMaxSegmentBytes;
+    m_aMaxSegmentDuration = aMaxSegmentDuration;
+    m_nMaxCachedSegmentIndices = nMaxCachedSegmentIndices;
+  }
+
+  /**
+   * @return The directory containing the segments. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  @Nonnull
+  private File _getSegmentFile (@Nonnull final String sSegmentName)
+  {
+    return new File (m_aDirectory, sSegmentName + SEGMENT_EXTENSION);
+  }
+
+  @Nonnull
+  private File _getIndexFile (@Nonnull final String sSegmentName)
+  {
+    return new File (m_aDirectory, sSegmentName + INDEX_EXTENSION);
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    if (s == null)
+      aDOS.writeInt (-1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDOS.writeInt (aBytes.length);
+      aDOS.write (aBytes);
+    }
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLen = aDIS.readInt ();
+    if (nLen < 0)
+      return null;
+    final byte [] aBytes = new byte [nLen];
+    aDIS.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _closeSegmentLocked ()
+  {
+    StreamHelper.close (m_aSegmentFOS);
+    StreamHelper.close (m_aIndexDOS);
+    m_aSegmentFOS = null;
+    m_aIndexDOS = null;
+    m_sSegmentName = null;
+
+    // The index of the closed segment becomes a regular cached index
+    m_aIndexLock.locked ( () -> {
+      if (m_sCurrentIndexName != null)
+      {
+        _cacheIndexLocked (m_sCurrentIndexName, m_aCurrentIndex);
+        m_sCurrentIndexName = null;
+        m_aCurrentIndex = null;
+      }
+    });
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _openSegmentLocked (@Nonnull final Instant aNow) throws IOException
+  {
+    // Sortable by name
+    final String sSegmentName = "segment-" +
+                                StringHelper.getLeadingZero (aNow.toEpochMilli (), 13) +
+                                "-" +
+                                StringHelper.getLeadingZero (m_aSegmentCounter.incrementAndGet (), 6);
+    // Set the index before the files exist, so that it is never read from
+    // disk - all its entries are indexed while appending
+    m_aIndexLock.locked ( () -> {
+      m_sCurrentIndexName = sSegmentName;
+      m_aCurrentIndex = new SegmentIndex ();
+    });
+    // Not buffered, so that the file position is always the real end of data
+    m_aSegmentFOS = new FileOutputStream (_getSegmentFile (sSegmentName));
+    m_aIndexDOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (_getIndexFile (sSegmentName))));
+    m_aIndexDOS.writeInt (INDEX_MAGIC);
+    m_aIndexDOS.flush ();
+    m_sSegmentName = sSegmentName;
+    m_aSegmentStartDT = aNow;
+    m_nSegmentBytes = 0;
+    LOGGER.info ("Started new dump archive segment '" + sSegmentName + "'");
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _cacheIndexLocked (@Nonnull final String sSegmentName, @Nonnull final SegmentIndex aIndex)
+  {
+    // Re-insert as most recently used
+    m_aCachedIndices.remove (sSegmentName);
+    m_aCachedIndices.put (sSegmentName, aIndex);
+    while (m_aCachedIndices.size () > m_nMaxCachedSegmentIndices)
+      m_aCachedIndices.removeFirst ();
+  }
+
+  /**
+   * Get the lookup index of a single segment. The index of the current segment
+   * and recently used indices are kept in memory, all others are read from
+   * disk.
+   *
+   * @param sSegmentName
+   *        The segment name. May neither be <code>null</code> nor empty.
+   * @return <code>null</code> if the segment does not exist (anymore).
+   * @throws IOException
+   *         If the index could not be read
+   */
+  @Nullable
+  private SegmentIndex _getSegmentIndex (@Nonnull @Nonempty final String sSegmentName) throws IOException
+  {
+    final SegmentIndex aCached = m_aIndexLock.lockedGet ( () -> {
+      if (sSegmentName.equals (m_sCurrentIndexName))
+        return m_aCurrentIndex;
+      final SegmentIndex ret = m_aCachedIndices.get (sSegmentName);
+      if (ret != null)
+        _cacheIndexLocked (sSegmentName, ret);
+      return ret;
+    });
+    if (aCached != null)
+      return aCached;
+
+    // Read outside of the lock
+    final ICommonsList <AS4DumpArchiveEntry> aEntries;
+    try
+    {
+      aEntries = getAllEntries (sSegmentName);
+    }
+    catch (final FileNotFoundException ex)
+    {
+      // Deleted in the meantime
+      return null;
+    }
+    final SegmentIndex ret = new SegmentIndex ();
+    aEntries.forEach (ret::add);
+    m_aIndexLock.locked ( () -> _cacheIndexLocked (sSegmentName, ret));
+    return ret;
+  }
+
+  /**
+   * Remove the partial data of a failed append and start a new segment for the
+   * next append. A partially written index record is the last one of the
+   * segment and is therefore ignored when reading.
+   *
+   * @param nLastGoodOffset
+   *        The end of the last complete dump in the segment.
+   */
+  @MustBeLocked (ELockType.WRITE)
+  private void _rollbackLocked (final long nLastGoodOffset)
+  {
+    final String sSegmentName = m_sSegmentName;
+    try
+    {
+      m_aSegmentFOS.getChannel ().truncate (nLastGoodOffset);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to truncate dump archive segment '" + sSegmentName + "' to " + nLastGoodOffset + " bytes", ex);
+    }
+    _closeSegmentLocked ();
+    LOGGER.warn ("Closed dump archive segment '" + sSegmentName + "' after a failed append");
+  }
+
+  /**
+   * Append a single already compressed dump. The compressed bytes are copied
+   * into the segment while the lock is held.
+   *
+   * @param aCompressedIS
+   *        The GZIP compressed dump. Is read until the end but not closed.
+   * @param nCompressedLength
+   *        The number of compressed bytes.
+   * @param nLength
+   *        The number of uncompressed bytes.
+   * @param sMessageID
+   *        The AS4 message ID, if known. May be <code>null</code>.
+   * @param sIncomingUniqueID
+   *        The incoming unique ID, if available. May be <code>null</code>.
+   * @return The index entry of the dump. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  @Nonnull
+  AS4DumpArchiveEntry appendCompressed (@Nonnull final InputStream aCompressedIS,
+                                        @Nonnegative final int nCompressedLength,
+                                        @Nonnegative final long nLength,
+                                        @Nullable final String sMessageID,
+                                        @Nullable final String sIncomingUniqueID) throws IOException
+  {
+    final Instant aNow = Instant.now ();
+
+    return m_aLock.lockedGetThrowing ( () -> {
+      if (m_bClosed)
+        throw new IOException ("The dump archive is already closed");
+
+      if (m_sSegmentName != null &&
+          (m_nSegmentBytes >= m_nMaxSegmentBytes ||
+           Duration.between (m_aSegmentStartDT, aNow).compareTo (m_aMaxSegmentDuration) >= 0))
+        _closeSegmentLocked ();
+      if (m_sSegmentName == null)
+        _openSegmentLocked (aNow);
+
+      // The real end of the data, also if a previous append failed
+      final FileChannel aChannel = m_aSegmentFOS.getChannel ();
+      final long nOffset = aChannel.position ();
+      try
+      {
+        final byte [] aBuffer = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+        long nCopied = 0;
+        int nRead;
+        while ((nRead = aCompressedIS.read (aBuffer)) > 0)
+        {
+          m_aSegmentFOS.write (aBuffer, 0, nRead);
+          nCopied += nRead;
+        }
+        if (nCopied != nCompressedLength)
+        {
+          // Don't write an index entry for inconsistent data
+          throw new IOException ("Expected " + nCompressedLength + " compressed bytes but copied " + nCopied);
+        }
+
+        // Index after data, so that an index entry never points to missing
+        // data
+        m_aIndexDOS.writeLong (aNow.toEpochMilli ());
+        m_aIndexDOS.writeLong (nOffset);
+        m_aIndexDOS.writeInt (nCompressedLength);
+        m_aIndexDOS.writeLong (nLength);
+        _writeString (m_aIndexDOS, sMessageID);
+        _writeString (m_aIndexDOS, sIncomingUniqueID);
+        m_aIndexDOS.flush ();
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        _rollbackLocked (nOffset);
+        throw ex;
+      }
+      m_nSegmentBytes = aChannel.position ();
+
+      final AS4DumpArchiveEntry ret = new AS4DumpArchiveEntry (m_sSegmentName,
+                                                               nOffset,
+                                                               nCompressedLength,
+                                                               nLength,
+                                                               aNow,
+                                                               sMessageID,
+                                                               sIncomingUniqueID);
+      m_aIndexLock.locked ( () -> m_aCurrentIndex.add (ret));
+      return ret;
+    });
+  }
+
+  /**
+   * Compress and append a single dump.
+   *
+   * @param aDump
+   *        The complete dump bytes. May not be <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID, if known. May be <code>null</code>.
+   * @param sIncomingUniqueID
+   *        The incoming unique ID, if available. May be <code>null</code>.
+   * @return The index entry of the dump. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  @Nonnull
+  public AS4DumpArchiveEntry append (@Nonnull final byte [] aDump,
+                                     @Nullable final String sMessageID,
+                                     @Nullable final String sIncomingUniqueID) throws IOException
+  {
+    ValueEnforcer.notNull (aDump, "Dump");
+
+    // Compress outside of the lock
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (aDump.length / 4 + 64);
+    try (final GZIPOutputStream aGZOS = new GZIPOutputStream (aBAOS))
+    {
+      aGZOS.write (aDump);
+    }
+    return appendCompressed (new NonBlockingByteArrayInputStream (aBAOS.directGetBuffer (), 0, aBAOS.size ()),
+                             aBAOS.size (),
+                             aDump.length,
+                             sMessageID,
+                             sIncomingUniqueID);
+  }
+
+  /**
+   * @return The names of all segments, oldest first. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllSegmentNames ()
+  {
+    final String [] aNames = m_aDirectory.list ( (d, n) -> n.endsWith (INDEX_EXTENSION));
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    if (aNames != null)
+    {
+      Arrays.sort (aNames);
+      for (final String sName : aNames)
+        ret.add (sName.substring (0, sName.length () - INDEX_EXTENSION.length ()));
+    }
+    return ret;
+  }
+
+  /**
+   * Read the index of a single segment.
+   *
+   * @param sSegmentName
+   *        The segment name. May neither be <code>null</code> nor empty.
+   * @return All entries of the segment in the order they were added. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If the index could not be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpArchiveEntry> getAllEntries (@Nonnull @Nonempty final String sSegmentName) throws IOException
+  {
+    ValueEnforcer.notEmpty (sSegmentName, "SegmentName");
+
+    final ICommonsList <AS4DumpArchiveEntry> ret = new CommonsArrayList <> ();
+    try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (_getIndexFile (sSegmentName)))))
+    {
+      if (aDIS.readInt () != INDEX_MAGIC)
+        throw new IOException ("'" + sSegmentName + "' is not a dump archive index");
+      while (true)
+      {
+        final long nMillis = aDIS.readLong ();
+        final long nOffset = aDIS.readLong ();
+        final int nCompressedLength = aDIS.readInt ();
+        final long nLength = aDIS.readLong ();
+        final String sMessageID = _readString (aDIS);
+        final String sIncomingUniqueID = _readString (aDIS);
+        ret.add (new AS4DumpArchiveEntry (sSegmentName,
+                                          nOffset,
+                                          nCompressedLength,
+                                          nLength,
+                                          Instant.ofEpochMilli (nMillis),
+                                          sMessageID,
+                                          sIncomingUniqueID));
+      }
+    }
+    catch (final EOFException ex)
+    {
+      // End of index or truncated last record
+    }
+    return ret;
+  }
+
+  /**
+   * Find all entries matching the provided filter. All segment indices are
+   * scanned, oldest first.
+   *
+   * @param aFilter
+   *        The filter to use. May not be <code>null</code>.
+   * @return All matching entries. Never <code>null</code>.
+   * @throws IOException
+   *         If an index could not be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpArchiveEntry> findAll (@Nonnull final Predicate <? super AS4DumpArchiveEntry> aFilter) throws IOException
+  {
+    ValueEnforcer.notNull (aFilter, "Filter");
+
+    final ICommonsList <AS4DumpArchiveEntry> ret = new CommonsArrayList <> ();
+    for (final String sSegmentName : getAllSegmentNames ())
+      ret.addAll (getAllEntries (sSegmentName).getAll (aFilter));
+    return ret;
+  }
+
+  /**
+   * Find all dumps of a certain AS4 message ID. Outgoing messages may have been
+   * dumped more than once, e.g. due to retries. All segment indices are
+   * scanned, oldest first.
+   *
+   * @param sMessageID
+   *        The AS4 message ID to search. May be <code>null</code>.
+   * @return All matching entries, oldest first. Never <code>null</code>.
+   * @throws IOException
+   *         If an index could not be read
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpArchiveEntry> findAllByMessageID (@Nullable final String sMessageID) throws IOException
+  {
+    final ICommonsList <AS4DumpArchiveEntry> ret = new CommonsArrayList <> ();
+    if (StringHelper.hasText (sMessageID))
+      for (final String sSegmentName : getAllSegmentNames ())
+      {
+        final SegmentIndex aIndex = _getSegmentIndex (sSegmentName);
+        if (aIndex != null)
+        {
+          // The index of the current segment is modified concurrently
+          final ICommonsList <AS4DumpArchiveEntry> aEntries = m_aIndexLock.lockedGet ( () -> {
+            final ICommonsList <AS4DumpArchiveEntry> aList = aIndex.getAllByMessageID (sMessageID);
+            return aList == null ? null : aList.getClone ();
+          });
+          if (aEntries != null)
+            ret.addAll (aEntries);
+        }
+      }
+    return ret;
+  }
+
+  /**
+   * Find the dump of a certain incoming message. All segment indices are
+   * scanned, oldest first, until a match is found.
+   *
+   * @param sIncomingUniqueID
+   *        The incoming unique ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such dump exists.
+   * @throws IOException
+   *         If an index could not be read
+   */
+  @Nullable
+  public AS4DumpArchiveEntry findByIncomingUniqueID (@Nullable final String sIncomingUniqueID) throws IOException
+  {
+    if (StringHelper.hasText (sIncomingUniqueID))
+      for (final String sSegmentName : getAllSegmentNames ())
+      {
+        final SegmentIndex aIndex = _getSegmentIndex (sSegmentName);
+        if (aIndex != null)
+        {
+          final AS4DumpArchiveEntry ret = m_aIndexLock.lockedGet ( () -> aIndex.getByIncomingUniqueID (sIncomingUniqueID));
+          if (ret != null)
+            return ret;
+        }
+      }
+    return null;
+  }
+
+  /**
+   * Read and decompress a single dump.
+   *
+   * @param aEntry
+   *        The entry to read. May not be <code>null</code>.
+   * @return The uncompressed dump bytes. Never <code>null</code>.
+   * @throws IOException
+   *         If the dump could not be read
+   */
+  @Nonnull
+  public byte [] read (@Nonnull final AS4DumpArchiveEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final byte [] aCompressed = new byte [aEntry.getCompressedLength ()];
+    try (final RandomAccessFile aRAF = new RandomAccessFile (_getSegmentFile (aEntry.getSegmentName ()), "r"))
+    {
+      aRAF.seek (aEntry.getOffset ());
+      aRAF.readFully (aCompressed);
+    }
+    try (final InputStream aIS = new GZIPInputStream (new NonBlockingByteArrayInputStream (aCompressed)))
+    {
+      return StreamHelper.getAllBytes (aIS);
+    }
+  }
+
+  /**
+   * Delete all segments whose last dump is older than the provided date and
+   * time. The current segment is never deleted.
+   *
+   * @param aThreshold
+   *        The threshold. May not be <code>null</code>.
+   * @return The number of deleted segments. Always &ge; 0.
+   */
+  @Nonnegative
+  public int deleteSegmentsOlderThan (@Nonnull final Instant aThreshold)
+  {
+    ValueEnforcer.notNull (aThreshold, "Threshold");
+
+    final String sCurrentSegment = m_aLock.lockedGet ( () -> m_sSegmentName);
+    final long nThresholdMillis = aThreshold.toEpochMilli ();
+    final ICommonsSet <String> aDeleted = new CommonsHashSet <> ();
+    for (final String sSegmentName : getAllSegmentNames ())
+      if (!sSegmentName.equals (sCurrentSegment))
+      {
+        final File aSegmentFile = _getSegmentFile (sSegmentName);
+        final File aIndexFile = _getIndexFile (sSegmentName);
+        // The files are not modified after the last dump was added
+        if (Math.max (aSegmentFile.lastModified (), aIndexFile.lastModified ()) < nThresholdMillis)
+        {
+          FileOperationManager.INSTANCE.deleteFileIfExisting (aSegmentFile);
+          FileOperationManager.INSTANCE.deleteFileIfExisting (aIndexFile);
+          aDeleted.add (sSegmentName);
+        }
+      }
+    if (aDeleted.isNotEmpty ())
+    {
+      // Remove from the cached indices
+      m_aIndexLock.locked ( () -> aDeleted.forEach (m_aCachedIndices::remove));
+      LOGGER.info ("Deleted " + aDeleted.size () + " dump archive segments older than " + aThreshold);
+    }
+    return aDeleted.size ();
+  }
+
+  /**
+   * Close the current segment. Further appends fail.
+   */
+  public void close ()
+  {
+    m_aLock.locked ( () -> {
+      m_bClosed = true;
+      _closeSegmentLocked ();
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("MaxSegmentBytes", m_nMaxSegmentBytes)
+                                       .append ("MaxSegmentDuration", m_aMaxSegmentDuration)
+                                       .append ("MaxCachedSegmentIndices", m_nMaxCachedSegmentIndices)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.time.Instant;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The index information of a single dump inside an {@link AS4DumpArchive}
+ * segment.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@Immutable
+public final class AS4DumpArchiveEntry
+{
+  private final String m_sSegmentName;
+  private final long m_nOffset;
+  private final int m_nCompressedLength;
+  private final long m_nLength;
+  private final Instant m_aDumpDT;
+  private final String m_sMessageID;
+  private final String m_sIncomingUniqueID;
+
+  AS4DumpArchiveEntry (@Nonnull @Nonempty final String sSegmentName,
+                       @Nonnegative final long nOffset,
+                       @Nonnegative final int nCompressedLength,
+                       @Nonnegative final long nLength,
+                       @Nonnull final Instant aDumpDT,
+                       @Nullable final String sMessageID,
+                       @Nullable final String sIncomingUniqueID)
+  {
+    m_sSegmentName = sSegmentName;
+    m_nOffset = nOffset;
+    m_nCompressedLength = nCompressedLength;
+    m_nLength = nLength;
+    m_aDumpDT = aDumpDT;
+    m_sMessageID = sMessageID;
+    m_sIncomingUniqueID = sIncomingUniqueID;
+  }
+
+  /**
+   * @return The name of the segment containing the dump. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getSegmentName ()
+  {
+    return m_sSegmentName;
+  }
+
+  /**
+   * @return The offset of the compressed dump inside the segment file. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getOffset ()
+  {
+    return m_nOffset;
+  }
+
+  /**
+   * @return The compressed length of the dump in bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getCompressedLength ()
+  {
+    return m_nCompressedLength;
+  }
+
+  /**
+   * @return The uncompressed length of the dump in bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+
+  /**
+   * @return The date and time when the dump was added to the archive. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public Instant getDumpDT ()
+  {
+    return m_aDumpDT;
+  }
+
+  /**
+   * @return The AS4 message ID of the dumped message. May be
+   *         <code>null</code> if it is unknown.
+   */
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The incoming unique ID of the dumped message. May be
+   *         <code>null</code> for outgoing messages.
+   */
+  @Nullable
+  public String getIncomingUniqueID ()
+  {
+    return m_sIncomingUniqueID;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SegmentName", m_sSegmentName)
+                                       .append ("Offset", m_nOffset)
+                                       .append ("CompressedLength", m_nCompressedLength)
+                                       .append ("Length", m_nLength)
+                                       .append ("DumpDT", m_aDumpDT)
+                                       .appendIfNotNull ("MessageID", m_sMessageID)
+                                       .appendIfNotNull ("IncomingUniqueID", m_sIncomingUniqueID)
+                                       .getToString ();
+  }
+}
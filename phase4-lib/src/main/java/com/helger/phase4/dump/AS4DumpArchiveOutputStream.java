@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Output stream that compresses a dump while it is written and appends it to
+ * an {@link AS4DumpArchive} upon close. The uncompressed dump is never kept in
+ * memory. The compressed bytes are kept in memory up to a threshold and are
+ * spooled to a temporary file afterwards. They are not written into the
+ * segment directly, because the segment is shared by all concurrent dumps and
+ * would otherwise be blocked for the time of a whole request.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+final class AS4DumpArchiveOutputStream extends OutputStream
+{
+  // The ebMS header is close to the beginning
+  private static final int MESSAGE_ID_SCAN_BYTES = 64 * 1024;
+  private static final Pattern MESSAGE_ID_PATTERN = Pattern.compile ("<(?:[\\w.-]+:)?MessageId>\\s*([^<\\s]+)\\s*</");
+  // Maximum compressed bytes to keep in memory
+  private static final int MAX_IN_MEMORY_BYTES = CGlobal.BYTES_PER_MEGABYTE;
+
+  /**
+   * The compressed data - in memory first and spooled to a file when too
+   * large.
+   */
+  private static final class CompressedBuffer extends OutputStream
+  {
+    private NonBlockingByteArrayOutputStream m_aMemory = new NonBlockingByteArrayOutputStream ();
+    private File m_aFile;
+    private OutputStream m_aFileOS;
+    private long m_nLength = 0;
+
+    private void _ensureCapacity (final int nLen) throws IOException
+    {
+      if (m_aFileOS == null && m_aMemory.size () + nLen > MAX_IN_MEMORY_BYTES)
+      {
+        m_aFile = File.createTempFile ("phase4-dump-", ".gz", AS4ResourceHelper.getTempDir ());
+        m_aFileOS = new BufferedOutputStream (new FileOutputStream (m_aFile));
+        m_aMemory.writeTo (m_aFileOS);
+        m_aMemory = null;
+      }
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      _ensureCapacity (1);
+      if (m_aFileOS != null)
+        m_aFileOS.write (b);
+      else
+        m_aMemory.write (b);
+      m_nLength++;
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      _ensureCapacity (nLen);
+      if (m_aFileOS != null)
+        m_aFileOS.write (aBuf, nOfs, nLen);
+      else
+        m_aMemory.write (aBuf, nOfs, nLen);
+      m_nLength += nLen;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_aFileOS != null)
+        m_aFileOS.close ();
+    }
+
+    long getLength ()
+    {
+      return m_nLength;
+    }
+
+    @Nonnull
+    InputStream getInputStream () throws IOException
+    {
+      if (m_aFileOS == null)
+        return new NonBlockingByteArrayInputStream (m_aMemory.directGetBuffer (), 0, m_aMemory.size ());
+      return new BufferedInputStream (new FileInputStream (m_aFile));
+    }
+
+    void release ()
+    {
+      StreamHelper.close (m_aFileOS);
+      if (m_aFile != null)
+        FileOperationManager.INSTANCE.deleteFileIfExisting (m_aFile);
+      m_aMemory = null;
+    }
+  }
+
+  private final AS4DumpArchive m_aArchive;
+  private final String m_sMessageID;
+  private final String m_sIncomingUniqueID;
+  private final CompressedBuffer m_aCompressed = new CompressedBuffer ();
+  private final GZIPOutputStream m_aGZOS;
+  // The beginning of the dump to find the message ID in
+  private final byte [] m_aHead;
+  private int m_nHeadLength = 0;
+  private long m_nLength = 0;
+  private boolean m_bClosed = false;
+
+  AS4DumpArchiveOutputStream (@Nonnull final AS4DumpArchive aArchive,
+                              @Nullable final String sMessageID,
+                              @Nullable final String sIncomingUniqueID)
+  {
+    m_aArchive = aArchive;
+    m_sMessageID = sMessageID;
+    m_sIncomingUniqueID = sIncomingUniqueID;
+    m_aHead = sMessageID == null ? new byte [MESSAGE_ID_SCAN_BYTES] : null;
+    try
+    {
+      m_aGZOS = new GZIPOutputStream (m_aCompressed, 8 * CGlobal.BYTES_PER_KILOBYTE);
+    }
+    catch (final IOException ex)
+    {
+      // Only writes the header into memory
+      throw new UncheckedIOException (ex);
+    }
+  }
+
+  /**
+   * Find the first ebMS MessageId in the provided dump. This is a textual
+   * search that works for plain SOAP as well as for MIME messages.
+   *
+   * @param aDump
+   *        The dump bytes. May not be <code>null</code>.
+   * @param nLength
+   *        The number of bytes to consider.
+   * @return <code>null</code> if none was found.
+   */
+  @Nullable
+  static String findMessageID (@Nonnull final byte [] aDump, final int nLength)
+  {
+    final String sText = new String (aDump, 0, Math.min (nLength, MESSAGE_ID_SCAN_BYTES), StandardCharsets.ISO_8859_1);
+    final Matcher aMatcher = MESSAGE_ID_PATTERN.matcher (sText);
+    return aMatcher.find () ? aMatcher.group (1) : null;
+  }
+
+  private void _ensureOpen () throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("The dump stream is already closed");
+  }
+
+  @Override
+  public void write (final int b) throws IOException
+  {
+    _ensureOpen ();
+    if (m_aHead != null && m_nHeadLength < m_aHead.length)
+      m_aHead[m_nHeadLength++] = (byte) b;
+    m_aGZOS.write (b);
+    m_nLength++;
+  }
+
+  @Override
+  public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    _ensureOpen ();
+    if (m_aHead != null && m_nHeadLength < m_aHead.length)
+    {
+      final int nHead = Math.min (nLen, m_aHead.length - m_nHeadLength);
+      System.arraycopy (aBuf, nOfs, m_aHead, m_nHeadLength, nHead);
+      m_nHeadLength += nHead;
+    }
+    m_aGZOS.write (aBuf, nOfs, nLen);
+    m_nLength += nLen;
+  }
+
+  @Override
+  public void close ()
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+
+    try
+    {
+      // Writes the GZIP trailer
+      m_aGZOS.close ();
+
+      final long nCompressedLength = m_aCompressed.getLength ();
+      if (nCompressedLength > Integer.MAX_VALUE)
+        throw new IOException ("The compressed dump is too large: " + nCompressedLength + " bytes");
+
+      final String sMessageID = m_sMessageID != null ? m_sMessageID : findMessageID (m_aHead, m_nHeadLength);
+      try (final InputStream aIS = m_aCompressed.getInputStream ())
+      {
+        m_aArchive.appendCompressed (aIS, (int) nCompressedLength, m_nLength, sMessageID, m_sIncomingUniqueID);
+      }
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+    finally
+    {
+      m_aCompressed.release ();
+    }
+  }
+}
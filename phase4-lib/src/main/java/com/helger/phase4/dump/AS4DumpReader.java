@@ -16,9 +16,18 @@
  */
 package com.helger.phase4.dump;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
@@ -31,14 +40,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
-import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.ByteBufferInputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
@@ -55,6 +70,7 @@ import com.helger.phase4.servlet.IAS4ResponseAbstraction;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
 import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
 import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
+import com.helger.phase4.util.AS4IOHelper;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.servlet.mock.MockServletContext;
 import com.helger.web.scope.mgr.WebScopeManager;
@@ -84,16 +100,87 @@ public final class AS4DumpReader
     void accept (@Nonnegative int nAttachmentIndex, @Nonnull byte [] aPayload);
   }
 
+  /**
+   * Provides the data of a single dump for the bulk processing.
+   *
+   * @since 1.4.4
+   */
+  @FunctionalInterface
+  public interface IDumpDataProvider
+  {
+    /**
+     * Get the data of a single dump.
+     *
+     * @param sSource
+     *        The name of the dump. Never <code>null</code>.
+     * @return The dump data. Never <code>null</code>.
+     * @throws IOException
+     *         If the data cannot be read
+     */
+    @Nonnull
+    ByteBuffer getData (@Nonnull String sSource) throws IOException;
+
+    /**
+     * Release the data of a single dump after it was processed, e.g. to unmap
+     * a memory mapped file. The buffer is not accessed afterwards. The default
+     * implementation does nothing.
+     *
+     * @param sSource
+     *        The name of the dump. Never <code>null</code>.
+     * @param aData
+     *        The data previously returned by {@link #getData(String)}. Never
+     *        <code>null</code>.
+     */
+    default void releaseData (@Nonnull final String sSource, @Nonnull final ByteBuffer aData)
+    {}
+  }
+
+  /**
+   * Consumer for the bulk processing. Is invoked from multiple threads.
+   *
+   * @since 1.4.4
+   */
+  public interface IBulkDecryptedPayloadConsumer
+  {
+    /**
+     * Get invoked for every decrypted attachment.
+     *
+     * @param sSource
+     *        The name of the dump. Never <code>null</code>.
+     * @param nAttachmentIndex
+     *        0-based attachment index.
+     * @param aPayload
+     *        Decrypted payload. Never <code>null</code>.
+     */
+    void accept (@Nonnull String sSource, @Nonnegative int nAttachmentIndex, @Nonnull byte [] aPayload);
+
+    /**
+     * Get invoked if a dump could not be decrypted.
+     *
+     * @param sSource
+     *        The name of the dump. Never <code>null</code>.
+     * @param aException
+     *        The exception that occurred. May be <code>null</code> if no user
+     *        message was found in the dump.
+     */
+    default void onError (@Nonnull final String sSource, @Nullable final Exception aException)
+    {
+      LOGGER.error ("Failed to decrypt dump '" + sSource + "'", aException);
+    }
+  }
+
   private AS4DumpReader ()
   {}
 
   /**
-   * Utility method to decrypt dumped .as4in message late.<br>
-   * Note: this method was mainly created for internal use and does not win the
-   * prize for the most sexy piece of software in the world ;-)
+   * Decrypt a single dumped incoming message from an {@link AS4DumpArchive}.
+   * Only the requested dump is read from the segment.
    *
-   * @param aAS4InData
-   *        The byte array with the dumped data.
+   * @param aArchive
+   *        The archive to read from. May not be <code>null</code>.
+   * @param aEntry
+   *        The archive entry of the message to decrypt. May not be
+   *        <code>null</code>.
    * @param aCF
    *        The Crypto factory to be used. This crypto factory must use use the
    *        private key that can be used to decrypt this particular message. May
@@ -111,8 +198,12 @@ public final class AS4DumpReader
    *         In case of error
    * @throws MessagingException
    *         In case of error
+   * @see AS4DumpArchive#findByIncomingUniqueID(String)
+   * @see AS4DumpArchive#findAllByMessageID(String)
+   * @since 1.4.4
    */
-  public static void decryptAS4In (@Nonnull final byte [] aAS4InData,
+  public static void decryptAS4In (@Nonnull final AS4DumpArchive aArchive,
+                                   @Nonnull final AS4DumpArchiveEntry aEntry,
                                    @Nonnull final IAS4CryptoFactory aCF,
                                    @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
                                    @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
@@ -120,15 +211,38 @@ public final class AS4DumpReader
                                                                                                 IOException,
                                                                                                 MessagingException
   {
-    final HttpHeaderMap hm = new HttpHeaderMap ();
-    int nHttpStart = 0;
+    ValueEnforcer.notNull (aArchive, "Archive");
+    decryptAS4In (aArchive.read (aEntry), aCF, aHttpHeaderConsumer, aDecryptedConsumer);
+  }
+
+  /**
+   * Parse the HTTP headers at the beginning of a dump. The buffer is only
+   * read, so that no copy of the dump is needed.
+   *
+   * @param aBuffer
+   *        The dump buffer. The position and the limit define the dump. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaders
+   *        The header map to fill. May not be <code>null</code>.
+   * @return The absolute buffer index of the newline that terminates the
+   *         HTTP headers or -1 if no empty line was found.
+   * @since 1.4.4
+   */
+  public static int readHttpHeaders (@Nonnull final ByteBuffer aBuffer, @Nonnull final HttpHeaderMap aHttpHeaders)
+  {
+    ValueEnforcer.notNull (aBuffer, "Buffer");
+    ValueEnforcer.notNull (aHttpHeaders, "HttpHeaders");
+
+    final int nStart = aBuffer.position ();
+    final int nLimit = aBuffer.limit ();
+    int nHttpStart = nStart;
     int nHttpEnd = -1;
 
     // Read all the HTTP headers
     boolean bLastWasCR = false;
-    for (int i = 0; i < aAS4InData.length; ++i)
+    for (int i = nStart; i < nLimit; ++i)
     {
-      final byte b = aAS4InData[i];
+      final byte b = aBuffer.get (i);
       if (b == '\n')
       {
         // Do we have 2 consecutive newlines?
@@ -141,13 +255,16 @@ public final class AS4DumpReader
         bLastWasCR = true;
 
         // The full header line
-        final String sLine = new String (aAS4InData, nHttpStart, i - nHttpStart, StandardCharsets.ISO_8859_1);
+        final byte [] aLine = new byte [i - nHttpStart];
+        for (int j = 0; j < aLine.length; ++j)
+          aLine[j] = aBuffer.get (nHttpStart + j);
+        final String sLine = new String (aLine, StandardCharsets.ISO_8859_1);
 
         // Split in name and value
         final String [] aParts = StringHelper.getExplodedArray (':', sLine, 2);
 
         // Remember
-        hm.addHeader (aParts[0].trim (), aParts[1].trim ());
+        aHttpHeaders.addHeader (aParts[0].trim (), aParts[1].trim ());
 
         // Remember start of the next line
         nHttpStart = i + 1;
@@ -159,6 +276,39 @@ public final class AS4DumpReader
           bLastWasCR = false;
       }
     }
+    return nHttpEnd;
+  }
+
+  /**
+   * Start the global scope, if none is present.
+   *
+   * @return <code>true</code> if the global scope was started and must be
+   *         ended by the caller.
+   */
+  private static boolean _beginGlobalScopeIfNecessary ()
+  {
+    if (WebScopeManager.isGlobalScopePresent ())
+      return false;
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    return true;
+  }
+
+  /**
+   * Decrypt a single dump. A global scope must be present.
+   *
+   * @return <code>true</code> if a user message was processed,
+   *         <code>false</code> if not.
+   */
+  private static boolean _decrypt (@Nonnull final ByteBuffer aAS4InData,
+                                   @Nonnull final IAS4CryptoFactory aCF,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    final HttpHeaderMap hm = new HttpHeaderMap ();
+    final int nHttpEnd = readHttpHeaders (aAS4InData, hm);
 
     // In case somebody cares about the HTTP headers
     if (aHttpHeaderConsumer != null)
@@ -166,7 +316,7 @@ public final class AS4DumpReader
 
     LOGGER.info ("Now at byte " + nHttpEnd + " having " + hm.getCount () + " HTTP headers");
 
-    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    final AtomicBoolean aProcessed = new AtomicBoolean (false);
     try (final WebScoped w = new WebScoped ();
         final AS4RequestHandler rh = new AS4RequestHandler (aCF,
                                                             DefaultPModeResolver.DEFAULT_PMODE_RESOLVER,
@@ -201,6 +351,7 @@ public final class AS4DumpReader
 
               nIndex++;
             }
+            aProcessed.set (true);
             return AS4MessageProcessorResult.createSuccess ();
           }
           catch (final Exception ex)
@@ -221,26 +372,371 @@ public final class AS4DumpReader
         }
       };
       rh.setProcessorSupplier ( () -> new CommonsArrayList <> (aSPI));
-      rh.handleRequest (new NonBlockingByteArrayInputStream (aAS4InData, nHttpEnd, aAS4InData.length - nHttpEnd),
-                        hm,
-                        new IAS4ResponseAbstraction ()
-                        {
-                          public void setStatus (final int nStatusCode)
-                          {}
-
-                          public void setMimeType (final IMimeType aMimeType)
-                          {}
-
-                          public void setContent (final HttpHeaderMap aHeaderMap, final IHasInputStream aHasIS)
-                          {}
-
-                          public void setContent (final byte [] aResultBytes, final Charset aCharset)
-                          {}
-                        });
+
+      // Read the body directly from the buffer
+      final ByteBuffer aBody = aAS4InData.duplicate ();
+      aBody.position (nHttpEnd);
+      rh.handleRequest (new ByteBufferInputStream (aBody), hm, new IAS4ResponseAbstraction ()
+      {
+        public void setStatus (final int nStatusCode)
+        {}
+
+        public void setMimeType (final IMimeType aMimeType)
+        {}
+
+        public void setContent (final HttpHeaderMap aHeaderMap, final IHasInputStream aHasIS)
+        {}
+
+        public void setContent (final byte [] aResultBytes, final Charset aCharset)
+        {}
+      });
+    }
+    return aProcessed.get ();
+  }
+
+  /**
+   * Utility method to decrypt dumped .as4in message late.<br>
+   * Note: this method was mainly created for internal use and does not win the
+   * prize for the most sexy piece of software in the world ;-)<br>
+   * Note: this method always creates and destroys its own global scope, so it
+   * must not be called when a global scope is already present. Use
+   * {@link #decryptAS4In(ByteBuffer, IAS4CryptoFactory, Consumer, IDecryptedPayloadConsumer)}
+   * to reuse an existing global scope.
+   *
+   * @param aAS4InData
+   *        The byte array with the dumped data.
+   * @param aCF
+   *        The Crypto factory to be used. This crypto factory must use use the
+   *        private key that can be used to decrypt this particular message. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload - whatever that is :). May
+   *        not be <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   */
+  public static void decryptAS4In (@Nonnull final byte [] aAS4InData,
+                                   @Nonnull final IAS4CryptoFactory aCF,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    ValueEnforcer.notNull (aAS4InData, "AS4InData");
+    ValueEnforcer.notNull (aCF, "CryptoFactory");
+    ValueEnforcer.notNull (aDecryptedConsumer, "DecryptedConsumer");
+
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    try
+    {
+      _decrypt (ByteBuffer.wrap (aAS4InData), aCF, aHttpHeaderConsumer, aDecryptedConsumer);
     }
     finally
     {
       WebScopeManager.onGlobalEnd ();
     }
   }
+
+  /**
+   * Decrypt a dumped .as4in message from a buffer. The buffer content is not
+   * copied. If no global scope is present, a temporary one is created.
+   *
+   * @param aAS4InData
+   *        The buffer with the dumped data, from the current position to the
+   *        limit. May not be <code>null</code>.
+   * @param aCF
+   *        The Crypto factory to be used. This crypto factory must use use the
+   *        private key that can be used to decrypt this particular message. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   * @since 1.4.4
+   */
+  public static void decryptAS4In (@Nonnull final ByteBuffer aAS4InData,
+                                   @Nonnull final IAS4CryptoFactory aCF,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    ValueEnforcer.notNull (aAS4InData, "AS4InData");
+    ValueEnforcer.notNull (aCF, "CryptoFactory");
+    ValueEnforcer.notNull (aDecryptedConsumer, "DecryptedConsumer");
+
+    final boolean bEndGlobalScope = _beginGlobalScopeIfNecessary ();
+    try
+    {
+      _decrypt (aAS4InData, aCF, aHttpHeaderConsumer, aDecryptedConsumer);
+    }
+    finally
+    {
+      if (bEndGlobalScope)
+        WebScopeManager.onGlobalEnd ();
+    }
+  }
+
+  /**
+   * Memory map a dump file for reading. The caller should release the mapping
+   * with {@link AS4IOHelper#unmap(ByteBuffer)} when done, because otherwise
+   * the file stays locked (on Windows) until the buffer is garbage collected.
+   *
+   * @param aFile
+   *        The file to map. May not be <code>null</code>.
+   * @return The read-only buffer. Never <code>null</code>.
+   * @throws IOException
+   *         If the file cannot be mapped
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static ByteBuffer mapDumpFile (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    try (final FileChannel aFC = FileChannel.open (aFile.toPath (), StandardOpenOption.READ))
+    {
+      // The mapping stays valid after the channel is closed
+      return aFC.map (FileChannel.MapMode.READ_ONLY, 0, aFC.size ());
+    }
+  }
+
+  /**
+   * Decrypt a dumped .as4in file. The file is memory mapped and not read into
+   * a byte array. The mapping is released before this method returns. If no
+   * global scope is present, a temporary one is created.
+   *
+   * @param aFile
+   *        The dump file. May not be <code>null</code>.
+   * @param aCF
+   *        The Crypto factory to be used. This crypto factory must use use the
+   *        private key that can be used to decrypt this particular message. May
+   *        not be <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   * @since 1.4.4
+   */
+  public static void decryptAS4In (@Nonnull final File aFile,
+                                   @Nonnull final IAS4CryptoFactory aCF,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    final ByteBuffer aBuffer = mapDumpFile (aFile);
+    try
+    {
+      decryptAS4In (aBuffer, aCF, aHttpHeaderConsumer, aDecryptedConsumer);
+    }
+    finally
+    {
+      AS4IOHelper.unmap (aBuffer);
+    }
+  }
+
+  /**
+   * Decrypt many dumps in parallel. A single global scope is shared by all
+   * dumps. Errors are passed to the consumer and do not stop the other dumps.
+   *
+   * @param aSources
+   *        The names of the dumps to decrypt. May not be <code>null</code>.
+   * @param aDataProvider
+   *        Provides the dump data for a name. May not be <code>null</code>.
+   * @param aCF
+   *        The Crypto factory to be used. It must be able to decrypt all the
+   *        dumps. May not be <code>null</code>.
+   * @param nThreads
+   *        The number of parallel threads. Must be &gt; 0.
+   * @param aConsumer
+   *        The consumer for the decrypted payloads and errors. Must be thread
+   *        safe. May not be <code>null</code>.
+   * @return The number of dumps that were successfully decrypted. Always &ge;
+   *         0.
+   * @since 1.4.4
+   */
+  @Nonnegative
+  public static int decryptAS4InBulk (@Nonnull final Iterable <String> aSources,
+                                      @Nonnull final IDumpDataProvider aDataProvider,
+                                      @Nonnull final IAS4CryptoFactory aCF,
+                                      @Nonnegative final int nThreads,
+                                      @Nonnull final IBulkDecryptedPayloadConsumer aConsumer)
+  {
+    ValueEnforcer.notNull (aSources, "Sources");
+    ValueEnforcer.notNull (aDataProvider, "DataProvider");
+    ValueEnforcer.notNull (aCF, "CryptoFactory");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.notNull (aConsumer, "Consumer");
+
+    final AtomicInteger aSuccessCount = new AtomicInteger (0);
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final boolean bEndGlobalScope = _beginGlobalScopeIfNecessary ();
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      for (final String sSource : aSources)
+        aES.submit ( () -> {
+          try
+          {
+            final ByteBuffer aData = aDataProvider.getData (sSource);
+            try
+            {
+              if (_decrypt (aData, aCF, null, (nIndex, aPayload) -> aConsumer.accept (sSource, nIndex, aPayload)))
+                aSuccessCount.incrementAndGet ();
+              else
+                aConsumer.onError (sSource, null);
+            }
+            finally
+            {
+              aDataProvider.releaseData (sSource, aData);
+            }
+          }
+          catch (final Exception ex)
+          {
+            aConsumer.onError (sSource, ex);
+          }
+        });
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+      if (bEndGlobalScope)
+        WebScopeManager.onGlobalEnd ();
+    }
+
+    LOGGER.info ("Successfully decrypted " + aSuccessCount.get () + " dumps in " + aSW.stopAndGetMillis () + " ms");
+    return aSuccessCount.get ();
+  }
+
+  /**
+   * Decrypt all <code>.as4in</code> files of a directory in parallel. The
+   * files are memory mapped and each mapping is released after the file was
+   * processed.
+   *
+   * @param aDirectory
+   *        The directory to read. Sub directories are not considered. May not
+   *        be <code>null</code>.
+   * @param aCF
+   *        The Crypto factory to be used. It must be able to decrypt all the
+   *        dumps. May not be <code>null</code>.
+   * @param nThreads
+   *        The number of parallel threads. Must be &gt; 0.
+   * @param aConsumer
+   *        The consumer for the decrypted payloads and errors. The source is
+   *        the absolute file path. Must be thread safe. May not be
+   *        <code>null</code>.
+   * @return The number of dumps that were successfully decrypted. Always &ge;
+   *         0.
+   * @since 1.4.4
+   */
+  @Nonnegative
+  public static int decryptAS4InBulk (@Nonnull final File aDirectory,
+                                      @Nonnull final IAS4CryptoFactory aCF,
+                                      @Nonnegative final int nThreads,
+                                      @Nonnull final IBulkDecryptedPayloadConsumer aConsumer)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+
+    final ICommonsList <String> aSources = new CommonsArrayList <> ();
+    final File [] aFiles = aDirectory.listFiles (x -> x.isFile () &&
+                                                      x.getName ()
+                                                       .endsWith (AS4IncomingDumperFileBased.IFileProvider.DEFAULT_FILE_EXTENSION));
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        aSources.add (aFile.getAbsolutePath ());
+    aSources.sort (Comparator.naturalOrder ());
+
+    final IDumpDataProvider aDataProvider = new IDumpDataProvider ()
+    {
+      @Nonnull
+      public ByteBuffer getData (@Nonnull final String sSource) throws IOException
+      {
+        return mapDumpFile (new File (sSource));
+      }
+
+      @Override
+      public void releaseData (@Nonnull final String sSource, @Nonnull final ByteBuffer aData)
+      {
+        AS4IOHelper.unmap (aData);
+      }
+    };
+    return decryptAS4InBulk (aSources, aDataProvider, aCF, nThreads, aConsumer);
+  }
+
+  /**
+   * Decrypt all dumps of an archive segment in parallel.
+   *
+   * @param aArchive
+   *        The archive to read from. May not be <code>null</code>.
+   * @param sSegmentName
+   *        The name of the segment to read. May neither be <code>null</code>
+   *        nor empty.
+   * @param aCF
+   *        The Crypto factory to be used. It must be able to decrypt all the
+   *        dumps. May not be <code>null</code>.
+   * @param nThreads
+   *        The number of parallel threads. Must be &gt; 0.
+   * @param aConsumer
+   *        The consumer for the decrypted payloads and errors. The source is
+   *        the incoming unique ID or, if that is not present, the offset in
+   *        the segment. Must be thread safe. May not be <code>null</code>.
+   * @return The number of dumps that were successfully decrypted. Always &ge;
+   *         0.
+   * @throws IOException
+   *         If the segment index cannot be read
+   * @since 1.4.4
+   */
+  @Nonnegative
+  public static int decryptAS4InBulk (@Nonnull final AS4DumpArchive aArchive,
+                                      @Nonnull @Nonempty final String sSegmentName,
+                                      @Nonnull final IAS4CryptoFactory aCF,
+                                      @Nonnegative final int nThreads,
+                                      @Nonnull final IBulkDecryptedPayloadConsumer aConsumer) throws IOException
+  {
+    ValueEnforcer.notNull (aArchive, "Archive");
+
+    final ICommonsMap <String, AS4DumpArchiveEntry> aEntries = new CommonsLinkedHashMap <> ();
+    for (final AS4DumpArchiveEntry aEntry : aArchive.getAllEntries (sSegmentName))
+    {
+      final String sSource = aEntry.getIncomingUniqueID () != null ? aEntry.getIncomingUniqueID ()
+                                                                   : sSegmentName + "@" + aEntry.getOffset ();
+      aEntries.put (sSource, aEntry);
+    }
+
+    return decryptAS4InBulk (aEntries.keySet (),
+                             x -> ByteBuffer.wrap (aArchive.read (aEntries.get (x))),
+                             aCF,
+                             nThreads,
+                             aConsumer);
+  }
 }
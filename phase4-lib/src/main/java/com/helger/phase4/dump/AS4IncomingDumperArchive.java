@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+
+/**
+ * Version of {@link IAS4IncomingDumper} that writes into an
+ * {@link AS4DumpArchive} instead of one file per message. Each dump is
+ * compressed while it is written - the compressed bytes are spooled to a
+ * temporary file if they get too large - and appended to the archive when the
+ * dump is complete.
+ * The AS4 message ID for the index is taken from the dumped ebMS header. The
+ * archive is not owned by this class and must be closed by the caller.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4IncomingDumperArchive extends AbstractAS4IncomingDumperWithHeaders
+{
+  private final AS4DumpArchive m_aArchive;
+
+  /**
+   * Constructor
+   *
+   * @param aArchive
+   *        The archive to write to. May not be <code>null</code>.
+   */
+  public AS4IncomingDumperArchive (@Nonnull final AS4DumpArchive aArchive)
+  {
+    ValueEnforcer.notNull (aArchive, "Archive");
+    m_aArchive = aArchive;
+  }
+
+  /**
+   * @return The archive used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4DumpArchive getArchive ()
+  {
+    return m_aArchive;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHttpHeaderMap)
+  {
+    return new AS4DumpArchiveOutputStream (m_aArchive, null, aMessageMetadata.getIncomingUniqueID ());
+  }
+}
@@ -123,6 +123,16 @@ public class AS4IncomingDumperFileBased extends AbstractAS4IncomingDumperWithHea
     m_aFileProvider = aFileProvider;
   }
 
+  /**
+   * @return The file provider used. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final IFileProvider getFileProvider ()
+  {
+    return m_aFileProvider;
+  }
+
   @Override
   @Nullable
   protected OutputStream openOutputStream (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * Version of {@link IAS4OutgoingDumper} that writes into an
+ * {@link AS4DumpArchive} instead of one file per message. Each dump is
+ * compressed while it is written - the compressed bytes are spooled to a
+ * temporary file if they get too large - and appended to the archive when the
+ * dump is complete.
+ * The archive is not owned by this class and must be closed by the caller.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4OutgoingDumperArchive extends AbstractAS4OutgoingDumperWithHeaders
+{
+  private final AS4DumpArchive m_aArchive;
+
+  /**
+   * Constructor
+   *
+   * @param aArchive
+   *        The archive to write to. May not be <code>null</code>.
+   */
+  public AS4OutgoingDumperArchive (@Nonnull final AS4DumpArchive aArchive)
+  {
+    ValueEnforcer.notNull (aArchive, "Archive");
+    m_aArchive = aArchive;
+  }
+
+  /**
+   * @return The archive used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4DumpArchive getArchive ()
+  {
+    return m_aArchive;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final EAS4MessageMode eMsgMode,
+                                           @Nullable final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nullable final IAS4MessageState aState,
+                                           @Nonnull @Nonempty final String sMessageID,
+                                           @Nullable final HttpHeaderMap aCustomHeaders,
+                                           @Nonnegative final int nTry)
+  {
+    // For responses, link to the incoming message
+    return new AS4DumpArchiveOutputStream (m_aArchive,
+                                           sMessageID,
+                                           aMessageMetadata == null ? null : aMessageMetadata.getIncomingUniqueID ());
+  }
+}
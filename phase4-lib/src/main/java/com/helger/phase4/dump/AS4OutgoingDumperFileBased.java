@@ -127,6 +127,16 @@ public class AS4OutgoingDumperFileBased extends AbstractAS4OutgoingDumperWithHea
     m_aFileProvider = aFileProvider;
   }
 
+  /**
+   * @return The file provider used. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final IFileProvider getFileProvider ()
+  {
+    return m_aFileProvider;
+  }
+
   @Override
   protected OutputStream openOutputStream (@Nonnull final EAS4MessageMode eMsgMode,
                                            @Nullable final IAS4IncomingMessageMetadata aMessageMetadata,
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * Asynchronous version of {@link AS4OutgoingDumperFileBased}. The dump is
+ * collected in memory and written by the provided {@link AS4AsyncDumpWriter},
+ * so that the disk latency does not add to the sending time. The writer is
+ * not owned by this class and must be closed by the caller.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4OutgoingDumperFileBasedAsync extends AS4OutgoingDumperFileBased
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutgoingDumperFileBasedAsync.class);
+
+  private final AS4AsyncDumpWriter m_aWriter;
+
+  /**
+   * Constructor that writes the files to the AS4 configured data path +
+   * {@link #DEFAULT_BASE_PATH}.
+   *
+   * @param aWriter
+   *        The asynchronous writer to use. May not be <code>null</code>.
+   * @see AS4Configuration#getDumpBasePathFile()
+   */
+  public AS4OutgoingDumperFileBasedAsync (@Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    this ( (eMsgMode, sMessageID, nTry) -> new File (AS4Configuration.getDumpBasePathFile (),
+                                                     DEFAULT_BASE_PATH + IFileProvider.getFilename (sMessageID, nTry)),
+           aWriter);
+  }
+
+  /**
+   * Constructor with a custom file provider.
+   *
+   * @param aFileProvider
+   *        The file provider that defines where to store the files. May not be
+   *        <code>null</code>.
+   * @param aWriter
+   *        The asynchronous writer to use. May not be <code>null</code>.
+   */
+  public AS4OutgoingDumperFileBasedAsync (@Nonnull final IFileProvider aFileProvider,
+                                          @Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    super (aFileProvider);
+    ValueEnforcer.notNull (aWriter, "Writer");
+    m_aWriter = aWriter;
+  }
+
+  /**
+   * @return The asynchronous writer used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4AsyncDumpWriter getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final EAS4MessageMode eMsgMode,
+                                           @Nullable final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nullable final IAS4MessageState aState,
+                                           @Nonnull @Nonempty final String sMessageID,
+                                           @Nullable final HttpHeaderMap aCustomHeaders,
+                                           @Nonnegative final int nTry)
+  {
+    final File aResponseFile = getFileProvider ().getFile (eMsgMode, sMessageID, nTry);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Logging outgoing AS4 message asynchronously to '" + aResponseFile.getAbsolutePath () + "'");
+    return m_aWriter.openStream (aResponseFile);
+  }
+
+  /**
+   * Create a new instance for the provided directory.
+   *
+   * @param aBaseDirectory
+   *        The absolute directory to be used. May not be <code>null</code>.
+   * @param aWriter
+   *        The asynchronous writer to use. May not be <code>null</code>.
+   * @return The created dumper. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4OutgoingDumperFileBasedAsync createForDirectory (@Nonnull final File aBaseDirectory,
+                                                                    @Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    ValueEnforcer.notNull (aBaseDirectory, "BaseDirectory");
+    return new AS4OutgoingDumperFileBasedAsync ( (eMsgMode,
+                                                  sMessageID,
+                                                  nTry) -> new File (aBaseDirectory,
+                                                                     IFileProvider.getFilename (sMessageID, nTry)),
+                                                 aWriter);
+  }
+}
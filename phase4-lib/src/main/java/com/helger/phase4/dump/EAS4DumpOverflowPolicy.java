@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+/**
+ * Defines what the {@link AS4AsyncDumpWriter} does with a dump, if the queue
+ * of pending dumps is full.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public enum EAS4DumpOverflowPolicy
+{
+  /**
+   * Block the calling thread until there is space in the queue.
+   */
+  BLOCK,
+  /**
+   * Discard the dump and only count it.
+   */
+  DROP,
+  /**
+   * Bypass the queue and write the dump synchronously in the calling thread.
+   */
+  SPILL;
+}
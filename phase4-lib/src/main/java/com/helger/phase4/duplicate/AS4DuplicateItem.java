@@ -124,4 +124,22 @@ public class AS4DuplicateItem implements IAS4DuplicateItem
                                        .appendIfNotNull ("PModeID", m_sPModeID)
                                        .getToString ();
   }
+
+  /**
+   * Get the provided item as an {@link AS4DuplicateItem}, retaining its date
+   * time.
+   *
+   * @param aItem
+   *        The source item. May not be <code>null</code>.
+   * @return The provided item if it is already an {@link AS4DuplicateItem}, a
+   *         copy otherwise.
+   * @since 1.4.4
+   */
+  @Nonnull
+  static AS4DuplicateItem getAsDuplicateItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    if (aItem instanceof AS4DuplicateItem)
+      return (AS4DuplicateItem) aItem;
+    return new AS4DuplicateItem (aItem.getDateTime (), aItem.getMessageID (), aItem.getProfileID (), aItem.getPModeID ());
+  }
 }
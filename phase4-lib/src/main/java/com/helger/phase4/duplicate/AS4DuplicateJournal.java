@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.NonBlockingBufferedOutputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An append-only binary journal for the {@link AS4DuplicateManagerBucketed}.
+ * Each registration and each bucket eviction is appended as a single record,
+ * so that the content can be restored after a crash by replaying the journal.
+ * A truncated last record (e.g. from a crash while writing) is ignored upon
+ * replay. The journal can be compacted by rewriting it with only the live
+ * items.<br>
+ * Appending uses group commit: records are added to an in-memory buffer and
+ * the first thread that needs its record to be written, writes the records of
+ * all threads at once. Appending threads therefore only contend on the short
+ * buffer operation and not on the file I/O.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DuplicateJournal implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateJournal.class);
+
+  private static final int MAGIC = 0x50344444;
+  private static final byte RECORD_REGISTER = 1;
+  private static final byte RECORD_EVICT = 2;
+
+  private final File m_aFile;
+  // Lock order: first m_aFileLock, then m_aBufferLock
+  private final SimpleLock m_aFileLock = new SimpleLock ();
+  private final SimpleLock m_aBufferLock = new SimpleLock ();
+  @GuardedBy ("m_aFileLock")
+  private OutputStream m_aFileOS;
+  @GuardedBy ("m_aBufferLock")
+  private final NonBlockingByteArrayOutputStream m_aBuffer = new NonBlockingByteArrayOutputStream ();
+  @GuardedBy ("m_aBufferLock")
+  private final DataOutputStream m_aBufferDOS = new DataOutputStream (m_aBuffer);
+  @GuardedBy ("m_aBufferLock")
+  private boolean m_bOpen;
+  @GuardedBy ("m_aBufferLock")
+  private long m_nRecordCount;
+  @GuardedBy ("m_aBufferLock")
+  private long m_nWrittenSeq;
+  private volatile long m_nFlushedSeq;
+
+  /**
+   * Constructor. The file is not opened until {@link #replay(Consumer, LongConsumer)}
+   * or {@link #rewrite(Supplier)} is called.
+   *
+   * @param aFile
+   *        The journal file to use. May not be <code>null</code>.
+   */
+  public AS4DuplicateJournal (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+  }
+
+  /**
+   * @return The journal file as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return The number of records currently contained in the journal. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getRecordCount ()
+  {
+    return m_aBufferLock.lockedLong ( () -> m_nRecordCount);
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    if (s == null)
+      aDOS.writeInt (-1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDOS.writeInt (aBytes.length);
+      aDOS.write (aBytes);
+    }
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLen = aDIS.readInt ();
+    if (nLen < 0)
+      return null;
+    final byte [] aBytes = new byte [nLen];
+    aDIS.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  private static void _writeItem (@Nonnull final DataOutputStream aDOS, @Nonnull final IAS4DuplicateItem aItem) throws IOException
+  {
+    final OffsetDateTime aDT = aItem.getDateTime ();
+    aDOS.writeByte (RECORD_REGISTER);
+    aDOS.writeLong (aDT.toInstant ().toEpochMilli ());
+    aDOS.writeInt (aDT.getOffset ().getTotalSeconds ());
+    _writeString (aDOS, aItem.getMessageID ());
+    _writeString (aDOS, aItem.getProfileID ());
+    _writeString (aDOS, aItem.getPModeID ());
+  }
+
+  /**
+   * (Re-)open the journal file. Must be called with both locks held.
+   *
+   * @param bAppend
+   *        <code>true</code> to append to an existing journal.
+   */
+  private void _openFile (final boolean bAppend) throws IOException
+  {
+    m_aFileOS = new FileOutputStream (m_aFile, bAppend);
+    m_bOpen = true;
+    // All buffered records are either contained in the file or obsolete
+    m_aBuffer.reset ();
+    m_nFlushedSeq = m_nWrittenSeq;
+  }
+
+  /**
+   * Read all records of the journal and pass them to the provided consumers.
+   * Afterwards the journal is opened for appending.
+   *
+   * @param aRegisterConsumer
+   *        The consumer for each registered item. May not be
+   *        <code>null</code>.
+   * @param aEvictConsumer
+   *        The consumer for each eviction record. The parameter is the bucket
+   *        key before which all buckets were evicted. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         In case the journal cannot be opened for writing
+   */
+  public void replay (@Nonnull final Consumer <? super AS4DuplicateItem> aRegisterConsumer,
+                      @Nonnull final LongConsumer aEvictConsumer) throws IOException
+  {
+    ValueEnforcer.notNull (aRegisterConsumer, "RegisterConsumer");
+    ValueEnforcer.notNull (aEvictConsumer, "EvictConsumer");
+
+    m_aFileLock.lock ();
+    try
+    {
+      long nRecords = 0;
+      boolean bHasMagic = false;
+      if (m_aFile.isFile () && m_aFile.length () > 0)
+      {
+        try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (m_aFile))))
+        {
+          if (aDIS.readInt () != MAGIC)
+            throw new IOException ("The file '" + m_aFile.getAbsolutePath () + "' is not a duplicate journal");
+          bHasMagic = true;
+
+          while (true)
+          {
+            final int nType = aDIS.read ();
+            if (nType < 0)
+              break;
+            if (nType == RECORD_REGISTER)
+            {
+              final long nEpochMillis = aDIS.readLong ();
+              final int nOffsetSecs = aDIS.readInt ();
+              final String sMessageID = _readString (aDIS);
+              final String sProfileID = _readString (aDIS);
+              final String sPModeID = _readString (aDIS);
+              final OffsetDateTime aDT = OffsetDateTime.ofInstant (Instant.ofEpochMilli (nEpochMillis),
+                                                                   ZoneOffset.ofTotalSeconds (nOffsetSecs));
+              aRegisterConsumer.accept (new AS4DuplicateItem (aDT, sMessageID, sProfileID, sPModeID));
+            }
+            else
+              if (nType == RECORD_EVICT)
+                aEvictConsumer.accept (aDIS.readLong ());
+              else
+              {
+                LOGGER.warn ("Found unknown record type " + nType + " in duplicate journal '" + m_aFile.getAbsolutePath () + "' - ignoring the rest");
+                break;
+              }
+            nRecords++;
+          }
+        }
+        catch (final EOFException ex)
+        {
+          // Last record was not completely written
+          LOGGER.warn ("Duplicate journal '" + m_aFile.getAbsolutePath () + "' ends with an incomplete record - ignoring it");
+        }
+      }
+
+      StreamHelper.close (m_aFileOS);
+      FileHelper.ensureParentDirectoryIsPresent (m_aFile);
+      m_aBufferLock.lock ();
+      try
+      {
+        _openFile (bHasMagic);
+        if (!bHasMagic)
+        {
+          final DataOutputStream aDOS = new DataOutputStream (m_aFileOS);
+          aDOS.writeInt (MAGIC);
+          aDOS.flush ();
+        }
+        m_nRecordCount = nRecords;
+      }
+      finally
+      {
+        m_aBufferLock.unlock ();
+      }
+    }
+    finally
+    {
+      m_aFileLock.unlock ();
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Replayed " + getRecordCount () + " records from duplicate journal '" + m_aFile.getAbsolutePath () + "'");
+  }
+
+  @FunctionalInterface
+  private interface IRecordWriter
+  {
+    void write (@Nonnull DataOutputStream aDOS) throws IOException;
+  }
+
+  private void _append (@Nonnull final IRecordWriter aWriter) throws IOException
+  {
+    final long nSeq;
+    m_aBufferLock.lock ();
+    try
+    {
+      if (!m_bOpen)
+        throw new IOException ("Duplicate journal '" + m_aFile.getAbsolutePath () + "' is not open");
+      aWriter.write (m_aBufferDOS);
+      m_nRecordCount++;
+      nSeq = ++m_nWrittenSeq;
+    }
+    finally
+    {
+      m_aBufferLock.unlock ();
+    }
+
+    // Wait until the record is written
+    _flushUpTo (nSeq);
+  }
+
+  private void _flushUpTo (final long nSeq) throws IOException
+  {
+    if (m_nFlushedSeq >= nSeq)
+      return;
+
+    m_aFileLock.lock ();
+    try
+    {
+      // Another thread may have written our record in the meantime
+      if (m_nFlushedSeq >= nSeq)
+        return;
+
+      // Take all records buffered so far
+      final byte [] aBytes;
+      final long nWrittenSeq;
+      m_aBufferLock.lock ();
+      try
+      {
+        if (!m_bOpen)
+          throw new IOException ("Duplicate journal '" + m_aFile.getAbsolutePath () + "' is not open");
+        aBytes = m_aBuffer.toByteArray ();
+        m_aBuffer.reset ();
+        nWrittenSeq = m_nWrittenSeq;
+      }
+      finally
+      {
+        m_aBufferLock.unlock ();
+      }
+
+      // Write outside of the buffer lock, so that other threads can append
+      m_aFileOS.write (aBytes);
+      m_aFileOS.flush ();
+      m_nFlushedSeq = nWrittenSeq;
+    }
+    finally
+    {
+      m_aFileLock.unlock ();
+    }
+  }
+
+  /**
+   * Append a registration record. The method returns after the record was
+   * written to the file.
+   *
+   * @param aItem
+   *        The item that was registered. May not be <code>null</code>.
+   * @throws IOException
+   *         on write error
+   */
+  public void appendRegister (@Nonnull final IAS4DuplicateItem aItem) throws IOException
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    _append (aDOS -> _writeItem (aDOS, aItem));
+  }
+
+  /**
+   * Append an eviction record. The method returns after the record was written
+   * to the file.
+   *
+   * @param nBucketKey
+   *        The bucket key before which all buckets were evicted.
+   * @throws IOException
+   *         on write error
+   */
+  public void appendEvict (final long nBucketKey) throws IOException
+  {
+    _append (aDOS -> {
+      aDOS.writeByte (RECORD_EVICT);
+      aDOS.writeLong (nBucketKey);
+    });
+  }
+
+  /**
+   * Compact the journal by replacing it with a new journal that only contains
+   * the provided items. The new journal is written to a temporary file that
+   * atomically replaces the existing file. The items are retrieved while
+   * appending is blocked, so that no concurrently appended record gets lost.
+   *
+   * @param aItemsSupplier
+   *        The supplier for the live items to be written. Invoked exactly once.
+   *        May not be <code>null</code>.
+   * @throws IOException
+   *         on write error
+   */
+  public void rewrite (@Nonnull final Supplier <? extends Iterable <? extends IAS4DuplicateItem>> aItemsSupplier) throws IOException
+  {
+    ValueEnforcer.notNull (aItemsSupplier, "ItemsSupplier");
+    m_aFileLock.lock ();
+    try
+    {
+      m_aBufferLock.lock ();
+      try
+      {
+        FileHelper.ensureParentDirectoryIsPresent (m_aFile);
+        final File aTmpFile = new File (m_aFile.getParentFile (), m_aFile.getName () + ".tmp");
+        long nRecords = 0;
+        try (final DataOutputStream aDOS = new DataOutputStream (new NonBlockingBufferedOutputStream (new FileOutputStream (aTmpFile,
+                                                                                                                              false))))
+        {
+          aDOS.writeInt (MAGIC);
+          // Snapshot while holding the lock that guards the appending
+          for (final IAS4DuplicateItem aItem : aItemsSupplier.get ())
+          {
+            _writeItem (aDOS, aItem);
+            nRecords++;
+          }
+        }
+
+        // Buffered records are either contained in the snapshot or obsolete
+        final boolean bWasOpen = m_bOpen;
+        StreamHelper.close (m_aFileOS);
+        m_aFileOS = null;
+        m_bOpen = false;
+        try
+        {
+          Files.move (aTmpFile.toPath (), m_aFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          m_nRecordCount = nRecords;
+        }
+        catch (final IOException ex)
+        {
+          // Continue with the old journal. Buffered records are not yet
+          // contained and need to be written
+          if (bWasOpen)
+          {
+            final byte [] aBytes = m_aBuffer.toByteArray ();
+            _openFile (true);
+            m_aFileOS.write (aBytes);
+            m_aFileOS.flush ();
+          }
+          FileOperations.deleteFileIfExisting (aTmpFile);
+          throw ex;
+        }
+        _openFile (true);
+      }
+      finally
+      {
+        m_aBufferLock.unlock ();
+      }
+    }
+    finally
+    {
+      m_aFileLock.unlock ();
+    }
+  }
+
+  public void close ()
+  {
+    m_aFileLock.lock ();
+    try
+    {
+      m_aBufferLock.lock ();
+      try
+      {
+        if (m_bOpen)
+        {
+          // Write all remaining records
+          m_aFileOS.write (m_aBuffer.toByteArray ());
+          m_aBuffer.reset ();
+          m_nFlushedSeq = m_nWrittenSeq;
+        }
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write remaining records to duplicate journal '" + m_aFile.getAbsolutePath () + "'", ex);
+      }
+      finally
+      {
+        StreamHelper.close (m_aFileOS);
+        m_aFileOS = null;
+        m_bOpen = false;
+        m_aBufferLock.unlock ();
+      }
+    }
+    finally
+    {
+      m_aFileLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("File", m_aFile).getToString ();
+  }
+}
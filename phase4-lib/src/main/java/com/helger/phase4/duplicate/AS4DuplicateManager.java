@@ -17,6 +17,7 @@
 package com.helger.phase4.duplicate;
 
 import java.time.OffsetDateTime;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -52,10 +53,16 @@ public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4Dupli
       return EContinue.CONTINUE;
     }
 
-    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    return registerItem (new AS4DuplicateItem (sMessageID, sProfileID, sPModeID));
+  }
+
+  @Nonnull
+  public EContinue registerItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    final AS4DuplicateItem aRealItem = AS4DuplicateItem.getAsDuplicateItem (aItem);
     try
     {
-      m_aRWLock.writeLocked ( () -> internalCreateItem (aItem));
+      m_aRWLock.writeLocked ( () -> internalCreateItem (aRealItem));
     }
     catch (final IllegalArgumentException ex)
     {
@@ -65,6 +72,11 @@ public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4Dupli
     return EContinue.CONTINUE;
   }
 
+  public void forEachMessageID (@Nonnull final Consumer <? super String> aConsumer)
+  {
+    findAll (null, x -> aConsumer.accept (x.getMessageID ()));
+  }
+
   @Nonnull
   public EChange clearCache ()
   {
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+
+/**
+ * An {@link IAS4DuplicateManager} that uses an {@link AS4RotatingBloomFilter}
+ * in front of another duplicate manager. Message IDs that are definitely not
+ * contained in the filter are accepted directly and are registered in the
+ * underlying manager in batches, at the latest after the maximum flush delay
+ * and upon {@link #close()}. The date time of the reception is retained. Only
+ * probable hits are checked against the underlying manager.<br>
+ * The filter generations are rotated based on the duplicate disposal period,
+ * and 3 generations are used so that each message ID is contained in the
+ * filter for at least two disposal periods.<br>
+ * Message IDs that were accepted but not yet written to the underlying manager
+ * are kept in a pending map, so that duplicates are also detected in between.
+ * All other methods write the pending message IDs first.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DuplicateManagerBloomFiltered implements IAS4DuplicateManager, AutoCloseable
+{
+  public static final long DEFAULT_EXPECTED_INSERTIONS = 1_000_000;
+  public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+  public static final int DEFAULT_GENERATIONS = 3;
+  public static final int DEFAULT_BATCH_SIZE = 64;
+  public static final long DEFAULT_MAX_FLUSH_DELAY_MILLIS = 1_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerBloomFiltered.class);
+
+  private final IAS4DuplicateManager m_aDelegate;
+  private final AS4RotatingBloomFilter m_aFilter;
+  private final int m_nBatchSize;
+  private final ScheduledExecutorService m_aFlushScheduler;
+  private final Map <String, AS4DuplicateItem> m_aPending = new ConcurrentHashMap <> ();
+  private final Queue <AS4DuplicateItem> m_aQueue = new ConcurrentLinkedQueue <> ();
+  private final AtomicInteger m_aQueueSize = new AtomicInteger (0);
+  private final SimpleLock m_aDrainLock = new SimpleLock ();
+
+  private final AtomicLong m_aLookups = new AtomicLong (0);
+  private final AtomicLong m_aShortCircuits = new AtomicLong (0);
+  private final AtomicLong m_aFalsePositives = new AtomicLong (0);
+  private final AtomicLong m_aDuplicates = new AtomicLong (0);
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aDelegate
+   *        The authoritative duplicate manager. May not be <code>null</code>.
+   * @param nDisposalMinutes
+   *        The duplicate disposal minutes, used as the rotation period. Values
+   *        &le; 0 mean that the filter is never rotated.
+   */
+  public AS4DuplicateManagerBloomFiltered (@Nonnull final IAS4DuplicateManager aDelegate, final long nDisposalMinutes)
+  {
+    this (aDelegate,
+          DEFAULT_EXPECTED_INSERTIONS,
+          DEFAULT_FALSE_POSITIVE_PROBABILITY,
+          TimeUnit.MINUTES.toMillis (nDisposalMinutes),
+          DEFAULT_BATCH_SIZE,
+          DEFAULT_MAX_FLUSH_DELAY_MILLIS,
+          System::currentTimeMillis);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The authoritative duplicate manager. May not be <code>null</code>.
+   * @param nExpectedInsertions
+   *        The expected number of message IDs per rotation period. Must be
+   *        &gt; 0.
+   * @param dFalsePositiveProbability
+   *        The desired false positive probability. Must be &gt; 0 and &lt; 1.
+   * @param nRotationMillis
+   *        The rotation period of the filter in milliseconds. Values &le; 0
+   *        mean that the filter is never rotated.
+   * @param nBatchSize
+   *        The number of accepted message IDs after which they are written to
+   *        the underlying manager. Must be &gt; 0.
+   * @param nMaxFlushDelayMillis
+   *        The maximum time in milliseconds that accepted message IDs are kept
+   *        before they are written to the underlying manager. Values &le; 0
+   *        mean that there is no time based flushing.
+   * @param aClock
+   *        The clock that provides the current time in milliseconds. May not be
+   *        <code>null</code>.
+   */
+  public AS4DuplicateManagerBloomFiltered (@Nonnull final IAS4DuplicateManager aDelegate,
+                                           @Nonnegative final long nExpectedInsertions,
+                                           final double dFalsePositiveProbability,
+                                           final long nRotationMillis,
+                                           @Nonnegative final int nBatchSize,
+                                           final long nMaxFlushDelayMillis,
+                                           @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.isGT0 (nBatchSize, "BatchSize");
+
+    m_aDelegate = aDelegate;
+    m_aFilter = new AS4RotatingBloomFilter (nExpectedInsertions,
+                                            dFalsePositiveProbability,
+                                            DEFAULT_GENERATIONS,
+                                            nRotationMillis,
+                                            aClock);
+    m_nBatchSize = nBatchSize;
+
+    // Fill with the existing content
+    aDelegate.forEachMessageID (m_aFilter::put);
+
+    if (nMaxFlushDelayMillis > 0)
+    {
+      final ScheduledThreadPoolExecutor aScheduler = new ScheduledThreadPoolExecutor (1, r -> {
+        final Thread t = new Thread (r, CAS4.LIB_NAME + "-duplicate-flush");
+        t.setDaemon (true);
+        return t;
+      });
+      aScheduler.scheduleWithFixedDelay (this::_flushScheduled, nMaxFlushDelayMillis, nMaxFlushDelayMillis, TimeUnit.MILLISECONDS);
+      m_aFlushScheduler = aScheduler;
+    }
+    else
+      m_aFlushScheduler = null;
+  }
+
+  /**
+   * @return The underlying duplicate manager. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4DuplicateManager getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  private void _drain ()
+  {
+    AS4DuplicateItem aItem;
+    while ((aItem = m_aQueue.poll ()) != null)
+    {
+      m_aQueueSize.decrementAndGet ();
+      final String sMessageID = aItem.getMessageID ();
+      // Keep the date time of the reception
+      if (m_aDelegate.registerItem (aItem).isBreak ())
+        LOGGER.warn ("Message ID '" + sMessageID + "' was already contained in the underlying duplicate manager");
+      m_aPending.remove (sMessageID);
+    }
+  }
+
+  /**
+   * Write all pending message IDs to the underlying duplicate manager.
+   */
+  public void flush ()
+  {
+    m_aDrainLock.locked (this::_drain);
+  }
+
+  private void _flushScheduled ()
+  {
+    try
+    {
+      if (m_aQueueSize.get () > 0)
+        flush ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't stop the scheduling
+      LOGGER.error ("Failed to flush pending message IDs to the underlying duplicate manager", ex);
+    }
+  }
+
+  private void _flushIfRequired ()
+  {
+    if (m_aQueueSize.get () >= m_nBatchSize && m_aDrainLock.tryLock ())
+      try
+      {
+        _drain ();
+      }
+      finally
+      {
+        m_aDrainLock.unlock ();
+      }
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    m_aLookups.incrementAndGet ();
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+
+    // Claim the message ID first. This makes concurrent registrations of the
+    // same ID atomic. The claim is held until the ID is contained in the
+    // underlying manager.
+    if (m_aPending.putIfAbsent (sMessageID, aItem) != null)
+    {
+      m_aDuplicates.incrementAndGet ();
+      return EContinue.BREAK;
+    }
+
+    // Consult the filter only while holding the claim: a previous registration
+    // of the same ID put it into the filter before releasing its claim
+    final boolean bMightContain = m_aFilter.mightContain (sMessageID);
+    m_aFilter.put (sMessageID);
+    if (!bMightContain)
+    {
+      // Definitely new - register later and keep the claim until then
+      m_aShortCircuits.incrementAndGet ();
+      m_aQueue.add (aItem);
+      m_aQueueSize.incrementAndGet ();
+      _flushIfRequired ();
+      return EContinue.CONTINUE;
+    }
+
+    // Probable hit - ask the authoritative store
+    try
+    {
+      final EContinue eRet = m_aDelegate.registerItem (aItem);
+      if (eRet.isBreak ())
+        m_aDuplicates.incrementAndGet ();
+      else
+        m_aFalsePositives.incrementAndGet ();
+      return eRet;
+    }
+    finally
+    {
+      m_aPending.remove (sMessageID);
+    }
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    final EChange eChange = m_aDrainLock.lockedGet ( () -> {
+      while (m_aQueue.poll () != null)
+        m_aQueueSize.decrementAndGet ();
+      m_aPending.clear ();
+      m_aFilter.clear ();
+      return m_aDelegate.clearCache ();
+    });
+    return eChange;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    // The filter is rotated on its own
+    flush ();
+    return m_aDelegate.evictAllItemsBefore (aRefDT);
+  }
+
+  public boolean isEmpty ()
+  {
+    flush ();
+    return m_aDelegate.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    flush ();
+    return m_aDelegate.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final AS4DuplicateItem aPending = m_aPending.get (sMessageID);
+    if (aPending != null)
+      return aPending;
+    if (!m_aFilter.mightContain (sMessageID))
+    {
+      // Definitely not contained
+      return null;
+    }
+    return m_aDelegate.getItemOfMessageID (sMessageID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    flush ();
+    return m_aDelegate.getAll ();
+  }
+
+  /**
+   * @return The number of registrations with a message ID. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLookupCount ()
+  {
+    return m_aLookups.get ();
+  }
+
+  /**
+   * @return The number of registrations that were accepted by the filter
+   *         without querying the underlying manager. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getShortCircuitCount ()
+  {
+    return m_aShortCircuits.get ();
+  }
+
+  /**
+   * @return The number of registrations where the filter reported a probable
+   *         hit, but the message ID was not a duplicate. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getFalsePositiveCount ()
+  {
+    return m_aFalsePositives.get ();
+  }
+
+  /**
+   * @return The number of registrations that were detected as duplicates.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getDuplicateCount ()
+  {
+    return m_aDuplicates.get ();
+  }
+
+  /**
+   * @return The observed false positive rate, that is the share of all new
+   *         message IDs that were not short-circuited by the filter. Between 0
+   *         and 1.
+   */
+  public double getFalsePositiveRate ()
+  {
+    final long nFalsePositives = m_aFalsePositives.get ();
+    final long nNew = m_aShortCircuits.get () + nFalsePositives;
+    return nNew == 0 ? 0 : (double) nFalsePositives / nNew;
+  }
+
+  public void close ()
+  {
+    if (m_aFlushScheduler != null)
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aFlushScheduler);
+    // Write all remaining message IDs
+    flush ();
+    if (m_aDelegate instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) m_aDelegate);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("Filter", m_aFilter)
+                                       .append ("BatchSize", m_nBatchSize)
+                                       .append ("Lookups", m_aLookups.get ())
+                                       .append ("ShortCircuits", m_aShortCircuits.get ())
+                                       .append ("FalsePositives", m_aFalsePositives.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A duplicate manager that is optimized for a high number of message IDs. The
+ * items are stored in time buckets of a fixed duration, each bucket having its
+ * own concurrent hash index. Lookups only probe the few live buckets, and
+ * eviction drops whole buckets without looking at the single items. As a
+ * consequence, items may be retained up to one bucket duration longer than
+ * requested by {@link #evictAllItemsBefore(OffsetDateTime)}.<br>
+ * Registrations are synchronized on lock stripes derived from the message ID,
+ * so that registrations of different message IDs don't block each other.<br>
+ * Optionally an {@link AS4DuplicateJournal} can be used to restore the content
+ * after a restart or crash. The journal is written outside of the lock
+ * stripes, and concurrent registrations share the journal writes via group
+ * commit.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DuplicateManagerBucketed implements IAS4DuplicateManager, AutoCloseable
+{
+  public static final Duration DEFAULT_BUCKET_DURATION = Duration.ofMinutes (1);
+  public static final int DEFAULT_STRIPE_COUNT = 64;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerBucketed.class);
+
+  private final long m_nBucketMillis;
+  private final SimpleLock [] m_aStripes;
+  private final NavigableMap <Long, Map <String, AS4DuplicateItem>> m_aBuckets = new ConcurrentSkipListMap <> ();
+  private final AS4DuplicateJournal m_aJournal;
+
+  /**
+   * Constructor
+   *
+   * @param aBucketDuration
+   *        The time span covered by a single bucket. Must be at least one
+   *        millisecond. May not be <code>null</code>.
+   * @param nStripeCount
+   *        The number of lock stripes. Must be &gt; 0.
+   * @param aJournalFile
+   *        The journal file to use. May be <code>null</code> to not persist
+   *        anything. If the file exists, the content is restored from it.
+   * @throws IOException
+   *         If the journal cannot be read or written
+   */
+  public AS4DuplicateManagerBucketed (@Nonnull final Duration aBucketDuration,
+                                      @Nonnegative final int nStripeCount,
+                                      @Nullable final File aJournalFile) throws IOException
+  {
+    ValueEnforcer.notNull (aBucketDuration, "BucketDuration");
+    ValueEnforcer.isGT0 (aBucketDuration.toMillis (), "BucketDuration.Millis");
+    ValueEnforcer.isGT0 (nStripeCount, "StripeCount");
+
+    m_nBucketMillis = aBucketDuration.toMillis ();
+    m_aStripes = new SimpleLock [nStripeCount];
+    for (int i = 0; i < nStripeCount; ++i)
+      m_aStripes[i] = new SimpleLock ();
+
+    if (aJournalFile != null)
+    {
+      m_aJournal = new AS4DuplicateJournal (aJournalFile);
+      m_aJournal.replay (this::_put, x -> m_aBuckets.headMap (Long.valueOf (x), false).clear ());
+      // Compact directly after reading
+      m_aJournal.rewrite (this::_getAllItems);
+      LOGGER.info ("Restored " + size () + " incoming duplicate message IDs from '" + aJournalFile.getAbsolutePath () + "'");
+    }
+    else
+      m_aJournal = null;
+  }
+
+  /**
+   * @return The duration of a single bucket in milliseconds. Always &gt; 0.
+   */
+  @Nonnegative
+  public final long getBucketMillis ()
+  {
+    return m_nBucketMillis;
+  }
+
+  /**
+   * @return The number of currently live buckets. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getBucketCount ()
+  {
+    return m_aBuckets.size ();
+  }
+
+  private long _getBucketKey (@Nonnull final OffsetDateTime aDT)
+  {
+    return Math.floorDiv (aDT.toInstant ().toEpochMilli (), m_nBucketMillis);
+  }
+
+  @Nonnull
+  private SimpleLock _getStripe (@Nonnull final String sMessageID)
+  {
+    // Spread the hash code, as in ConcurrentHashMap
+    final int h = sMessageID.hashCode ();
+    return m_aStripes[((h ^ (h >>> 16)) & 0x7fffffff) % m_aStripes.length];
+  }
+
+  private void _put (@Nonnull final AS4DuplicateItem aItem)
+  {
+    m_aBuckets.computeIfAbsent (Long.valueOf (_getBucketKey (aItem.getDateTime ())), k -> new ConcurrentHashMap <> ())
+              .putIfAbsent (aItem.getMessageID (), aItem);
+  }
+
+  @Nullable
+  private AS4DuplicateItem _find (@Nonnull final String sMessageID)
+  {
+    // Newest buckets first, as they are the most likely ones for duplicates
+    for (final Map <String, AS4DuplicateItem> aBucket : m_aBuckets.descendingMap ().values ())
+    {
+      final AS4DuplicateItem ret = aBucket.get (sMessageID);
+      if (ret != null)
+        return ret;
+    }
+    return null;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsList <AS4DuplicateItem> _getAllItems ()
+  {
+    final ICommonsList <AS4DuplicateItem> ret = new CommonsArrayList <> ();
+    for (final Map <String, AS4DuplicateItem> aBucket : m_aBuckets.values ())
+      ret.addAll (aBucket.values ());
+    return ret;
+  }
+
+  /**
+   * Register the provided item if no item with the same message ID is
+   * contained.
+   *
+   * @param aItem
+   *        The item to register. May not be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} if the item was registered,
+   *         {@link EContinue#BREAK} if it is a duplicate.
+   */
+  @Nonnull
+  protected EContinue internalRegisterAndCheck (@Nonnull final AS4DuplicateItem aItem)
+  {
+    final String sMessageID = aItem.getMessageID ();
+    final SimpleLock aStripe = _getStripe (sMessageID);
+    aStripe.lock ();
+    try
+    {
+      if (_find (sMessageID) != null)
+      {
+        // ID already in use
+        return EContinue.BREAK;
+      }
+      _put (aItem);
+    }
+    finally
+    {
+      aStripe.unlock ();
+    }
+
+    // The item is registered in memory before it is journaled, so that a
+    // concurrent journal compaction either contains the item or is followed by
+    // this record
+    if (m_aJournal != null)
+      try
+      {
+        m_aJournal.appendRegister (aItem);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to append message ID '" + sMessageID + "' to duplicate journal", ex);
+      }
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    return internalRegisterAndCheck (new AS4DuplicateItem (sMessageID, sProfileID, sPModeID));
+  }
+
+  @Nonnull
+  public EContinue registerItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    return internalRegisterAndCheck (AS4DuplicateItem.getAsDuplicateItem (aItem));
+  }
+
+  public void forEachMessageID (@Nonnull final Consumer <? super String> aConsumer)
+  {
+    for (final Map <String, AS4DuplicateItem> aBucket : m_aBuckets.values ())
+      aBucket.keySet ().forEach (aConsumer);
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    if (m_aBuckets.isEmpty ())
+      return EChange.UNCHANGED;
+
+    if (m_aJournal != null)
+      try
+      {
+        // Clear while the journal is locked
+        m_aJournal.rewrite ( () -> {
+          m_aBuckets.clear ();
+          return new CommonsArrayList <> ();
+        });
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to clear duplicate journal", ex);
+      }
+    else
+      m_aBuckets.clear ();
+    return EChange.CHANGED;
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * Only buckets that end before the provided date time are removed.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final long nBucketKey = _getBucketKey (aRefDT);
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final NavigableMap <Long, Map <String, AS4DuplicateItem>> aHead = m_aBuckets.headMap (Long.valueOf (nBucketKey), false);
+    Map.Entry <Long, Map <String, AS4DuplicateItem>> aEntry;
+    while ((aEntry = aHead.pollFirstEntry ()) != null)
+      ret.addAll (aEntry.getValue ().keySet ());
+
+    if (ret.isNotEmpty () && m_aJournal != null)
+      try
+      {
+        m_aJournal.appendEvict (nBucketKey);
+
+        // Compact the journal if it contains a lot of evicted items
+        if (m_aJournal.getRecordCount () > 2L * size () + 1000)
+          m_aJournal.rewrite (this::_getAllItems);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write eviction to duplicate journal", ex);
+      }
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    for (final Map <String, AS4DuplicateItem> aBucket : m_aBuckets.values ())
+      if (!aBucket.isEmpty ())
+        return false;
+    return true;
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    int ret = 0;
+    for (final Map <String, AS4DuplicateItem> aBucket : m_aBuckets.values ())
+      ret += aBucket.size ();
+    return ret;
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    return _find (sMessageID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return new CommonsArrayList <> (_getAllItems ());
+  }
+
+  /**
+   * Compact the journal, so that it only contains the live items. This is
+   * done automatically upon startup and if the journal contains a lot of
+   * evicted items.
+   *
+   * @throws IOException
+   *         on write error
+   */
+  public void compactJournal () throws IOException
+  {
+    if (m_aJournal != null)
+      m_aJournal.rewrite (this::_getAllItems);
+  }
+
+  public void close ()
+  {
+    if (m_aJournal != null)
+      m_aJournal.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BucketMillis", m_nBucketMillis)
+                                       .append ("StripeCount", m_aStripes.length)
+                                       .append ("Journal", m_aJournal)
+                                       .getToString ();
+  }
+}
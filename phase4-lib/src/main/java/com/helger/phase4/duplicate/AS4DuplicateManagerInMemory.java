@@ -17,6 +17,7 @@
 package com.helger.phase4.duplicate;
 
 import java.time.OffsetDateTime;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnegative;
@@ -60,17 +61,23 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
       return EContinue.CONTINUE;
     }
 
-    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    return registerItem (new AS4DuplicateItem (sMessageID, sProfileID, sPModeID));
+  }
+
+  @Nonnull
+  public EContinue registerItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    final AS4DuplicateItem aRealItem = AS4DuplicateItem.getAsDuplicateItem (aItem);
     m_aRWLock.writeLock ().lock ();
     try
     {
-      final String sID = aItem.getID ();
+      final String sID = aRealItem.getID ();
       if (m_aMap.containsKey (sID))
       {
         // ID already in use
         return EContinue.BREAK;
       }
-      m_aMap.put (sID, aItem);
+      m_aMap.put (sID, aRealItem);
     }
     finally
     {
@@ -79,6 +86,11 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     return EContinue.CONTINUE;
   }
 
+  public void forEachMessageID (@Nonnull final Consumer <? super String> aConsumer)
+  {
+    m_aRWLock.readLocked ( () -> m_aMap.keySet ().forEach (aConsumer));
+  }
+
   @Nonnull
   public EChange clearCache ()
   {
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A concurrent Bloom filter for strings that consists of multiple generations.
+ * New values are always added to the newest generation, and lookups check all
+ * generations. After the rotation period the oldest generation is dropped and
+ * a new empty generation is created. Therefore each added value is contained
+ * for at least <code>(generations - 1) * rotation period</code>.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4RotatingBloomFilter
+{
+  /**
+   * A single, fixed-size generation. The bits are set lock-free.
+   */
+  private static final class Generation
+  {
+    private final AtomicLongArray m_aBits;
+    private final long m_nBitCount;
+    private final long m_nCreationMillis;
+
+    Generation (@Nonnegative final long nBitCount, final long nCreationMillis)
+    {
+      m_aBits = new AtomicLongArray ((int) ((nBitCount + 63) / 64));
+      m_nBitCount = nBitCount;
+      m_nCreationMillis = nCreationMillis;
+    }
+
+    boolean isSet (final long nBit)
+    {
+      return (m_aBits.get ((int) (nBit >>> 6)) & (1L << nBit)) != 0;
+    }
+
+    void set (final long nBit)
+    {
+      final int nIndex = (int) (nBit >>> 6);
+      final long nMask = 1L << nBit;
+      long nOld;
+      while (((nOld = m_aBits.get (nIndex)) & nMask) == 0)
+        if (m_aBits.compareAndSet (nIndex, nOld, nOld | nMask))
+          break;
+    }
+  }
+
+  private final long m_nBitCount;
+  private final int m_nHashCount;
+  private final long m_nRotationMillis;
+  private final LongSupplier m_aClock;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Newest generation first; the array itself is never modified, only
+  // replaced
+  @GuardedBy ("m_aLock")
+  private volatile Generation [] m_aGenerations;
+
+  /**
+   * Constructor
+   *
+   * @param nExpectedInsertions
+   *        The expected number of insertions per generation. Must be &gt; 0.
+   * @param dFalsePositiveProbability
+   *        The desired false positive probability per generation. Must be
+   *        &gt; 0 and &lt; 1.
+   * @param nGenerations
+   *        The number of generations to use. Must be &gt; 0.
+   * @param nRotationMillis
+   *        The number of milliseconds after which a new generation is created.
+   *        Values &le; 0 mean that the filter is never rotated.
+   * @param aClock
+   *        The clock that provides the current time in milliseconds. May not be
+   *        <code>null</code>.
+   */
+  public AS4RotatingBloomFilter (@Nonnegative final long nExpectedInsertions,
+                                 final double dFalsePositiveProbability,
+                                 @Nonnegative final int nGenerations,
+                                 final long nRotationMillis,
+                                 @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.isGT0 (nExpectedInsertions, "ExpectedInsertions");
+    ValueEnforcer.isTrue (dFalsePositiveProbability > 0 && dFalsePositiveProbability < 1,
+                          "FalsePositiveProbability must be between 0 and 1");
+    ValueEnforcer.isGT0 (nGenerations, "Generations");
+    ValueEnforcer.notNull (aClock, "Clock");
+
+    // Standard formulas for the optimal number of bits and hash functions
+    final double dLn2 = Math.log (2);
+    m_nBitCount = Math.max (64, (long) Math.ceil (-nExpectedInsertions * Math.log (dFalsePositiveProbability) / (dLn2 * dLn2)));
+    m_nHashCount = Math.max (1, (int) Math.round ((double) m_nBitCount / nExpectedInsertions * dLn2));
+    m_nRotationMillis = nRotationMillis;
+    m_aClock = aClock;
+
+    final long nNow = aClock.getAsLong ();
+    m_aGenerations = new Generation [nGenerations];
+    for (int i = 0; i < nGenerations; ++i)
+      m_aGenerations[i] = new Generation (m_nBitCount, nNow);
+  }
+
+  /**
+   * @return The number of bits per generation. Always &gt; 0.
+   */
+  @Nonnegative
+  public final long getBitCount ()
+  {
+    return m_nBitCount;
+  }
+
+  /**
+   * @return The number of hash functions used. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getHashCount ()
+  {
+    return m_nHashCount;
+  }
+
+  @Nonnull
+  private Generation [] _getGenerations ()
+  {
+    Generation [] aGens = m_aGenerations;
+    if (m_nRotationMillis > 0)
+    {
+      final long nNow = m_aClock.getAsLong ();
+      if (nNow - aGens[0].m_nCreationMillis >= m_nRotationMillis)
+      {
+        aGens = m_aLock.lockedGet ( () -> {
+          final Generation [] aCur = m_aGenerations;
+          if (nNow - aCur[0].m_nCreationMillis < m_nRotationMillis)
+          {
+            // Another thread was faster
+            return aCur;
+          }
+          // Drop the oldest generation
+          final Generation [] aNew = new Generation [aCur.length];
+          aNew[0] = new Generation (m_nBitCount, nNow);
+          System.arraycopy (aCur, 0, aNew, 1, aCur.length - 1);
+          m_aGenerations = aNew;
+          return aNew;
+        });
+      }
+    }
+    return aGens;
+  }
+
+  private static long _hash64 (@Nonnull final String sValue)
+  {
+    // 64 bit FNV-1a over the UTF-8 bytes, finalized with the MurmurHash3 mixer
+    long h = 0xcbf29ce484222325L;
+    for (final byte b : sValue.getBytes (StandardCharsets.UTF_8))
+    {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private long _getBit (final long nHash, final int nIndex)
+  {
+    // Double hashing
+    final long nHash1 = nHash & 0xffffffffL;
+    final long nHash2 = (nHash >>> 32) | 1;
+    return Math.floorMod (nHash1 + nIndex * nHash2, m_nBitCount);
+  }
+
+  private boolean _mightContain (@Nonnull final Generation aGen, final long nHash)
+  {
+    for (int i = 0; i < m_nHashCount; ++i)
+      if (!aGen.isSet (_getBit (nHash, i)))
+        return false;
+    return true;
+  }
+
+  /**
+   * Check if the provided value might be contained.
+   *
+   * @param sValue
+   *        The value to check. May not be <code>null</code>.
+   * @return <code>false</code> if the value was definitely not added within
+   *         the live generations, <code>true</code> if it might have been
+   *         added.
+   */
+  public boolean mightContain (@Nonnull final String sValue)
+  {
+    final long nHash = _hash64 (sValue);
+    for (final Generation aGen : _getGenerations ())
+      if (_mightContain (aGen, nHash))
+        return true;
+    return false;
+  }
+
+  /**
+   * Add the provided value to the newest generation.
+   *
+   * @param sValue
+   *        The value to be added. May not be <code>null</code>.
+   */
+  public void put (@Nonnull final String sValue)
+  {
+    final long nHash = _hash64 (sValue);
+    final Generation aGen = _getGenerations ()[0];
+    for (int i = 0; i < m_nHashCount; ++i)
+      aGen.set (_getBit (nHash, i));
+  }
+
+  /**
+   * Remove all values from all generations.
+   */
+  public void clear ()
+  {
+    m_aLock.locked ( () -> {
+      final long nNow = m_aClock.getAsLong ();
+      final Generation [] aNew = new Generation [m_aGenerations.length];
+      for (int i = 0; i < aNew.length; ++i)
+        aNew[i] = new Generation (m_nBitCount, nNow);
+      m_aGenerations = aNew;
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BitCount", m_nBitCount)
+                                       .append ("HashCount", m_nHashCount)
+                                       .append ("Generations", m_aGenerations.length)
+                                       .append ("RotationMillis", m_nRotationMillis)
+                                       .getToString ();
+  }
+}
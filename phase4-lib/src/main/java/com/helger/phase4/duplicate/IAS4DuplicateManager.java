@@ -17,6 +17,7 @@
 package com.helger.phase4.duplicate;
 
 import java.time.OffsetDateTime;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -80,6 +81,41 @@ public interface IAS4DuplicateManager
   @Nonnull
   EContinue registerAndCheck (@Nullable String sMessageID, @Nullable String sProfileID, @Nullable String sPModeID);
 
+  /**
+   * Check if the message ID of the passed item was already handled, and
+   * register the item otherwise. In contrast to
+   * {@link #registerAndCheck(String, String, String)} the date time of the
+   * passed item is retained. The default implementation uses the current date
+   * time instead.
+   *
+   * @param aItem
+   *        The item to be registered. May not be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} if the item was registered,
+   *         {@link EContinue#BREAK} if an item with the same message ID is
+   *         already contained.
+   * @since 1.4.4
+   */
+  @Nonnull
+  default EContinue registerItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    return registerAndCheck (aItem.getMessageID (), aItem.getProfileID (), aItem.getPModeID ());
+  }
+
+  /**
+   * Invoke the provided consumer for the message ID of each contained item.
+   * The default implementation uses {@link #getAll()} - implementations
+   * should override it to avoid the copy.
+   *
+   * @param aConsumer
+   *        The consumer to be invoked. May not be <code>null</code>.
+   * @since 1.4.4
+   */
+  default void forEachMessageID (@Nonnull final Consumer <? super String> aConsumer)
+  {
+    for (final IAS4DuplicateItem aItem : getAll ())
+      aConsumer.accept (aItem.getMessageID ());
+  }
+
   /**
    * Remove all entries in the cache.
    *
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A circuit breaker for a single destination URL. It uses a window of the most
+ * recent calls to determine the failure rate. Slow calls are considered
+ * failures. If the failure rate reaches the threshold, the circuit breaker
+ * opens and no calls are permitted. After the open duration, a single trial
+ * call is permitted (half-open). If it succeeds, the circuit breaker is closed
+ * again, otherwise it opens again.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4CircuitBreaker
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CircuitBreaker.class);
+
+  private final String m_sURL;
+  private final AS4CircuitBreakerSettings m_aSettings;
+  private final Lock m_aLock = new ReentrantLock ();
+  // true means failure
+  @GuardedBy ("m_aLock")
+  private final boolean [] m_aOutcomes;
+  @GuardedBy ("m_aLock")
+  private int m_nOutcomeCount = 0;
+  @GuardedBy ("m_aLock")
+  private int m_nNextOutcomeIndex = 0;
+  @GuardedBy ("m_aLock")
+  private int m_nFailureCount = 0;
+  @GuardedBy ("m_aLock")
+  private EAS4CircuitBreakerState m_eState = EAS4CircuitBreakerState.CLOSED;
+  @GuardedBy ("m_aLock")
+  private long m_nOpenedNanos;
+  @GuardedBy ("m_aLock")
+  private boolean m_bTrialCallRunning = false;
+
+  public AS4CircuitBreaker (@Nonnull @Nonempty final String sURL, @Nonnull final AS4CircuitBreakerSettings aSettings)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aSettings, "Settings");
+    m_sURL = sURL;
+    m_aSettings = aSettings.getClone ();
+    m_aOutcomes = new boolean [m_aSettings.getWindowSize ()];
+  }
+
+  /**
+   * @return The URL this circuit breaker is responsible for. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getURL ()
+  {
+    return m_sURL;
+  }
+
+  /**
+   * @return The current state. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4CircuitBreakerState getState ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_eState;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The failure rate of the current window between 0 and 1.
+   */
+  public final double getFailureRate ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_nOutcomeCount == 0 ? 0 : (double) m_nFailureCount / m_nOutcomeCount;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _resetWindow ()
+  {
+    m_nOutcomeCount = 0;
+    m_nNextOutcomeIndex = 0;
+    m_nFailureCount = 0;
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _open ()
+  {
+    m_eState = EAS4CircuitBreakerState.OPEN;
+    m_nOpenedNanos = System.nanoTime ();
+    m_bTrialCallRunning = false;
+    _resetWindow ();
+    LOGGER.warn ("Opened the circuit breaker for '" + m_sURL + "'");
+  }
+
+  /**
+   * Check if a call to the URL is permitted. If <code>true</code> is returned,
+   * the caller must call {@link #onCallFinished(boolean, Duration)}
+   * afterwards.
+   *
+   * @return <code>true</code> if the call is permitted, <code>false</code> if
+   *         not.
+   */
+  public boolean tryAcquirePermission ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      switch (m_eState)
+      {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.nanoTime () - m_nOpenedNanos < m_aSettings.getOpenDuration ().toNanos ())
+            return false;
+          m_eState = EAS4CircuitBreakerState.HALF_OPEN;
+          m_bTrialCallRunning = true;
+          LOGGER.info ("Circuit breaker for '" + m_sURL + "' is half-open - permitting a trial call");
+          return true;
+        case HALF_OPEN:
+          if (m_bTrialCallRunning)
+            return false;
+          m_bTrialCallRunning = true;
+          return true;
+        default:
+          throw new IllegalStateException ("Unsupported state " + m_eState);
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Record the outcome of a permitted call.
+   *
+   * @param bSuccess
+   *        <code>true</code> if the call succeeded, <code>false</code> if it
+   *        failed.
+   * @param aDuration
+   *        The duration of the call. Successful calls taking longer than the
+   *        slow call duration are considered failures. May not be
+   *        <code>null</code>.
+   */
+  public void onCallFinished (final boolean bSuccess, @Nonnull final Duration aDuration)
+  {
+    ValueEnforcer.notNull (aDuration, "Duration");
+    final boolean bFailure = !bSuccess || aDuration.compareTo (m_aSettings.getSlowCallDuration ()) > 0;
+
+    m_aLock.lock ();
+    try
+    {
+      switch (m_eState)
+      {
+        case HALF_OPEN:
+          if (bFailure)
+            _open ();
+          else
+          {
+            m_eState = EAS4CircuitBreakerState.CLOSED;
+            m_bTrialCallRunning = false;
+            _resetWindow ();
+            LOGGER.info ("Closed the circuit breaker for '" + m_sURL + "' again");
+          }
+          break;
+        case CLOSED:
+        {
+          // Remove the outcome that drops out of the window
+          if (m_nOutcomeCount == m_aOutcomes.length)
+          {
+            if (m_aOutcomes[m_nNextOutcomeIndex])
+              m_nFailureCount--;
+          }
+          else
+            m_nOutcomeCount++;
+          m_aOutcomes[m_nNextOutcomeIndex] = bFailure;
+          if (bFailure)
+            m_nFailureCount++;
+          m_nNextOutcomeIndex = (m_nNextOutcomeIndex + 1) % m_aOutcomes.length;
+
+          if (m_nOutcomeCount >= m_aSettings.getMinimumCalls () &&
+              (double) m_nFailureCount / m_nOutcomeCount >= m_aSettings.getFailureRateThreshold ())
+            _open ();
+          break;
+        }
+        case OPEN:
+          // Call was permitted before the circuit breaker opened - ignore
+          break;
+        default:
+          throw new IllegalStateException ("Unsupported state " + m_eState);
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("URL", m_sURL)
+                                       .append ("Settings", m_aSettings)
+                                       .append ("State", getState ())
+                                       .getToString ();
+  }
+}
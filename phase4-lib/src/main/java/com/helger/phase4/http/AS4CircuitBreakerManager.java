@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * This class holds the {@link AS4CircuitBreaker} objects per destination URL.
+ * Circuit breakers are only used if {@link #isEnabled()} returns
+ * <code>true</code>.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4CircuitBreakerManager
+{
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static AS4CircuitBreakerSettings s_aSettings = new AS4CircuitBreakerSettings ();
+  @GuardedBy ("RW_LOCK")
+  private static final ICommonsMap <String, AS4CircuitBreaker> BREAKERS = new CommonsHashMap <> ();
+
+  private AS4CircuitBreakerManager ()
+  {}
+
+  /**
+   * @return <code>true</code> if circuit breakers should be used. This is the
+   *         value of {@link AS4Configuration#isHttpCircuitBreakerEnabled()}.
+   */
+  public static boolean isEnabled ()
+  {
+    return AS4Configuration.isHttpCircuitBreakerEnabled ();
+  }
+
+  /**
+   * @return A copy of the settings used for new circuit breakers. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static AS4CircuitBreakerSettings getSettings ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aSettings.getClone ());
+  }
+
+  /**
+   * Set the settings to be used. All existing circuit breakers are removed, so
+   * that the new settings apply to all URLs.
+   *
+   * @param aSettings
+   *        The new settings. May not be <code>null</code>.
+   */
+  public static void setSettings (@Nonnull final AS4CircuitBreakerSettings aSettings)
+  {
+    ValueEnforcer.notNull (aSettings, "Settings");
+    RW_LOCK.writeLocked ( () -> {
+      s_aSettings = aSettings.getClone ();
+      BREAKERS.clear ();
+    });
+  }
+
+  /**
+   * Get the circuit breaker for the provided URL, or create a new one.
+   *
+   * @param sURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @return The circuit breaker and never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CircuitBreaker getOrCreateCircuitBreaker (@Nonnull @Nonempty final String sURL)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    final AS4CircuitBreaker ret = RW_LOCK.readLockedGet ( () -> BREAKERS.get (sURL));
+    if (ret != null)
+      return ret;
+    return RW_LOCK.writeLockedGet ( () -> BREAKERS.computeIfAbsent (sURL, k -> new AS4CircuitBreaker (k, s_aSettings)));
+  }
+
+  /**
+   * @param sURL
+   *        The destination URL. May be <code>null</code>.
+   * @return The state of the circuit breaker of the provided URL or
+   *         <code>null</code> if no circuit breaker for that URL exists.
+   */
+  @Nullable
+  public static EAS4CircuitBreakerState getState (@Nullable final String sURL)
+  {
+    final AS4CircuitBreaker aBreaker = RW_LOCK.readLockedGet ( () -> BREAKERS.get (sURL));
+    return aBreaker == null ? null : aBreaker.getState ();
+  }
+
+  /**
+   * @return The states of all circuit breakers, indexed by the URL. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsMap <String, EAS4CircuitBreakerState> getAllStates ()
+  {
+    final ICommonsMap <String, EAS4CircuitBreakerState> ret = new CommonsHashMap <> ();
+    RW_LOCK.readLocked ( () -> BREAKERS.forEach ( (k, v) -> ret.put (k, v.getState ())));
+    return ret;
+  }
+
+  /**
+   * Remove all circuit breakers, which effectively closes all of them.
+   */
+  public static void removeAll ()
+  {
+    RW_LOCK.writeLocked (BREAKERS::clear);
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Special exception that is thrown if a message is not sent, because the
+ * {@link AS4CircuitBreaker} of the destination URL is open.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4CircuitBreakerOpenException extends IOException
+{
+  private final String m_sURL;
+
+  public AS4CircuitBreakerOpenException (@Nonnull @Nonempty final String sURL)
+  {
+    super ("The circuit breaker for '" + sURL + "' is open - not sending");
+    m_sURL = sURL;
+  }
+
+  /**
+   * @return The URL for which the circuit breaker is open. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getURL ()
+  {
+    return m_sURL;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An object encapsulating the settings of an {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@NotThreadSafe
+public class AS4CircuitBreakerSettings
+{
+  public static final int DEFAULT_WINDOW_SIZE = 20;
+  public static final int DEFAULT_MINIMUM_CALLS = 10;
+  public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+  public static final Duration DEFAULT_SLOW_CALL_DURATION = Duration.ofSeconds (60);
+  public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds (30);
+
+  private int m_nWindowSize = DEFAULT_WINDOW_SIZE;
+  private int m_nMinimumCalls = DEFAULT_MINIMUM_CALLS;
+  private double m_dFailureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+  private Duration m_aSlowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+  private Duration m_aOpenDuration = DEFAULT_OPEN_DURATION;
+
+  public AS4CircuitBreakerSettings ()
+  {}
+
+  /**
+   * @return The number of most recent calls that are considered for the
+   *         failure rate. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getWindowSize ()
+  {
+    return m_nWindowSize;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setWindowSize (@Nonnegative final int nWindowSize)
+  {
+    ValueEnforcer.isGT0 (nWindowSize, "WindowSize");
+    m_nWindowSize = nWindowSize;
+    return this;
+  }
+
+  /**
+   * @return The minimum number of calls in the window before the circuit
+   *         breaker may open. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMinimumCalls ()
+  {
+    return m_nMinimumCalls;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setMinimumCalls (@Nonnegative final int nMinimumCalls)
+  {
+    ValueEnforcer.isGT0 (nMinimumCalls, "MinimumCalls");
+    m_nMinimumCalls = nMinimumCalls;
+    return this;
+  }
+
+  /**
+   * @return The failure rate between 0 and 1 at which the circuit breaker
+   *         opens.
+   */
+  public final double getFailureRateThreshold ()
+  {
+    return m_dFailureRateThreshold;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setFailureRateThreshold (final double dFailureRateThreshold)
+  {
+    ValueEnforcer.isBetweenInclusive (dFailureRateThreshold, "FailureRateThreshold", 0d, 1d);
+    m_dFailureRateThreshold = dFailureRateThreshold;
+    return this;
+  }
+
+  /**
+   * @return The duration after which a successful call is considered to be a
+   *         failure, because the endpoint is too slow. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getSlowCallDuration ()
+  {
+    return m_aSlowCallDuration;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setSlowCallDuration (@Nonnull final Duration aSlowCallDuration)
+  {
+    ValueEnforcer.notNull (aSlowCallDuration, "SlowCallDuration");
+    m_aSlowCallDuration = aSlowCallDuration;
+    return this;
+  }
+
+  /**
+   * @return The duration the circuit breaker stays open, before a trial call
+   *         is permitted. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getOpenDuration ()
+  {
+    return m_aOpenDuration;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setOpenDuration (@Nonnull final Duration aOpenDuration)
+  {
+    ValueEnforcer.notNull (aOpenDuration, "OpenDuration");
+    m_aOpenDuration = aOpenDuration;
+    return this;
+  }
+
+  @Nonnull
+  public AS4CircuitBreakerSettings getClone ()
+  {
+    return new AS4CircuitBreakerSettings ().setWindowSize (m_nWindowSize)
+                                           .setMinimumCalls (m_nMinimumCalls)
+                                           .setFailureRateThreshold (m_dFailureRateThreshold)
+                                           .setSlowCallDuration (m_aSlowCallDuration)
+                                           .setOpenDuration (m_aOpenDuration);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("WindowSize", m_nWindowSize)
+                                       .append ("MinimumCalls", m_nMinimumCalls)
+                                       .append ("FailureRateThreshold", m_dFailureRateThreshold)
+                                       .append ("SlowCallDuration", m_aSlowCallDuration)
+                                       .append ("OpenDuration", m_aOpenDuration)
+                                       .getToString ();
+  }
+}
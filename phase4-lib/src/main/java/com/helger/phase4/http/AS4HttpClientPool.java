@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.functional.IThrowingFunction;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * This class holds long-lived HTTP clients for outgoing messages, one per
+ * distinct {@link HttpClientFactory} instance. Each pooled client has its
+ * own connection pool with keep-alive, per-route limits and idle connection
+ * eviction. Because the client (and therefore the SSL context) is reused, TLS
+ * sessions are reused as well.<br>
+ * The pool is only used if {@link #isEnabled()} returns <code>true</code>.
+ * Note: the pool is keyed by the identity of the {@link HttpClientFactory}
+ * instance and not by its settings. The settings (e.g. the SSL context or the
+ * proxy) don't provide a reliable equality, and subclasses of the factory may
+ * customize the created clients arbitrarily. Therefore callers that want to
+ * share connections must use the same factory instance for all transmissions
+ * (see e.g. {@link BasicHttpPoster#getSharedDefaultHttpClientFactory()}), and
+ * a factory must not be modified after it was used for the first time.
+ * Factories created per transmission result in a new client each time, that is
+ * eventually evicted from the pool.<br>
+ * Clients are only used within
+ * {@link #executeWithHttpClient(HttpClientFactory, IThrowingFunction)}. A
+ * client evicted from the pool while it is still in use is closed after the
+ * last usage finished.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4HttpClientPool
+{
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final Duration DEFAULT_IDLE_CONNECTION_EVICTION = Duration.ofSeconds (30);
+  public static final int DEFAULT_MAX_POOLED_CLIENTS = 100;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4HttpClientPool.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static int s_nMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  @GuardedBy ("RW_LOCK")
+  private static int s_nMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  @GuardedBy ("RW_LOCK")
+  private static Duration s_aIdleConnectionEviction = DEFAULT_IDLE_CONNECTION_EVICTION;
+  @GuardedBy ("RW_LOCK")
+  private static int s_nMaxPooledClients = DEFAULT_MAX_POOLED_CLIENTS;
+  // Access order, so that the least recently used client is evicted first
+  @GuardedBy ("RW_LOCK")
+  private static final Map <PoolKey, PooledClient> CLIENTS = new LinkedHashMap <> (16, 0.75f, true);
+
+  private static final AtomicLong HITS = new AtomicLong (0);
+  private static final AtomicLong MISSES = new AtomicLong (0);
+
+  private AS4HttpClientPool ()
+  {}
+
+  /**
+   * The key of a pooled client, using the identity of the
+   * {@link HttpClientFactory}.
+   *
+   * @author Philip Helger
+   */
+  private static final class PoolKey
+  {
+    private final HttpClientFactory m_aFactory;
+
+    PoolKey (@Nonnull final HttpClientFactory aHttpClientFactory)
+    {
+      m_aFactory = aHttpClientFactory;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final PoolKey rhs = (PoolKey) o;
+      // Identity by design
+      return m_aFactory == rhs.m_aFactory;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return System.identityHashCode (m_aFactory);
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("Factory", m_aFactory).getToString ();
+    }
+  }
+
+  /**
+   * A pooled client with its usage count.
+   *
+   * @author Philip Helger
+   */
+  private static final class PooledClient
+  {
+    private final CloseableHttpClient m_aClient;
+    @GuardedBy ("RW_LOCK")
+    private int m_nUsages = 0;
+    @GuardedBy ("RW_LOCK")
+    private boolean m_bRemoved = false;
+
+    PooledClient (@Nonnull final CloseableHttpClient aClient)
+    {
+      m_aClient = aClient;
+    }
+
+    /**
+     * Mark as removed from the pool.
+     *
+     * @return <code>true</code> if the client can be closed immediately,
+     *         <code>false</code> if it is still in use and will be closed after
+     *         the last usage.
+     */
+    @GuardedBy ("RW_LOCK")
+    boolean markRemoved ()
+    {
+      m_bRemoved = true;
+      return m_nUsages == 0;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if pooled HTTP clients should be used. This is
+   *         the value of {@link AS4Configuration#isHttpPoolingEnabled()}.
+   */
+  public static boolean isEnabled ()
+  {
+    return AS4Configuration.isHttpPoolingEnabled ();
+  }
+
+  /**
+   * @return The maximum number of connections per pooled client. Always &gt;
+   *         0.
+   */
+  @Nonnegative
+  public static int getMaxConnectionsTotal ()
+  {
+    return RW_LOCK.readLockedInt ( () -> s_nMaxConnectionsTotal);
+  }
+
+  /**
+   * Set the maximum number of connections per pooled client. Only affects
+   * clients created afterwards.
+   *
+   * @param nMaxConnectionsTotal
+   *        The maximum number of connections. Must be &gt; 0.
+   */
+  public static void setMaxConnectionsTotal (@Nonnegative final int nMaxConnectionsTotal)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    RW_LOCK.writeLocked ( () -> s_nMaxConnectionsTotal = nMaxConnectionsTotal);
+  }
+
+  /**
+   * @return The maximum number of connections per route of each pooled client.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public static int getMaxConnectionsPerRoute ()
+  {
+    return RW_LOCK.readLockedInt ( () -> s_nMaxConnectionsPerRoute);
+  }
+
+  /**
+   * Set the maximum number of connections per route of each pooled client. Only
+   * affects clients created afterwards.
+   *
+   * @param nMaxConnectionsPerRoute
+   *        The maximum number of connections per route. Must be &gt; 0.
+   */
+  public static void setMaxConnectionsPerRoute (@Nonnegative final int nMaxConnectionsPerRoute)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    RW_LOCK.writeLocked ( () -> s_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute);
+  }
+
+  /**
+   * @return The duration after which idle connections are closed. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static Duration getIdleConnectionEviction ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aIdleConnectionEviction);
+  }
+
+  /**
+   * Set the duration after which idle connections are closed. Only affects
+   * clients created afterwards.
+   *
+   * @param aIdleConnectionEviction
+   *        The idle duration. May not be <code>null</code>.
+   */
+  public static void setIdleConnectionEviction (@Nonnull final Duration aIdleConnectionEviction)
+  {
+    ValueEnforcer.notNull (aIdleConnectionEviction, "IdleConnectionEviction");
+    RW_LOCK.writeLocked ( () -> s_aIdleConnectionEviction = aIdleConnectionEviction);
+  }
+
+  /**
+   * @return The maximum number of pooled HTTP clients. If more different
+   *         {@link HttpClientFactory} instances are used, the least
+   *         recently used client is closed. Always &gt; 0.
+   */
+  @Nonnegative
+  public static int getMaxPooledClients ()
+  {
+    return RW_LOCK.readLockedInt ( () -> s_nMaxPooledClients);
+  }
+
+  /**
+   * Set the maximum number of pooled HTTP clients.
+   *
+   * @param nMaxPooledClients
+   *        The maximum number of pooled clients. Must be &gt; 0.
+   */
+  public static void setMaxPooledClients (@Nonnegative final int nMaxPooledClients)
+  {
+    ValueEnforcer.isGT0 (nMaxPooledClients, "MaxPooledClients");
+    RW_LOCK.writeLocked ( () -> s_nMaxPooledClients = nMaxPooledClients);
+  }
+
+  @Nonnull
+  private static CloseableHttpClient _createPooledHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory)
+  {
+    final int nMaxConnectionsTotal = getMaxConnectionsTotal ();
+    final int nMaxConnectionsPerRoute = getMaxConnectionsPerRoute ();
+    final Duration aIdleConnectionEviction = getIdleConnectionEviction ();
+
+    final HttpClientConnectionManager aConnMgr = aHttpClientFactory.createConnectionManager (aHttpClientFactory.createSSLFactory ());
+    if (aConnMgr instanceof PoolingHttpClientConnectionManager)
+    {
+      final PoolingHttpClientConnectionManager aPoolingConnMgr = (PoolingHttpClientConnectionManager) aConnMgr;
+      aPoolingConnMgr.setMaxTotal (nMaxConnectionsTotal);
+      aPoolingConnMgr.setDefaultMaxPerRoute (nMaxConnectionsPerRoute);
+    }
+
+    return aHttpClientFactory.createHttpClientBuilder ()
+                             .setConnectionManager (aConnMgr)
+                             .evictExpiredConnections ()
+                             .evictIdleConnections (TimeValue.ofMilliseconds (aIdleConnectionEviction.toMillis ()))
+                             .build ();
+  }
+
+  private static void _close (@Nonnull final CloseableHttpClient aClient)
+  {
+    try
+    {
+      aClient.close ();
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to close pooled HTTP client", ex);
+    }
+  }
+
+  /**
+   * Execute the provided callback with the pooled HTTP client for the provided
+   * factory. If none is present, a new client is created. The client may only
+   * be used within the callback and must NOT be closed by the callback.
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory to use. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback to invoke with the pooled client. May not be
+   *        <code>null</code>.
+   * @return The result of the callback. May be <code>null</code>.
+   * @throws IOException
+   *         if the callback throws it
+   * @param <T>
+   *        The result type
+   */
+  @Nullable
+  public static <T> T executeWithHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory,
+                                             @Nonnull final IThrowingFunction <? super CloseableHttpClient, T, IOException> aCallback) throws IOException
+  {
+    ValueEnforcer.notNull (aHttpClientFactory, "HttpClientFactory");
+    ValueEnforcer.notNull (aCallback, "Callback");
+
+    final PoolKey aKey = new PoolKey (aHttpClientFactory);
+
+    // Write lock, because access order is changed by "get"
+    PooledClient aPooled = RW_LOCK.writeLockedGet ( () -> {
+      final PooledClient ret = CLIENTS.get (aKey);
+      if (ret != null)
+      {
+        HITS.incrementAndGet ();
+        ret.m_nUsages++;
+      }
+      return ret;
+    });
+
+    final ICommonsList <CloseableHttpClient> aEvicted = new CommonsArrayList <> ();
+    if (aPooled == null)
+    {
+      // Create the client outside of the lock, because that may be expensive
+      // (e.g. SSL context initialization)
+      final PooledClient aNewPooled = new PooledClient (_createPooledHttpClient (aHttpClientFactory));
+      aPooled = RW_LOCK.writeLockedGet ( () -> {
+        final PooledClient aExisting = CLIENTS.get (aKey);
+        if (aExisting != null)
+        {
+          // Another thread was faster - use the existing one
+          HITS.incrementAndGet ();
+          aExisting.m_nUsages++;
+          aEvicted.add (aNewPooled.m_aClient);
+          return aExisting;
+        }
+
+        MISSES.incrementAndGet ();
+        CLIENTS.put (aKey, aNewPooled);
+        aNewPooled.m_nUsages++;
+
+        // Evict the least recently used clients
+        while (CLIENTS.size () > s_nMaxPooledClients)
+        {
+          final Map.Entry <PoolKey, PooledClient> aEldest = CLIENTS.entrySet ().iterator ().next ();
+          CLIENTS.remove (aEldest.getKey ());
+          // Clients in use are closed after the last usage
+          if (aEldest.getValue ().markRemoved ())
+            aEvicted.add (aEldest.getValue ().m_aClient);
+        }
+        return aNewPooled;
+      });
+    }
+
+    // Close outside of the lock
+    if (aEvicted.isNotEmpty ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Closing " + aEvicted.size () + " evicted or redundant pooled HTTP client(s)");
+      aEvicted.forEach (AS4HttpClientPool::_close);
+    }
+
+    final PooledClient aUsedPooled = aPooled;
+    try
+    {
+      return aCallback.apply (aUsedPooled.m_aClient);
+    }
+    finally
+    {
+      final boolean bClose = RW_LOCK.writeLockedBoolean ( () -> {
+        aUsedPooled.m_nUsages--;
+        return aUsedPooled.m_bRemoved && aUsedPooled.m_nUsages == 0;
+      });
+      if (bClose)
+      {
+        LOGGER.info ("Closing a removed pooled HTTP client after its last usage");
+        _close (aUsedPooled.m_aClient);
+      }
+    }
+  }
+
+  /**
+   * @return The number of currently pooled HTTP clients. Always &ge; 0.
+   */
+  @Nonnegative
+  public static int getPooledClientCount ()
+  {
+    return RW_LOCK.readLockedInt (CLIENTS::size);
+  }
+
+  /**
+   * @return The number of times a pooled HTTP client was reused. Always &ge; 0.
+   */
+  @Nonnegative
+  public static long getHitCount ()
+  {
+    return HITS.get ();
+  }
+
+  /**
+   * @return The number of times a new pooled HTTP client had to be created.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public static long getMissCount ()
+  {
+    return MISSES.get ();
+  }
+
+  /**
+   * Close all pooled HTTP clients and reset the statistics. Clients that are
+   * currently in use are closed after their last usage. This should be called
+   * upon application shutdown.
+   */
+  public static void closeAll ()
+  {
+    final ICommonsList <CloseableHttpClient> aClients = RW_LOCK.writeLockedGet ( () -> {
+      final ICommonsList <CloseableHttpClient> ret = new CommonsArrayList <> ();
+      for (final PooledClient aPooled : CLIENTS.values ())
+        if (aPooled.markRemoved ())
+          ret.add (aPooled.m_aClient);
+      CLIENTS.clear ();
+      return ret;
+    });
+    HITS.set (0);
+    MISSES.set (0);
+
+    aClients.forEach (AS4HttpClientPool::_close);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * A global token bucket limiting HTTP retries to a fraction of first attempts.
+ * Every first attempt adds {@link #getRetryRatio()} tokens (up to
+ * {@link #getMaxTokens()}) and every retry takes one token. If no token is
+ * available, the retry is not performed. The budget is only used if
+ * {@link #isEnabled()} returns <code>true</code>.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4RetryBudget
+{
+  public static final double DEFAULT_RETRY_RATIO = 0.1;
+  public static final double DEFAULT_MAX_TOKENS = 100;
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static double s_dRetryRatio = DEFAULT_RETRY_RATIO;
+  @GuardedBy ("RW_LOCK")
+  private static double s_dMaxTokens = DEFAULT_MAX_TOKENS;
+  @GuardedBy ("RW_LOCK")
+  private static double s_dTokens = DEFAULT_MAX_TOKENS;
+
+  private AS4RetryBudget ()
+  {}
+
+  /**
+   * @return <code>true</code> if the retry budget should be used. This is the
+   *         value of {@link AS4Configuration#isHttpRetryBudgetEnabled()}.
+   */
+  public static boolean isEnabled ()
+  {
+    return AS4Configuration.isHttpRetryBudgetEnabled ();
+  }
+
+  /**
+   * @return The number of tokens added per first attempt. E.g. 0.1 means that
+   *         retries may make up at most 10% of the first attempts.
+   */
+  public static double getRetryRatio ()
+  {
+    return RW_LOCK.readLockedGet ( () -> Double.valueOf (s_dRetryRatio)).doubleValue ();
+  }
+
+  /**
+   * @return The maximum number of tokens in the bucket. This is the maximum
+   *         number of retries that can be performed in a burst.
+   */
+  public static double getMaxTokens ()
+  {
+    return RW_LOCK.readLockedGet ( () -> Double.valueOf (s_dMaxTokens)).doubleValue ();
+  }
+
+  /**
+   * Set the budget parameters. The bucket is refilled to the maximum.
+   *
+   * @param dRetryRatio
+   *        The number of tokens added per first attempt. Must be &gt; 0.
+   * @param dMaxTokens
+   *        The maximum number of tokens. Must be &ge; 1.
+   */
+  public static void setBudget (final double dRetryRatio, final double dMaxTokens)
+  {
+    ValueEnforcer.isGT0 (dRetryRatio, "RetryRatio");
+    ValueEnforcer.isTrue (dMaxTokens >= 1, "MaxTokens must be >= 1");
+    RW_LOCK.writeLocked ( () -> {
+      s_dRetryRatio = dRetryRatio;
+      s_dMaxTokens = dMaxTokens;
+      s_dTokens = dMaxTokens;
+    });
+  }
+
+  /**
+   * @return The number of currently available tokens.
+   */
+  public static double getAvailableTokens ()
+  {
+    return RW_LOCK.readLockedGet ( () -> Double.valueOf (s_dTokens)).doubleValue ();
+  }
+
+  /**
+   * Must be called for every first attempt of a message.
+   */
+  public static void onFirstAttempt ()
+  {
+    RW_LOCK.writeLocked ( () -> s_dTokens = Math.min (s_dMaxTokens, s_dTokens + s_dRetryRatio));
+  }
+
+  /**
+   * Try to take a token for a retry.
+   *
+   * @return <code>true</code> if the retry may be performed,
+   *         <code>false</code> if the budget is exhausted.
+   */
+  public static boolean tryAcquireRetry ()
+  {
+    return RW_LOCK.writeLockedBoolean ( () -> {
+      if (s_dTokens < 1)
+        return false;
+      s_dTokens -= 1;
+      return true;
+    });
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.CAS4;
+
+/**
+ * This class holds the shared timer used to schedule HTTP retries without
+ * blocking a thread while waiting, as well as a global limit on the number of
+ * messages that are concurrently waiting for a retry.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4RetryScheduler
+{
+  public static final int DEFAULT_MAX_CONCURRENT_RETRIES = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4RetryScheduler.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static ScheduledExecutorService s_aScheduler;
+  @GuardedBy ("RW_LOCK")
+  private static int s_nMaxConcurrentRetries = DEFAULT_MAX_CONCURRENT_RETRIES;
+  private static final AtomicInteger ACTIVE_RETRIES = new AtomicInteger (0);
+
+  private AS4RetryScheduler ()
+  {}
+
+  @Nonnull
+  private static ScheduledExecutorService _getScheduler ()
+  {
+    final ScheduledExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aScheduler);
+    if (ret != null)
+      return ret;
+
+    return RW_LOCK.writeLockedGet ( () -> {
+      // Try again in write lock
+      if (s_aScheduler == null)
+      {
+        // The scheduler only hands over to the executor, so one thread is
+        // enough
+        final ScheduledThreadPoolExecutor aScheduler = new ScheduledThreadPoolExecutor (1, r -> {
+          final Thread t = new Thread (r, CAS4.LIB_NAME + "-retry-scheduler");
+          t.setDaemon (true);
+          return t;
+        });
+        aScheduler.setRemoveOnCancelPolicy (true);
+        s_aScheduler = aScheduler;
+      }
+      return s_aScheduler;
+    });
+  }
+
+  /**
+   * Schedule the provided action to be run after the provided delay. The
+   * action should be short-running, because all actions share the same timer
+   * thread.
+   *
+   * @param aRunnable
+   *        The action to run. May not be <code>null</code>.
+   * @param aDelay
+   *        The delay before running. May not be <code>null</code>.
+   */
+  public static void schedule (@Nonnull final Runnable aRunnable, @Nonnull final Duration aDelay)
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+    ValueEnforcer.notNull (aDelay, "Delay");
+    _getScheduler ().schedule (aRunnable, aDelay.toNanos (), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return The maximum number of messages that may wait for a retry at the
+   *         same time. Always &gt; 0.
+   */
+  @Nonnegative
+  public static int getMaxConcurrentRetries ()
+  {
+    return RW_LOCK.readLockedInt ( () -> s_nMaxConcurrentRetries);
+  }
+
+  /**
+   * Set the maximum number of messages that may wait for a retry at the same
+   * time. If the limit is reached, no further retries are scheduled and the
+   * sending fails immediately.
+   *
+   * @param nMaxConcurrentRetries
+   *        The maximum number. Must be &gt; 0.
+   */
+  public static void setMaxConcurrentRetries (@Nonnegative final int nMaxConcurrentRetries)
+  {
+    ValueEnforcer.isGT0 (nMaxConcurrentRetries, "MaxConcurrentRetries");
+    RW_LOCK.writeLocked ( () -> s_nMaxConcurrentRetries = nMaxConcurrentRetries);
+  }
+
+  /**
+   * @return The number of messages currently being in the retry phase. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public static int getActiveRetryCount ()
+  {
+    return ACTIVE_RETRIES.get ();
+  }
+
+  /**
+   * Try to acquire a retry slot. If <code>true</code> is returned, the caller
+   * must ensure that {@link #releaseRetrySlot()} is called after the last
+   * retry.
+   *
+   * @return <code>true</code> if a slot was acquired, <code>false</code> if
+   *         the maximum number of concurrent retries is reached.
+   */
+  public static boolean tryAcquireRetrySlot ()
+  {
+    final int nMax = getMaxConcurrentRetries ();
+    while (true)
+    {
+      final int nCurrent = ACTIVE_RETRIES.get ();
+      if (nCurrent >= nMax)
+        return false;
+      if (ACTIVE_RETRIES.compareAndSet (nCurrent, nCurrent + 1))
+        return true;
+    }
+  }
+
+  /**
+   * Release a slot previously acquired via {@link #tryAcquireRetrySlot()}.
+   */
+  public static void releaseRetrySlot ()
+  {
+    ACTIVE_RETRIES.decrementAndGet ();
+  }
+
+  /**
+   * Stop the timer thread. Actions that are still pending are run immediately
+   * in the calling thread, so that nobody waits forever for a retry. A new
+   * timer is created upon the next call to
+   * {@link #schedule(Runnable, Duration)}. This is called when the global scope
+   * ends.
+   */
+  public static void shutdown ()
+  {
+    final ScheduledExecutorService aOld = RW_LOCK.writeLockedGet ( () -> {
+      final ScheduledExecutorService ret = s_aScheduler;
+      s_aScheduler = null;
+      return ret;
+    });
+    if (aOld != null)
+    {
+      final List <Runnable> aPending = aOld.shutdownNow ();
+      if (!aPending.isEmpty ())
+        LOGGER.info ("Running " + aPending.size () + " pending retry action(s) immediately");
+      for (final Runnable aRunnable : aPending)
+        try
+        {
+          aRunnable.run ();
+        }
+        catch (final RuntimeException ex)
+        {
+          LOGGER.error ("Failed to run pending retry action", ex);
+        }
+    }
+  }
+}
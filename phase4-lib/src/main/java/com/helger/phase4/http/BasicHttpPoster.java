@@ -17,8 +17,15 @@
 package com.helger.phase4.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
@@ -26,6 +33,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
 
+import org.apache.hc.client5.http.HttpResponseException;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
@@ -37,7 +45,6 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.concurrent.ThreadHelper;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.stream.StreamHelper;
@@ -74,6 +81,21 @@ public class BasicHttpPoster implements IHttpPoster
     return new HttpClientFactory ();
   }
 
+  private static final HttpClientFactory SHARED_DEFAULT_HTTP_CLIENT_FACTORY = createDefaultHttpClientFactory ();
+
+  /**
+   * @return A single default {@link HttpClientFactory} instance. Using the same
+   *         factory for all transmissions allows {@link AS4HttpClientPool} to
+   *         reuse connections. The returned object must not be modified. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static HttpClientFactory getSharedDefaultHttpClientFactory ()
+  {
+    return SHARED_DEFAULT_HTTP_CLIENT_FACTORY;
+  }
+
   public static final boolean DEFAULT_QUOTE_HTTP_HEADERS = false;
   private static final Logger LOGGER = LoggerFactory.getLogger (BasicHttpPoster.class);
 
@@ -124,10 +146,31 @@ public class BasicHttpPoster implements IHttpPoster
     return this;
   }
 
+  /**
+   * Check if an exception of a transmission indicates a failure of the
+   * destination for the circuit breaker. Only connection errors, timeouts and
+   * HTTP 5xx responses are considered failures. Any other HTTP error response
+   * (like HTTP 4xx) shows that the destination is reachable and working.
+   *
+   * @param ex
+   *        The exception to check. May not be <code>null</code>.
+   * @return <code>true</code> if it counts as a failure, <code>false</code> if
+   *         not.
+   * @since 1.4.4
+   */
+  public static boolean isCircuitBreakerFailure (@Nonnull final IOException ex)
+  {
+    if (ex instanceof HttpResponseException)
+      return ((HttpResponseException) ex).getStatusCode () >= CHttp.HTTP_INTERNAL_SERVER_ERROR;
+    return true;
+  }
+
   /**
    * Send an arbitrary HTTP POST message to the provided URL, using the
    * contained HttpClientFactory as well as the customizer. Additionally the AS4
    * HTTP debugging is invoked in here.<br>
+   * If {@link AS4HttpClientPool#isEnabled()} is <code>true</code> a pooled
+   * HTTP client is used, else a new HTTP client is created for this call.<br>
    * This method does NOT retry
    *
    * @param <T>
@@ -155,11 +198,22 @@ public class BasicHttpPoster implements IHttpPoster
     ValueEnforcer.notEmpty (sURL, "URL");
     ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
 
+    // Optional circuit breaker for the destination
+    final AS4CircuitBreaker aCircuitBreaker = AS4CircuitBreakerManager.isEnabled () ? AS4CircuitBreakerManager.getOrCreateCircuitBreaker (sURL)
+                                                                                   : null;
+    if (aCircuitBreaker != null && !aCircuitBreaker.tryAcquirePermission ())
+    {
+      LOGGER.warn ("Not transmitting AS4 Message to '" + sURL + "' because the circuit breaker is open");
+      throw new AS4CircuitBreakerOpenException (sURL);
+    }
+
     final StopWatch aSW = StopWatch.createdStarted ();
     LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
     IOException aCaughtException = null;
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    // Only errors of the destination open the circuit breaker
+    boolean bDestinationFailure = false;
+    try
     {
       final HttpPost aPost = new HttpPost (sURL);
 
@@ -198,16 +252,29 @@ public class BasicHttpPoster implements IHttpPoster
         return ret.toString ();
       });
 
-      return aClientMgr.execute (aPost, aResponseHandler);
+      if (AS4HttpClientPool.isEnabled ())
+      {
+        // Use the long-lived client - never close it
+        return AS4HttpClientPool.executeWithHttpClient (m_aHttpClientFactory,
+                                                        aClient -> aClient.execute (aPost, aResponseHandler));
+      }
+
+      try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+      {
+        return aClientMgr.execute (aPost, aResponseHandler);
+      }
     }
     catch (final IOException ex)
     {
       aCaughtException = ex;
+      bDestinationFailure = isCircuitBreakerFailure (ex);
       throw ex;
     }
     finally
     {
       aSW.stop ();
+      if (aCircuitBreaker != null)
+        aCircuitBreaker.onCallFinished (!bDestinationFailure, Duration.ofNanos (aSW.getNanos ()));
       LOGGER.info ((aCaughtException != null ? "Failed" : "Finished") +
                    " transmitting AS4 Message to '" +
                    sURL +
@@ -270,7 +337,16 @@ public class BasicHttpPoster implements IHttpPoster
     };
   }
 
-  @Nonnull
+  /**
+   * {@inheritDoc}<br>
+   * All tries are performed in the calling thread. The waiting time between two
+   * tries is managed by the {@link AS4RetryScheduler}. As the calling thread is
+   * blocked anyway, the limit of concurrent retries of the
+   * {@link AS4RetryScheduler} and the {@link AS4RetryBudget} don't apply - all
+   * configured retries are performed, unless the circuit breaker of the
+   * destination is open or the retry callback stops them.
+   */
+  @Nullable
   public <T> T sendGenericMessageWithRetries (@Nonnull final String sURL,
                                               @Nullable final HttpHeaderMap aCustomHttpHeaders,
                                               @Nonnull final HttpEntity aHttpEntity,
@@ -280,133 +356,362 @@ public class BasicHttpPoster implements IHttpPoster
                                               @Nullable final IAS4OutgoingDumper aOutgoingDumper,
                                               @Nullable final IAS4RetryCallback aRetryCallback) throws IOException
   {
-    // Parameter or global one - may still be null
-    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper
-                                                                           : AS4DumpManager.getOutgoingDumper ();
+    // The tries are handed back to the calling thread
+    final BlockingQueue <Runnable> aTries = new LinkedBlockingQueue <> ();
+    final CompletableFuture <T> aFuture = _sendGenericMessageWithRetriesAsync (sURL,
+                                                                              aCustomHttpHeaders,
+                                                                              aHttpEntity,
+                                                                              sMessageID,
+                                                                              aRetrySettings,
+                                                                              aResponseHandler,
+                                                                              aOutgoingDumper,
+                                                                              aRetryCallback,
+                                                                              aTries::add,
+                                                                              false);
+    // Wake up the calling thread upon completion
+    aFuture.whenComplete ( (x, y) -> aTries.add ( () -> {}));
+    try
+    {
+      while (!aFuture.isDone ())
+        aTries.take ().run ();
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      final InterruptedIOException ex2 = new InterruptedIOException ("Interrupted while sending message '" +
+                                                                     sMessageID +
+                                                                     "'");
+      // Releases the resources of the pending retry
+      aFuture.completeExceptionally (ex2);
+      throw ex2;
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof IOException)
+        throw (IOException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw new IOException ("Failed to send message '" + sMessageID + "'", aCause);
+    }
+  }
 
-    // This class holds the effective OutputStream to which the dump is written
-    final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
+  /**
+   * Check if a retry may be performed after a failed try. Retries are never
+   * performed if the circuit breaker of the destination is open, or if the
+   * global retry budget is exhausted and applies.
+   *
+   * @param ex
+   *        The exception of the failed try. May not be <code>null</code>.
+   * @param sMessageID
+   *        The message ID for logging. May not be <code>null</code>.
+   * @param sURL
+   *        The destination URL for logging. May not be <code>null</code>.
+   * @param bApplyRetryLimits
+   *        <code>true</code> if the global retry budget applies.
+   * @return <code>true</code> if the retry may be performed.
+   */
+  private static boolean _isRetryPermitted (@Nonnull final IOException ex,
+                                            @Nonnull final String sMessageID,
+                                            @Nonnull final String sURL,
+                                            final boolean bApplyRetryLimits)
+  {
+    if (ex instanceof AS4CircuitBreakerOpenException)
+    {
+      // Retrying makes no sense - the caller will receive the same exception
+      LOGGER.warn ("Not retrying message '" + sMessageID + "' because the circuit breaker for '" + sURL + "' is open");
+      return false;
+    }
+    if (bApplyRetryLimits && AS4RetryBudget.isEnabled () && !AS4RetryBudget.tryAcquireRetry ())
+    {
+      LOGGER.warn ("Error sending message '" +
+                   sMessageID +
+                   "' to '" +
+                   sURL +
+                   "': " +
+                   ex.getClass ().getSimpleName () +
+                   " - " +
+                   ex.getMessage () +
+                   " - not retrying, because the global retry budget is exhausted");
+      return false;
+    }
+    return true;
+  }
+
+  private static void _onEndRequest (@Nonnull final IAS4OutgoingDumper aRealOutgoingDumper,
+                                     @Nonnull final String sMessageID)
+  {
     try
     {
-      if (aRetrySettings.isRetryEnabled ())
-      {
-        // Send with retry
-        if (!aHttpEntity.isRepeatable ())
-          throw new IllegalStateException ("If retry is enabled, a repeatable entity must be provided");
-
-        final int nMaxRetries = aRetrySettings.getMaxRetries ();
-        final int nMaxTries = 1 + nMaxRetries;
-        Duration aDurationBeforeRetry = aRetrySettings.getDurationBeforeRetry ();
-        for (int nTry = 0; nTry < nMaxTries; nTry++)
-        {
-          if (nTry > 0)
-            LOGGER.info ("Retry #" + nTry + "/" + nMaxRetries + " for sending message with ID '" + sMessageID + "'");
-
-          try
-          {
-            // Create a new one every time (for new filename, new timestamp,
-            // etc.)
-            final HttpEntity aDumpingEntity = createDumpingHttpEntity (aRealOutgoingDumper,
-                                                                       aHttpEntity,
-                                                                       sMessageID,
-                                                                       aCustomHttpHeaders,
-                                                                       nTry,
-                                                                       aDumpOSHolder);
-
-            // Dump only for the first try - the remaining tries
-            return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
-          }
-          catch (final IOException ex)
-          {
-            // Last try? -> propagate exception
-            if (nTry == nMaxTries - 1)
-              throw ex;
-
-            // After the first retry, increase the waiting time
-            if (nTry > 1)
-              aDurationBeforeRetry = HttpRetrySettings.getIncreased (aDurationBeforeRetry,
-                                                                     aRetrySettings.getRetryIncreaseFactor ());
-
-            if (aRetryCallback != null)
-              if (aRetryCallback.onBeforeRetry (sMessageID, sURL, nTry, nMaxTries, aDurationBeforeRetry.toMillis (), ex)
-                                .isBreak ())
-              {
-                // Explicitly interrupt retry
-                LOGGER.warn ("Error sending message '" +
-                             sMessageID +
-                             "' to '" +
-                             sURL +
-                             ": " +
-                             ex.getClass ().getSimpleName () +
-                             " - " +
-                             ex.getMessage () +
-                             " - retrying was explicitly stopped by the RetryCallback");
-
-                // Propagate Exception as if it would be the last retry
-                throw ex;
-              }
-
-            LOGGER.warn ("Error sending message '" +
-                         sMessageID +
-                         "' to '" +
-                         sURL +
-                         "': " +
-                         ex.getClass ().getSimpleName () +
-                         " - " +
-                         ex.getMessage () +
-                         " - waiting " +
-                         aDurationBeforeRetry.toMillis () +
-                         " ms, than retrying");
-
-            // Sleep and try again afterwards
-            ThreadHelper.sleep (aDurationBeforeRetry.toMillis ());
-          }
-          finally
-          {
-            // Flush and close the dump output stream (if any)
-            StreamHelper.close (aDumpOSHolder.get ());
-          }
-        }
-        throw new IllegalStateException ("Should never be reached (after maximum of " + nMaxTries + " tries)!");
-      }
-      // else non retry
+      aRealOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, sMessageID);
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" +
+                    aRealOutgoingDumper +
+                    "; MessageID=" +
+                    sMessageID,
+                    ex);
+    }
+  }
+
+  private <T> void _sendGenericMessageTryAsync (@Nonnull final String sURL,
+                                                @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                @Nonnull final HttpEntity aHttpEntity,
+                                                @Nonnull final String sMessageID,
+                                                @Nonnull final HttpRetrySettings aRetrySettings,
+                                                @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                @Nullable final IAS4OutgoingDumper aRealOutgoingDumper,
+                                                @Nullable final IAS4RetryCallback aRetryCallback,
+                                                @Nonnull final Executor aExecutor,
+                                                final boolean bApplyRetryLimits,
+                                                @Nonnegative final int nTry,
+                                                @Nonnull final Wrapper <OutputStream> aDumpOSHolder,
+                                                @Nonnull final CompletableFuture <T> aResult)
+  {
+    final int nMaxRetries = aRetrySettings.isRetryEnabled () ? aRetrySettings.getMaxRetries () : 0;
+    final int nMaxTries = 1 + nMaxRetries;
+    if (nTry > 0)
+      LOGGER.info ("Retry #" + nTry + "/" + nMaxRetries + " for sending message with ID '" + sMessageID + "'");
+    else
+      if (nMaxRetries > 0 && bApplyRetryLimits && AS4RetryBudget.isEnabled ())
+        AS4RetryBudget.onFirstAttempt ();
+
+    try
+    {
+      try
       {
+        // Create a new one every time (for new filename, new timestamp,
+        // etc.)
         final HttpEntity aDumpingEntity = createDumpingHttpEntity (aRealOutgoingDumper,
                                                                    aHttpEntity,
                                                                    sMessageID,
                                                                    aCustomHttpHeaders,
-                                                                   0,
+                                                                   nTry,
                                                                    aDumpOSHolder);
+        aResult.complete (sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler));
+      }
+      finally
+      {
+        // Flush and close the dump output stream (if any)
+        StreamHelper.close (aDumpOSHolder.get ());
+      }
+    }
+    catch (final IOException ex)
+    {
+      // Last try? -> propagate exception
+      if (nTry == nMaxTries - 1 || !_isRetryPermitted (ex, sMessageID, sURL, bApplyRetryLimits))
+      {
+        aResult.completeExceptionally (ex);
+        return;
+      }
 
-        try
+      final Duration aDurationBeforeRetry = HttpRetrySettings.getWithJitter (aRetrySettings.getDurationBeforeRetry (nTry),
+                                                                             aRetrySettings.getRetryJitter ());
+      if (aRetryCallback != null)
+        if (aRetryCallback.onBeforeRetry (sMessageID, sURL, nTry, nMaxTries, aDurationBeforeRetry.toMillis (), ex)
+                          .isBreak ())
         {
-          // Send without retry
-          return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          // Explicitly interrupt retry
+          LOGGER.warn ("Error sending message '" +
+                       sMessageID +
+                       "' to '" +
+                       sURL +
+                       ": " +
+                       ex.getClass ().getSimpleName () +
+                       " - " +
+                       ex.getMessage () +
+                       " - retrying was explicitly stopped by the RetryCallback");
+
+          // Propagate Exception as if it would be the last retry
+          aResult.completeExceptionally (ex);
+          return;
         }
-        finally
+
+      // The slot is kept until the final result is available
+      if (nTry == 0 && bApplyRetryLimits)
+      {
+        if (!AS4RetryScheduler.tryAcquireRetrySlot ())
         {
-          // Close the dump output stream (if any)
-          StreamHelper.close (aDumpOSHolder.get ());
+          LOGGER.warn ("Error sending message '" +
+                       sMessageID +
+                       "' to '" +
+                       sURL +
+                       "': " +
+                       ex.getClass ().getSimpleName () +
+                       " - " +
+                       ex.getMessage () +
+                       " - not retrying, because the maximum of " +
+                       AS4RetryScheduler.getMaxConcurrentRetries () +
+                       " concurrent retries is reached");
+          aResult.completeExceptionally (ex);
+          return;
         }
+        aResult.whenComplete ( (x, y) -> AS4RetryScheduler.releaseRetrySlot ());
       }
-    }
-    finally
-    {
-      // Add the possibility to close open resources
-      if (aRealOutgoingDumper != null && aDumpOSHolder.isSet ())
+
+      LOGGER.warn ("Error sending message '" +
+                   sMessageID +
+                   "' to '" +
+                   sURL +
+                   "': " +
+                   ex.getClass ().getSimpleName () +
+                   " - " +
+                   ex.getMessage () +
+                   " - scheduling retry in " +
+                   aDurationBeforeRetry.toMillis () +
+                   " ms");
+
+      // Don't block the thread while waiting
+      AS4RetryScheduler.schedule ( () -> {
         try
         {
-          aRealOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, sMessageID);
+          aExecutor.execute ( () -> _sendGenericMessageTryAsync (sURL,
+                                                                 aCustomHttpHeaders,
+                                                                 aHttpEntity,
+                                                                 sMessageID,
+                                                                 aRetrySettings,
+                                                                 aResponseHandler,
+                                                                 aRealOutgoingDumper,
+                                                                 aRetryCallback,
+                                                                 aExecutor,
+                                                                 bApplyRetryLimits,
+                                                                 nTry + 1,
+                                                                 aDumpOSHolder,
+                                                                 aResult));
         }
-        catch (final Exception ex)
+        catch (final RejectedExecutionException ex2)
         {
-          LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" +
-                        aRealOutgoingDumper +
-                        "; MessageID=" +
-                        sMessageID,
-                        ex);
+          // E.g. the executor was shut down
+          ex.addSuppressed (ex2);
+          aResult.completeExceptionally (ex);
         }
+      }, aDurationBeforeRetry);
+    }
+    catch (final RuntimeException ex)
+    {
+      aResult.completeExceptionally (ex);
+    }
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * Each try is performed in the provided executor. Between two tries no thread
+   * is blocked, because the retries are scheduled via
+   * {@link AS4RetryScheduler}. If the maximum number of concurrent retries is
+   * reached, or if the {@link AS4RetryBudget} is enabled and exhausted, the
+   * sending fails with the exception of the failed try.
+   *
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be
+   *        <code>null</code> to use the global one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens.
+   * @param aExecutor
+   *        The executor to perform the tries in. May not be <code>null</code>.
+   * @param <T>
+   *        Response data type
+   * @return A future with the HTTP response data as indicated by the
+   *         ResponseHandler. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Override
+  @Nonnull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                      @Nonnull final HttpEntity aHttpEntity,
+                                                                      @Nonnull final String sMessageID,
+                                                                      @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                      @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                      @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                      @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                      @Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+
+    return _sendGenericMessageWithRetriesAsync (sURL,
+                                                aCustomHttpHeaders,
+                                                aHttpEntity,
+                                                sMessageID,
+                                                aRetrySettings,
+                                                aResponseHandler,
+                                                aOutgoingDumper,
+                                                aRetryCallback,
+                                                aExecutor,
+                                                true);
+  }
+
+  @Nonnull
+  private <T> CompletableFuture <T> _sendGenericMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                        @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                        @Nonnull final HttpEntity aHttpEntity,
+                                                                        @Nonnull final String sMessageID,
+                                                                        @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                        @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                        @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                        @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                        @Nonnull final Executor aExecutor,
+                                                                        final boolean bApplyRetryLimits)
+  {
+    final CompletableFuture <T> ret = new CompletableFuture <> ();
+    if (aRetrySettings.isRetryEnabled () && !aHttpEntity.isRepeatable ())
+    {
+      ret.completeExceptionally (new IllegalStateException ("If retry is enabled, a repeatable entity must be provided"));
+      return ret;
+    }
+
+    // Parameter or global one - may still be null
+    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper
+                                                                           : AS4DumpManager.getOutgoingDumper ();
+
+    // This class holds the effective OutputStream to which the dump is written
+    final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
+    if (aRealOutgoingDumper != null)
+      ret.whenComplete ( (x, y) -> {
+        // Add the possibility to close open resources
+        if (aDumpOSHolder.isSet ())
+          _onEndRequest (aRealOutgoingDumper, sMessageID);
+      });
+
+    try
+    {
+      aExecutor.execute ( () -> _sendGenericMessageTryAsync (sURL,
+                                                             aCustomHttpHeaders,
+                                                             aHttpEntity,
+                                                             sMessageID,
+                                                             aRetrySettings,
+                                                             aResponseHandler,
+                                                             aRealOutgoingDumper,
+                                                             aRetryCallback,
+                                                             aExecutor,
+                                                             bApplyRetryLimits,
+                                                             0,
+                                                             aDumpOSHolder,
+                                                             ret));
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      ret.completeExceptionally (ex);
     }
+    return ret;
   }
 
   @Override
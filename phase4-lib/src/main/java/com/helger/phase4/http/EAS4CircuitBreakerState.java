@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * The state of an {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public enum EAS4CircuitBreakerState implements IHasID <String>
+{
+  /** All calls are permitted */
+  CLOSED ("closed"),
+  /** No calls are permitted */
+  OPEN ("open"),
+  /** A single trial call is permitted to check if the endpoint recovered */
+  HALF_OPEN ("half-open");
+
+  private final String m_sID;
+
+  EAS4CircuitBreakerState (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  public boolean isClosed ()
+  {
+    return this == CLOSED;
+  }
+
+  public boolean isOpen ()
+  {
+    return this == OPEN;
+  }
+
+  @Nullable
+  public static EAS4CircuitBreakerState getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4CircuitBreakerState.class, sID);
+  }
+}
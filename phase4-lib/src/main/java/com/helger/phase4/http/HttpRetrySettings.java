@@ -18,6 +18,7 @@ package com.helger.phase4.http;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -42,10 +43,12 @@ public class HttpRetrySettings
   public static final int DEFAULT_MAX_RETRIES = 0;
   public static final Duration DEFAULT_RETRY_DURATION = Duration.ofSeconds (10);
   public static final BigDecimal DEFAULT_RETRY_INCREASE_FACTOR = BigDecimal.ONE;
+  public static final double DEFAULT_RETRY_JITTER = 0;
 
   private int m_nMaxRetries = DEFAULT_MAX_RETRIES;
   private Duration m_aDurationBeforeRetry = DEFAULT_RETRY_DURATION;
   private BigDecimal m_aRetryIncreaseFactor = DEFAULT_RETRY_INCREASE_FACTOR;
+  private double m_dRetryJitter = DEFAULT_RETRY_JITTER;
 
   public HttpRetrySettings ()
   {}
@@ -145,6 +148,36 @@ public class HttpRetrySettings
     return this;
   }
 
+  /**
+   * @return The relative jitter applied to each waiting duration. 0 means no
+   *         jitter, 0.2 means that the effective waiting time is randomly
+   *         chosen between 80% and 120% of the calculated duration. The value
+   *         is always between 0 and 1 (both inclusive). Default is 0.
+   * @see #getWithJitter(Duration, double)
+   * @since 1.4.4
+   */
+  public final double getRetryJitter ()
+  {
+    return m_dRetryJitter;
+  }
+
+  /**
+   * Set the relative jitter to be applied to each waiting duration. Using a
+   * jitter avoids that many senders retry at exactly the same time.
+   *
+   * @param dRetryJitter
+   *        The jitter to use. Must be between 0 and 1 (both inclusive).
+   * @return this for chaining
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final HttpRetrySettings setRetryJitter (final double dRetryJitter)
+  {
+    ValueEnforcer.isBetweenInclusive (dRetryJitter, "RetryJitter", 0d, 1d);
+    m_dRetryJitter = dRetryJitter;
+    return this;
+  }
+
   @Nonnull
   public static Duration getIncreased (@Nonnull final Duration aDuration, @Nonnull final BigDecimal aRetryIncreaseFactor)
   {
@@ -155,12 +188,53 @@ public class HttpRetrySettings
     return Duration.ofNanos (aRetryIncreaseFactor.multiply (BigDecimal.valueOf (aDuration.toNanos ())).longValue ());
   }
 
+  /**
+   * Apply a random jitter onto the provided duration.
+   *
+   * @param aDuration
+   *        The source duration. May not be <code>null</code>.
+   * @param dJitter
+   *        The relative jitter between 0 and 1. 0 means no jitter.
+   * @return A duration between <code>aDuration * (1 - dJitter)</code> and
+   *         <code>aDuration * (1 + dJitter)</code>. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static Duration getWithJitter (@Nonnull final Duration aDuration, final double dJitter)
+  {
+    if (dJitter <= 0 || aDuration.isZero ())
+      return aDuration;
+    final double dFactor = 1 + ThreadLocalRandom.current ().nextDouble (-dJitter, dJitter);
+    return Duration.ofNanos ((long) (aDuration.toNanos () * dFactor));
+  }
+
+  /**
+   * Get the duration to wait after the provided try failed, without jitter.
+   * The first two retries wait {@link #getDurationBeforeRetry()}, each
+   * subsequent retry increases the duration by
+   * {@link #getRetryIncreaseFactor()}.
+   *
+   * @param nTry
+   *        The 0-based index of the try that failed.
+   * @return The duration to wait before the next try. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final Duration getDurationBeforeRetry (@Nonnegative final int nTry)
+  {
+    Duration ret = m_aDurationBeforeRetry;
+    for (int i = 2; i <= nTry; ++i)
+      ret = getIncreased (ret, m_aRetryIncreaseFactor);
+    return ret;
+  }
+
   public final void assignFrom (@Nonnull final HttpRetrySettings aOther)
   {
     ValueEnforcer.notNull (aOther, "Other");
     setMaxRetries (aOther.getMaxRetries ());
     setDurationBeforeRetry (aOther.getDurationBeforeRetry ());
     setRetryIncreaseFactor (aOther.getRetryIncreaseFactor ());
+    setRetryJitter (aOther.getRetryJitter ());
   }
 
   @Override
@@ -173,7 +247,8 @@ public class HttpRetrySettings
     final HttpRetrySettings rhs = (HttpRetrySettings) o;
     return m_nMaxRetries == rhs.m_nMaxRetries &&
            m_aDurationBeforeRetry.equals (rhs.m_aDurationBeforeRetry) &&
-           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor);
+           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor) &&
+           EqualsHelper.equals (m_dRetryJitter, rhs.m_dRetryJitter);
   }
 
   @Override
@@ -182,6 +257,7 @@ public class HttpRetrySettings
     return new HashCodeGenerator (this).append (m_nMaxRetries)
                                        .append (m_aDurationBeforeRetry)
                                        .append (m_aRetryIncreaseFactor)
+                                       .append (m_dRetryJitter)
                                        .getHashCode ();
   }
 
@@ -191,6 +267,7 @@ public class HttpRetrySettings
     return new ToStringGenerator (this).append ("MaxRetries", m_nMaxRetries)
                                        .append ("DurationBeforeRetry", m_aDurationBeforeRetry)
                                        .append ("RetryIncreaseFactor", m_aRetryIncreaseFactor)
+                                       .append ("RetryJitter", m_dRetryJitter)
                                        .getToString ();
   }
 }
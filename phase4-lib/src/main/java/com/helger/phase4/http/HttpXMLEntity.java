@@ -16,27 +16,200 @@
  */
 package com.helger.phase4.http;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
 import org.w3c.dom.Node;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.mime.IMimeType;
+import com.helger.commons.string.ToStringGenerator;
 import com.helger.phase4.util.AS4XMLHelper;
 
 /**
- * Special HttpClient HTTP POST entity that contains a DOM Node as a serialized
- * String. This entity is repeatable.
+ * Special HttpClient HTTP POST entity that contains a DOM Node. By default the
+ * node is serialized once when the content length is needed and the bytes are
+ * cached, so that the <code>Content-Length</code> header can be emitted and
+ * retries and dumping don't need to serialize the node again. Optionally the
+ * caching can be disabled, in which case the node is serialized directly into
+ * the HTTP output stream, without an intermediate byte array. As the length is
+ * unknown in that case, chunked transfer encoding is used. This entity is
+ * repeatable.
  *
  * @author Philip Helger
  */
-public class HttpXMLEntity extends StringEntity
+public class HttpXMLEntity extends AbstractHttpEntity
 {
+  /**
+   * By default the serialized bytes are cached, so that the content length is
+   * known
+   *
+   * @since 1.4.4
+   */
+  public static final boolean DEFAULT_CACHE_BYTES = true;
+
+  private final Node m_aNode;
+  private final boolean m_bCacheBytes;
+  private byte [] m_aCachedBytes;
+
   public HttpXMLEntity (@Nonnull final Node aNode, @Nonnull final IMimeType aMimeType)
+  {
+    this (aNode, aMimeType, DEFAULT_CACHE_BYTES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>. The node
+   *        may not be modified after this entity was created.
+   * @param aMimeType
+   *        The MIME type to be used. May not be <code>null</code>.
+   * @param bCacheBytes
+   *        <code>true</code> to serialize the node once and keep the serialized
+   *        bytes, so that the content length is known. <code>false</code> to
+   *        serialize the node upon each write directly into the output stream
+   *        with an unknown content length (chunked transfer encoding).
+   * @since 1.4.4
+   */
+  public HttpXMLEntity (@Nonnull final Node aNode, @Nonnull final IMimeType aMimeType, final boolean bCacheBytes)
   {
     // ContentType Required for AS4.NET
-    super (AS4XMLHelper.serializeXML (aNode),
-           ContentType.parse (aMimeType.getAsString ()).withCharset (AS4XMLHelper.XWS.getCharset ()));
+    super (ContentType.parse (ValueEnforcer.notNull (aMimeType, "MimeType").getAsString ())
+                      .withCharset (AS4XMLHelper.XWS.getCharset ()),
+           null);
+    ValueEnforcer.notNull (aNode, "Node");
+    m_aNode = aNode;
+    m_bCacheBytes = bCacheBytes;
+  }
+
+  /**
+   * @return The node passed in the constructor. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final Node getNode ()
+  {
+    return m_aNode;
+  }
+
+  /**
+   * @return <code>true</code> if the serialized bytes are cached and the
+   *         content length is known, <code>false</code> if not.
+   * @since 1.4.4
+   */
+  public final boolean isCacheBytes ()
+  {
+    return m_bCacheBytes;
+  }
+
+  /**
+   * @return The cached serialized bytes or <code>null</code> if caching is
+   *         disabled or if the entity was not yet serialized.
+   * @since 1.4.4
+   */
+  @Nullable
+  public final byte [] getCachedBytes ()
+  {
+    return m_aCachedBytes;
+  }
+
+  @Nonnull
+  private byte [] _getSerializedBytes ()
+  {
+    byte [] ret = m_aCachedBytes;
+    if (ret == null)
+    {
+      ret = AS4XMLHelper.serializeXMLToBytes (m_aNode);
+      if (m_bCacheBytes)
+        m_aCachedBytes = ret;
+    }
+    return ret;
+  }
+
+  @Override
+  public final void close () throws IOException
+  {
+    // nothing to do
+  }
+
+  @Override
+  public boolean isRepeatable ()
+  {
+    return true;
+  }
+
+  public long getContentLength ()
+  {
+    if (m_bCacheBytes)
+    {
+      // Serialize eagerly so that the Content-Length header can be emitted
+      return _getSerializedBytes ().length;
+    }
+    // Streaming - length unknown - negative number
+    return -1;
+  }
+
+  public boolean isStreaming ()
+  {
+    // Self contained
+    return false;
+  }
+
+  @Nonnull
+  public InputStream getContent () throws IOException
+  {
+    return new NonBlockingByteArrayInputStream (_getSerializedBytes ());
+  }
+
+  @Override
+  public void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    final byte [] aCachedBytes = m_aCachedBytes;
+    if (aCachedBytes != null)
+      aOS.write (aCachedBytes);
+    else
+      if (m_bCacheBytes)
+        aOS.write (_getSerializedBytes ());
+      else
+      {
+        try
+        {
+          // Serialize straight into the target stream
+          AS4XMLHelper.serializeXML (m_aNode, aOS);
+        }
+        catch (final IllegalStateException ex)
+        {
+          // Unwrap IOExceptions from the underlying stream
+          Throwable aCause = ex.getCause ();
+          while (aCause != null)
+          {
+            if (aCause instanceof IOException)
+              throw (IOException) aCause;
+            aCause = aCause.getCause ();
+          }
+          throw new IOException ("Failed to serialize XML", ex);
+        }
+      }
+    aOS.flush ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("CacheBytes", m_bCacheBytes)
+                            .append ("CachedBytes", m_aCachedBytes == null ? -1 : m_aCachedBytes.length)
+                            .getToString ();
   }
 }
@@ -17,6 +17,9 @@
 package com.helger.phase4.http;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -167,4 +170,71 @@ public interface IHttpPoster
                                        @Nonnull HttpClientResponseHandler <? extends T> aResponseHandler,
                                        @Nullable IAS4OutgoingDumper aOutgoingDumper,
                                        @Nullable IAS4RetryCallback aRetryCallback) throws IOException;
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * The default implementation runs the synchronous version in the provided
+   * executor, so the executing thread is blocked while waiting for a retry.
+   * Implementations should override this method to release the thread between
+   * the tries.
+   *
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be
+   *        <code>null</code> to use the global one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens.
+   * @param aExecutor
+   *        The executor to perform the sending in. May not be
+   *        <code>null</code>.
+   * @param <T>
+   *        Response data type
+   * @return A future with the HTTP response data as indicated by the
+   *         ResponseHandler. Never <code>null</code>. An {@link IOException}
+   *         may be wrapped in an {@link UncheckedIOException}.
+   * @since 1.4.4
+   */
+  @Nonnull
+  default <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                       @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                       @Nonnull final HttpEntity aHttpEntity,
+                                                                       @Nonnull final String sMessageID,
+                                                                       @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                       @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                       @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                       @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                       @Nonnull final Executor aExecutor)
+  {
+    return CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return sendGenericMessageWithRetries (sURL,
+                                              aCustomHttpHeaders,
+                                              aHttpEntity,
+                                              sMessageID,
+                                              aRetrySettings,
+                                              aResponseHandler,
+                                              aOutgoingDumper,
+                                              aRetryCallback);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException (ex);
+      }
+    }, aExecutor);
+  }
 }
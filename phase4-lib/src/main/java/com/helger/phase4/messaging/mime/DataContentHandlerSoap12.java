@@ -25,6 +25,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.WillNotClose;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
@@ -46,6 +47,18 @@ public class DataContentHandlerSoap12 extends text_plain
                                                                                                          .getAsStringWithoutParameters (),
                                                                                      "SOAP") };
 
+  // Transformer objects are not thread-safe, but expensive to create
+  private static final ThreadLocal <Transformer> TL_TRANSFORMER = ThreadLocal.withInitial ( () -> {
+    try
+    {
+      return TransformerFactory.newInstance ().newTransformer ();
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new IllegalStateException ("Failed to create XML Transformer", ex);
+    }
+  });
+
   @Override
   @Nonnull
   @ReturnsMutableObject ("design")
@@ -72,7 +85,8 @@ public class DataContentHandlerSoap12 extends text_plain
   {
     try
     {
-      final Transformer transformer = TransformerFactory.newInstance ().newTransformer ();
+      final Transformer transformer = TL_TRANSFORMER.get ();
+      transformer.reset ();
       final StreamResult result = new StreamResult (aOS);
       if (aObj instanceof DataSource)
       {
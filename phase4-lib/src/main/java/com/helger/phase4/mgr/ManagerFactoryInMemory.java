@@ -16,16 +16,22 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.File;
+
 import javax.annotation.Nonnull;
 
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.AS4DuplicateManagerInMemory;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManagerInMemory;
 import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.model.pmode.PModeManagerInMemory;
+import com.helger.phase4.model.pmode.PModeManagerJsonDirectory;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.util.Phase4Exception;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -43,8 +49,12 @@ public class ManagerFactoryInMemory implements IManagerFactory
   }
 
   @Nonnull
-  public IPModeManager createPModeManager ()
+  public IPModeManager createPModeManager () throws Phase4Exception
   {
+    final String sJsonDirectory = AS4Configuration.getPModeJsonDirectory ();
+    if (StringHelper.hasText (sJsonDirectory))
+      return new PModeManagerJsonDirectory (new File (sJsonDirectory), AS4Configuration.isPModeJsonWatch ());
+
     return new PModeManagerInMemory ();
   }
 
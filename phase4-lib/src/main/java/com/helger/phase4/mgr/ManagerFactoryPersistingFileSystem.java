@@ -16,18 +16,27 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+
 import javax.annotation.Nonnull;
 
+import com.helger.commons.string.StringHelper;
 import com.helger.dao.DAOException;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.AS4DuplicateManagerBucketed;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.model.pmode.PModeManager;
+import com.helger.phase4.model.pmode.PModeManagerJsonDirectory;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.app.io.WebFileIO;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -38,9 +47,10 @@ import com.helger.phase4.util.Phase4Exception;
  */
 public class ManagerFactoryPersistingFileSystem implements IManagerFactory
 {
-  private static final String MPC_XML = "as4-mpc.xml";
-  private static final String PMODE_XML = "as4-pmode.xml";
-  private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  public static final String MPC_XML = "as4-mpc.xml";
+  public static final String PMODE_XML = "as4-pmode.xml";
+  public static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  public static final String INCOMING_DUPLICATE_JOURNAL = "as4-duplicate-incoming.journal";
 
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
@@ -58,6 +68,10 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
   @Nonnull
   public IPModeManager createPModeManager () throws Phase4Exception
   {
+    final String sJsonDirectory = AS4Configuration.getPModeJsonDirectory ();
+    if (StringHelper.hasText (sJsonDirectory))
+      return new PModeManagerJsonDirectory (new File (sJsonDirectory), AS4Configuration.isPModeJsonWatch ());
+
     try
     {
       return new PModeManager (PMODE_XML);
@@ -71,6 +85,22 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
   @Nonnull
   public IAS4DuplicateManager createDuplicateManager () throws Phase4Exception
   {
+    if (AS4Configuration.isIncomingDuplicateBucketed ())
+    {
+      // Use approximately 10 buckets per disposal period
+      final long nBucketMinutes = Math.max (1, AS4Configuration.getIncomingDuplicateDisposalMinutes () / 10);
+      try
+      {
+        return new AS4DuplicateManagerBucketed (Duration.ofMinutes (nBucketMinutes),
+                                                AS4DuplicateManagerBucketed.DEFAULT_STRIPE_COUNT,
+                                                WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_JOURNAL));
+      }
+      catch (final IOException ex)
+      {
+        throw new Phase4Exception ("Error creating AS4DuplicateManagerBucketed", ex);
+      }
+    }
+
     try
     {
       return new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
@@ -24,12 +24,17 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.UsedViaReflection;
 import com.helger.commons.exception.InitializationException;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ClassHelper;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.duplicate.AS4DuplicateManagerBloomFiltered;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.http.AS4RetryScheduler;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.sender.AS4AsyncSendManager;
+import com.helger.phase4.servlet.AS4ReceiverExecutorManager;
 import com.helger.scope.IScope;
 import com.helger.scope.singleton.AbstractGlobalSingleton;
 
@@ -105,6 +110,9 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
       m_aMPCMgr = s_aFactory.createMPCManager ();
       m_aPModeMgr = s_aFactory.createPModeManager ();
       m_aIncomingDuplicateMgr = s_aFactory.createDuplicateManager ();
+      if (AS4Configuration.isIncomingDuplicateFilterEnabled ())
+        m_aIncomingDuplicateMgr = new AS4DuplicateManagerBloomFiltered (m_aIncomingDuplicateMgr,
+                                                                        AS4Configuration.getIncomingDuplicateDisposalMinutes ());
       m_aProfileMgr = s_aFactory.createProfileManager ();
 
       // Validate content
@@ -118,6 +126,26 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed)
+  {
+    // Don't let anybody wait for a scheduled retry
+    AS4RetryScheduler.shutdown ();
+    // Let the asynchronous receiver tasks finish before the managers are
+    // closed
+    AS4ReceiverExecutorManager.shutdown ();
+    AS4AsyncSendManager.shutdown ();
+    // E.g. for directory watching PMode managers
+    if (m_aPModeMgr instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) m_aPModeMgr);
+    // E.g. for journal based duplicate managers
+    if (m_aIncomingDuplicateMgr instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) m_aIncomingDuplicateMgr);
+    // E.g. for database based factories
+    if (s_aFactory instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) s_aFactory);
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
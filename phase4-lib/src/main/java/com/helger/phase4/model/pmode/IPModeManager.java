@@ -22,6 +22,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.equals.EqualsHelper;
@@ -120,6 +121,51 @@ public interface IPModeManager
     });
   }
 
+  /**
+   * Get all PModes with the provided initiator ID.
+   *
+   * @param sInitiatorID
+   *        The initiator ID to be searched. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   * @since 1.4.4
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IPMode> getAllPModesOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return getAll ().getAll (x -> x.hasInitiatorID (sInitiatorID));
+  }
+
+  /**
+   * Get all PModes with the provided responder ID.
+   *
+   * @param sResponderID
+   *        The responder ID to be searched. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   * @since 1.4.4
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IPMode> getAllPModesOfResponderID (@Nullable final String sResponderID)
+  {
+    return getAll ().getAll (x -> x.hasResponderID (sResponderID));
+  }
+
+  /**
+   * Get all PModes with the provided agreement.
+   *
+   * @param sAgreement
+   *        The agreement to be searched. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   * @since 1.4.4
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return getAll ().getAll (x -> EqualsHelper.equals (x.getAgreement (), sAgreement));
+  }
+
   /**
    * Get a predicate that matches a PMode by ID, initiator ID and responder ID?
    *
@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * A set of PModes with secondary indexes, so that lookups don't need to scan
+ * all PModes. Lookups never lock. Modifications via {@link #put(IPMode)} and
+ * {@link #remove(String)} only touch the index entries of the affected PMode,
+ * but they must be serialized by the caller (usually by the write lock of the
+ * owning PMode manager).<br>
+ * The lists of the secondary indexes are never modified after they were
+ * published - a modification replaces the list of the affected key only.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class PModeIndex
+{
+  // ConcurrentHashMap does not support null keys
+  private static final Object NULL_KEY = new Object ();
+
+  /**
+   * The composite key for the service and action of leg 1.
+   */
+  private static final class ServiceAndAction
+  {
+    private final String m_sService;
+    private final String m_sAction;
+
+    ServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+    {
+      m_sService = sService;
+      m_sAction = sAction;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final ServiceAndAction rhs = (ServiceAndAction) o;
+      return EqualsHelper.equals (m_sService, rhs.m_sService) && EqualsHelper.equals (m_sAction, rhs.m_sAction);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return new HashCodeGenerator (this).append (m_sService).append (m_sAction).getHashCode ();
+    }
+  }
+
+  /**
+   * The secondary index keys of a single PMode at the time it was indexed.
+   * Required to find the old index entries, if a PMode is modified in place.
+   */
+  private static final class IndexKeys
+  {
+    private final Object m_aServiceAndAction;
+    private final Object m_aInitiatorID;
+    private final Object m_aResponderID;
+    private final Object m_aAgreement;
+
+    IndexKeys (@Nonnull final IPMode aPMode)
+    {
+      ServiceAndAction aServiceAndAction = null;
+      final PModeLeg aLeg = aPMode.getLeg1 ();
+      if (aLeg != null)
+      {
+        final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+        if (aBI != null)
+          aServiceAndAction = new ServiceAndAction (aBI.getService (), aBI.getAction ());
+      }
+      m_aServiceAndAction = aServiceAndAction;
+      m_aInitiatorID = _key (aPMode.getInitiatorID ());
+      m_aResponderID = _key (aPMode.getResponderID ());
+      m_aAgreement = _key (aPMode.getAgreement ());
+    }
+  }
+
+  private final ConcurrentHashMap <String, IPMode> m_aByID = new ConcurrentHashMap <> ();
+  private final ConcurrentHashMap <Object, ICommonsList <IPMode>> m_aByServiceAndAction = new ConcurrentHashMap <> ();
+  private final ConcurrentHashMap <Object, ICommonsList <IPMode>> m_aByInitiatorID = new ConcurrentHashMap <> ();
+  private final ConcurrentHashMap <Object, ICommonsList <IPMode>> m_aByResponderID = new ConcurrentHashMap <> ();
+  private final ConcurrentHashMap <Object, ICommonsList <IPMode>> m_aByAgreement = new ConcurrentHashMap <> ();
+  // Only accessed by the (serialized) writers
+  private final ICommonsMap <String, IndexKeys> m_aKeys = new CommonsHashMap <> ();
+
+  /**
+   * Constructor for an empty index.
+   */
+  public PModeIndex ()
+  {}
+
+  /**
+   * Constructor that bulk loads all provided PModes. This is more efficient
+   * than calling {@link #put(IPMode)} for each PMode.
+   *
+   * @param aPModes
+   *        The PModes to be indexed. May not be <code>null</code>.
+   */
+  public PModeIndex (@Nonnull final Iterable <? extends IPMode> aPModes)
+  {
+    ValueEnforcer.notNull (aPModes, "PModes");
+
+    for (final IPMode aPMode : aPModes)
+    {
+      final String sID = aPMode.getID ();
+      if (m_aByID.containsKey (sID))
+      {
+        // Rare case - the last one wins
+        put (aPMode);
+      }
+      else
+      {
+        // The lists are not yet published and may be modified directly
+        final IndexKeys aKeys = new IndexKeys (aPMode);
+        m_aByID.put (sID, aPMode);
+        m_aKeys.put (sID, aKeys);
+        if (aKeys.m_aServiceAndAction != null)
+          m_aByServiceAndAction.computeIfAbsent (aKeys.m_aServiceAndAction, k -> new CommonsArrayList <> ()).add (aPMode);
+        m_aByInitiatorID.computeIfAbsent (aKeys.m_aInitiatorID, k -> new CommonsArrayList <> ()).add (aPMode);
+        m_aByResponderID.computeIfAbsent (aKeys.m_aResponderID, k -> new CommonsArrayList <> ()).add (aPMode);
+        m_aByAgreement.computeIfAbsent (aKeys.m_aAgreement, k -> new CommonsArrayList <> ()).add (aPMode);
+      }
+    }
+  }
+
+  @Nonnull
+  private static Object _key (@Nullable final String s)
+  {
+    return s == null ? NULL_KEY : s;
+  }
+
+  private static void _add (@Nonnull final ConcurrentHashMap <Object, ICommonsList <IPMode>> aMap,
+                            @Nullable final Object aKey,
+                            @Nonnull final IPMode aPMode)
+  {
+    if (aKey != null)
+      aMap.compute (aKey, (k, aOld) -> {
+        // Never modify a published list
+        final ICommonsList <IPMode> ret = aOld == null ? new CommonsArrayList <> () : aOld.getClone ();
+        ret.add (aPMode);
+        return ret;
+      });
+  }
+
+  private static void _remove (@Nonnull final ConcurrentHashMap <Object, ICommonsList <IPMode>> aMap,
+                               @Nullable final Object aKey,
+                               @Nonnull final IPMode aPMode)
+  {
+    if (aKey != null)
+      aMap.computeIfPresent (aKey, (k, aOld) -> {
+        // Never modify a published list
+        final ICommonsList <IPMode> ret = new CommonsArrayList <> (aOld.size ());
+        for (final IPMode aCur : aOld)
+          if (aCur != aPMode)
+            ret.add (aCur);
+        return ret.isEmpty () ? null : ret;
+      });
+  }
+
+  private static void _move (@Nonnull final ConcurrentHashMap <Object, ICommonsList <IPMode>> aMap,
+                             @Nullable final Object aOldKey,
+                             @Nullable final IPMode aOldPMode,
+                             @Nullable final Object aNewKey,
+                             @Nonnull final IPMode aNewPMode)
+  {
+    // Nothing to do, if the same PMode stays at the same position
+    if (aOldPMode == aNewPMode && EqualsHelper.equals (aOldKey, aNewKey))
+      return;
+
+    // Add first, so that concurrent readers always find an entry
+    _add (aMap, aNewKey, aNewPMode);
+    if (aOldPMode != null)
+      _remove (aMap, aOldKey, aOldPMode);
+  }
+
+  /**
+   * Add a new PMode to the index, replace a PMode with the same ID or update
+   * the index entries of a PMode that was modified in place. Only the index
+   * entries of the provided PMode are touched. Calls to this method must be
+   * serialized by the caller.
+   *
+   * @param aPMode
+   *        The PMode to be indexed. May not be <code>null</code>.
+   */
+  public void put (@Nonnull final IPMode aPMode)
+  {
+    ValueEnforcer.notNull (aPMode, "PMode");
+
+    final String sID = aPMode.getID ();
+    final IndexKeys aNewKeys = new IndexKeys (aPMode);
+    final IndexKeys aOldKeys = m_aKeys.put (sID, aNewKeys);
+    final IPMode aOldPMode = m_aByID.put (sID, aPMode);
+
+    _move (m_aByServiceAndAction,
+           aOldKeys == null ? null : aOldKeys.m_aServiceAndAction,
+           aOldPMode,
+           aNewKeys.m_aServiceAndAction,
+           aPMode);
+    _move (m_aByInitiatorID, aOldKeys == null ? null : aOldKeys.m_aInitiatorID, aOldPMode, aNewKeys.m_aInitiatorID, aPMode);
+    _move (m_aByResponderID, aOldKeys == null ? null : aOldKeys.m_aResponderID, aOldPMode, aNewKeys.m_aResponderID, aPMode);
+    _move (m_aByAgreement, aOldKeys == null ? null : aOldKeys.m_aAgreement, aOldPMode, aNewKeys.m_aAgreement, aPMode);
+  }
+
+  /**
+   * Remove the PMode with the provided ID from the index. Only the index
+   * entries of that PMode are touched. Calls to this method must be
+   * serialized by the caller.
+   *
+   * @param sID
+   *        The ID of the PMode to be removed. May be <code>null</code>.
+   * @return The removed PMode or <code>null</code> if no such PMode was
+   *         contained.
+   */
+  @Nullable
+  public IPMode remove (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+
+    final IPMode aOldPMode = m_aByID.remove (sID);
+    final IndexKeys aOldKeys = m_aKeys.remove (sID);
+    if (aOldPMode != null && aOldKeys != null)
+    {
+      _remove (m_aByServiceAndAction, aOldKeys.m_aServiceAndAction, aOldPMode);
+      _remove (m_aByInitiatorID, aOldKeys.m_aInitiatorID, aOldPMode);
+      _remove (m_aByResponderID, aOldKeys.m_aResponderID, aOldPMode);
+      _remove (m_aByAgreement, aOldKeys.m_aAgreement, aOldPMode);
+    }
+    return aOldPMode;
+  }
+
+  /**
+   * @return The number of contained PModes. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aByID.size ();
+  }
+
+  /**
+   * @return A copy of all contained PModes in no particular order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAll ()
+  {
+    return new CommonsArrayList <> (m_aByID.values ());
+  }
+
+  /**
+   * @return A copy of all contained PMode IDs. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIDs ()
+  {
+    return new CommonsHashSet <> (m_aByID.keySet ());
+  }
+
+  /**
+   * Find the first PMode matching the provided filter. This scans all PModes.
+   *
+   * @param aFilter
+   *        The filter to be used. May not be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    return CollectionHelper.findFirst (m_aByID.values (), aFilter);
+  }
+
+  /**
+   * @param sID
+   *        The PMode ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aByID.get (sID);
+  }
+
+  /**
+   * @param sID
+   *        The PMode ID to search. May be <code>null</code>.
+   * @param sInitiatorID
+   *        The initiator ID to match. May be <code>null</code>.
+   * @param sResponderID
+   *        The responder ID to match. May be <code>null</code>.
+   * @return <code>null</code> if no PMode with the provided ID exists, or if
+   *         the parties don't match.
+   * @see IPModeManager#getPModeFilter(String, String, String)
+   */
+  @Nullable
+  public IPMode getPModeOfIDAndParties (@Nullable final String sID,
+                                        @Nullable final String sInitiatorID,
+                                        @Nullable final String sResponderID)
+  {
+    final IPMode ret = getPModeOfID (sID);
+    if (ret != null && ret.hasInitiatorID (sInitiatorID) && ret.hasResponderID (sResponderID))
+      return ret;
+    return null;
+  }
+
+  /**
+   * @param sService
+   *        The service of leg 1 to search. May be <code>null</code>.
+   * @param sAction
+   *        The action of leg 1 to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists. If more than one PMode
+   *         matches, the one that was indexed first is returned.
+   */
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    final ICommonsList <IPMode> aList = m_aByServiceAndAction.get (new ServiceAndAction (sService, sAction));
+    return aList == null ? null : aList.getFirst ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private static ICommonsList <IPMode> _getAll (@Nonnull final ConcurrentHashMap <Object, ICommonsList <IPMode>> aMap,
+                                                @Nullable final String sKey)
+  {
+    final ICommonsList <IPMode> ret = aMap.get (_key (sKey));
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * @param sInitiatorID
+   *        The initiator ID to search. May be <code>null</code>.
+   * @return All PModes with the provided initiator ID. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return _getAll (m_aByInitiatorID, sInitiatorID);
+  }
+
+  /**
+   * @param sResponderID
+   *        The responder ID to search. May be <code>null</code>.
+   * @return All PModes with the provided responder ID. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllOfResponderID (@Nullable final String sResponderID)
+  {
+    return _getAll (m_aByResponderID, sResponderID);
+  }
+
+  /**
+   * @param sAgreement
+   *        The agreement to search. May be <code>null</code>.
+   * @return All PModes with the provided agreement. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllOfAgreement (@Nullable final String sAgreement)
+  {
+    return _getAll (m_aByAgreement, sAgreement);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Count", m_aByID.size ()).getToString ();
+  }
+}
@@ -16,8 +16,6 @@
  */
 package com.helger.phase4.model.pmode;
 
-import java.util.function.Predicate;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -28,6 +26,8 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EChange;
 import com.helger.dao.DAOException;
 import com.helger.photon.app.dao.AbstractPhotonMapBasedWALDAO;
@@ -44,9 +44,14 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PModeManager.class);
 
+  // Lock-free lookups - modified incrementally in the write lock
+  private final PModeIndex m_aIndex;
+
   public PModeManager (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
+    // Bulk load everything that was read
+    m_aIndex = new PModeIndex (getAll ());
   }
 
   private void _validatePMode (@Nonnull final IPMode aPMode)
@@ -65,6 +70,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   private void _createPModeLocked (@Nonnull final PMode aPMode)
   {
     internalCreateItem (aPMode);
+    m_aIndex.put (aPMode);
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -115,6 +121,8 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
       internalUpdateItem (aExistingPMode);
+      // Re-index the modified PMode only
+      m_aIndex.put (aExistingPMode);
     }
     finally
     {
@@ -134,16 +142,18 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
-    // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    // Try without lock
+    final String sID = aPMode.getID ();
+    final String sInitiatorID = aPMode.getInitiatorID ();
+    final String sResponderID = aPMode.getResponderID ();
+    IPMode aExisting = m_aIndex.getPModeOfIDAndParties (sID, sInitiatorID, sResponderID);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = m_aIndex.getPModeOfIDAndParties (sID, sInitiatorID, sResponderID);
         if (aExisting == null)
         {
           // Create a new one
@@ -179,6 +189,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
         AuditHelper.onAuditDeleteFailure (PMode.OT, "already-deleted", sPModeID);
         return EChange.UNCHANGED;
       }
+      // Deleted PModes stay indexed, so the index is unaffected
       internalMarkItemDeleted (aDeletedPMode);
     }
     finally
@@ -207,6 +218,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     try
     {
       internalDeleteItem (sPModeID);
+      m_aIndex.remove (sPModeID);
     }
     finally
     {
@@ -220,6 +232,37 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return m_aIndex.getPModeOfID (sID);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aIndex.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return m_aIndex.getAllOfInitiatorID (sInitiatorID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfResponderID (@Nullable final String sResponderID)
+  {
+    return m_aIndex.getAllOfResponderID (sResponderID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aIndex.getAllOfAgreement (sAgreement);
   }
 }
@@ -30,8 +30,6 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
 import com.helger.commons.annotation.ReturnsMutableCopy;
-import com.helger.commons.collection.CollectionHelper;
-import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
@@ -54,9 +52,39 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  // Lock-free lookups - modified incrementally in the write lock
+  private final PModeIndex m_aIndex;
 
   public PModeManagerInMemory ()
-  {}
+  {
+    m_aIndex = new PModeIndex ();
+  }
+
+  /**
+   * Constructor that bulk loads existing PModes. Each PMode is validated, but
+   * the index is built only once, so this is considerably faster than calling
+   * {@link #createPMode(PMode)} for each PMode.
+   *
+   * @param aPModes
+   *        The PModes to be loaded. May not be <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If a PMode is invalid or if a PMode ID is used more than once.
+   * @since 1.4.4
+   */
+  public PModeManagerInMemory (@Nonnull final Iterable <? extends PMode> aPModes)
+  {
+    ValueEnforcer.notNull (aPModes, "PModes");
+    for (final PMode aPMode : aPModes)
+    {
+      ValueEnforcer.notNull (aPMode, "PMode");
+      _validatePMode (aPMode);
+      final String sID = aPMode.getID ();
+      if (m_aMap.containsKey (sID))
+        throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
+      m_aMap.put (sID, aPMode);
+    }
+    m_aIndex = new PModeIndex (m_aMap.values ());
+  }
 
   private void _validatePMode (@Nonnull final IPMode aPMode)
   {
@@ -77,6 +105,7 @@ public class PModeManagerInMemory implements IPModeManager
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
     m_aMap.put (sID, aPMode);
+    m_aIndex.put (aPMode);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -117,6 +146,8 @@ public class PModeManagerInMemory implements IPModeManager
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      // Re-index the modified PMode only
+      m_aIndex.put (aExistingPMode);
     }
     finally
     {
@@ -135,16 +166,18 @@ public class PModeManagerInMemory implements IPModeManager
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
-    // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    // Try without lock
+    final String sID = aPMode.getID ();
+    final String sInitiatorID = aPMode.getInitiatorID ();
+    final String sResponderID = aPMode.getResponderID ();
+    IPMode aExisting = m_aIndex.getPModeOfIDAndParties (sID, sInitiatorID, sResponderID);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = m_aIndex.getPModeOfIDAndParties (sID, sInitiatorID, sResponderID);
         if (aExisting == null)
         {
           // Create a new one
@@ -172,6 +205,7 @@ public class PModeManagerInMemory implements IPModeManager
     m_aRWLock.writeLock ().lock ();
     try
     {
+      // Deleted PModes stay indexed, so the index is unaffected
       if (BusinessObjectHelper.setDeletionNow (aDeletedPMode).isUnchanged ())
         return EChange.UNCHANGED;
     }
@@ -197,6 +231,7 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      m_aIndex.remove (sPModeID);
     }
     finally
     {
@@ -217,26 +252,57 @@ public class PModeManagerInMemory implements IPModeManager
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return m_aIndex.getPModeOfID (sID);
   }
 
   @Nullable
   public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
   {
-    return m_aRWLock.readLockedGet ( () -> CollectionHelper.findFirst (m_aMap.values (), aFilter));
+    return m_aIndex.findFirst (aFilter);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aIndex.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return m_aIndex.getAllOfInitiatorID (sInitiatorID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfResponderID (@Nullable final String sResponderID)
+  {
+    return m_aIndex.getAllOfResponderID (sResponderID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aIndex.getAllOfAgreement (sAgreement);
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IPMode> getAll ()
   {
-    return m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aMap.values ()));
+    return m_aIndex.getAll ();
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsSet <String> getAllIDs ()
   {
-    return m_aRWLock.readLockedGet (m_aMap::copyOfKeySet);
+    return m_aIndex.getAllIDs ();
   }
 }
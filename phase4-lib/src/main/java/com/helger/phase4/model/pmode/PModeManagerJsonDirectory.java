@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.io.watchdir.WatchDir;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.timing.StopWatch;
+import com.helger.json.IJson;
+import com.helger.json.IJsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * A {@link IPModeManager} that reads all PModes from the <code>*.json</code>
+ * files of a directory. Each file must contain a single PMode in the format of
+ * {@link PModeJsonConverter}. The files are read in parallel and each PMode is
+ * validated with {@link #validatePMode(IPMode)}. Only if all files are valid,
+ * the result is published as a new {@link PModeIndex} - otherwise the previous
+ * index stays active. Runtime modifications only update the index entries of
+ * the affected PMode. Readers never lock.<br>
+ * Optionally the directory is watched for changes, and a reload is triggered
+ * shortly after the last change.<br>
+ * PModes that are created at runtime via the API (e.g. by the AS4 profiles)
+ * are kept in memory only and are not written to the directory. If a runtime
+ * PMode has the same ID as a file based PMode, the file based PMode wins.
+ * File based PModes cannot be deleted via the API.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class PModeManagerJsonDirectory implements IPModeManager, AutoCloseable
+{
+  public static final String FILE_EXTENSION = ".json";
+  public static final Duration DEFAULT_RELOAD_DELAY = Duration.ofMillis (500);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PModeManagerJsonDirectory.class);
+
+  private final File m_aDirectory;
+  private final Duration m_aReloadDelay;
+  // Runtime created PModes
+  private final PModeManagerInMemory m_aRuntimeMgr = new PModeManagerInMemory ();
+  // Serializes reloads and runtime modifications
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private ICommonsList <IPMode> m_aFilePModes = new CommonsArrayList <> ();
+  @GuardedBy ("m_aLock")
+  private ICommonsSet <String> m_aFilePModeIDs = new CommonsHashSet <> ();
+  // Lock-free lookups - replaced on reload, modified incrementally otherwise
+  private volatile PModeIndex m_aIndex = new PModeIndex ();
+  private final AtomicLong m_aReloadCount = new AtomicLong (0);
+  private final AtomicBoolean m_aReloadScheduled = new AtomicBoolean (false);
+  private final ScheduledExecutorService m_aReloadExecutor;
+  private final WatchDir m_aWatchDir;
+
+  /**
+   * Constructor. Reads all PModes from the directory.
+   *
+   * @param aDirectory
+   *        The directory to read the JSON files from. May not be
+   *        <code>null</code> and must be an existing directory.
+   * @param bWatch
+   *        <code>true</code> to watch the directory for changes and reload
+   *        automatically, <code>false</code> to read only once.
+   * @throws Phase4Exception
+   *         If the initial read fails or the directory cannot be watched.
+   */
+  public PModeManagerJsonDirectory (@Nonnull final File aDirectory, final boolean bWatch) throws Phase4Exception
+  {
+    this (aDirectory, bWatch, DEFAULT_RELOAD_DELAY);
+  }
+
+  /**
+   * Constructor. Reads all PModes from the directory.
+   *
+   * @param aDirectory
+   *        The directory to read the JSON files from. May not be
+   *        <code>null</code> and must be an existing directory.
+   * @param bWatch
+   *        <code>true</code> to watch the directory for changes and reload
+   *        automatically, <code>false</code> to read only once.
+   * @param aReloadDelay
+   *        The time to wait after a change before reloading. Further changes
+   *        within that time are handled by the same reload. May not be
+   *        <code>null</code>.
+   * @throws Phase4Exception
+   *         If the initial read fails or the directory cannot be watched.
+   */
+  public PModeManagerJsonDirectory (@Nonnull final File aDirectory,
+                                    final boolean bWatch,
+                                    @Nonnull final Duration aReloadDelay) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isTrue (aDirectory.isDirectory (), () -> "'" + aDirectory.getAbsolutePath () + "' is not a directory");
+    ValueEnforcer.notNull (aReloadDelay, "ReloadDelay");
+    ValueEnforcer.isFalse (aReloadDelay.isNegative (), "ReloadDelay may not be negative");
+
+    m_aDirectory = aDirectory;
+    m_aReloadDelay = aReloadDelay;
+
+    if (reload ().isFailure ())
+      throw new PModeValidationException ("Failed to read the PModes from '" + aDirectory.getAbsolutePath () + "'");
+
+    if (bWatch)
+    {
+      m_aReloadExecutor = Executors.newSingleThreadScheduledExecutor (r -> {
+        final Thread t = new Thread (r, CAS4.LIB_NAME + "-pmode-reload");
+        t.setDaemon (true);
+        return t;
+      });
+      try
+      {
+        m_aWatchDir = WatchDir.createAsyncRunningWatchDir (aDirectory.toPath (), false, (eAction, aCurFile) -> {
+          if (aCurFile.getFileName () != null && aCurFile.getFileName ().toString ().endsWith (FILE_EXTENSION))
+            _scheduleReload ();
+        });
+      }
+      catch (final IOException ex)
+      {
+        m_aReloadExecutor.shutdownNow ();
+        throw new Phase4Exception ("Failed to watch directory '" + aDirectory.getAbsolutePath () + "'", ex);
+      }
+    }
+    else
+    {
+      m_aReloadExecutor = null;
+      m_aWatchDir = null;
+    }
+  }
+
+  /**
+   * @return The directory the PModes are read from. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The number of successful reloads, including the initial one.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public final long getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  private void _scheduleReload ()
+  {
+    // Only one pending reload at a time
+    if (m_aReloadScheduled.compareAndSet (false, true))
+      m_aReloadExecutor.schedule ( () -> {
+        // Changes from now on need another reload
+        m_aReloadScheduled.set (false);
+        reload ();
+      }, m_aReloadDelay.toMillis (), TimeUnit.MILLISECONDS);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _rebuildIndexLocked ()
+  {
+    final ICommonsList <IPMode> aAll = m_aFilePModes.getClone ();
+    // File based PModes take precedence
+    for (final IPMode aPMode : m_aRuntimeMgr.getAll ())
+      if (!m_aFilePModeIDs.contains (aPMode.getID ()))
+        aAll.add (aPMode);
+    m_aIndex = new PModeIndex (aAll);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _reindexRuntimePModeLocked (@Nullable final String sID)
+  {
+    // File based PModes take precedence
+    if (sID == null || m_aFilePModeIDs.contains (sID))
+      return;
+
+    final IPMode aPMode = m_aRuntimeMgr.getPModeOfID (sID);
+    if (aPMode == null)
+      m_aIndex.remove (sID);
+    else
+      m_aIndex.put (aPMode);
+  }
+
+  /**
+   * Read the PMode from a single file and validate it.
+   *
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @return <code>null</code> if the file could not be read or if the PMode
+   *         is invalid.
+   */
+  @Nullable
+  private PMode _readPMode (@Nonnull final File aFile)
+  {
+    try
+    {
+      final String sJson = SimpleFileIO.getFileAsString (aFile, StandardCharsets.UTF_8);
+      final IJson aJson = sJson == null ? null : JsonReader.readFromString (sJson);
+      if (aJson == null || !aJson.isObject ())
+      {
+        LOGGER.error ("Failed to read JSON object from '" + aFile.getAbsolutePath () + "'");
+        return null;
+      }
+      final PMode aPMode = PModeJsonConverter.convertToNative ((IJsonObject) aJson);
+      validatePMode (aPMode);
+      return aPMode;
+    }
+    catch (final PModeValidationException | RuntimeException ex)
+    {
+      LOGGER.error ("Invalid PMode in '" + aFile.getAbsolutePath () + "': " + ex.getMessage ());
+      return null;
+    }
+  }
+
+  /**
+   * Read all PModes from the directory again. The files are read in parallel.
+   * If any file is invalid, or if a PMode ID is used more than once, the
+   * currently active PModes are retained.
+   *
+   * @return {@link ESuccess#SUCCESS} if the new PModes were published.
+   */
+  @Nonnull
+  public ESuccess reload ()
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final File [] aFiles = m_aDirectory.listFiles (x -> x.isFile () && x.getName ().endsWith (FILE_EXTENSION));
+    if (aFiles == null)
+    {
+      LOGGER.error ("Failed to list the files in '" + m_aDirectory.getAbsolutePath () + "'");
+      return ESuccess.FAILURE;
+    }
+    // Stable order
+    Arrays.sort (aFiles);
+
+    final ICommonsList <PMode> aPModes = new CommonsArrayList <> (aFiles.length);
+    Arrays.stream (aFiles).parallel ().map (this::_readPMode).forEachOrdered (aPModes::add);
+
+    final ICommonsSet <String> aIDs = new CommonsHashSet <> (aPModes.size ());
+    boolean bError = false;
+    for (int i = 0; i < aFiles.length; ++i)
+    {
+      final PMode aPMode = aPModes.get (i);
+      if (aPMode == null)
+        bError = true;
+      else
+        if (!aIDs.add (aPMode.getID ()))
+        {
+          LOGGER.error ("PMode ID '" + aPMode.getID () + "' from '" + aFiles[i].getAbsolutePath () + "' is used more than once");
+          bError = true;
+        }
+    }
+    if (bError)
+    {
+      LOGGER.error ("Not applying the PModes from '" + m_aDirectory.getAbsolutePath () + "' - keeping the previous ones");
+      return ESuccess.FAILURE;
+    }
+
+    m_aLock.locked ( () -> {
+      m_aFilePModes = new CommonsArrayList <> (aPModes);
+      m_aFilePModeIDs = aIDs;
+      _rebuildIndexLocked ();
+    });
+    m_aReloadCount.incrementAndGet ();
+
+    LOGGER.info ("Successfully read " +
+                 aPModes.size () +
+                 " PModes from '" +
+                 m_aDirectory.getAbsolutePath () +
+                 "' in " +
+                 aSW.stopAndGetMillis () +
+                 " ms");
+    return ESuccess.SUCCESS;
+  }
+
+  public void createPMode (@Nonnull final PMode aPMode)
+  {
+    m_aLock.locked ( () -> {
+      m_aRuntimeMgr.createPMode (aPMode);
+      _reindexRuntimePModeLocked (aPMode.getID ());
+    });
+  }
+
+  @Nonnull
+  public EChange updatePMode (@Nonnull final IPMode aPMode)
+  {
+    return m_aLock.lockedGet ( () -> {
+      final EChange ret = m_aRuntimeMgr.updatePMode (aPMode);
+      if (ret.isChanged ())
+        _reindexRuntimePModeLocked (aPMode.getID ());
+      return ret;
+    });
+  }
+
+  public void createOrUpdatePMode (@Nonnull final PMode aPMode)
+  {
+    ValueEnforcer.notNull (aPMode, "PMode");
+
+    m_aLock.locked ( () -> {
+      if (m_aFilePModeIDs.contains (aPMode.getID ()))
+      {
+        // File based PModes take precedence anyway
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Ignoring runtime update of file based PMode '" + aPMode.getID () + "'");
+        return;
+      }
+      m_aRuntimeMgr.createOrUpdatePMode (aPMode);
+      _reindexRuntimePModeLocked (aPMode.getID ());
+    });
+  }
+
+  @Nonnull
+  public EChange markPModeDeleted (@Nullable final String sPModeID)
+  {
+    return m_aLock.lockedGet ( () -> {
+      final EChange ret = m_aRuntimeMgr.markPModeDeleted (sPModeID);
+      if (ret.isChanged ())
+        _reindexRuntimePModeLocked (sPModeID);
+      return ret;
+    });
+  }
+
+  @Nonnull
+  public EChange deletePMode (@Nullable final String sPModeID)
+  {
+    return m_aLock.lockedGet ( () -> {
+      final EChange ret = m_aRuntimeMgr.deletePMode (sPModeID);
+      if (ret.isChanged ())
+        _reindexRuntimePModeLocked (sPModeID);
+      return ret;
+    });
+  }
+
+  @Nullable
+  public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    return m_aIndex.findFirst (aFilter);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aIndex.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    return m_aIndex.getPModeOfID (sID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAll ()
+  {
+    return m_aIndex.getAll ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIDs ()
+  {
+    return m_aIndex.getAllIDs ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return m_aIndex.getAllOfInitiatorID (sInitiatorID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfResponderID (@Nullable final String sResponderID)
+  {
+    return m_aIndex.getAllOfResponderID (sResponderID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aIndex.getAllOfAgreement (sAgreement);
+  }
+
+  public void close ()
+  {
+    StreamHelper.close (m_aWatchDir);
+    if (m_aReloadExecutor != null)
+      m_aReloadExecutor.shutdownNow ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("ReloadDelay", m_aReloadDelay)
+                                       .append ("Index", m_aIndex)
+                                       .append ("Watching", m_aWatchDir != null)
+                                       .getToString ();
+  }
+}
@@ -16,9 +16,11 @@
  */
 package com.helger.phase4.model.pmode.resolve;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.mgr.MetaAS4Manager;
@@ -39,10 +41,28 @@ public class DefaultPModeResolver implements IPModeResolver
   public static final IPModeResolver DEFAULT_PMODE_RESOLVER = new DefaultPModeResolver (false);
 
   private final boolean m_bUseDefaultAsFallback;
+  private final PModeTemplateCache m_aTemplateCache;
 
   public DefaultPModeResolver (final boolean bUseDefaultAsFallback)
   {
+    this (bUseDefaultAsFallback, PModeTemplateCache.DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bUseDefaultAsFallback
+   *        <code>true</code> to use the default PMode as the last fallback.
+   * @param nTemplateCacheMaxSize
+   *        The maximum number of profile based PMode templates to cache. Use
+   *        0 to disable the cache.
+   * @since 1.4.4
+   */
+  public DefaultPModeResolver (final boolean bUseDefaultAsFallback, @Nonnegative final int nTemplateCacheMaxSize)
+  {
+    ValueEnforcer.isGE0 (nTemplateCacheMaxSize, "TemplateCacheMaxSize");
     m_bUseDefaultAsFallback = bUseDefaultAsFallback;
+    m_aTemplateCache = nTemplateCacheMaxSize > 0 ? new PModeTemplateCache (nTemplateCacheMaxSize) : null;
   }
 
   public final boolean isUseDefaultAsFallback ()
@@ -50,6 +70,17 @@ public class DefaultPModeResolver implements IPModeResolver
     return m_bUseDefaultAsFallback;
   }
 
+  /**
+   * @return The cache for the profile based PMode templates. May be
+   *         <code>null</code> if caching is disabled.
+   * @since 1.4.4
+   */
+  @Nullable
+  public final PModeTemplateCache getTemplateCache ()
+  {
+    return m_aTemplateCache;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sPModeID,
                               @Nonnull final String sService,
@@ -78,7 +109,11 @@ public class DefaultPModeResolver implements IPModeResolver
     // Use default pmode based on profile
     final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ().getDefaultProfileOrNull ();
     if (aProfile != null)
+    {
+      if (m_aTemplateCache != null)
+        return m_aTemplateCache.getOrCreatePModeTemplate (aProfile, sInitiatorID, sResponderID, sAddress);
       return aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    }
 
     if (!m_bUseDefaultAsFallback)
     {
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.json.IJsonObject;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeJsonConverter;
+import com.helger.phase4.profile.IAS4Profile;
+
+/**
+ * A bounded LRU cache for the PMode templates created by
+ * {@link IAS4Profile#createPModeTemplate(String, String, String)}. The key is
+ * the tuple of profile ID, initiator ID, responder ID and address. The cache
+ * keeps a private copy of each template, that is created once when the
+ * template is created. Cache hits return this shared copy without any
+ * conversion, so the returned {@link IPMode} must be treated as read-only,
+ * like the PModes returned by the {@link IPModeManager}. If the profile stores
+ * its templates in the PMode manager (see
+ * {@link IAS4Profile#isPersistPModeTemplate()}) and the template was removed
+ * from the PMode manager in the meantime, a cache hit stores a new copy of it
+ * again, so that the behaviour does not differ from an uncached lookup.<br>
+ * Each entry remembers the profile instance it was created from. If a lookup
+ * finds an entry that was created by a different profile instance with the
+ * same ID, the profiles were re-registered (e.g. via
+ * {@link com.helger.phase4.profile.AS4ProfileManager#reloadAll()} or by
+ * re-initializing the managers) and the whole cache is invalidated.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class PModeTemplateCache
+{
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private static final class Key
+  {
+    private final String m_sProfileID;
+    private final String m_sInitiatorID;
+    private final String m_sResponderID;
+    private final String m_sAddress;
+    private final int m_nHashCode;
+
+    Key (@Nonnull final String sProfileID,
+         @Nonnull final String sInitiatorID,
+         @Nonnull final String sResponderID,
+         @Nullable final String sAddress)
+    {
+      m_sProfileID = sProfileID;
+      m_sInitiatorID = sInitiatorID;
+      m_sResponderID = sResponderID;
+      m_sAddress = sAddress;
+      m_nHashCode = new HashCodeGenerator (this).append (sProfileID)
+                                                .append (sInitiatorID)
+                                                .append (sResponderID)
+                                                .append (sAddress)
+                                                .getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sProfileID.equals (rhs.m_sProfileID) &&
+             m_sInitiatorID.equals (rhs.m_sInitiatorID) &&
+             m_sResponderID.equals (rhs.m_sResponderID) &&
+             EqualsHelper.equals (m_sAddress, rhs.m_sAddress);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+  }
+
+  private static final class Entry
+  {
+    private final IAS4Profile m_aProfile;
+    // Read-only - never handed to the PMode manager
+    private final PMode m_aPMode;
+
+    Entry (@Nonnull final IAS4Profile aProfile, @Nonnull final PMode aPMode)
+    {
+      m_aProfile = aProfile;
+      m_aPMode = aPMode;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final Map <Key, Entry> m_aMap;
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aInvalidations = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached templates. Must be &gt; 0. If the
+   *        limit is reached, the least recently used template is evicted.
+   */
+  public PModeTemplateCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+    // Access order for LRU
+    m_aMap = new LinkedHashMap <Key, Entry> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <Key, Entry> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The maximum number of cached templates. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  @Nonnull
+  private static PMode _getCopy (@Nonnull final PMode aPMode)
+  {
+    final IJsonObject aPModeJson = PModeJsonConverter.convertToJson (aPMode);
+    return PModeJsonConverter.convertToNative (aPModeJson);
+  }
+
+  /**
+   * Get the cached template or create a new one via
+   * {@link IAS4Profile#createPModeTemplate(String, String, String)}.
+   *
+   * @param aProfile
+   *        The profile to use. May not be <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID. May neither be <code>null</code> nor empty.
+   * @param sResponderID
+   *        Responder ID. May neither be <code>null</code> nor empty.
+   * @param sAddress
+   *        Endpoint address. May be <code>null</code>.
+   * @return The PMode template created by the profile on a cache miss, and
+   *         the shared read-only copy on a cache hit. May be <code>null</code>
+   *         if the profile returned <code>null</code> - such results are not
+   *         cached.
+   */
+  @Nullable
+  public IPMode getOrCreatePModeTemplate (@Nonnull final IAS4Profile aProfile,
+                                          @Nonnull @Nonempty final String sInitiatorID,
+                                          @Nonnull @Nonempty final String sResponderID,
+                                          @Nullable final String sAddress)
+  {
+    ValueEnforcer.notNull (aProfile, "Profile");
+
+    final Key aKey = new Key (aProfile.getID (), sInitiatorID, sResponderID, sAddress);
+    final Entry aEntry = m_aLock.lockedGet ( () -> m_aMap.get (aKey));
+    if (aEntry != null)
+    {
+      if (aEntry.m_aProfile == aProfile)
+      {
+        m_aHits.incrementAndGet ();
+        final PMode ret = aEntry.m_aPMode;
+        if (aProfile.isPersistPModeTemplate ())
+        {
+          // Same as the profile does when creating the template, but the
+          // shared copy must not become the instance of the PMode manager
+          final IPModeManager aPModeMgr = MetaAS4Manager.getPModeMgr ();
+          if (aPModeMgr.getPModeOfID (ret.getID ()) == null)
+            aPModeMgr.createOrUpdatePMode (_getCopy (ret));
+        }
+        return ret;
+      }
+
+      // The profile was re-registered - all entries are outdated
+      m_aInvalidations.incrementAndGet ();
+      clearCache ();
+    }
+    m_aMisses.incrementAndGet ();
+
+    // Create outside of the lock - in the worst case the template is created
+    // more than once
+    final PMode ret = aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    if (ret != null)
+    {
+      // Copy before handing out the instance, so that changes by the caller or
+      // by the PMode manager don't affect the cache
+      final PMode aCopy = _getCopy (ret);
+      m_aLock.locked ( () -> m_aMap.put (aKey, new Entry (aProfile, aCopy)));
+    }
+    return ret;
+  }
+
+  /**
+   * Remove all cached templates. The statistics are not reset.
+   */
+  public void clearCache ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of cached templates. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedGet (m_aMap::size).intValue ();
+  }
+
+  /**
+   * @return The number of lookups that were served from the cache. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of lookups that needed to create a new template.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The number of times the cache was invalidated because a profile
+   *         was re-registered. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getInvalidationCount ()
+  {
+    return m_aInvalidations.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .append ("Invalidations", m_aInvalidations.get ())
+                                       .getToString ();
+  }
+}
@@ -43,6 +43,7 @@ public class AS4Profile implements IAS4Profile
   private final IAS4ProfilePModeProvider m_aDefaultPModeProvider;
   private final IPModeIDProvider m_aPModeIDProvider;
   private final boolean m_bDeprecated;
+  private final boolean m_bPersistPModeTemplate;
 
   /**
    * Constructor
@@ -68,6 +69,39 @@ public class AS4Profile implements IAS4Profile
                      @Nonnull final IAS4ProfilePModeProvider aDefaultPModeProvider,
                      @Nonnull final IPModeIDProvider aPModeIDProvider,
                      final boolean bDeprecated)
+  {
+    this (sID, sDisplayName, aProfileValidatorProvider, aDefaultPModeProvider, aPModeIDProvider, bDeprecated, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sID
+   *        Profile ID. May neither be <code>null</code> nor empty.
+   * @param sDisplayName
+   *        Profile display name. May neither be <code>null</code> nor empty.
+   * @param aProfileValidatorProvider
+   *        Profile validator supplier. May not be <code>null</code>. The
+   *        supplier may supply <code>null</code> values.
+   * @param aDefaultPModeProvider
+   *        Default PMode supplier. May not be <code>null</code>.
+   * @param aPModeIDProvider
+   *        PMode ID provider. May not be <code>null</code>.
+   * @param bDeprecated
+   *        <code>true</code> if the profile is deprecated, <code>false</code>
+   *        if not.
+   * @param bPersistPModeTemplate
+   *        <code>true</code> if the default PMode supplier stores the created
+   *        PModes in the PMode manager, <code>false</code> if not.
+   * @since 1.4.4
+   */
+  public AS4Profile (@Nonnull @Nonempty final String sID,
+                     @Nonnull @Nonempty final String sDisplayName,
+                     @Nonnull final Supplier <? extends IAS4ProfileValidator> aProfileValidatorProvider,
+                     @Nonnull final IAS4ProfilePModeProvider aDefaultPModeProvider,
+                     @Nonnull final IPModeIDProvider aPModeIDProvider,
+                     final boolean bDeprecated,
+                     final boolean bPersistPModeTemplate)
   {
     m_sID = ValueEnforcer.notEmpty (sID, "ID");
     m_sDisplayName = ValueEnforcer.notEmpty (sDisplayName, "DisplayName");
@@ -75,6 +109,7 @@ public class AS4Profile implements IAS4Profile
     m_aDefaultPModeProvider = ValueEnforcer.notNull (aDefaultPModeProvider, "aDefaultPModeProvider");
     m_aPModeIDProvider = ValueEnforcer.notNull (aPModeIDProvider, "PModeIDProvider");
     m_bDeprecated = bDeprecated;
+    m_bPersistPModeTemplate = bPersistPModeTemplate;
   }
 
   @Nonnull
@@ -116,6 +151,11 @@ public class AS4Profile implements IAS4Profile
     return m_bDeprecated;
   }
 
+  public boolean isPersistPModeTemplate ()
+  {
+    return m_bPersistPModeTemplate;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -142,6 +182,7 @@ public class AS4Profile implements IAS4Profile
                                        .append ("DefaultPModeProvider", m_aDefaultPModeProvider)
                                        .append ("PModeIDProvider", m_aPModeIDProvider)
                                        .append ("Deprecated", m_bDeprecated)
+                                       .append ("PersistPModeTemplate", m_bPersistPModeTemplate)
                                        .getToString ();
   }
 }
@@ -57,6 +57,17 @@ public interface IAS4Profile extends IHasID <String>, IHasDisplayName
                              @Nonnull @Nonempty String sResponderID,
                              @Nullable String sAddress);
 
+  /**
+   * @return <code>true</code> if
+   *         {@link #createPModeTemplate(String, String, String)} stores the
+   *         created template in the PMode manager, <code>false</code> if not.
+   * @since 1.4.4
+   */
+  default boolean isPersistPModeTemplate ()
+  {
+    return false;
+  }
+
   /**
    * @return The PMode ID provider to be used for this profile. May not be
    *         <code>null</code>.
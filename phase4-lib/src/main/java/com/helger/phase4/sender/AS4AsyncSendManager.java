@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.http.BasicHttpPoster;
+
+/**
+ * This class holds the global {@link Executor}s that are used for
+ * asynchronous sending via
+ * {@link AbstractAS4UserMessageBuilder#sendMessageAsync()}. The main executor
+ * is used for the CPU bound parts (building, signing and encrypting the
+ * message as well as parsing the response). The transport executor is used for
+ * the blocking HTTP tries performed by the {@link BasicHttpPoster},
+ * so that slow receivers cannot starve the CPU bound parts. No thread is
+ * blocked while waiting for a retry.<br>
+ * By default bounded pools of daemon threads are used, that are lazily created
+ * upon first usage. Tasks exceeding the pool size are queued in a bounded
+ * queue. If the queue of the main executor is full, the returned future is
+ * completed exceptionally with a {@link RejectedExecutionException}. The
+ * default executors are shut down via {@link #shutdown()} when the global
+ * scope ends.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4AsyncSendManager
+{
+  public static final int DEFAULT_MAX_THREADS = Math.max (2, Runtime.getRuntime ().availableProcessors ());
+  public static final int DEFAULT_MAX_QUEUED_TASKS = 1_000;
+  public static final int DEFAULT_MAX_TRANSPORT_THREADS = Math.max (16,
+                                                                    Runtime.getRuntime ().availableProcessors () * 4);
+
+  private static final String THREAD_NAME_PREFIX = CAS4.LIB_NAME + "-async-sender-";
+  private static final String TRANSPORT_THREAD_NAME_PREFIX = CAS4.LIB_NAME + "-async-transport-";
+
+  /**
+   * Holds one lazily created executor, that can be replaced from the outside.
+   *
+   * @author Philip Helger
+   */
+  @ThreadSafe
+  private static final class ExecutorHolder
+  {
+    private final Supplier <ExecutorService> m_aDefaultFactory;
+    private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+    @GuardedBy ("m_aRWLock")
+    private Executor m_aExecutor;
+    // Only set if the executor was created in here
+    @GuardedBy ("m_aRWLock")
+    private ExecutorService m_aOwnExecutorService;
+
+    ExecutorHolder (@Nonnull final Supplier <ExecutorService> aDefaultFactory)
+    {
+      m_aDefaultFactory = aDefaultFactory;
+    }
+
+    @Nonnull
+    Executor get ()
+    {
+      final Executor ret = m_aRWLock.readLockedGet ( () -> m_aExecutor);
+      if (ret != null)
+        return ret;
+
+      return m_aRWLock.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (m_aExecutor == null)
+        {
+          m_aOwnExecutorService = m_aDefaultFactory.get ();
+          m_aExecutor = m_aOwnExecutorService;
+        }
+        return m_aExecutor;
+      });
+    }
+
+    void set (@Nullable final Executor aExecutor)
+    {
+      final ExecutorService aOld = m_aRWLock.writeLockedGet ( () -> {
+        final ExecutorService ret = m_aOwnExecutorService;
+        m_aExecutor = aExecutor;
+        m_aOwnExecutorService = null;
+        return ret;
+      });
+      if (aOld != null)
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aOld);
+    }
+
+    void shutdown ()
+    {
+      final ExecutorService aOld = m_aRWLock.writeLockedGet ( () -> {
+        final ExecutorService ret = m_aOwnExecutorService;
+        if (ret != null)
+        {
+          m_aExecutor = null;
+          m_aOwnExecutorService = null;
+        }
+        return ret;
+      });
+      if (aOld != null)
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aOld);
+    }
+  }
+
+  private static final ExecutorHolder SENDER = new ExecutorHolder ( () -> createDefaultExecutorService (DEFAULT_MAX_THREADS,
+                                                                                                       DEFAULT_MAX_QUEUED_TASKS));
+  private static final ExecutorHolder TRANSPORT = new ExecutorHolder ( () -> createDefaultTransportExecutorService (DEFAULT_MAX_TRANSPORT_THREADS,
+                                                                                                                  DEFAULT_MAX_QUEUED_TASKS));
+
+  private AS4AsyncSendManager ()
+  {}
+
+  @Nonnull
+  private static ExecutorService _createExecutorService (@Nonnull final String sThreadNamePrefix,
+                                                         @Nonnegative final int nMaxThreads,
+                                                         @Nonnegative final int nMaxQueuedTasks)
+  {
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    ValueEnforcer.isGT0 (nMaxQueuedTasks, "MaxQueuedTasks");
+
+    final AtomicInteger aThreadIndex = new AtomicInteger (0);
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, sThreadNamePrefix + aThreadIndex.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    final ThreadPoolExecutor ret = new ThreadPoolExecutor (nMaxThreads,
+                                                           nMaxThreads,
+                                                           60L,
+                                                           TimeUnit.SECONDS,
+                                                           new ArrayBlockingQueue <> (nMaxQueuedTasks),
+                                                           aThreadFactory);
+    // Don't keep idle threads forever
+    ret.allowCoreThreadTimeOut (true);
+    return ret;
+  }
+
+  /**
+   * Create a new bounded executor service with daemon threads for the CPU
+   * bound parts of sending. If all threads are busy and the queue is full, new
+   * tasks are rejected.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads to use. Must be &gt; 0.
+   * @param nMaxQueuedTasks
+   *        The maximum number of tasks waiting for a thread. Must be &gt; 0.
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createDefaultExecutorService (@Nonnegative final int nMaxThreads,
+                                                              @Nonnegative final int nMaxQueuedTasks)
+  {
+    return _createExecutorService (THREAD_NAME_PREFIX, nMaxThreads, nMaxQueuedTasks);
+  }
+
+  /**
+   * Create a new bounded executor service with daemon threads for the blocking
+   * HTTP tries. If all threads are busy and the queue is full, new tasks are
+   * rejected.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads to use. Must be &gt; 0.
+   * @param nMaxQueuedTasks
+   *        The maximum number of tasks waiting for a thread. Must be &gt; 0.
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createDefaultTransportExecutorService (@Nonnegative final int nMaxThreads,
+                                                                       @Nonnegative final int nMaxQueuedTasks)
+  {
+    return _createExecutorService (TRANSPORT_THREAD_NAME_PREFIX, nMaxThreads, nMaxQueuedTasks);
+  }
+
+  /**
+   * @return The executor to be used for the CPU bound parts of asynchronous
+   *         sending. Never <code>null</code>. If no executor was set, a
+   *         default one is created.
+   */
+  @Nonnull
+  public static Executor getExecutor ()
+  {
+    return SENDER.get ();
+  }
+
+  /**
+   * Set the executor to be used for the CPU bound parts of asynchronous
+   * sending. If a previous executor was created internally, it is shut down.
+   *
+   * @param aExecutor
+   *        The executor to use. May be <code>null</code> to use the default
+   *        executor upon next usage.
+   */
+  public static void setExecutor (@Nullable final Executor aExecutor)
+  {
+    SENDER.set (aExecutor);
+  }
+
+  /**
+   * @return The executor to be used for the HTTP tries of asynchronous
+   *         sending. Never <code>null</code>. If no executor was set, a
+   *         default one is created.
+   */
+  @Nonnull
+  public static Executor getTransportExecutor ()
+  {
+    return TRANSPORT.get ();
+  }
+
+  /**
+   * Set the executor to be used for the HTTP tries of asynchronous sending. If
+   * a previous executor was created internally, it is shut down.
+   *
+   * @param aExecutor
+   *        The executor to use. May be <code>null</code> to use the default
+   *        executor upon next usage.
+   */
+  public static void setTransportExecutor (@Nullable final Executor aExecutor)
+  {
+    TRANSPORT.set (aExecutor);
+  }
+
+  /**
+   * Shut down the executors, if they were created in here. Executors set via
+   * {@link #setExecutor(Executor)} or {@link #setTransportExecutor(Executor)}
+   * are not shut down. New default executors are created upon the next usage.
+   * This is called when the global scope ends.
+   */
+  public static void shutdown ()
+  {
+    SENDER.shutdown ();
+    TRANSPORT.shutdown ();
+  }
+}
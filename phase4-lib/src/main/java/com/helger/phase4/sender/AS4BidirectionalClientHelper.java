@@ -18,6 +18,10 @@ package com.helger.phase4.sender;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,6 +35,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.httpclient.response.ResponseHandlerHttpEntity;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
@@ -68,22 +73,7 @@ public final class AS4BidirectionalClientHelper
   private AS4BidirectionalClientHelper ()
   {}
 
-  public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
-                                                                   @Nonnull final IPModeResolver aPModeResolver,
-                                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
-                                                                   @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
-                                                                   @Nonnull final AS4ClientUserMessage aClientUserMsg,
-                                                                   @Nonnull final Locale aLocale,
-                                                                   @Nonnull final String sURL,
-                                                                   @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
-                                                                   @Nullable final IAS4OutgoingDumper aOutgoingDumper,
-                                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
-                                                                   @Nullable final IAS4RetryCallback aRetryCallback,
-                                                                   @Nullable final IAS4RawResponseConsumer aResponseConsumer,
-                                                                   @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws IOException,
-                                                                                                                                 Phase4Exception,
-                                                                                                                                 WSSecurityException,
-                                                                                                                                 MessagingException
+  private static void _logUserMessage (@Nonnull final AS4ClientUserMessage aClientUserMsg, @Nonnull final String sURL)
   {
     LOGGER.info ("Sending AS4 UserMessage to '" +
                  sURL +
@@ -116,9 +106,12 @@ public final class AS4BidirectionalClientHelper
                       "]");
       }
     }
+  }
 
-    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final HttpClientResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+  @Nonnull
+  private static HttpClientResponseHandler <byte []> _createResponseHandler (@Nonnull final Wrapper <HttpResponse> aWrappedResponse)
+  {
+    return aHttpResponse -> {
       // throws an ExtendedHttpResponseException on exception
       final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
       if (aEntity == null)
@@ -126,12 +119,21 @@ public final class AS4BidirectionalClientHelper
       aWrappedResponse.set (aHttpResponse);
       return EntityUtils.toByteArray (aEntity);
     };
+  }
 
-    final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
-                                                                                                  aResponseHdl,
-                                                                                                  aBuildMessageCallback,
-                                                                                                  aOutgoingDumper,
-                                                                                                  aRetryCallback);
+  private static void _handleUserMessageResponse (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                  @Nonnull final IPModeResolver aPModeResolver,
+                                                  @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                  @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                  @Nonnull final AS4ClientUserMessage aClientUserMsg,
+                                                  @Nonnull final Locale aLocale,
+                                                  @Nonnull final String sURL,
+                                                  @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                  @Nullable final IAS4RawResponseConsumer aResponseConsumer,
+                                                  @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                                                  @Nonnull final Wrapper <HttpResponse> aWrappedResponse,
+                                                  @Nonnull final AS4ClientSentMessage <byte []> aResponseEntity) throws Phase4Exception
+  {
     final String sRequestMessageID = aResponseEntity.getMessageID ();
     LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" +
                  sRequestMessageID +
@@ -168,6 +170,130 @@ public final class AS4BidirectionalClientHelper
       LOGGER.info ("AS4 ResponseEntity is empty");
   }
 
+  public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                                   @Nonnull final IPModeResolver aPModeResolver,
+                                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                                   @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                                   @Nonnull final AS4ClientUserMessage aClientUserMsg,
+                                                                   @Nonnull final Locale aLocale,
+                                                                   @Nonnull final String sURL,
+                                                                   @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
+                                                                   @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                                   @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                   @Nullable final IAS4RawResponseConsumer aResponseConsumer,
+                                                                   @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws IOException,
+                                                                                                                                 Phase4Exception,
+                                                                                                                                 WSSecurityException,
+                                                                                                                                 MessagingException
+  {
+    _logUserMessage (aClientUserMsg, sURL);
+
+    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+    final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                  _createResponseHandler (aWrappedResponse),
+                                                                                                  aBuildMessageCallback,
+                                                                                                  aOutgoingDumper,
+                                                                                                  aRetryCallback);
+    _handleUserMessageResponse (aCryptoFactory,
+                                aPModeResolver,
+                                aIAF,
+                                aIncomingProfileSelector,
+                                aClientUserMsg,
+                                aLocale,
+                                sURL,
+                                aIncomingDumper,
+                                aResponseConsumer,
+                                aSignalMsgConsumer,
+                                aWrappedResponse,
+                                aResponseEntity);
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendAS4UserMessageAndReceiveAS4SignalMessage(IAS4CryptoFactory, IPModeResolver, IAS4IncomingAttachmentFactory, IAS4IncomingProfileSelector, AS4ClientUserMessage, Locale, String, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4IncomingDumper, IAS4RetryCallback, IAS4RawResponseConsumer, IAS4SignalMessageConsumer)}.
+   * The message is built, signed and encrypted in the calling thread. The HTTP
+   * tries are performed in the transport executor and the response is parsed
+   * (incl. signature verification) in the provided executor. If the latter
+   * rejects the task, the response is parsed in the transport thread, so that
+   * a received response is never lost.
+   *
+   * @param aExecutor
+   *        The executor for parsing the response. May not be
+   *        <code>null</code>.
+   * @param aTransportExecutor
+   *        The executor for the HTTP tries. May not be <code>null</code>.
+   * @return A future that is completed after the response was handled. In case
+   *         of an error, it is completed exceptionally. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static CompletableFuture <Void> sendAS4UserMessageAndReceiveAS4SignalMessageAsync (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                                                           @Nonnull final IPModeResolver aPModeResolver,
+                                                                                           @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                                                           @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                                                           @Nonnull final AS4ClientUserMessage aClientUserMsg,
+                                                                                           @Nonnull final Locale aLocale,
+                                                                                           @Nonnull final String sURL,
+                                                                                           @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
+                                                                                           @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                           @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                                                           @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                                           @Nullable final IAS4RawResponseConsumer aResponseConsumer,
+                                                                                           @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                                                                                           @Nonnull final Executor aExecutor,
+                                                                                           @Nonnull final Executor aTransportExecutor) throws IOException,
+                                                                                                                                        WSSecurityException,
+                                                                                                                                        MessagingException
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.notNull (aTransportExecutor, "TransportExecutor");
+
+    _logUserMessage (aClientUserMsg, sURL);
+
+    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+    final Executor aRealExecutor = r -> {
+      try
+      {
+        aExecutor.execute (r);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Never lose a received response
+        LOGGER.warn ("The executor rejected the handling of the AS4 response - handling it in the current thread");
+        r.run ();
+      }
+    };
+    return aClientUserMsg.sendMessageWithRetriesAsync (sURL,
+                                                       _createResponseHandler (aWrappedResponse),
+                                                       aBuildMessageCallback,
+                                                       aOutgoingDumper,
+                                                       aRetryCallback,
+                                                       aTransportExecutor)
+                         .thenAcceptAsync (aResponseEntity -> {
+                           try
+                           {
+                             _handleUserMessageResponse (aCryptoFactory,
+                                                         aPModeResolver,
+                                                         aIAF,
+                                                         aIncomingProfileSelector,
+                                                         aClientUserMsg,
+                                                         aLocale,
+                                                         sURL,
+                                                         aIncomingDumper,
+                                                         aResponseConsumer,
+                                                         aSignalMsgConsumer,
+                                                         aWrappedResponse,
+                                                         aResponseEntity);
+                           }
+                           catch (final Phase4Exception ex)
+                           {
+                             throw new CompletionException (ex);
+                           }
+                         }, aRealExecutor);
+  }
+
   public static void sendAS4PullRequestAndReceiveAS4UserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
                                                                  @Nonnull final IPModeResolver aPModeResolver,
                                                                  @Nonnull final IAS4IncomingAttachmentFactory aIAF,
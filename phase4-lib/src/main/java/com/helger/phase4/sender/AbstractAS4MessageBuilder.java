@@ -18,6 +18,9 @@ package com.helger.phase4.sender;
 
 import java.time.OffsetDateTime;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,6 +44,8 @@ import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.http.AS4HttpClientPool;
+import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.http.IHttpPoster;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
@@ -101,7 +106,10 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     // Set default values
     try
     {
-      httpClientFactory (new HttpClientFactory ());
+      if (AS4HttpClientPool.isEnabled ())
+        httpClientFactory (BasicHttpPoster.getSharedDefaultHttpClientFactory ());
+      else
+        httpClientFactory (new HttpClientFactory ());
       cryptoFactory (AS4CryptoFactoryProperties.getDefaultInstance ());
       soapVersion (ESoapVersion.SOAP_12);
       pmodeResolver (DefaultPModeResolver.DEFAULT_PMODE_RESOLVER);
@@ -157,7 +165,10 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   /**
    * Set the HTTP client factory to be used. If the passed settings are
    * non-<code>null</code>, a new {@link HttpClientFactory} is created with
-   * them, else a <code>null</code>-{@link HttpClientFactory} is set.
+   * them, else a <code>null</code>-{@link HttpClientFactory} is set.<br>
+   * Note: because a new factory is created, the {@link AS4HttpClientPool}
+   * cannot reuse connections across builders. Pass a shared
+   * {@link HttpClientFactory} instead if that is desired.
    *
    * @param aHttpClientSettings
    *        The new HTTP client settings to be used. May be <code>null</code>.
@@ -574,29 +585,59 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected abstract void mainSendMessage () throws Phase4Exception;
 
   /**
-   * Synchronously send the AS4 message. First the internal "finishFields"
-   * method is called, to ensure all dynamic fields are filled - on failure this
-   * methods exits. Afterwards {@link #isEveryRequiredFieldSet()} is called to
-   * check that all mandatory elements are set - on failure this methods exits.
-   * Afterwards "customizeBeforeSending" is called to make final adjustments to
-   * the message. As the very last step, the customizable sender interrupt is
-   * invoked which may prevent the main message sending. As the last step
-   * "mainSendMessage" is invoked and "SUCCESS" is returned.<br>
-   * Note: since 0.13.0 this common implementation is in place.
+   * Asynchronously send the AS4 message. This method may only be called by
+   * {@link #sendMessageNonBlocking(Executor, Executor)}. The default
+   * implementation performs the blocking {@link #mainSendMessage()} in the
+   * transport executor. Implementations should override this method to only
+   * perform the CPU bound parts (building, signing, encrypting and parsing the
+   * response) in the calling thread or the provided executor, and the HTTP
+   * tries in the transport executor.
    *
-   * @return {@link ESuccess#FAILURE} if not all mandatory parameters are set or
-   *         if sending failed, {@link ESuccess#SUCCESS} upon success. Never
-   *         <code>null</code>. This result code does not reflect the semantics
-   *         of a semantically correct message exchange or not. It just states,
-   *         if the message was sent or nor. The rest needs to be determined
-   *         separately.
+   * @param aExecutor
+   *        The executor for CPU bound work. May not be <code>null</code>.
+   * @param aTransportExecutor
+   *        The executor for the HTTP tries. May not be <code>null</code>.
+   * @return A future that is completed when sending finished. In case of an
+   *         error it is completed exceptionally, usually with a
+   *         {@link Phase4Exception}. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  protected CompletableFuture <Void> mainSendMessageAsync (@Nonnull final Executor aExecutor,
+                                                           @Nonnull final Executor aTransportExecutor)
+  {
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+    try
+    {
+      aTransportExecutor.execute ( () -> {
+        try
+        {
+          mainSendMessage ();
+          ret.complete (null);
+        }
+        catch (final Phase4Exception | RuntimeException ex)
+        {
+          ret.completeExceptionally (ex);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      ret.completeExceptionally (ex);
+    }
+    return ret;
+  }
+
+  /**
+   * Perform all the checks before sending. See {@link #sendMessage()} for the
+   * details.
+   *
+   * @return {@link ESuccess#SUCCESS} if the message may be sent.
    * @throws Phase4Exception
    *         In case of any error
-   * @see #isEveryRequiredFieldSet()
-   * @see #senderInterrupt()
    */
   @Nonnull
-  public final ESuccess sendMessage () throws Phase4Exception
+  private ESuccess _prepareSending () throws Phase4Exception
   {
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("About to send the AS4 message");
@@ -626,6 +667,37 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
         return ESuccess.FAILURE;
       }
 
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Synchronously send the AS4 message. First the internal "finishFields"
+   * method is called, to ensure all dynamic fields are filled - on failure this
+   * methods exits. Afterwards {@link #isEveryRequiredFieldSet()} is called to
+   * check that all mandatory elements are set - on failure this methods exits.
+   * Afterwards "customizeBeforeSending" is called to make final adjustments to
+   * the message. As the very last step, the customizable sender interrupt is
+   * invoked which may prevent the main message sending. As the last step
+   * "mainSendMessage" is invoked and "SUCCESS" is returned.<br>
+   * Note: since 0.13.0 this common implementation is in place.
+   *
+   * @return {@link ESuccess#FAILURE} if not all mandatory parameters are set or
+   *         if sending failed, {@link ESuccess#SUCCESS} upon success. Never
+   *         <code>null</code>. This result code does not reflect the semantics
+   *         of a semantically correct message exchange or not. It just states,
+   *         if the message was sent or nor. The rest needs to be determined
+   *         separately.
+   * @throws Phase4Exception
+   *         In case of any error
+   * @see #isEveryRequiredFieldSet()
+   * @see #senderInterrupt()
+   */
+  @Nonnull
+  public final ESuccess sendMessage () throws Phase4Exception
+  {
+    if (_prepareSending ().isFailure ())
+      return ESuccess.FAILURE;
+
     // Main sending
     mainSendMessage ();
 
@@ -634,4 +706,40 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
 
     return ESuccess.SUCCESS;
   }
+
+  /**
+   * Non-blocking version of {@link #sendMessage()}. All the checks are
+   * performed in the calling thread, and the main sending happens via
+   * {@link #mainSendMessageAsync(Executor, Executor)}.<br>
+   * Note: the builder must not be modified until the returned future is
+   * completed.
+   *
+   * @param aExecutor
+   *        The executor for CPU bound work. May not be <code>null</code>.
+   * @param aTransportExecutor
+   *        The executor for the HTTP tries. May not be <code>null</code>.
+   * @return A future with the same result as {@link #sendMessage()}. If
+   *         sending failed, it is completed exceptionally. Never
+   *         <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of any error in the checks
+   * @since 1.4.4
+   */
+  @Nonnull
+  protected final CompletableFuture <ESuccess> sendMessageNonBlocking (@Nonnull final Executor aExecutor,
+                                                                       @Nonnull final Executor aTransportExecutor) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.notNull (aTransportExecutor, "TransportExecutor");
+
+    if (_prepareSending ().isFailure ())
+      return CompletableFuture.completedFuture (ESuccess.FAILURE);
+
+    // Main sending
+    return mainSendMessageAsync (aExecutor, aTransportExecutor).thenApply (x -> {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Finished main AS4 message sending without exception");
+      return ESuccess.SUCCESS;
+    });
+  }
 }
@@ -17,6 +17,10 @@
 package com.helger.phase4.sender;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -27,11 +31,13 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.id.IHasID;
 import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.state.ESuccess;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
@@ -40,6 +46,7 @@ import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.client.IAS4SignalMessageConsumer;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.http.AS4CircuitBreakerOpenException;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.model.pmode.IPMode;
@@ -634,6 +641,13 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     NO_SIGNAL_MESSAGE_RECEIVED ("no-signal-msg-received"),
     AS4_ERROR_MESSAGE_RECEIVED ("as4-error-msg-received"),
     INVALID_SIGNAL_MESSAGE_RECEIVED ("invalid-signal-message-received"),
+    /**
+     * The message was not sent, because the circuit breaker of the
+     * destination is open.
+     *
+     * @since 1.4.4
+     */
+    CIRCUIT_BREAKER_OPEN ("circuit-breaker-open"),
     SUCCESS ("success");
 
     private final String m_sID;
@@ -666,7 +680,10 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
      */
     public boolean isRetryFeasible ()
     {
-      return this == TRANSPORT_ERROR || this == NO_SIGNAL_MESSAGE_RECEIVED || this == INVALID_SIGNAL_MESSAGE_RECEIVED;
+      return this == TRANSPORT_ERROR ||
+             this == NO_SIGNAL_MESSAGE_RECEIVED ||
+             this == INVALID_SIGNAL_MESSAGE_RECEIVED ||
+             this == CIRCUIT_BREAKER_OPEN;
     }
 
     @Nullable
@@ -676,6 +693,64 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     }
   }
 
+  @Nonnull
+  private static ESimpleUserMessageSendResult _getSendResult (@Nullable final Ebms3SignalMessage aSignalMsg)
+  {
+    if (aSignalMsg == null)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to get a SignalMessage as the response");
+
+      // Unexpected response - invalid XML or at least no Ebms3 signal message
+      return ESimpleUserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.hasErrorEntries ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("The received SignalMessage contains at lease one error");
+
+      // An error was returned from the other side
+      // Errors have precedence over receipts
+      return ESimpleUserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.getReceipt () != null)
+    {
+      // A receipt was returned - this is deemed success
+      return ESimpleUserMessageSendResult.SUCCESS;
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
+
+    // Neither an error nor a receipt was returned - this is weird
+    return ESimpleUserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+  }
+
+  @Nonnull
+  private static ESimpleUserMessageSendResult _getSendResult (@Nonnull final Phase4Exception ex,
+                                                              @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("An exception occurred sending out the AS4 message", ex);
+
+    if (aExceptionConsumer != null)
+      aExceptionConsumer.accept (ex);
+
+    // Check if the destination was not even contacted
+    Throwable aCause = ex.getCause ();
+    while (aCause != null)
+    {
+      if (aCause instanceof AS4CircuitBreakerOpenException)
+        return ESimpleUserMessageSendResult.CIRCUIT_BREAKER_OPEN;
+      aCause = aCause.getCause ();
+    }
+
+    // Something went wrong - see the logs
+    return ESimpleUserMessageSendResult.TRANSPORT_ERROR;
+  }
+
   /**
    * This is a sanity method that encapsulates all the sending checks that are
    * necessary to determine overall sending success or error.<br>
@@ -728,52 +803,178 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
         return ESimpleUserMessageSendResult.INVALID_PARAMETERS;
       }
 
-      final Ebms3SignalMessage aSignalMsg = aSignalMsgKeeper.get ();
-      if (aSignalMsg == null)
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Failed to get a SignalMessage as the response");
-
-        // Unexpected response - invalid XML or at least no Ebms3 signal message
-        return ESimpleUserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
-      }
+      return _getSendResult (aSignalMsgKeeper.get ());
+    }
+    catch (final Phase4Exception ex)
+    {
+      return _getSendResult (ex, aExceptionConsumer);
+    }
+    finally
+    {
+      // Restore the original value
+      m_aSignalMsgConsumer = aOld;
+    }
+  }
 
-      if (aSignalMsg.hasErrorEntries ())
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("The received SignalMessage contains at lease one error");
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt()} using the
+   * executors from {@link AS4AsyncSendManager}.<br>
+   * Note: the builder must not be modified until the returned future is
+   * completed.
+   *
+   * @return A future that is completed with the same result as
+   *         {@link #sendMessageAndCheckForReceipt()} would return. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAsync ()
+  {
+    return sendMessageAsync (AS4AsyncSendManager.getExecutor ());
+  }
 
-        // An error was returned from the other side
-        // Errors have precedence over receipts
-        return ESimpleUserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
-      }
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt()}, using
+   * the transport executor from
+   * {@link AS4AsyncSendManager#getTransportExecutor()}.<br>
+   * Note: the builder must not be modified until the returned future is
+   * completed.
+   *
+   * @param aExecutor
+   *        The executor to perform the CPU bound parts of sending in. May not
+   *        be <code>null</code>.
+   * @return A future that is completed with the same result as
+   *         {@link #sendMessageAndCheckForReceipt()} would return. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAsync (@Nonnull final Executor aExecutor)
+  {
+    // This information might be crucial to determine what went wrong
+    return sendMessageAsync (aExecutor, ex -> LOGGER.error ("Exception sending AS4 user message", ex));
+  }
 
-      if (aSignalMsg.getReceipt () != null)
-      {
-        // A receipt was returned - this is deemed success
-        return ESimpleUserMessageSendResult.SUCCESS;
-      }
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageAndCheckForReceipt(Consumer)}, using the transport
+   * executor from {@link AS4AsyncSendManager#getTransportExecutor()}.<br>
+   * Note: the builder must not be modified until the returned future is
+   * completed.
+   *
+   * @param aExecutor
+   *        The executor to perform the CPU bound parts of sending in. May not
+   *        be <code>null</code>.
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. May be <code>null</code>.
+   * @return A future that is completed with the same result as
+   *         {@link #sendMessageAndCheckForReceipt(Consumer)} would return.
+   *         If the executor rejects the task, the future is completed
+   *         exceptionally with a {@link RejectedExecutionException}. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAsync (@Nonnull final Executor aExecutor,
+                                                                                 @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return sendMessageAsync (aExecutor, AS4AsyncSendManager.getTransportExecutor (), aExceptionConsumer);
+  }
 
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageAndCheckForReceipt(Consumer)}. Building, signing and
+   * encrypting the message as well as parsing the response happens in the
+   * provided executor. The HTTP tries are performed in the transport executor,
+   * and no thread is blocked while waiting for a retry.<br>
+   * Note: the builder must not be modified until the returned future is
+   * completed.
+   *
+   * @param aExecutor
+   *        The executor to perform the CPU bound parts of sending in. May not
+   *        be <code>null</code>.
+   * @param aTransportExecutor
+   *        The executor to perform the HTTP tries in. May not be
+   *        <code>null</code>.
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. May be <code>null</code>.
+   * @return A future that is completed with the same result as
+   *         {@link #sendMessageAndCheckForReceipt(Consumer)} would return.
+   *         If the executor rejects the task, the future is completed
+   *         exceptionally with a {@link RejectedExecutionException}. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAsync (@Nonnull final Executor aExecutor,
+                                                                                 @Nonnull final Executor aTransportExecutor,
+                                                                                 @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.notNull (aTransportExecutor, "TransportExecutor");
 
-      // Neither an error nor a receipt was returned - this is weird
-      return ESimpleUserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+    final CompletableFuture <ESimpleUserMessageSendResult> ret = new CompletableFuture <> ();
+    try
+    {
+      aExecutor.execute ( () -> _sendMessageAsync (aExecutor, aTransportExecutor, aExceptionConsumer, ret));
     }
-    catch (final Phase4Exception ex)
+    catch (final RejectedExecutionException ex)
     {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("An exception occurred sending out the AS4 message", ex);
+      // The executor is saturated or shut down
+      ret.completeExceptionally (ex);
+    }
+    return ret;
+  }
+
+  private void _sendMessageAsync (@Nonnull final Executor aExecutor,
+                                  @Nonnull final Executor aTransportExecutor,
+                                  @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer,
+                                  @Nonnull final CompletableFuture <ESimpleUserMessageSendResult> aResult)
+  {
+    final IAS4SignalMessageConsumer aOld = m_aSignalMsgConsumer;
 
-      if (aExceptionConsumer != null)
-        aExceptionConsumer.accept (ex);
-      // Something went wrong - see the logs
-      return ESimpleUserMessageSendResult.TRANSPORT_ERROR;
+    // Store the received signal message
+    final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
+    m_aSignalMsgConsumer = aOld == null ? aSignalMsgKeeper::set : x -> {
+      aSignalMsgKeeper.set (x);
+      aOld.handleSignalMessage (x);
+    };
+
+    CompletableFuture <ESuccess> aSending;
+    try
+    {
+      aSending = sendMessageNonBlocking (aExecutor, aTransportExecutor);
     }
-    finally
+    catch (final Phase4Exception | RuntimeException ex)
     {
+      aSending = new CompletableFuture <> ();
+      aSending.completeExceptionally (ex);
+    }
+
+    aSending.whenComplete ( (eSuccess, t) -> {
       // Restore the original value
       m_aSignalMsgConsumer = aOld;
-    }
+
+      if (t == null)
+      {
+        if (eSuccess.isFailure ())
+        {
+          // Parameters are missing/incorrect
+          aResult.complete (ESimpleUserMessageSendResult.INVALID_PARAMETERS);
+        }
+        else
+          aResult.complete (_getSendResult (aSignalMsgKeeper.get ()));
+      }
+      else
+      {
+        final Throwable aCause = t instanceof CompletionException && t.getCause () != null ? t.getCause () : t;
+        if (aCause instanceof Phase4Exception)
+          aResult.complete (_getSendResult ((Phase4Exception) aCause, aExceptionConsumer));
+        else
+          aResult.completeExceptionally (aCause);
+      }
+    });
   }
 }
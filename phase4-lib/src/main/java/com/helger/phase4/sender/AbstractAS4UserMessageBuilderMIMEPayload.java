@@ -16,6 +16,11 @@
  */
 package com.helger.phase4.sender;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
@@ -24,6 +29,7 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
@@ -98,25 +104,32 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
     return true;
   }
 
+  @Nonnull
+  private AS4ClientUserMessage _createUserMessage (@Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    // Start building AS4 User Message
+    final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
+    applyToUserMessage (aUserMsg);
+
+    // No payload - only one attachment
+    aUserMsg.setPayload (null);
+
+    // Add main attachment
+    aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (m_aPayload, aResHelper));
+
+    // Add other attachments
+    for (final Phase4OutgoingAttachment aAttachment : m_aAttachments)
+      aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, aResHelper));
+    return aUserMsg;
+  }
+
   @Override
   protected final void mainSendMessage () throws Phase4Exception
   {
     // Temporary file manager
     try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
     {
-      // Start building AS4 User Message
-      final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
-      applyToUserMessage (aUserMsg);
-
-      // No payload - only one attachment
-      aUserMsg.setPayload (null);
-
-      // Add main attachment
-      aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (m_aPayload, aResHelper));
-
-      // Add other attachments
-      for (final Phase4OutgoingAttachment aAttachment : m_aAttachments)
-        aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, aResHelper));
+      final AS4ClientUserMessage aUserMsg = _createUserMessage (aResHelper);
 
       // Main sending
       AS4BidirectionalClientHelper.sendAS4UserMessageAndReceiveAS4SignalMessage (m_aCryptoFactory,
@@ -146,4 +159,63 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       throw new Phase4Exception ("Wrapped Phase4Exception", ex);
     }
   }
+
+  @Override
+  @Nonnull
+  protected final CompletableFuture <Void> mainSendMessageAsync (@Nonnull final Executor aExecutor,
+                                                                 @Nonnull final Executor aTransportExecutor)
+  {
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+
+    // Temporary file manager - closed after the response was handled
+    final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+    CompletableFuture <Void> aSending;
+    try
+    {
+      final AS4ClientUserMessage aUserMsg = _createUserMessage (aResHelper);
+
+      // Building, signing and encrypting happens in this thread
+      aSending = AS4BidirectionalClientHelper.sendAS4UserMessageAndReceiveAS4SignalMessageAsync (m_aCryptoFactory,
+                                                                                                pmodeResolver (),
+                                                                                                incomingAttachmentFactory (),
+                                                                                                incomingProfileSelector (),
+                                                                                                aUserMsg,
+                                                                                                m_aLocale,
+                                                                                                m_sEndpointURL,
+                                                                                                m_aBuildMessageCallback,
+                                                                                                m_aOutgoingDumper,
+                                                                                                m_aIncomingDumper,
+                                                                                                m_aRetryCallback,
+                                                                                                m_aResponseConsumer,
+                                                                                                m_aSignalMsgConsumer,
+                                                                                                aExecutor,
+                                                                                                aTransportExecutor);
+    }
+    catch (final Exception ex)
+    {
+      aSending = new CompletableFuture <> ();
+      aSending.completeExceptionally (ex);
+    }
+
+    aSending.whenComplete ( (x, t) -> {
+      StreamHelper.close (aResHelper);
+      if (t == null)
+        ret.complete (null);
+      else
+      {
+        final Throwable aCause = t instanceof CompletionException && t.getCause () != null ? t.getCause () : t;
+        if (aCause instanceof Phase4Exception || !(aCause instanceof Exception))
+        {
+          // Re-throw
+          ret.completeExceptionally (aCause);
+        }
+        else
+        {
+          // Wrap in phase4 Exception
+          ret.completeExceptionally (new Phase4Exception ("Wrapped Phase4Exception", aCause));
+        }
+      }
+    });
+    return ret;
+  }
 }
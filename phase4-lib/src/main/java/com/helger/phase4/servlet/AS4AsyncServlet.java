@@ -0,0 +1,1364 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.EHttpMethod;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.http.EHttpVersion;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.servlet.request.RequestHelper;
+import com.helger.web.scope.IRequestWebScope;
+import com.helger.web.scope.mgr.WebScopeManager;
+import com.helger.web.scope.mgr.WebScoped;
+
+/**
+ * AS4 receiving servlet using the Servlet 3.1 asynchronous, non-blocking I/O.
+ * The request body is read with a {@link ReadListener}, the AS4 processing
+ * (WSS4J, SPI invocation, dumping) is done by an {@link AS4XServletHandler} on
+ * a dedicated executor and the response is written with a
+ * {@link WriteListener}. That way slow uploads don't block container threads.
+ * By default the bounded executor of {@link AS4ReceiverExecutorManager} is
+ * used. If the executor rejects a request because it is saturated, HTTP 503 is
+ * returned. If the whole exchange is not finished within the configured
+ * timeout, HTTP 504 is returned.<br>
+ * Request bodies up to a configurable size are buffered in memory, larger
+ * bodies are spooled to a temporary file. The in-memory bodies of all requests
+ * share a global budget (see {@link #setMaxTotalInMemoryBytes(long)}) - if it
+ * is exhausted, bodies are spooled to a temporary file as well. The temporary
+ * file is deleted when the request is finished, also in case of an error or a
+ * timeout.<br>
+ * The processing works on a snapshot of the request and the response is
+ * captured in memory completely. Status, headers and body are only applied to
+ * the container response after the exchange was claimed, so a late response
+ * after a timeout never touches a container response that may already be
+ * recycled.
+ * <br>
+ * The servlet must be declared asynchronous in the <code>WEB-INF/web.xm</code>
+ * file:
+ *
+ * <pre>
+&lt;servlet&gt;
+  &lt;servlet-name&gt;AS4Servlet&lt;/servlet-name&gt;
+  &lt;servlet-class&gt;com.helger.phase4.servlet.AS4AsyncServlet&lt;/servlet-class&gt;
+  &lt;async-supported&gt;true&lt;/async-supported&gt;
+&lt;/servlet&gt;
+&lt;servlet-mapping&gt;
+  &lt;servlet-name&gt;AS4Servlet&lt;/servlet-name&gt;
+  &lt;url-pattern&gt;/as4&lt;/url-pattern&gt;
+&lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public class AS4AsyncServlet extends HttpServlet
+{
+  public static final int DEFAULT_MAX_IN_MEMORY_BYTES = 1024 * 1024;
+  public static final long DEFAULT_MAX_TOTAL_IN_MEMORY_BYTES = 64L * 1024 * 1024;
+  public static final long DEFAULT_ASYNC_TIMEOUT_MS = TimeUnit.MINUTES.toMillis (10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncServlet.class);
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  // The request body bytes currently buffered in memory by all instances
+  private static final AtomicLong IN_MEMORY_BYTES = new AtomicLong (0);
+  private static volatile long s_nMaxTotalInMemoryBytes = DEFAULT_MAX_TOTAL_IN_MEMORY_BYTES;
+
+  /**
+   * @return The maximum number of request body bytes that all instances of
+   *         this servlet buffer in memory together. Defaults to
+   *         {@link #DEFAULT_MAX_TOTAL_IN_MEMORY_BYTES}.
+   */
+  @Nonnegative
+  public static long getMaxTotalInMemoryBytes ()
+  {
+    return s_nMaxTotalInMemoryBytes;
+  }
+
+  /**
+   * Set the maximum number of request body bytes that all instances of this
+   * servlet buffer in memory together. If the budget is exhausted, request
+   * bodies are spooled to a temporary file, even if they are below the per
+   * request limit.
+   *
+   * @param nMaxTotalInMemoryBytes
+   *        The maximum number of bytes. Must be &ge; 0. 0 means that all
+   *        request bodies are spooled to temporary files.
+   */
+  public static void setMaxTotalInMemoryBytes (@Nonnegative final long nMaxTotalInMemoryBytes)
+  {
+    ValueEnforcer.isGE0 (nMaxTotalInMemoryBytes, "MaxTotalInMemoryBytes");
+    s_nMaxTotalInMemoryBytes = nMaxTotalInMemoryBytes;
+  }
+
+  /**
+   * @return The number of request body bytes currently buffered in memory by
+   *         all instances of this servlet. Always &ge; 0.
+   */
+  @Nonnegative
+  public static long getInMemoryBytesInUse ()
+  {
+    return IN_MEMORY_BYTES.get ();
+  }
+
+  private static boolean _tryReserveInMemoryBytes (@Nonnegative final int nBytes)
+  {
+    while (true)
+    {
+      final long nOld = IN_MEMORY_BYTES.get ();
+      if (nOld + nBytes > s_nMaxTotalInMemoryBytes)
+        return false;
+      if (IN_MEMORY_BYTES.compareAndSet (nOld, nOld + nBytes))
+        return true;
+    }
+  }
+
+  /**
+   * The request body, kept in memory or spooled to a temporary file. It is
+   * written by one thread at a time, but may be released from a container
+   * thread upon timeout or error. The in-memory part is accounted against the
+   * global budget of all requests.
+   */
+  private static final class RequestBody
+  {
+    private final int m_nMaxInMemoryBytes;
+    private NonBlockingByteArrayOutputStream m_aMemory = new NonBlockingByteArrayOutputStream ();
+    // The number of bytes reserved from the global budget
+    private long m_nReservedBytes = 0;
+    private File m_aFile;
+    private OutputStream m_aFileOS;
+    private boolean m_bReleased = false;
+
+    RequestBody (@Nonnegative final int nMaxInMemoryBytes)
+    {
+      m_nMaxInMemoryBytes = nMaxInMemoryBytes;
+    }
+
+    private void _releaseReservedBytes ()
+    {
+      if (m_nReservedBytes > 0)
+      {
+        IN_MEMORY_BYTES.addAndGet (-m_nReservedBytes);
+        m_nReservedBytes = 0;
+      }
+    }
+
+    synchronized void write (@Nonnull final byte [] aBuf, @Nonnegative final int nLen) throws IOException
+    {
+      if (m_bReleased)
+        throw new IOException ("The request body was already released");
+      if (m_aFileOS == null)
+      {
+        if (m_aMemory.size () + nLen <= m_nMaxInMemoryBytes && _tryReserveInMemoryBytes (nLen))
+        {
+          m_nReservedBytes += nLen;
+          m_aMemory.write (aBuf, 0, nLen);
+          return;
+        }
+
+        // Too large or the global budget is exhausted - switch to a temporary
+        // file
+        m_aFile = File.createTempFile ("phase4-async-", ".tmp", AS4ResourceHelper.getTempDir ());
+        m_aFileOS = new FileOutputStream (m_aFile);
+        m_aMemory.writeTo (m_aFileOS);
+        m_aMemory = null;
+        _releaseReservedBytes ();
+      }
+      m_aFileOS.write (aBuf, 0, nLen);
+    }
+
+    @Nonnull
+    synchronized InputStream getInputStream () throws IOException
+    {
+      if (m_bReleased)
+        throw new IOException ("The request body was already released");
+      if (m_aFileOS == null)
+        return new NonBlockingByteArrayInputStream (m_aMemory.directGetBuffer (), 0, m_aMemory.size ());
+      m_aFileOS.close ();
+      return new FileInputStream (m_aFile);
+    }
+
+    synchronized void release ()
+    {
+      if (!m_bReleased)
+      {
+        m_bReleased = true;
+        if (m_aFileOS != null)
+        {
+          StreamHelper.close (m_aFileOS);
+          FileOperationManager.INSTANCE.deleteFileIfExisting (m_aFile);
+        }
+        m_aMemory = null;
+        _releaseReservedBytes ();
+      }
+    }
+  }
+
+  /**
+   * A request that contains a snapshot of all the request data, taken while
+   * the container request is still valid. That way the processing does not
+   * access the container request, which may be recycled after a timeout.
+   * Sessions cannot be created.
+   */
+  private static final class DetachedRequest extends HttpServletRequestWrapper
+  {
+    private final EHttpVersion m_eHttpVersion;
+    private final TreeMap <String, ICommonsList <String>> m_aHeaders = new TreeMap <> (String.CASE_INSENSITIVE_ORDER);
+    private final ICommonsMap <String, Object> m_aAttributes = new CommonsHashMap <> ();
+    private final ICommonsMap <String, String []> m_aParameters = new CommonsLinkedHashMap <> ();
+    private final String m_sMethod;
+    private final String m_sProtocol;
+    private final String m_sScheme;
+    private final String m_sServerName;
+    private final int m_nServerPort;
+    private final String m_sRemoteAddr;
+    private final String m_sRemoteHost;
+    private final int m_nRemotePort;
+    private final String m_sLocalAddr;
+    private final String m_sLocalName;
+    private final int m_nLocalPort;
+    private final boolean m_bSecure;
+    private final String m_sRequestURI;
+    private final String m_sRequestURL;
+    private final String m_sContextPath;
+    private final String m_sServletPath;
+    private final String m_sPathInfo;
+    private final String m_sQueryString;
+    private final String m_sContentType;
+    private String m_sCharacterEncoding;
+    private final long m_nContentLength;
+    private final String m_sAuthType;
+    private final String m_sRemoteUser;
+    private final Principal m_aUserPrincipal;
+    private final Cookie [] m_aCookies;
+    private final Locale m_aLocale;
+    private final ICommonsList <Locale> m_aLocales;
+    private final HttpSession m_aSession;
+
+    DetachedRequest (@Nonnull final HttpServletRequest aRequest)
+    {
+      super (aRequest);
+      final EHttpVersion eHttpVersion = RequestHelper.getHttpVersion (aRequest);
+      m_eHttpVersion = eHttpVersion != null ? eHttpVersion : EHttpVersion.HTTP_11;
+      final Enumeration <String> aHeaderNames = aRequest.getHeaderNames ();
+      if (aHeaderNames != null)
+        while (aHeaderNames.hasMoreElements ())
+        {
+          final String sName = aHeaderNames.nextElement ();
+          m_aHeaders.computeIfAbsent (sName, k -> new CommonsArrayList <> ())
+                    .addAll (Collections.list (aRequest.getHeaders (sName)));
+        }
+      final Enumeration <String> aAttrNames = aRequest.getAttributeNames ();
+      while (aAttrNames.hasMoreElements ())
+      {
+        final String sName = aAttrNames.nextElement ();
+        m_aAttributes.put (sName, aRequest.getAttribute (sName));
+      }
+      // The body was already consumed, so this only contains the query
+      // parameters
+      m_aParameters.putAll (aRequest.getParameterMap ());
+      m_sMethod = aRequest.getMethod ();
+      m_sProtocol = aRequest.getProtocol ();
+      m_sScheme = aRequest.getScheme ();
+      m_sServerName = aRequest.getServerName ();
+      m_nServerPort = aRequest.getServerPort ();
+      m_sRemoteAddr = aRequest.getRemoteAddr ();
+      m_sRemoteHost = aRequest.getRemoteHost ();
+      m_nRemotePort = aRequest.getRemotePort ();
+      m_sLocalAddr = aRequest.getLocalAddr ();
+      m_sLocalName = aRequest.getLocalName ();
+      m_nLocalPort = aRequest.getLocalPort ();
+      m_bSecure = aRequest.isSecure ();
+      m_sRequestURI = aRequest.getRequestURI ();
+      m_sRequestURL = aRequest.getRequestURL ().toString ();
+      m_sContextPath = aRequest.getContextPath ();
+      m_sServletPath = aRequest.getServletPath ();
+      m_sPathInfo = aRequest.getPathInfo ();
+      m_sQueryString = aRequest.getQueryString ();
+      m_sContentType = aRequest.getContentType ();
+      m_sCharacterEncoding = aRequest.getCharacterEncoding ();
+      m_nContentLength = aRequest.getContentLengthLong ();
+      m_sAuthType = aRequest.getAuthType ();
+      m_sRemoteUser = aRequest.getRemoteUser ();
+      m_aUserPrincipal = aRequest.getUserPrincipal ();
+      m_aCookies = aRequest.getCookies ();
+      m_aLocale = aRequest.getLocale ();
+      m_aLocales = new CommonsArrayList <> (Collections.list (aRequest.getLocales ()));
+      m_aSession = aRequest.getSession (false);
+    }
+
+    @Nonnull
+    EHttpVersion getHttpVersion ()
+    {
+      return m_eHttpVersion;
+    }
+
+    @Override
+    public String getHeader (final String sName)
+    {
+      final ICommonsList <String> aValues = m_aHeaders.get (sName);
+      return aValues == null ? null : aValues.getFirst ();
+    }
+
+    @Override
+    public Enumeration <String> getHeaders (final String sName)
+    {
+      final ICommonsList <String> aValues = m_aHeaders.get (sName);
+      return Collections.enumeration (aValues == null ? new CommonsArrayList <> () : aValues);
+    }
+
+    @Override
+    public Enumeration <String> getHeaderNames ()
+    {
+      return Collections.enumeration (m_aHeaders.keySet ());
+    }
+
+    @Override
+    public int getIntHeader (final String sName)
+    {
+      final String sValue = getHeader (sName);
+      return sValue == null ? -1 : Integer.parseInt (sValue.trim ());
+    }
+
+    @Override
+    public long getDateHeader (final String sName)
+    {
+      final String sValue = getHeader (sName);
+      if (sValue == null)
+        return -1;
+      try
+      {
+        return ZonedDateTime.parse (sValue.trim (), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant ().toEpochMilli ();
+      }
+      catch (final DateTimeParseException ex)
+      {
+        throw new IllegalArgumentException ("Cannot parse date header '" + sName + "' with value '" + sValue + "'", ex);
+      }
+    }
+
+    @Override
+    public Object getAttribute (final String sName)
+    {
+      return m_aAttributes.get (sName);
+    }
+
+    @Override
+    public Enumeration <String> getAttributeNames ()
+    {
+      return Collections.enumeration (m_aAttributes.copyOfKeySet ());
+    }
+
+    @Override
+    public void setAttribute (final String sName, final Object aValue)
+    {
+      if (aValue == null)
+        m_aAttributes.remove (sName);
+      else
+        m_aAttributes.put (sName, aValue);
+    }
+
+    @Override
+    public void removeAttribute (final String sName)
+    {
+      m_aAttributes.remove (sName);
+    }
+
+    @Override
+    public String getParameter (final String sName)
+    {
+      final String [] aValues = m_aParameters.get (sName);
+      return aValues == null || aValues.length == 0 ? null : aValues[0];
+    }
+
+    @Override
+    public Map <String, String []> getParameterMap ()
+    {
+      return Collections.unmodifiableMap (m_aParameters);
+    }
+
+    @Override
+    public Enumeration <String> getParameterNames ()
+    {
+      return Collections.enumeration (m_aParameters.keySet ());
+    }
+
+    @Override
+    public String [] getParameterValues (final String sName)
+    {
+      return m_aParameters.get (sName);
+    }
+
+    @Override
+    public String getMethod ()
+    {
+      return m_sMethod;
+    }
+
+    @Override
+    public String getProtocol ()
+    {
+      return m_sProtocol;
+    }
+
+    @Override
+    public String getScheme ()
+    {
+      return m_sScheme;
+    }
+
+    @Override
+    public String getServerName ()
+    {
+      return m_sServerName;
+    }
+
+    @Override
+    public int getServerPort ()
+    {
+      return m_nServerPort;
+    }
+
+    @Override
+    public String getRemoteAddr ()
+    {
+      return m_sRemoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost ()
+    {
+      return m_sRemoteHost;
+    }
+
+    @Override
+    public int getRemotePort ()
+    {
+      return m_nRemotePort;
+    }
+
+    @Override
+    public String getLocalAddr ()
+    {
+      return m_sLocalAddr;
+    }
+
+    @Override
+    public String getLocalName ()
+    {
+      return m_sLocalName;
+    }
+
+    @Override
+    public int getLocalPort ()
+    {
+      return m_nLocalPort;
+    }
+
+    @Override
+    public boolean isSecure ()
+    {
+      return m_bSecure;
+    }
+
+    @Override
+    public String getRequestURI ()
+    {
+      return m_sRequestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL ()
+    {
+      return new StringBuffer (m_sRequestURL);
+    }
+
+    @Override
+    public String getContextPath ()
+    {
+      return m_sContextPath;
+    }
+
+    @Override
+    public String getServletPath ()
+    {
+      return m_sServletPath;
+    }
+
+    @Override
+    public String getPathInfo ()
+    {
+      return m_sPathInfo;
+    }
+
+    @Override
+    public String getQueryString ()
+    {
+      return m_sQueryString;
+    }
+
+    @Override
+    public String getContentType ()
+    {
+      return m_sContentType;
+    }
+
+    @Override
+    public String getCharacterEncoding ()
+    {
+      return m_sCharacterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding (final String sEncoding)
+    {
+      m_sCharacterEncoding = sEncoding;
+    }
+
+    @Override
+    public int getContentLength ()
+    {
+      return m_nContentLength > Integer.MAX_VALUE ? -1 : (int) m_nContentLength;
+    }
+
+    @Override
+    public long getContentLengthLong ()
+    {
+      return m_nContentLength;
+    }
+
+    @Override
+    public String getAuthType ()
+    {
+      return m_sAuthType;
+    }
+
+    @Override
+    public String getRemoteUser ()
+    {
+      return m_sRemoteUser;
+    }
+
+    @Override
+    public Principal getUserPrincipal ()
+    {
+      return m_aUserPrincipal;
+    }
+
+    @Override
+    public Cookie [] getCookies ()
+    {
+      return m_aCookies;
+    }
+
+    @Override
+    public Locale getLocale ()
+    {
+      return m_aLocale;
+    }
+
+    @Override
+    public Enumeration <Locale> getLocales ()
+    {
+      return Collections.enumeration (m_aLocales);
+    }
+
+    @Override
+    public HttpSession getSession ()
+    {
+      return getSession (true);
+    }
+
+    @Override
+    public HttpSession getSession (final boolean bCreate)
+    {
+      if (m_aSession == null && bCreate)
+        throw new IllegalStateException ("Sessions cannot be created while processing an AS4 request asynchronously");
+      return m_aSession;
+    }
+  }
+
+  /**
+   * A request that serves the buffered body.
+   */
+  private static final class BufferedBodyRequest extends HttpServletRequestWrapper
+  {
+    private final InputStream m_aIS;
+
+    BufferedBodyRequest (@Nonnull final HttpServletRequest aRequest, @Nonnull final InputStream aIS)
+    {
+      super (aRequest);
+      m_aIS = aIS;
+    }
+
+    @Override
+    public ServletInputStream getInputStream ()
+    {
+      return new ServletInputStream ()
+      {
+        private boolean m_bFinished = false;
+
+        @Override
+        public int read () throws IOException
+        {
+          final int ret = m_aIS.read ();
+          if (ret < 0)
+            m_bFinished = true;
+          return ret;
+        }
+
+        @Override
+        public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+        {
+          final int ret = m_aIS.read (aBuf, nOfs, nLen);
+          if (ret < 0)
+            m_bFinished = true;
+          return ret;
+        }
+
+        @Override
+        public void close () throws IOException
+        {
+          m_aIS.close ();
+        }
+
+        @Override
+        public boolean isFinished ()
+        {
+          return m_bFinished;
+        }
+
+        @Override
+        public boolean isReady ()
+        {
+          return true;
+        }
+
+        @Override
+        public void setReadListener (final ReadListener aReadListener)
+        {
+          throw new IllegalStateException ("The request body was already read");
+        }
+      };
+    }
+
+    @Override
+    public BufferedReader getReader ()
+    {
+      final String sEncoding = getCharacterEncoding ();
+      final Charset aCharset = sEncoding == null ? StandardCharsets.ISO_8859_1 : Charset.forName (sEncoding);
+      return new BufferedReader (new InputStreamReader (m_aIS, aCharset));
+    }
+  }
+
+  /**
+   * A response that captures status, headers and body and never touches the
+   * real response. The captured data is applied to the real response only
+   * after the exchange was claimed, because after a timeout the container may
+   * already have recycled the real response.
+   */
+  private static final class CapturingResponse extends HttpServletResponseWrapper
+  {
+    private final NonBlockingByteArrayOutputStream m_aBody = new NonBlockingByteArrayOutputStream ();
+    private final TreeMap <String, ICommonsList <String>> m_aHeaders = new TreeMap <> (String.CASE_INSENSITIVE_ORDER);
+    private final ICommonsList <Cookie> m_aCookies = new CommonsArrayList <> ();
+    private int m_nStatus = HttpServletResponse.SC_OK;
+    private String m_sContentType;
+    private String m_sCharacterEncoding;
+    private Locale m_aLocale;
+    private PrintWriter m_aWriter;
+
+    CapturingResponse (@Nonnull final HttpServletResponse aResponse)
+    {
+      super (aResponse);
+    }
+
+    @Nonnull
+    private static String _formatDate (final long nMillis)
+    {
+      return DateTimeFormatter.RFC_1123_DATE_TIME.format (ZonedDateTime.ofInstant (Instant.ofEpochMilli (nMillis),
+                                                                                     ZoneOffset.UTC));
+    }
+
+    @Override
+    public void setStatus (final int nStatus)
+    {
+      m_nStatus = nStatus;
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus (final int nStatus, final String sMessage)
+    {
+      m_nStatus = nStatus;
+    }
+
+    @Override
+    public int getStatus ()
+    {
+      return m_nStatus;
+    }
+
+    @Override
+    public void sendError (final int nStatus)
+    {
+      resetBuffer ();
+      m_nStatus = nStatus;
+    }
+
+    @Override
+    public void sendError (final int nStatus, final String sMessage)
+    {
+      sendError (nStatus);
+    }
+
+    @Override
+    public void sendRedirect (final String sLocation)
+    {
+      resetBuffer ();
+      m_nStatus = HttpServletResponse.SC_FOUND;
+      setHeader (CHttpHeader.LOCATION, sLocation);
+    }
+
+    @Override
+    public void setHeader (final String sName, final String sValue)
+    {
+      if (sValue == null)
+        m_aHeaders.remove (sName);
+      else
+        m_aHeaders.put (sName, new CommonsArrayList <> (sValue));
+    }
+
+    @Override
+    public void addHeader (final String sName, final String sValue)
+    {
+      if (sValue != null)
+        m_aHeaders.computeIfAbsent (sName, k -> new CommonsArrayList <> ()).add (sValue);
+    }
+
+    @Override
+    public void setIntHeader (final String sName, final int nValue)
+    {
+      setHeader (sName, Integer.toString (nValue));
+    }
+
+    @Override
+    public void addIntHeader (final String sName, final int nValue)
+    {
+      addHeader (sName, Integer.toString (nValue));
+    }
+
+    @Override
+    public void setDateHeader (final String sName, final long nMillis)
+    {
+      setHeader (sName, _formatDate (nMillis));
+    }
+
+    @Override
+    public void addDateHeader (final String sName, final long nMillis)
+    {
+      addHeader (sName, _formatDate (nMillis));
+    }
+
+    @Override
+    public boolean containsHeader (final String sName)
+    {
+      return m_aHeaders.containsKey (sName);
+    }
+
+    @Override
+    public String getHeader (final String sName)
+    {
+      final ICommonsList <String> aValues = m_aHeaders.get (sName);
+      return aValues == null ? null : aValues.getFirst ();
+    }
+
+    @Override
+    public Collection <String> getHeaders (final String sName)
+    {
+      final ICommonsList <String> aValues = m_aHeaders.get (sName);
+      return aValues == null ? new CommonsArrayList <> () : aValues.getClone ();
+    }
+
+    @Override
+    public Collection <String> getHeaderNames ()
+    {
+      return new CommonsArrayList <> (m_aHeaders.keySet ());
+    }
+
+    @Override
+    public void setContentType (final String sContentType)
+    {
+      m_sContentType = sContentType;
+      if (sContentType != null)
+      {
+        final int nIndex = sContentType.toLowerCase (Locale.ROOT).indexOf ("charset=");
+        if (nIndex >= 0)
+        {
+          String sCharset = sContentType.substring (nIndex + "charset=".length ());
+          final int nEnd = sCharset.indexOf (';');
+          if (nEnd >= 0)
+            sCharset = sCharset.substring (0, nEnd);
+          m_sCharacterEncoding = StringHelper.trimStartAndEnd (sCharset.trim (), '"');
+        }
+      }
+    }
+
+    @Override
+    public String getContentType ()
+    {
+      return m_sContentType;
+    }
+
+    @Override
+    public void setCharacterEncoding (final String sEncoding)
+    {
+      m_sCharacterEncoding = sEncoding;
+    }
+
+    @Override
+    public String getCharacterEncoding ()
+    {
+      return m_sCharacterEncoding != null ? m_sCharacterEncoding : StandardCharsets.ISO_8859_1.name ();
+    }
+
+    @Override
+    public void setContentLength (final int nLength)
+    {
+      // Ignored - it is set from the captured body
+    }
+
+    @Override
+    public void setContentLengthLong (final long nLength)
+    {
+      // Ignored - it is set from the captured body
+    }
+
+    @Override
+    public void setLocale (final Locale aLocale)
+    {
+      m_aLocale = aLocale;
+    }
+
+    @Override
+    public Locale getLocale ()
+    {
+      return m_aLocale != null ? m_aLocale : Locale.getDefault ();
+    }
+
+    @Override
+    public void addCookie (final Cookie aCookie)
+    {
+      m_aCookies.add (aCookie);
+    }
+
+    @Override
+    public void setBufferSize (final int nSize)
+    {
+      // Everything is buffered
+    }
+
+    @Override
+    public int getBufferSize ()
+    {
+      return BUFFER_SIZE;
+    }
+
+    @Override
+    public boolean isCommitted ()
+    {
+      // Nothing is sent before the processing is finished
+      return false;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream ()
+    {
+      return new ServletOutputStream ()
+      {
+        @Override
+        public void write (final int b)
+        {
+          m_aBody.write (b);
+        }
+
+        @Override
+        public void write (final byte [] aBuf, final int nOfs, final int nLen)
+        {
+          m_aBody.write (aBuf, nOfs, nLen);
+        }
+
+        @Override
+        public boolean isReady ()
+        {
+          return true;
+        }
+
+        @Override
+        public void setWriteListener (@Nonnull final WriteListener aWriteListener)
+        {
+          ValueEnforcer.notNull (aWriteListener, "WriteListener");
+          // The captured body can always be written without blocking
+          try
+          {
+            aWriteListener.onWritePossible ();
+          }
+          catch (final IOException | RuntimeException ex)
+          {
+            aWriteListener.onError (ex);
+          }
+        }
+      };
+    }
+
+    @Override
+    public PrintWriter getWriter ()
+    {
+      if (m_aWriter == null)
+        m_aWriter = new PrintWriter (new OutputStreamWriter (m_aBody, Charset.forName (getCharacterEncoding ())));
+      return m_aWriter;
+    }
+
+    @Override
+    public void flushBuffer ()
+    {
+      // Don't commit the real response here
+      if (m_aWriter != null)
+        m_aWriter.flush ();
+    }
+
+    @Override
+    public void resetBuffer ()
+    {
+      if (m_aWriter != null)
+        m_aWriter.flush ();
+      m_aBody.reset ();
+    }
+
+    @Override
+    public void reset ()
+    {
+      resetBuffer ();
+      m_aHeaders.clear ();
+      m_aCookies.clear ();
+      m_nStatus = HttpServletResponse.SC_OK;
+      m_sContentType = null;
+      m_sCharacterEncoding = null;
+      m_aLocale = null;
+    }
+
+    /**
+     * Apply the captured status, headers and body length to the real
+     * response. Must only be called after the exchange was claimed.
+     *
+     * @param aHttpResponse
+     *        The real response. May not be <code>null</code>.
+     * @return The captured body bytes. Never <code>null</code>.
+     */
+    @Nonnull
+    byte [] applyTo (@Nonnull final HttpServletResponse aHttpResponse)
+    {
+      flushBuffer ();
+      final byte [] aBytes = m_aBody.toByteArray ();
+      aHttpResponse.setStatus (m_nStatus);
+      if (m_aLocale != null)
+        aHttpResponse.setLocale (m_aLocale);
+      if (m_sContentType != null)
+        aHttpResponse.setContentType (m_sContentType);
+      if (m_sCharacterEncoding != null)
+        aHttpResponse.setCharacterEncoding (m_sCharacterEncoding);
+      for (final Map.Entry <String, ICommonsList <String>> aEntry : m_aHeaders.entrySet ())
+        for (final String sValue : aEntry.getValue ())
+          aHttpResponse.addHeader (aEntry.getKey (), sValue);
+      for (final Cookie aCookie : m_aCookies)
+        aHttpResponse.addCookie (aCookie);
+      aHttpResponse.setContentLengthLong (aBytes.length);
+      return aBytes;
+    }
+  }
+
+  private final AS4XServletHandler m_aHandler;
+  private final Executor m_aExecutor;
+  private final int m_nMaxInMemoryBytes;
+  private final long m_nAsyncTimeoutMS;
+
+  /**
+   * Default constructor with the default handler and the executor of
+   * {@link AS4ReceiverExecutorManager}. The executor is resolved per request,
+   * so that an executor re-created after a global scope restart is used.
+   */
+  public AS4AsyncServlet ()
+  {
+    this (new AS4XServletHandler (),
+          aTask -> AS4ReceiverExecutorManager.getExecutor ().execute (aTask),
+          DEFAULT_MAX_IN_MEMORY_BYTES,
+          DEFAULT_ASYNC_TIMEOUT_MS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aHandler
+   *        The handler that does the AS4 processing. May not be
+   *        <code>null</code>.
+   * @param aExecutor
+   *        The executor to run the AS4 processing on. It is not shut down by
+   *        this servlet. Use e.g.
+   *        {@link #createBoundedExecutorService(int, int)} to reject requests
+   *        instead of queuing them endlessly. May not be <code>null</code>.
+   * @param nMaxInMemoryBytes
+   *        The maximum request body size that is buffered in memory. Larger
+   *        bodies are spooled to a temporary file. Must be &ge; 0.
+   * @param nAsyncTimeoutMS
+   *        The timeout of the whole exchange in milliseconds. Use 0 for no
+   *        timeout. Must be &ge; 0.
+   */
+  public AS4AsyncServlet (@Nonnull final AS4XServletHandler aHandler,
+                          @Nonnull final Executor aExecutor,
+                          @Nonnegative final int nMaxInMemoryBytes,
+                          @Nonnegative final long nAsyncTimeoutMS)
+  {
+    ValueEnforcer.notNull (aHandler, "Handler");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.isGE0 (nMaxInMemoryBytes, "MaxInMemoryBytes");
+    ValueEnforcer.isGE0 (nAsyncTimeoutMS, "AsyncTimeoutMS");
+    m_aHandler = aHandler;
+    m_aExecutor = aExecutor;
+    m_nMaxInMemoryBytes = nMaxInMemoryBytes;
+    m_nAsyncTimeoutMS = nAsyncTimeoutMS;
+  }
+
+  /**
+   * Create a new bounded executor service with daemon threads. If all threads
+   * are busy and the queue is full, new tasks are rejected.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads to use. Must be &gt; 0.
+   * @param nMaxQueuedRequests
+   *        The maximum number of requests waiting for a thread. Must be &gt;
+   *        0.
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createBoundedExecutorService (@Nonnegative final int nMaxThreads,
+                                                              @Nonnegative final int nMaxQueuedRequests)
+  {
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    ValueEnforcer.isGT0 (nMaxQueuedRequests, "MaxQueuedRequests");
+
+    final AtomicInteger aThreadIndex = new AtomicInteger (0);
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, CAS4.LIB_NAME + "-async-receiver-" + aThreadIndex.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    final ThreadPoolExecutor ret = new ThreadPoolExecutor (nMaxThreads,
+                                                           nMaxThreads,
+                                                           60L,
+                                                           TimeUnit.SECONDS,
+                                                           new ArrayBlockingQueue <> (nMaxQueuedRequests),
+                                                           aThreadFactory);
+    // Don't keep idle threads forever
+    ret.allowCoreThreadTimeOut (true);
+    return ret;
+  }
+
+  /**
+   * @return The handler doing the AS4 processing. Never <code>null</code>.
+   *         Can be used to customize the handling.
+   */
+  @Nonnull
+  public final AS4XServletHandler getHandler ()
+  {
+    return m_aHandler;
+  }
+
+  private static void _doComplete (@Nonnull final AsyncContext aAsyncContext)
+  {
+    try
+    {
+      aAsyncContext.complete ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // Already completed by the container
+      LOGGER.warn ("Failed to complete the async context: " + ex.getMessage ());
+    }
+  }
+
+  /**
+   * Complete the async context exactly once. Timeout, error and regular
+   * processing may race for it. Only the one that claimed the exchange may
+   * touch the container response.
+   */
+  private static void _complete (@Nonnull final AsyncContext aAsyncContext, @Nonnull final AtomicBoolean aDone)
+  {
+    if (aDone.compareAndSet (false, true))
+      _doComplete (aAsyncContext);
+  }
+
+  @Override
+  protected void doPost (@Nonnull final HttpServletRequest aHttpRequest,
+                         @Nonnull final HttpServletResponse aHttpResponse) throws IOException
+  {
+    final AsyncContext aAsyncContext = aHttpRequest.startAsync ();
+    aAsyncContext.setTimeout (m_nAsyncTimeoutMS);
+
+    final RequestBody aBody = new RequestBody (m_nMaxInMemoryBytes);
+    final AtomicBoolean aDone = new AtomicBoolean (false);
+    aAsyncContext.addListener (new AsyncListener ()
+    {
+      public void onStartAsync (final AsyncEvent aEvent)
+      {}
+
+      public void onComplete (final AsyncEvent aEvent)
+      {
+        aBody.release ();
+      }
+
+      public void onTimeout (final AsyncEvent aEvent)
+      {
+        LOGGER.warn ("Timeout after " + m_nAsyncTimeoutMS + " ms processing the AS4 request");
+        aBody.release ();
+        if (aDone.compareAndSet (false, true))
+        {
+          if (!aHttpResponse.isCommitted ())
+            aHttpResponse.setStatus (HttpServletResponse.SC_GATEWAY_TIMEOUT);
+          _doComplete (aAsyncContext);
+        }
+      }
+
+      public void onError (final AsyncEvent aEvent)
+      {
+        LOGGER.error ("Error processing the AS4 request asynchronously", aEvent.getThrowable ());
+        aBody.release ();
+        _complete (aAsyncContext, aDone);
+      }
+    });
+
+    final ServletInputStream aIS = aHttpRequest.getInputStream ();
+    aIS.setReadListener (new ReadListener ()
+    {
+      private final byte [] m_aBuf = new byte [BUFFER_SIZE];
+
+      public void onDataAvailable () throws IOException
+      {
+        // Read as long as it is possible without blocking
+        while (aIS.isReady () && !aIS.isFinished ())
+        {
+          final int nRead = aIS.read (m_aBuf);
+          if (nRead < 0)
+            break;
+          if (nRead > 0)
+            aBody.write (m_aBuf, nRead);
+        }
+      }
+
+      public void onAllDataRead ()
+      {
+        // Take the snapshot while the container request is still valid
+        final DetachedRequest aDetachedRequest = new DetachedRequest (aHttpRequest);
+        try
+        {
+          m_aExecutor.execute ( () -> _process (aAsyncContext, aDetachedRequest, aHttpResponse, aBody, aDone));
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          LOGGER.warn ("Rejecting AS4 request, because the executor is saturated");
+          aBody.release ();
+          if (aDone.compareAndSet (false, true))
+          {
+            aHttpResponse.setStatus (CHttp.HTTP_SERVICE_UNAVAILABLE);
+            _doComplete (aAsyncContext);
+          }
+        }
+      }
+
+      public void onError (final Throwable t)
+      {
+        LOGGER.error ("Error reading the AS4 request body", t);
+        aBody.release ();
+        _complete (aAsyncContext, aDone);
+      }
+    });
+  }
+
+  private void _process (@Nonnull final AsyncContext aAsyncContext,
+                         @Nonnull final DetachedRequest aHttpRequest,
+                         @Nonnull final HttpServletResponse aHttpResponse,
+                         @Nonnull final RequestBody aBody,
+                         @Nonnull final AtomicBoolean aDone)
+  {
+    if (aDone.get ())
+    {
+      // Timed out while waiting for the executor - the response may already
+      // be recycled by the container
+      LOGGER.warn ("Skipping processing of an AS4 request that is already finished");
+      aBody.release ();
+      return;
+    }
+
+    final CapturingResponse aCapturingResponse = new CapturingResponse (aHttpResponse);
+    try (final InputStream aBodyIS = aBody.getInputStream ())
+    {
+      final BufferedBodyRequest aBufferedRequest = new BufferedBodyRequest (aHttpRequest, aBodyIS);
+      try (final WebScoped w = new WebScoped (aBufferedRequest, aCapturingResponse))
+      {
+        final IRequestWebScope aRequestScope = WebScopeManager.getRequestScope ();
+
+        // Same processing as in the synchronous servlet
+        final AS4UnifiedResponse aUnifiedResponse = m_aHandler.createUnifiedResponse (aHttpRequest.getHttpVersion (),
+                                                                                      EHttpMethod.POST,
+                                                                                      aBufferedRequest,
+                                                                                      aRequestScope);
+        m_aHandler.handleRequest (aRequestScope, aUnifiedResponse);
+        aUnifiedResponse.applyToResponse (aCapturingResponse);
+      }
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Internal error processing AS4 request", ex);
+      aCapturingResponse.reset ();
+      aCapturingResponse.setStatus (CHttp.HTTP_INTERNAL_SERVER_ERROR);
+    }
+    finally
+    {
+      aBody.release ();
+    }
+
+    _write (aAsyncContext, aHttpResponse, aCapturingResponse, aDone);
+  }
+
+  private static void _write (@Nonnull final AsyncContext aAsyncContext,
+                              @Nonnull final HttpServletResponse aHttpResponse,
+                              @Nonnull final CapturingResponse aCapturingResponse,
+                              @Nonnull final AtomicBoolean aDone)
+  {
+    // Claim the exchange before touching the container response
+    if (!aDone.compareAndSet (false, true))
+    {
+      LOGGER.warn ("Discarding the AS4 response, because the request is already finished");
+      return;
+    }
+
+    try
+    {
+      final byte [] aBytes = aCapturingResponse.applyTo (aHttpResponse);
+      final ServletOutputStream aOS = aHttpResponse.getOutputStream ();
+      aOS.setWriteListener (new WriteListener ()
+      {
+        private int m_nOfs = 0;
+
+        public void onWritePossible () throws IOException
+        {
+          // Write as long as it is possible without blocking
+          while (aOS.isReady ())
+          {
+            if (m_nOfs >= aBytes.length)
+            {
+              _doComplete (aAsyncContext);
+              return;
+            }
+            final int nLen = Math.min (BUFFER_SIZE, aBytes.length - m_nOfs);
+            aOS.write (aBytes, m_nOfs, nLen);
+            m_nOfs += nLen;
+          }
+        }
+
+        public void onError (final Throwable t)
+        {
+          LOGGER.error ("Error writing the AS4 response", t);
+          _doComplete (aAsyncContext);
+        }
+      });
+    }
+    catch (final IOException | IllegalStateException ex)
+    {
+      // E.g. if the async context timed out
+      LOGGER.error ("Failed to write the AS4 response", ex);
+      _doComplete (aAsyncContext);
+    }
+  }
+}
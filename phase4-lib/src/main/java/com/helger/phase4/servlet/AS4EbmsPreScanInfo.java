@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.soap.ESoapVersion;
+
+/**
+ * The ebMS header information extracted by the {@link AS4EbmsPreScanner}
+ * without building a DOM. The information is not verified in any way (e.g.
+ * not signature checked) and must only be used to reject messages early.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@NotThreadSafe
+public class AS4EbmsPreScanInfo
+{
+  private String m_sSoapNamespaceURI;
+  private boolean m_bUserMessage;
+  private boolean m_bSignalMessage;
+  private String m_sMessageID;
+  private String m_sRefToMessageID;
+  private String m_sPModeID;
+  private String m_sAgreementRef;
+  private String m_sService;
+  private String m_sAction;
+  private final ICommonsList <String> m_aFromPartyIDs = new CommonsArrayList <> ();
+  private final ICommonsList <String> m_aToPartyIDs = new CommonsArrayList <> ();
+
+  AS4EbmsPreScanInfo ()
+  {}
+
+  /**
+   * @return The namespace URI of the SOAP envelope. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getSoapNamespaceURI ()
+  {
+    return m_sSoapNamespaceURI;
+  }
+
+  final void setSoapNamespaceURI (@Nullable final String s)
+  {
+    m_sSoapNamespaceURI = s;
+  }
+
+  /**
+   * @return The SOAP version determined from the envelope namespace URI. May
+   *         be <code>null</code>.
+   */
+  @Nullable
+  public final ESoapVersion getSoapVersion ()
+  {
+    return ESoapVersion.getFromNamespaceURIOrNull (m_sSoapNamespaceURI);
+  }
+
+  /**
+   * @return <code>true</code> if a UserMessage element was found.
+   */
+  public final boolean isUserMessage ()
+  {
+    return m_bUserMessage;
+  }
+
+  final void setUserMessage (final boolean b)
+  {
+    m_bUserMessage = b;
+  }
+
+  /**
+   * @return <code>true</code> if a SignalMessage element was found.
+   */
+  public final boolean isSignalMessage ()
+  {
+    return m_bSignalMessage;
+  }
+
+  final void setSignalMessage (final boolean b)
+  {
+    m_bSignalMessage = b;
+  }
+
+  /**
+   * @return The MessageId of the first message. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  final void setMessageID (@Nullable final String s)
+  {
+    m_sMessageID = s;
+  }
+
+  /**
+   * @return The RefToMessageId of the first message. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  final void setRefToMessageID (@Nullable final String s)
+  {
+    m_sRefToMessageID = s;
+  }
+
+  /**
+   * @return The value of the <code>pmode</code> attribute of the AgreementRef
+   *         element. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  final void setPModeID (@Nullable final String s)
+  {
+    m_sPModeID = s;
+  }
+
+  /**
+   * @return The value of the AgreementRef element. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getAgreementRef ()
+  {
+    return m_sAgreementRef;
+  }
+
+  final void setAgreementRef (@Nullable final String s)
+  {
+    m_sAgreementRef = s;
+  }
+
+  /**
+   * @return The value of the Service element. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getService ()
+  {
+    return m_sService;
+  }
+
+  final void setService (@Nullable final String s)
+  {
+    m_sService = s;
+  }
+
+  /**
+   * @return The value of the Action element. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getAction ()
+  {
+    return m_sAction;
+  }
+
+  final void setAction (@Nullable final String s)
+  {
+    m_sAction = s;
+  }
+
+  @Nonnull
+  @ReturnsMutableObject
+  final ICommonsList <String> fromPartyIDs ()
+  {
+    return m_aFromPartyIDs;
+  }
+
+  /**
+   * @return All From/PartyId values. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <String> getAllFromPartyIDs ()
+  {
+    return m_aFromPartyIDs.getClone ();
+  }
+
+  @Nonnull
+  @ReturnsMutableObject
+  final ICommonsList <String> toPartyIDs ()
+  {
+    return m_aToPartyIDs;
+  }
+
+  /**
+   * @return All To/PartyId values. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <String> getAllToPartyIDs ()
+  {
+    return m_aToPartyIDs.getClone ();
+  }
+
+  /**
+   * @return <code>true</code> if all information required for PMode
+   *         resolution is present, <code>false</code> if not.
+   */
+  public final boolean hasPModeResolutionInformation ()
+  {
+    return m_sService != null && m_sAction != null && m_aFromPartyIDs.size () == 1 && m_aToPartyIDs.size () == 1;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SoapNamespaceURI", m_sSoapNamespaceURI)
+                                       .append ("UserMessage", m_bUserMessage)
+                                       .append ("SignalMessage", m_bSignalMessage)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("RefToMessageID", m_sRefToMessageID)
+                                       .append ("PModeID", m_sPModeID)
+                                       .append ("AgreementRef", m_sAgreementRef)
+                                       .append ("Service", m_sService)
+                                       .append ("Action", m_sAction)
+                                       .append ("FromPartyIDs", m_aFromPartyIDs)
+                                       .append ("ToPartyIDs", m_aToPartyIDs)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.CAS4;
+
+/**
+ * Extract the most important ebMS header information from a SOAP document
+ * using StAX, without building a DOM. Scanning stops at the start of the SOAP
+ * body.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@Immutable
+public final class AS4EbmsPreScanner
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4EbmsPreScanner.class);
+  private static final XMLInputFactory XIF;
+
+  static
+  {
+    XIF = XMLInputFactory.newInstance ();
+    XIF.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    // Avoid XXE
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private AS4EbmsPreScanner ()
+  {}
+
+  @Nullable
+  private static String _getTrimmedText (@Nonnull final XMLStreamReader aReader) throws XMLStreamException
+  {
+    return StringHelper.trim (aReader.getElementText ());
+  }
+
+  /**
+   * Scan the provided SOAP document.
+   *
+   * @param aIS
+   *        The input stream to read the SOAP document from. May not be
+   *        <code>null</code>. It is not closed.
+   * @return <code>null</code> if the document could not be scanned (e.g.
+   *         because it is not well-formed).
+   */
+  @Nullable
+  public static AS4EbmsPreScanInfo scan (@Nonnull @WillNotClose final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    final AS4EbmsPreScanInfo ret = new AS4EbmsPreScanInfo ();
+    XMLStreamReader aReader = null;
+    try
+    {
+      aReader = XIF.createXMLStreamReader (aIS);
+
+      int nDepth = 0;
+      boolean bInMessage = false;
+      boolean bInFrom = false;
+      boolean bInTo = false;
+      boolean bFirstMessageDone = false;
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+        {
+          nDepth++;
+          if (nDepth == 1)
+          {
+            ret.setSoapNamespaceURI (aReader.getNamespaceURI ());
+            continue;
+          }
+          if (nDepth == 2 && "Body".equals (aReader.getLocalName ()) && ret.getSoapNamespaceURI () != null &&
+              ret.getSoapNamespaceURI ().equals (aReader.getNamespaceURI ()))
+          {
+            // Everything relevant is in the header
+            break;
+          }
+          if (!CAS4.EBMS_NS.equals (aReader.getNamespaceURI ()))
+            continue;
+
+          // Leaf elements are read completely, so no depth change
+          switch (aReader.getLocalName ())
+          {
+            case "UserMessage":
+              ret.setUserMessage (true);
+              bInMessage = !bFirstMessageDone;
+              break;
+            case "SignalMessage":
+              ret.setSignalMessage (true);
+              bInMessage = !bFirstMessageDone;
+              break;
+            case "MessageId":
+              if (bInMessage)
+              {
+                ret.setMessageID (_getTrimmedText (aReader));
+                nDepth--;
+              }
+              break;
+            case "RefToMessageId":
+              if (bInMessage)
+              {
+                ret.setRefToMessageID (_getTrimmedText (aReader));
+                nDepth--;
+              }
+              break;
+            case "AgreementRef":
+              if (bInMessage)
+              {
+                ret.setPModeID (aReader.getAttributeValue (null, "pmode"));
+                ret.setAgreementRef (_getTrimmedText (aReader));
+                nDepth--;
+              }
+              break;
+            case "Service":
+              if (bInMessage)
+              {
+                ret.setService (_getTrimmedText (aReader));
+                nDepth--;
+              }
+              break;
+            case "Action":
+              if (bInMessage)
+              {
+                ret.setAction (_getTrimmedText (aReader));
+                nDepth--;
+              }
+              break;
+            case "From":
+              bInFrom = true;
+              break;
+            case "To":
+              bInTo = true;
+              break;
+            case "PartyId":
+              if (bInMessage && (bInFrom || bInTo))
+              {
+                final String sPartyID = _getTrimmedText (aReader);
+                nDepth--;
+                if (bInFrom)
+                  ret.fromPartyIDs ().add (sPartyID);
+                else
+                  ret.toPartyIDs ().add (sPartyID);
+              }
+              break;
+            default:
+              break;
+          }
+        }
+        else
+          if (nEvent == XMLStreamConstants.END_ELEMENT)
+          {
+            nDepth--;
+            if (CAS4.EBMS_NS.equals (aReader.getNamespaceURI ()))
+              switch (aReader.getLocalName ())
+              {
+                case "UserMessage":
+                case "SignalMessage":
+                  // Only the first message is of interest
+                  if (bInMessage)
+                    bFirstMessageDone = true;
+                  bInMessage = false;
+                  break;
+                case "From":
+                  bInFrom = false;
+                  break;
+                case "To":
+                  bInTo = false;
+                  break;
+                default:
+                  break;
+              }
+          }
+      }
+      return ret;
+    }
+    catch (final XMLStreamException ex)
+    {
+      LOGGER.warn ("Failed to pre-scan the SOAP document: " + ex.getMessage ());
+      return null;
+    }
+    finally
+    {
+      if (aReader != null)
+        try
+        {
+          aReader.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+    }
+  }
+}
@@ -28,7 +28,8 @@ import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
 import javax.xml.namespace.QName;
 
 import org.apache.hc.core5.http.Header;
@@ -40,6 +41,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
@@ -52,6 +54,7 @@ import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
 import com.helger.commons.string.StringHelper;
@@ -103,6 +106,9 @@ import com.helger.xml.serialize.read.DOMReader;
 public class AS4IncomingHandler
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingHandler.class);
+  // The maximum number of bytes read after a message was rejected by the
+  // pre-scan
+  private static final long MAX_DRAIN_BYTES = 64L * CGlobal.BYTES_PER_MEGABYTE;
 
   private AS4IncomingHandler ()
   {}
@@ -150,6 +156,113 @@ public class AS4IncomingHandler
                                                                                           IOException,
                                                                                           MessagingException,
                                                                                           WSSecurityException
+  {
+    parseAS4Message (aIAF,
+                     aResHelper,
+                     aMessageMetadata,
+                     aPayloadIS,
+                     aHttpHeaders,
+                     aCallback,
+                     aIncomingDumper,
+                     (IAS4IncomingPreScanHandler) null);
+  }
+
+  /**
+   * Read the rest of a request that was rejected by the pre-scan, so that the
+   * incoming dump is complete. At most {@link #MAX_DRAIN_BYTES} bytes are read
+   * - if the request is larger, the dump is truncated.
+   */
+  private static void _drainRejectedRequest (@Nonnull final InputStream aRequestIS,
+                                             @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata) throws IOException
+  {
+    final byte [] aBuffer = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+    long nDrained = 0;
+    while (nDrained < MAX_DRAIN_BYTES)
+    {
+      final int nRead = aRequestIS.read (aBuffer, 0, (int) Math.min (aBuffer.length, MAX_DRAIN_BYTES - nDrained));
+      if (nRead < 0)
+        return;
+      nDrained += nRead;
+    }
+    if (aRequestIS.read () >= 0)
+      LOGGER.warn ("Stopped reading the rejected incoming message after " +
+                   nDrained +
+                   " bytes - the incoming dump of " +
+                   aMessageMetadata.getIncomingUniqueID () +
+                   " is truncated");
+  }
+
+  /**
+   * Run the optional pre-scan handler on the SOAP document.
+   *
+   * @return <code>true</code> if the message was rejected by the handler.
+   */
+  private static boolean _isRejectedByPreScan (@Nonnull final IAS4IncomingPreScanHandler aPreScanHandler,
+                                               @Nonnull final HttpHeaderMap aHttpHeaders,
+                                               @Nonnull final byte [] aSoapBytes,
+                                               @Nullable final ESoapVersion eFallbackSoapVersion) throws Phase4Exception
+  {
+    final AS4EbmsPreScanInfo aInfo = AS4EbmsPreScanner.scan (new NonBlockingByteArrayInputStream (aSoapBytes));
+    if (aInfo == null)
+    {
+      // Let the full processing create the error
+      return false;
+    }
+    // The namespace URI of the envelope is authoritative
+    final ESoapVersion eSoapVersion = aInfo.getSoapVersion () != null ? aInfo.getSoapVersion ()
+                                                                      : eFallbackSoapVersion;
+    if (eSoapVersion == null)
+      return false;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Pre-scanned ebMS header: " + aInfo);
+
+    return aPreScanHandler.onPreScan (aHttpHeaders, aInfo, eSoapVersion).isBreak ();
+  }
+
+  /**
+   * Parse an incoming AS4 message.
+   *
+   * @param aIAF
+   *        The incoming attachment factory. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper. May not be <code>null</code>.
+   * @param aMessageMetadata
+   *        The incoming message metadata. May not be <code>null</code>.
+   * @param aPayloadIS
+   *        The payload input stream. May not be <code>null</code>.
+   * @param aHttpHeaders
+   *        The HTTP headers. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback for the parsed message. May not be <code>null</code>.
+   * @param aIncomingDumper
+   *        The optional incoming dumper. May be <code>null</code>.
+   * @param aPreScanHandler
+   *        The optional handler that is invoked with the ebMS header
+   *        information extracted via StAX before the SOAP document is parsed
+   *        into a DOM. If it rejects the message, the callback is not invoked.
+   *        May be <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of a processing error
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case of MIME error
+   * @throws WSSecurityException
+   *         In case of WSS4J error
+   * @since 1.4.4
+   */
+  public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                      @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                      @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                      @Nonnull @WillClose final InputStream aPayloadIS,
+                                      @Nonnull final HttpHeaderMap aHttpHeaders,
+                                      @Nonnull final IAS4ParsedMessageCallback aCallback,
+                                      @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                      @Nullable final IAS4IncomingPreScanHandler aPreScanHandler) throws Phase4Exception,
+                                                                                                  IOException,
+                                                                                                  MessagingException,
+                                                                                                  WSSecurityException
   {
     // Determine content type
     final String sContentType = aHttpHeaders.getFirstHeaderValue (CHttpHeader.CONTENT_TYPE);
@@ -171,6 +284,7 @@ public class AS4IncomingHandler
 
     Document aSoapDocument = null;
     ESoapVersion eSoapVersion = null;
+    boolean bRejectedByPreScan = false;
     final ICommonsList <WSS4JAttachment> aIncomingAttachments = new CommonsArrayList <> ();
     final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
 
@@ -211,8 +325,8 @@ public class AS4IncomingHandler
 
           try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
           {
-            // Read headers AND content
-            final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+            // Read only the headers - the content is streamed afterwards
+            final InternetHeaders aPartHeaders = new InternetHeaders (aBodyPartIS);
 
             if (nIndex == 0)
             {
@@ -220,10 +334,8 @@ public class AS4IncomingHandler
               if (LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Parsing first MIME part as SOAP document");
 
-              // Read SOAP document
-              aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
-
-              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aBodyPart.getContentType ());
+              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aPartHeaders.getHeader (CHttpHeader.CONTENT_TYPE,
+                                                                                                 null));
               if (aPlainPartMT != null)
                 aPlainPartMT = aPlainPartMT.getCopyWithoutParameters ();
 
@@ -232,6 +344,24 @@ public class AS4IncomingHandler
               if (eSoapVersion != null && LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Determined SOAP version " + eSoapVersion + " from Content-Type");
 
+              // Read SOAP document
+              final String sEncoding = StringHelper.trim (aPartHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING,
+                                                                                  null));
+              InputStream aSoapIS = StringHelper.hasText (sEncoding) ? MimeUtility.decode (aBodyPartIS, sEncoding)
+                                                                     : aBodyPartIS;
+              if (aPreScanHandler != null)
+              {
+                // The SOAP part needs to be read twice
+                final byte [] aSoapBytes = StreamHelper.getAllBytes (aSoapIS);
+                if (_isRejectedByPreScan (aPreScanHandler, aHttpHeaders, aSoapBytes, eSoapVersion))
+                {
+                  bRejectedByPreScan = true;
+                  break;
+                }
+                aSoapIS = new NonBlockingByteArrayInputStream (aSoapBytes);
+              }
+              aSoapDocument = DOMReader.readXMLDOM (aSoapIS);
+
               if (eSoapVersion == null && aSoapDocument != null)
               {
                 // Determine SOAP version from the read document
@@ -246,12 +376,19 @@ public class AS4IncomingHandler
               if (LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Parsing MIME part #" + nIndex + " as attachment");
 
-              final WSS4JAttachment aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+              // Stream the content to its final destination
+              final WSS4JAttachment aAttachment = aIAF.createAttachment (aPartHeaders, aBodyPartIS, aResHelper);
               aIncomingAttachments.add (aAttachment);
             }
           }
           nIndex++;
         }
+
+        if (bRejectedByPreScan)
+        {
+          // Consume the remaining parts, so that the incoming dump is complete
+          _drainRejectedRequest (aRequestIS, aMessageMetadata);
+        }
       }
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Read MIME message with " + aIncomingAttachments.size () + " attachment(s)");
@@ -263,11 +400,24 @@ public class AS4IncomingHandler
 
       // Expect plain SOAP - read whole request to DOM
       // Note: this may require a huge amount of memory for large requests
-      aSoapDocument = DOMReader.readXMLDOM (AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
-                                                                                            aPayloadIS,
-                                                                                            aMessageMetadata,
-                                                                                            aHttpHeaders,
-                                                                                            aDumpOSHolder));
+      InputStream aSoapIS = AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
+                                                                            aPayloadIS,
+                                                                            aMessageMetadata,
+                                                                            aHttpHeaders,
+                                                                            aDumpOSHolder);
+      if (aPreScanHandler != null)
+      {
+        // The request needs to be read twice - reads the whole request, so
+        // the dump is complete even if it is rejected
+        final byte [] aSoapBytes = StreamHelper.getAllBytes (aSoapIS);
+        bRejectedByPreScan = _isRejectedByPreScan (aPreScanHandler,
+                                                   aHttpHeaders,
+                                                   aSoapBytes,
+                                                   ESoapVersion.getFromMimeTypeOrNull (aPlainContentType));
+        aSoapIS = new NonBlockingByteArrayInputStream (aSoapBytes);
+      }
+      if (!bRejectedByPreScan)
+        aSoapDocument = DOMReader.readXMLDOM (aSoapIS);
 
       if (LOGGER.isDebugEnabled ())
       {
@@ -315,6 +465,13 @@ public class AS4IncomingHandler
 
     try
     {
+      if (bRejectedByPreScan)
+      {
+        // The response was already created by the pre-scan handler
+        LOGGER.info ("The incoming message was rejected by the pre-scan");
+        return;
+      }
+
       if (aSoapDocument == null)
       {
         // We don't have a SOAP document
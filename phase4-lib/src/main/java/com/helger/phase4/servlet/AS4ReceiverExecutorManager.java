@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * This class holds the global {@link Executor}s of the receiver pipeline. The
+ * main executor is used by default by {@link AS4AsyncServlet} to run the AS4
+ * processing including the SPI invocation. A separate executor is used for
+ * the asynchronous ebMS responses of {@link AS4RequestHandler}, so that
+ * incoming requests cannot starve the response leg. If the runtime supports virtual threads (Java 21+) and
+ * {@link AS4Configuration#isReceiverVirtualThreadsEnabled()} is
+ * <code>true</code> (not the default), a virtual thread is used per task, so
+ * that blocking SPIs don't occupy platform threads. The number of concurrent
+ * virtual threads is limited. Otherwise a pool of daemon platform threads with
+ * a bounded queue is used. In both cases tasks exceeding the limits are
+ * rejected with a {@link RejectedExecutionException}, which e.g.
+ * {@link AS4AsyncServlet} answers with HTTP 503. A rejected asynchronous
+ * response is processed in the calling thread instead, so that no received
+ * message is lost. The default executor is lazily
+ * created upon first usage and shut down via {@link #shutdown()} when the
+ * global scope ends.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public final class AS4ReceiverExecutorManager
+{
+  public static final int DEFAULT_MAX_PLATFORM_THREADS = Math.max (16, Runtime.getRuntime ().availableProcessors () * 4);
+  public static final int DEFAULT_MAX_QUEUED_TASKS = 1_000;
+  public static final int DEFAULT_MAX_VIRTUAL_THREADS = 10_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ReceiverExecutorManager.class);
+  private static final String THREAD_NAME_PREFIX = CAS4.LIB_NAME + "-receiver-";
+
+  private static final String RESPONSE_THREAD_NAME_PREFIX = CAS4.LIB_NAME + "-async-response-";
+
+  /**
+   * Holds one lazily created executor, that can be replaced from the outside.
+   *
+   * @author Philip Helger
+   */
+  @ThreadSafe
+  private static final class ExecutorHolder
+  {
+    private final Supplier <ExecutorService> m_aDefaultFactory;
+    private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+    @GuardedBy ("m_aRWLock")
+    private Executor m_aExecutor;
+    // Only set if the executor was created in here
+    @GuardedBy ("m_aRWLock")
+    private ExecutorService m_aOwnExecutorService;
+
+    ExecutorHolder (@Nonnull final Supplier <ExecutorService> aDefaultFactory)
+    {
+      m_aDefaultFactory = aDefaultFactory;
+    }
+
+    @Nonnull
+    Executor get ()
+    {
+      final Executor ret = m_aRWLock.readLockedGet ( () -> m_aExecutor);
+      if (ret != null)
+        return ret;
+
+      return m_aRWLock.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (m_aExecutor == null)
+        {
+          m_aOwnExecutorService = m_aDefaultFactory.get ();
+          m_aExecutor = m_aOwnExecutorService;
+        }
+        return m_aExecutor;
+      });
+    }
+
+    void set (@Nullable final Executor aExecutor)
+    {
+      final ExecutorService aOld = m_aRWLock.writeLockedGet ( () -> {
+        final ExecutorService ret = m_aOwnExecutorService;
+        m_aExecutor = aExecutor;
+        m_aOwnExecutorService = null;
+        return ret;
+      });
+      if (aOld != null)
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aOld);
+    }
+
+    void shutdown ()
+    {
+      final ExecutorService aOld = m_aRWLock.writeLockedGet ( () -> {
+        final ExecutorService ret = m_aOwnExecutorService;
+        if (ret != null)
+        {
+          m_aExecutor = null;
+          m_aOwnExecutorService = null;
+        }
+        return ret;
+      });
+      if (aOld != null)
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aOld);
+    }
+  }
+
+  private static final ExecutorHolder RECEIVER = new ExecutorHolder (AS4ReceiverExecutorManager::createDefaultExecutorService);
+  private static final ExecutorHolder ASYNC_RESPONSE = new ExecutorHolder (AS4ReceiverExecutorManager::createDefaultAsyncResponseExecutorService);
+
+  private AS4ReceiverExecutorManager ()
+  {}
+
+  /**
+   * An executor service that limits the number of concurrently running tasks
+   * of another executor service and rejects all tasks exceeding that limit.
+   *
+   * @author Philip Helger
+   */
+  private static final class LimitingExecutorService extends AbstractExecutorService
+  {
+    private final ExecutorService m_aDelegate;
+    private final Semaphore m_aPermits;
+
+    LimitingExecutorService (@Nonnull final ExecutorService aDelegate, @Nonnegative final int nMaxConcurrentTasks)
+    {
+      m_aDelegate = aDelegate;
+      m_aPermits = new Semaphore (nMaxConcurrentTasks);
+    }
+
+    public void execute (@Nonnull final Runnable aCommand)
+    {
+      if (!m_aPermits.tryAcquire ())
+        throw new RejectedExecutionException ("The maximum number of concurrent receiver tasks is reached");
+      try
+      {
+        m_aDelegate.execute ( () -> {
+          try
+          {
+            aCommand.run ();
+          }
+          finally
+          {
+            m_aPermits.release ();
+          }
+        });
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        m_aPermits.release ();
+        throw ex;
+      }
+    }
+
+    public void shutdown ()
+    {
+      m_aDelegate.shutdown ();
+    }
+
+    @Nonnull
+    public List <Runnable> shutdownNow ()
+    {
+      return m_aDelegate.shutdownNow ();
+    }
+
+    public boolean isShutdown ()
+    {
+      return m_aDelegate.isShutdown ();
+    }
+
+    public boolean isTerminated ()
+    {
+      return m_aDelegate.isTerminated ();
+    }
+
+    public boolean awaitTermination (final long nTimeout, @Nonnull final TimeUnit eUnit) throws InterruptedException
+    {
+      return m_aDelegate.awaitTermination (nTimeout, eUnit);
+    }
+  }
+
+  /**
+   * Create an executor service that starts a new virtual thread per task. The
+   * API is accessed via reflection, so that this works with all Java
+   * versions.
+   *
+   * @param nMaxConcurrentTasks
+   *        The maximum number of concurrently running tasks. Further tasks are
+   *        rejected. Must be &gt; 0.
+   * @return A new executor service or <code>null</code> if the runtime does not
+   *         support virtual threads.
+   */
+  @Nullable
+  public static ExecutorService createVirtualThreadExecutorService (@Nonnegative final int nMaxConcurrentTasks)
+  {
+    ValueEnforcer.isGT0 (nMaxConcurrentTasks, "MaxConcurrentTasks");
+    try
+    {
+      // Thread.ofVirtual ().name (prefix, 1).factory ()
+      final Class <?> aBuilderClass = Class.forName ("java.lang.Thread$Builder");
+      Object aBuilder = Thread.class.getMethod ("ofVirtual").invoke (null);
+      aBuilder = aBuilderClass.getMethod ("name", String.class, long.class).invoke (aBuilder, THREAD_NAME_PREFIX, Long.valueOf (1));
+      final ThreadFactory aThreadFactory = (ThreadFactory) aBuilderClass.getMethod ("factory").invoke (aBuilder);
+
+      // Executors.newThreadPerTaskExecutor (aThreadFactory)
+      final Method aMethod = Executors.class.getMethod ("newThreadPerTaskExecutor", ThreadFactory.class);
+      return new LimitingExecutorService ((ExecutorService) aMethod.invoke (null, aThreadFactory), nMaxConcurrentTasks);
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      // Not Java 21+ or preview features are not enabled
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Virtual threads are not available: " + ex.getClass ().getName () + " - " + ex.getMessage ());
+      return null;
+    }
+  }
+
+  /**
+   * Create a new bounded executor service with daemon platform threads. If all
+   * threads are busy and the queue is full, new tasks are rejected.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads to use. Must be &gt; 0.
+   * @param nMaxQueuedTasks
+   *        The maximum number of tasks waiting for a thread. Must be &gt; 0.
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createPlatformThreadExecutorService (@Nonnegative final int nMaxThreads,
+                                                                     @Nonnegative final int nMaxQueuedTasks)
+  {
+    return _createPlatformThreadExecutorService (THREAD_NAME_PREFIX, nMaxThreads, nMaxQueuedTasks);
+  }
+
+  @Nonnull
+  private static ExecutorService _createPlatformThreadExecutorService (@Nonnull final String sThreadNamePrefix,
+                                                                      @Nonnegative final int nMaxThreads,
+                                                                      @Nonnegative final int nMaxQueuedTasks)
+  {
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    ValueEnforcer.isGT0 (nMaxQueuedTasks, "MaxQueuedTasks");
+
+    final AtomicInteger aThreadIndex = new AtomicInteger (0);
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, sThreadNamePrefix + aThreadIndex.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    final ThreadPoolExecutor ret = new ThreadPoolExecutor (nMaxThreads,
+                                                           nMaxThreads,
+                                                           60L,
+                                                           TimeUnit.SECONDS,
+                                                           new ArrayBlockingQueue <> (nMaxQueuedTasks),
+                                                           aThreadFactory);
+    // Don't keep idle threads forever
+    ret.allowCoreThreadTimeOut (true);
+    return ret;
+  }
+
+  /**
+   * Create the default executor service based on the configuration: virtual
+   * threads if enabled and available, platform threads otherwise.
+   *
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createDefaultExecutorService ()
+  {
+    if (AS4Configuration.isReceiverVirtualThreadsEnabled ())
+    {
+      final ExecutorService ret = createVirtualThreadExecutorService (DEFAULT_MAX_VIRTUAL_THREADS);
+      if (ret != null)
+      {
+        LOGGER.info ("Using virtual threads for the AS4 receiver");
+        return ret;
+      }
+    }
+    return createPlatformThreadExecutorService (DEFAULT_MAX_PLATFORM_THREADS, DEFAULT_MAX_QUEUED_TASKS);
+  }
+
+  /**
+   * Create the default executor service for the asynchronous ebMS responses.
+   * It uses platform threads, because the tasks mainly do blocking HTTP
+   * calls, and it is separate from {@link #getExecutor()}, so that incoming
+   * requests cannot starve the responses.
+   *
+   * @return A new executor service. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createDefaultAsyncResponseExecutorService ()
+  {
+    return _createPlatformThreadExecutorService (RESPONSE_THREAD_NAME_PREFIX,
+                                                 DEFAULT_MAX_PLATFORM_THREADS,
+                                                 DEFAULT_MAX_QUEUED_TASKS);
+  }
+
+  /**
+   * @return The executor to be used by the receiver pipeline. Never
+   *         <code>null</code>. If no executor was set, a default one is
+   *         created.
+   */
+  @Nonnull
+  public static Executor getExecutor ()
+  {
+    return RECEIVER.get ();
+  }
+
+  /**
+   * Set the executor to be used by the receiver pipeline. If a previous
+   * executor was created internally, it is shut down.
+   *
+   * @param aExecutor
+   *        The executor to use. May be <code>null</code> to use the default
+   *        executor upon next usage.
+   */
+  public static void setExecutor (@Nullable final Executor aExecutor)
+  {
+    RECEIVER.set (aExecutor);
+  }
+
+  /**
+   * @return The executor to be used for processing the SPIs and sending the
+   *         asynchronous ebMS responses of {@link AS4RequestHandler}. Never
+   *         <code>null</code>. If no executor was set, a default one is
+   *         created.
+   */
+  @Nonnull
+  public static Executor getAsyncResponseExecutor ()
+  {
+    return ASYNC_RESPONSE.get ();
+  }
+
+  /**
+   * Set the executor to be used for the asynchronous ebMS responses. If a
+   * previous executor was created internally, it is shut down.
+   *
+   * @param aExecutor
+   *        The executor to use. May be <code>null</code> to use the default
+   *        executor upon next usage.
+   */
+  public static void setAsyncResponseExecutor (@Nullable final Executor aExecutor)
+  {
+    ASYNC_RESPONSE.set (aExecutor);
+  }
+
+  /**
+   * Shut down the executors, if they were created in here. Executors set via
+   * {@link #setExecutor(Executor)} or
+   * {@link #setAsyncResponseExecutor(Executor)} are not shut down. New default
+   * executors are created upon the next usage. This is called when the global
+   * scope ends.
+   */
+  public static void shutdown ()
+  {
+    // The receiver tasks may still create asynchronous responses
+    RECEIVER.shutdown ();
+    ASYNC_RESPONSE.shutdown ();
+  }
+}
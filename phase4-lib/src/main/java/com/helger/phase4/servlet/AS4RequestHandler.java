@@ -22,6 +22,7 @@ import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -30,7 +31,9 @@ import javax.annotation.WillClose;
 import javax.mail.MessagingException;
 import javax.servlet.ServletInputStream;
 
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,16 +54,20 @@ import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.EMimeContentType;
 import com.helger.commons.mime.IMimeType;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
 import com.helger.httpclient.response.ResponseHandlerXml;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.AS4DecryptionException;
+import com.helger.phase4.attachment.EAS4DecryptedAttachmentMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
@@ -79,7 +86,6 @@ import com.helger.phase4.http.AS4HttpDebug;
 import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpMimeMessageEntity;
 import com.helger.phase4.http.HttpRetrySettings;
-import com.helger.phase4.http.HttpXMLEntity;
 import com.helger.phase4.messaging.EAS4MessageMode;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.messaging.crypto.AS4Encryptor;
@@ -109,7 +115,6 @@ import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.util.Phase4Exception;
-import com.helger.photon.app.PhotonWorkerPool;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 import com.helger.xml.serialize.write.XMLWriter;
 
@@ -129,6 +134,16 @@ public class AS4RequestHandler implements AutoCloseable
     @Nonnull
     HttpEntity getHttpEntityForSending (@Nonnull IMimeType aMimeType);
 
+    /**
+     * @return The complete serialized response, if it is available as a byte
+     *         array without further copying. May be <code>null</code>.
+     */
+    @Nullable
+    default byte [] getResponseBytes ()
+    {
+      return null;
+    }
+
     void applyToResponse (@Nonnull IAS4ResponseAbstraction aHttpResponse, @Nullable IAS4OutgoingDumper aOutgoingDumper);
   }
 
@@ -139,6 +154,8 @@ public class AS4RequestHandler implements AutoCloseable
     private final String m_sResponseMessageID;
     private final Document m_aDoc;
     private final IMimeType m_aMimeType;
+    // Lazily serialized once and shared by SPIs, response and dumper
+    private byte [] m_aXMLBytes;
 
     public AS4ResponseFactoryXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
                                   @Nonnull final IAS4MessageState aState,
@@ -158,18 +175,31 @@ public class AS4RequestHandler implements AutoCloseable
       m_aMimeType = aMimeType;
     }
 
+    @Nonnull
+    public byte [] getResponseBytes ()
+    {
+      byte [] ret = m_aXMLBytes;
+      if (ret == null)
+      {
+        ret = AS4XMLHelper.serializeXMLToBytes (m_aDoc);
+        m_aXMLBytes = ret;
+      }
+      return ret;
+    }
+
     @Nonnull
     public HttpEntity getHttpEntityForSending (@Nonnull final IMimeType aMimType)
     {
-      return new HttpXMLEntity (m_aDoc, m_aMimeType);
+      // ContentType Required for AS4.NET
+      return new ByteArrayEntity (getResponseBytes (),
+                                  ContentType.parse (m_aMimeType.getAsString ()).withCharset (AS4XMLHelper.XWS.getCharset ()));
     }
 
     public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
       final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
+      final byte [] aXMLBytes = getResponseBytes ();
       aHttpResponse.setContent (aXMLBytes, aCharset);
       aHttpResponse.setMimeType (m_aMimeType);
 
@@ -368,10 +398,13 @@ public class AS4RequestHandler implements AutoCloseable
   private IAS4OutgoingDumper m_aOutgoingDumper;
   private IAS4RetryCallback m_aRetryCallback;
   private ISoapProcessingFinalizedCallback m_aSoapProcessingFinalizedCB;
+  // The asynchronous processing that still needs the resources
+  private volatile CompletableFuture <Void> m_aAsyncProcessing;
 
   /** By default get all message processors from the global SPI registry */
   private Supplier <? extends ICommonsList <IAS4ServletMessageProcessorSPI>> m_aProcessorSupplier = AS4ServletMessageProcessorManager::getAllProcessors;
   private IAS4RequestHandlerErrorConsumer m_aErrorConsumer;
+  private boolean m_bPreScanEnabled = AS4Configuration.isIncomingPreScanEnabled ();
 
   public AS4RequestHandler (@Nonnull final IAS4CryptoFactory aCryptoFactory,
                             @Nonnull final IPModeResolver aPModeResolver,
@@ -392,8 +425,18 @@ public class AS4RequestHandler implements AutoCloseable
 
   public void close ()
   {
-    // Delete all the temporary files etc.
-    m_aResHelper.close ();
+    final CompletableFuture <Void> aAsyncProcessing = m_aAsyncProcessing;
+    if (aAsyncProcessing != null && !aAsyncProcessing.isDone ())
+    {
+      // The asynchronous processing still reads the attachments and the
+      // temporary files - clean up when it is done
+      aAsyncProcessing.whenComplete ( (x, ex) -> m_aResHelper.close ());
+    }
+    else
+    {
+      // Delete all the temporary files etc.
+      m_aResHelper.close ();
+    }
   }
 
   /**
@@ -420,6 +463,33 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the ebMS header of incoming messages is
+   *         pre-scanned to reject duplicates and messages with unknown PModes
+   *         before the DOM is built and before any crypto operation. Defaults
+   *         to {@link AS4Configuration#isIncomingPreScanEnabled()}.
+   * @since 1.4.4
+   */
+  public final boolean isPreScanEnabled ()
+  {
+    return m_bPreScanEnabled;
+  }
+
+  /**
+   * Enable or disable the pre-scan of the ebMS header.
+   *
+   * @param bPreScanEnabled
+   *        <code>true</code> to enable, <code>false</code> to disable.
+   * @return this for chaining
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final AS4RequestHandler setPreScanEnabled (final boolean bPreScanEnabled)
+  {
+    m_bPreScanEnabled = bPreScanEnabled;
+    return this;
+  }
+
   /**
    * @return The current AS4 profile selector for incoming messages. Never
    *         <code>null</code>.
@@ -845,6 +915,13 @@ public class AS4RequestHandler implements AutoCloseable
           if (LOGGER.isDebugEnabled ())
             LOGGER.debug ("Successfully invoked AS4 message processor " + aProcessor);
         }
+        catch (final AS4DecryptionException ex)
+        {
+          // Lazily decrypted attachments only fail when they are read
+          LOGGER.error ("Failed to decrypt AS4 attachment", ex);
+          aErrorMessagesTarget.add (EEbmsError.EBMS_FAILED_DECRYPTION.getAsEbms3Error (m_aLocale, sMessageID));
+          return;
+        }
         catch (final AS4DecompressException ex)
         {
           LOGGER.error ("Failed to decompress AS4 payload", ex);
@@ -877,26 +954,31 @@ public class AS4RequestHandler implements AutoCloseable
     byte [] aResponsePayload = null;
     if (aResponseFactory != null)
     {
-      final HttpEntity aRealHttpEntity = aHttpEntity != null ? aHttpEntity
-                                                             : aResponseFactory.getHttpEntityForSending (aMimeType);
-      if (aRealHttpEntity.isRepeatable ())
+      // Use the already serialized response if possible
+      aResponsePayload = aResponseFactory.getResponseBytes ();
+      if (aResponsePayload == null)
       {
-        int nContentLength = (int) aRealHttpEntity.getContentLength ();
-        if (nContentLength < 0)
-          nContentLength = 16 * CGlobal.BYTES_PER_KILOBYTE;
-
-        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nContentLength))
-        {
-          aRealHttpEntity.writeTo (aBAOS);
-          aResponsePayload = aBAOS.getBufferOrCopy ();
-        }
-        catch (final IOException ex)
+        final HttpEntity aRealHttpEntity = aHttpEntity != null ? aHttpEntity
+                                                               : aResponseFactory.getHttpEntityForSending (aMimeType);
+        if (aRealHttpEntity.isRepeatable ())
         {
-          LOGGER.error ("Error dumping response entity", ex);
+          int nContentLength = (int) aRealHttpEntity.getContentLength ();
+          if (nContentLength < 0)
+            nContentLength = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+          try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nContentLength))
+          {
+            aRealHttpEntity.writeTo (aBAOS);
+            aResponsePayload = aBAOS.getBufferOrCopy ();
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.error ("Error dumping response entity", ex);
+          }
         }
+        else
+          LOGGER.warn ("AS4 Response entity is not repeatable and therefore not read for SPIs");
       }
-      else
-        LOGGER.warn ("AS4 Response entity is not repeatable and therefore not read for SPIs");
     }
     else
       LOGGER.info ("No response factory present");
@@ -1275,6 +1357,26 @@ public class AS4RequestHandler implements AutoCloseable
     return ret;
   }
 
+  /**
+   * @return The decrypted attachment mode fulfilling the requirements of all
+   *         message processors. Never <code>null</code>.
+   */
+  @Nonnull
+  private EAS4DecryptedAttachmentMode _getDecryptedAttachmentMode ()
+  {
+    final ICommonsList <IAS4ServletMessageProcessorSPI> aAllProcessors = m_aProcessorSupplier.get ();
+    if (aAllProcessors == null || aAllProcessors.isEmpty ())
+      return EAS4DecryptedAttachmentMode.DEFAULT;
+
+    // Multiple processors read the attachments more than once
+    EAS4DecryptedAttachmentMode ret = aAllProcessors.size () > 1 ? EAS4DecryptedAttachmentMode.LAZY_COPY
+                                                                 : EAS4DecryptedAttachmentMode.STREAMING;
+    for (final IAS4ServletMessageProcessorSPI aProcessor : aAllProcessors)
+      ret = ret.getMoreConservative (aProcessor.getDecryptedAttachmentMode ());
+    // Streaming unverified content must be enabled explicitly
+    return ret.getEffective (AS4Configuration.isIncomingAttachmentsStreamingEnabled ());
+  }
+
   @Nullable
   private IAS4ResponseFactory _handleSoapMessage (@Nonnull final HttpHeaderMap aHttpHeaders,
                                                   @Nonnull final Document aSoapDocument,
@@ -1286,7 +1388,8 @@ public class AS4RequestHandler implements AutoCloseable
   {
     final SOAPHeaderElementProcessorRegistry aRegistry = SOAPHeaderElementProcessorRegistry.createDefault (m_aPModeResolver,
                                                                                                            m_aCryptoFactory,
-                                                                                                           (IPMode) null);
+                                                                                                           (IPMode) null,
+                                                                                                           _getDecryptedAttachmentMode ());
     final IAS4MessageState aState = AS4IncomingHandler.processEbmsMessage (m_aResHelper,
                                                                            m_aLocale,
                                                                            aRegistry,
@@ -1504,8 +1607,34 @@ public class AS4RequestHandler implements AutoCloseable
                                                                 AS4HttpDebug.getDebugXMLWriterSettings ()));
         };
 
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ()
-                                                                 .runThrowing (CAS4.LIB_NAME + " async processing", r);
+        final Runnable aSafeRunnable = () -> {
+          try
+          {
+            r.run ();
+          }
+          catch (final Exception ex)
+          {
+            LOGGER.error ("Error in " + CAS4.LIB_NAME + " async processing", ex);
+          }
+        };
+
+        CompletableFuture <Void> aFuture;
+        try
+        {
+          aFuture = CompletableFuture.runAsync (aSafeRunnable, AS4ReceiverExecutorManager.getAsyncResponseExecutor ());
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          // The bounded executor is saturated - process in this thread, so
+          // that the SPI is invoked and the response is sent in any case. This
+          // slows down the sender which is the desired back pressure.
+          LOGGER.warn ("The " +
+                       CAS4.LIB_NAME +
+                       " async processing was rejected by the executor - processing it synchronously");
+          aSafeRunnable.run ();
+          aFuture = CompletableFuture.completedFuture (null);
+        }
+        m_aAsyncProcessing = aFuture;
 
         if (m_aSoapProcessingFinalizedCB != null)
         {
@@ -1677,6 +1806,79 @@ public class AS4RequestHandler implements AutoCloseable
     return ret;
   }
 
+  /**
+   * Reject duplicate messages and messages without a matching PMode based on
+   * the unverified ebMS header information. Duplicates are only checked, but
+   * not registered - registration happens after successful verification.
+   *
+   * @param aInfo
+   *        The pre-scanned information. May not be <code>null</code>.
+   * @param eSoapVersion
+   *        The SOAP version of the incoming message. May not be
+   *        <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP response to fill in case of rejection. May not be
+   *        <code>null</code>.
+   * @return {@link EContinue#BREAK} if the message was rejected.
+   */
+  @Nonnull
+  private EContinue _handlePreScan (@Nonnull final AS4EbmsPreScanInfo aInfo,
+                                    @Nonnull final ESoapVersion eSoapVersion,
+                                    @Nonnull final IAS4ResponseAbstraction aHttpResponse)
+  {
+    final String sMessageID = aInfo.getMessageID ();
+    if (!aInfo.isUserMessage () || StringHelper.hasNoText (sMessageID))
+    {
+      // Let the full processing decide
+      return EContinue.CONTINUE;
+    }
+
+    Ebms3Error aError = null;
+    if (MetaAS4Manager.getIncomingDuplicateMgr ().getItemOfMessageID (sMessageID) != null)
+    {
+      LOGGER.error ("Pre-scan: message with Message ID '" + sMessageID + "' was already handled (this is a duplicate)");
+      aError = EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                      sMessageID,
+                                                      "Another message with the same Message ID '" +
+                                                                  sMessageID +
+                                                                  "' was already received!");
+    }
+    else
+      if (aInfo.hasPModeResolutionInformation ())
+      {
+        final IPMode aPMode = m_aPModeResolver.getPModeOfID (aInfo.getPModeID (),
+                                                             aInfo.getService (),
+                                                             aInfo.getAction (),
+                                                             aInfo.getAllFromPartyIDs ().getFirst (),
+                                                             aInfo.getAllToPartyIDs ().getFirst (),
+                                                             aInfo.getAgreementRef (),
+                                                             AS4Configuration.getThisEndpointAddress ());
+        if (aPMode == null)
+        {
+          LOGGER.error ("Pre-scan: failed to resolve PMode '" +
+                        aInfo.getPModeID () +
+                        "' for message with Message ID '" +
+                        sMessageID +
+                        "' using resolver " +
+                        m_aPModeResolver);
+          aError = EEbmsError.EBMS_PROCESSING_MODE_MISMATCH.getAsEbms3Error (m_aLocale, sMessageID);
+        }
+      }
+
+    if (aError == null)
+      return EContinue.CONTINUE;
+
+    final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                                      sMessageID,
+                                                                      new CommonsArrayList <> (aError));
+    final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
+    aHttpResponse.setContent (AS4XMLHelper.serializeXML (aResponseErrorMsg.getAsSoapDocument ()).getBytes (aCharset),
+                              aCharset);
+    aHttpResponse.setMimeType (eSoapVersion.getMimeType ());
+    AS4HttpDebug.debug ( () -> "RECEIVE-END with EBMS error message from pre-scan");
+    return EContinue.BREAK;
+  }
+
   /**
    * This is the main handling routine when called from an abstract
    * (non-Servlet) API
@@ -1729,13 +1931,19 @@ public class AS4RequestHandler implements AutoCloseable
       }
       AS4HttpDebug.debug ( () -> "RECEIVE-END with " + (aResponder != null ? "EBMS message" : "no content"));
     };
+    // Optional early rejection
+    IAS4IncomingPreScanHandler aPreScanHandler = null;
+    if (m_bPreScanEnabled)
+      aPreScanHandler = (aHttpHeaders, aInfo, eSoapVersion) -> _handlePreScan (aInfo, eSoapVersion, aHttpResponse);
+
     AS4IncomingHandler.parseAS4Message (m_aIAF,
                                         m_aResHelper,
                                         m_aMessageMetadata,
                                         aServletRequestIS,
                                         aRequestHttpHeaders,
                                         aCallback,
-                                        m_aIncomingDumper);
+                                        m_aIncomingDumper,
+                                        aPreScanHandler);
   }
 
   /**
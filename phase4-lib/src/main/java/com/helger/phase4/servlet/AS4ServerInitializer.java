@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.http.AS4HttpClientPool;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.servlet.mgr.AS4DuplicateCleanupJob;
 import com.helger.quartz.TriggerKey;
@@ -77,7 +78,8 @@ public final class AS4ServerInitializer
   }
 
   /**
-   * Call this method to shutdown the AS4 server. This unschedules the jobs.
+   * Call this method to shutdown the AS4 server. This unschedules the jobs and
+   * closes all pooled HTTP clients.
    *
    * @since 0.10.3
    */
@@ -87,5 +89,6 @@ public final class AS4ServerInitializer
       AS4DuplicateCleanupJob.unschedule (s_aTriggerKey);
       s_aTriggerKey = null;
     });
+    AS4HttpClientPool.closeAll ();
   }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Callback interface that is invoked with the result of the
+ * {@link AS4EbmsPreScanner} before the SOAP document is parsed into a DOM and
+ * before any signature verification or decryption happens.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@FunctionalInterface
+public interface IAS4IncomingPreScanHandler
+{
+  /**
+   * Check if the incoming message should be processed.
+   *
+   * @param aHttpHeaders
+   *        The HTTP headers of the request. Never <code>null</code>.
+   * @param aInfo
+   *        The unverified ebMS header information. Never <code>null</code>.
+   * @param eSoapVersion
+   *        The SOAP version of the message. Never <code>null</code>.
+   * @return {@link EContinue#CONTINUE} to continue processing,
+   *         {@link EContinue#BREAK} if the message was rejected. In the latter
+   *         case the handler is responsible for creating the response.
+   * @throws Phase4Exception
+   *         In case of a processing error
+   */
+  @Nonnull
+  EContinue onPreScan (@Nonnull HttpHeaderMap aHttpHeaders,
+                       @Nonnull AS4EbmsPreScanInfo aInfo,
+                       @Nonnull ESoapVersion eSoapVersion) throws Phase4Exception;
+}
@@ -28,6 +28,7 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.phase4.attachment.EAS4DecryptedAttachmentMode;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
@@ -85,6 +86,30 @@ public class SOAPHeaderElementProcessorRegistry
   public static SOAPHeaderElementProcessorRegistry createDefault (@Nonnull final IPModeResolver aPModeResolver,
                                                                   @Nonnull final IAS4CryptoFactory aCryptoFactory,
                                                                   @Nullable final IPMode aFallbackPMode)
+  {
+    return createDefault (aPModeResolver, aCryptoFactory, aFallbackPMode, EAS4DecryptedAttachmentMode.DEFAULT);
+  }
+
+  /**
+   * Create the default registry.
+   *
+   * @param aPModeResolver
+   *        PMode resolver to use. May not be <code>null</code>.
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param aFallbackPMode
+   *        Optional fallback PMode. May be <code>null</code>.
+   * @param eDecryptedAttachmentMode
+   *        The way how decrypted attachments are made available. May not be
+   *        <code>null</code>.
+   * @return The new registry. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static SOAPHeaderElementProcessorRegistry createDefault (@Nonnull final IPModeResolver aPModeResolver,
+                                                                  @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                                  @Nullable final IPMode aFallbackPMode,
+                                                                  @Nonnull final EAS4DecryptedAttachmentMode eDecryptedAttachmentMode)
   {
     // Register all SOAP header element processors
     // Registration order matches execution order!
@@ -94,7 +119,9 @@ public class SOAPHeaderElementProcessorRegistry
 
     // WSS4J must be after Ebms3Messaging handler!
     ret.registerHeaderElementProcessor (SOAPHeaderElementProcessorWSS4J.QNAME_SECURITY,
-                                        new SOAPHeaderElementProcessorWSS4J (aCryptoFactory, aFallbackPMode));
+                                        new SOAPHeaderElementProcessorWSS4J (aCryptoFactory,
+                                                                             aFallbackPMode,
+                                                                             eDecryptedAttachmentMode));
     return ret;
   }
 }
@@ -17,7 +17,9 @@
 package com.helger.phase4.servlet.soap;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
@@ -28,7 +30,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 
-import com.helger.phase4.crypto.AS4CryptoProperties;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.AttachmentUtils;
 import org.apache.wss4j.dom.WSConstants;
@@ -47,12 +48,16 @@ import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4DecryptionException;
+import com.helger.phase4.attachment.AS4LazyCopyInputStreamProvider;
+import com.helger.phase4.attachment.EAS4DecryptedAttachmentMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
@@ -83,13 +88,121 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
 
   private final IAS4CryptoFactory m_aCryptoFactory;
   private final IPMode m_aFallbackPMode;
+  private final EAS4DecryptedAttachmentMode m_eDecryptedAttachmentMode;
 
   public SOAPHeaderElementProcessorWSS4J (@Nonnull final IAS4CryptoFactory aCryptoFactory,
                                           @Nullable final IPMode aFallbackPMode)
+  {
+    this (aCryptoFactory, aFallbackPMode, EAS4DecryptedAttachmentMode.DEFAULT);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param aFallbackPMode
+   *        Optional fallback PMode. May be <code>null</code>.
+   * @param eDecryptedAttachmentMode
+   *        The way how decrypted attachments are made available. May not be
+   *        <code>null</code>.
+   * @since 1.4.4
+   */
+  public SOAPHeaderElementProcessorWSS4J (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                          @Nullable final IPMode aFallbackPMode,
+                                          @Nonnull final EAS4DecryptedAttachmentMode eDecryptedAttachmentMode)
   {
     ValueEnforcer.notNull (aCryptoFactory, "aCryptoFactory");
+    ValueEnforcer.notNull (eDecryptedAttachmentMode, "DecryptedAttachmentMode");
     m_aCryptoFactory = aCryptoFactory;
     m_aFallbackPMode = aFallbackPMode;
+    m_eDecryptedAttachmentMode = eDecryptedAttachmentMode;
+  }
+
+  /**
+   * @return The way how decrypted attachments are made available. Never
+   *         <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public final EAS4DecryptedAttachmentMode getDecryptedAttachmentMode ()
+  {
+    return m_eDecryptedAttachmentMode;
+  }
+
+  /**
+   * Input stream that converts the errors of a lazy decryption into an
+   * {@link AS4DecryptionException}, so that they are reported as failed
+   * decryption when the message processors read the attachment.
+   */
+  private static final class DecryptionErrorMappingInputStream extends FilterInputStream
+  {
+    DecryptionErrorMappingInputStream (@Nonnull final InputStream aIS)
+    {
+      super (aIS);
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      try
+      {
+        return super.read ();
+      }
+      catch (final IOException | IndexOutOfBoundsException | IllegalStateException ex)
+      {
+        throw new AS4DecryptionException (ex);
+      }
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      try
+      {
+        return super.read (aBuf, nOfs, nLen);
+      }
+      catch (final IOException | IndexOutOfBoundsException | IllegalStateException ex)
+      {
+        throw new AS4DecryptionException (ex);
+      }
+    }
+
+    @Override
+    public long skip (final long nBytes) throws IOException
+    {
+      try
+      {
+        return super.skip (nBytes);
+      }
+      catch (final IOException | IndexOutOfBoundsException | IllegalStateException ex)
+      {
+        throw new AS4DecryptionException (ex);
+      }
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      try
+      {
+        super.close ();
+      }
+      catch (final IOException | IndexOutOfBoundsException | IllegalStateException ex)
+      {
+        // E.g. the AES-GCM authentication tag is verified on close
+        throw new AS4DecryptionException (ex);
+      }
+    }
+  }
+
+  @Nonnull
+  private static IHasInputStream _getDecryptionErrorMapping (@Nonnull final IHasInputStream aISP)
+  {
+    return new HasInputStream ( () -> {
+      final InputStream aIS = aISP.getInputStream ();
+      return aIS == null ? null : new DecryptionErrorMappingInputStream (aIS);
+    }, aISP.isReadMultiple ());
   }
 
   @Nonnull
@@ -122,7 +235,7 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       aRequestData.setSigVerCrypto (m_aCryptoFactory.getCrypto ());
       aRequestData.setDecCrypto (m_aCryptoFactory.getCrypto ());
       aRequestData.setWssConfig (aWSSConfig);
-      aRequestData.setAllowRSA15KeyTransportAlgorithm(AS4CryptoProperties.createFromConfig().isAllowRSA15KeyTransportAlgorithm());
+      aRequestData.setAllowRSA15KeyTransportAlgorithm (AS4Configuration.getSnapshot ().isAllowRSA15KeyTransportAlgorithm ());
 
       // Upon success, the SOAP document contains the decrypted content
       // afterwards!
@@ -187,13 +300,35 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       final ICommonsList <WSS4JAttachment> aResponseAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
       for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
       {
-        // Always copy to a temporary file, so that decrypted content can be
-        // read more than once. By default the stream can only be read once
-        // Not nice, but working :)
-        final File aTempFile = aState.getResourceHelper ().createTempFile ();
-        StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aResponseAttachment.getSourceStream (),
-                                                              FileHelper.getBufferedOutputStream (aTempFile));
-        aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+        switch (m_eDecryptedAttachmentMode)
+        {
+          case STREAMING:
+            // Keep the decryption stream that can be read only once. The
+            // integrity is only verified after the last byte was read.
+            // Decryption errors are only raised when the message processors
+            // read the content
+            aResponseAttachment.setSourceStreamProvider (_getDecryptionErrorMapping (aResponseAttachment.getInputStreamProvider ()));
+            break;
+          case LAZY_COPY:
+            // Copy to a temporary file on first demand. Decryption errors are
+            // only raised when the message processors read the content
+            aResponseAttachment.setSourceStreamProvider (new AS4LazyCopyInputStreamProvider (_getDecryptionErrorMapping (aResponseAttachment.getInputStreamProvider ()),
+                                                                                             aState.getResourceHelper ()));
+            break;
+          case EAGER_COPY:
+          {
+            // Always copy to a temporary file, so that decrypted content can be
+            // read more than once. By default the stream can only be read once
+            // Not nice, but working :)
+            final File aTempFile = aState.getResourceHelper ().createTempFile ();
+            StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aResponseAttachment.getSourceStream (),
+                                                                  FileHelper.getBufferedOutputStream (aTempFile));
+            aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+            break;
+          }
+          default:
+            throw new IllegalStateException ("Unsupported decrypted attachment mode " + m_eDecryptedAttachmentMode);
+        }
       }
 
       // Remember in State
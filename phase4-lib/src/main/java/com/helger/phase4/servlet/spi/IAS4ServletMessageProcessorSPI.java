@@ -27,6 +27,7 @@ import com.helger.commons.annotation.IsSPIInterface;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.attachment.EAS4DecryptedAttachmentMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
@@ -150,4 +151,26 @@ public interface IAS4ServletMessageProcessorSPI extends Serializable
   {
     // Do nothing for backwards compatibility
   }
+
+  /**
+   * Determine how decrypted attachments should be made available to this
+   * processor. If only a single processor is present and it returns
+   * {@link EAS4DecryptedAttachmentMode#STREAMING} and streaming is enabled via
+   * {@link com.helger.phase4.config.AS4Configuration#isIncomingAttachmentsStreamingEnabled()},
+   * the decrypted content is streamed directly from decryption and
+   * decompression into the processor and can be read only once. Note: in this
+   * case the content is not yet integrity checked while it is read - see
+   * {@link EAS4DecryptedAttachmentMode#STREAMING}. If multiple processors are
+   * present, the most conservative mode is used.
+   *
+   * @return The decrypted attachment mode this processor requires. May not be
+   *         <code>null</code>. Defaults to
+   *         {@link EAS4DecryptedAttachmentMode#DEFAULT}.
+   * @since 1.4.4
+   */
+  @Nonnull
+  default EAS4DecryptedAttachmentMode getDecryptedAttachmentMode ()
+  {
+    return EAS4DecryptedAttachmentMode.DEFAULT;
+  }
 }
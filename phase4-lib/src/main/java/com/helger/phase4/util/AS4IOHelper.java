@@ -16,9 +16,22 @@
  */
 package com.helger.phase4.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.Immutable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.error.SingleError;
 import com.helger.commons.io.file.FileOperationManager;
 import com.helger.commons.io.file.LoggingFileOperationCallback;
@@ -31,6 +44,7 @@ import com.helger.commons.io.file.LoggingFileOperationCallback;
 @Immutable
 public final class AS4IOHelper
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IOHelper.class);
   private static final FileOperationManager FOM = new FileOperationManager ();
   static
   {
@@ -51,4 +65,99 @@ public final class AS4IOHelper
   {
     return SingleError.builderError ().errorText (sErrorText).build ();
   }
+
+  /**
+   * Read from the input stream until the provided buffer range is full or the
+   * end of the stream is reached.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @param aBuffer
+   *        The buffer to fill. May not be <code>null</code>.
+   * @param nOfs
+   *        Offset into the buffer. Must be &ge; 0.
+   * @param nLen
+   *        Maximum number of bytes to read. Must be &ge; 0.
+   * @return The number of bytes read. Less than <code>nLen</code> only if the
+   *         end of the stream was reached.
+   * @throws IOException
+   *         In case of read error
+   * @since 1.4.4
+   */
+  @Nonnegative
+  public static int readFully (@Nonnull @WillNotClose final InputStream aIS,
+                               @Nonnull final byte [] aBuffer,
+                               @Nonnegative final int nOfs,
+                               @Nonnegative final int nLen) throws IOException
+  {
+    ValueEnforcer.isArrayOfsLen (aBuffer, nOfs, nLen);
+
+    int nTotal = 0;
+    while (nTotal < nLen)
+    {
+      final int nRead = aIS.read (aBuffer, nOfs + nTotal, nLen - nTotal);
+      if (nRead < 0)
+        break;
+      nTotal += nRead;
+    }
+    return nTotal;
+  }
+
+  /**
+   * Explicitly release the memory of a direct or memory mapped buffer, instead
+   * of waiting for the garbage collector. This is important for memory mapped
+   * files, because they stay locked on Windows as long as they are mapped.
+   * <br>
+   * Note: the buffer and all buffers derived from it (duplicates, slices) MUST
+   * NOT be accessed afterwards - this would crash the JVM.
+   *
+   * @param aBuffer
+   *        The buffer to release. May be <code>null</code>. Only direct
+   *        buffers that were not created by duplicating or slicing can be
+   *        released.
+   * @return <code>true</code> if the buffer was released, <code>false</code>
+   *         if not. If it was not released, the memory is freed upon garbage
+   *         collection.
+   * @since 1.4.4
+   */
+  public static boolean unmap (@Nullable final ByteBuffer aBuffer)
+  {
+    if (aBuffer == null || !aBuffer.isDirect ())
+      return false;
+
+    try
+    {
+      // Java 9+
+      final Class <?> aUnsafeClass = Class.forName ("sun.misc.Unsafe");
+      final Method aInvokeCleaner = aUnsafeClass.getMethod ("invokeCleaner", ByteBuffer.class);
+      final Field aTheUnsafe = aUnsafeClass.getDeclaredField ("theUnsafe");
+      aTheUnsafe.setAccessible (true);
+      aInvokeCleaner.invoke (aTheUnsafe.get (null), aBuffer);
+      return true;
+    }
+    catch (final NoSuchMethodException ex)
+    {
+      // Java 8
+      try
+      {
+        final Method aCleanerMethod = aBuffer.getClass ().getMethod ("cleaner");
+        aCleanerMethod.setAccessible (true);
+        final Object aCleaner = aCleanerMethod.invoke (aBuffer);
+        if (aCleaner != null)
+        {
+          aCleaner.getClass ().getMethod ("clean").invoke (aCleaner);
+          return true;
+        }
+      }
+      catch (final ReflectiveOperationException | RuntimeException ex2)
+      {
+        LOGGER.warn ("Failed to unmap buffer: " + ex2.getMessage ());
+      }
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      LOGGER.warn ("Failed to unmap buffer: " + ex.getMessage ());
+    }
+    return false;
+  }
 }
@@ -140,10 +140,42 @@ public class AS4ResourceHelper implements Closeable
   {
     ValueEnforcer.notNull (aCloseable, "Closeable");
 
-    if (m_aInClose.get ())
+    if (!addCloseableIfNotClosing (aCloseable))
       throw new IllegalStateException ("AS4ResourceHelper is already closing/closed!");
+  }
 
-    m_aCloseables.add (aCloseable);
+  /**
+   * Add a new closable for later closing, if this resource helper is not yet
+   * closing.
+   *
+   * @param aCloseable
+   *        The closable to be closed later. May not be <code>null</code>.
+   * @return <code>true</code> if it was added, <code>false</code> if
+   *         {@link #close()} was already called before. In the latter case the
+   *         caller is responsible for closing it.
+   * @since 1.4.4
+   */
+  public boolean addCloseableIfNotClosing (@Nonnull final Closeable aCloseable)
+  {
+    ValueEnforcer.notNull (aCloseable, "Closeable");
+
+    // close() takes the write lock after setting the flag
+    return m_aRWLock.writeLockedBoolean ( () -> {
+      if (m_aInClose.get ())
+        return false;
+      m_aCloseables.add (aCloseable);
+      return true;
+    });
+  }
+
+  /**
+   * @return <code>true</code> if {@link #close()} was already called,
+   *         <code>false</code> otherwise.
+   * @since 1.4.4
+   */
+  public boolean isClosing ()
+  {
+    return m_aInClose.get ();
   }
 
   /**
@@ -16,9 +16,15 @@
  */
 package com.helger.phase4.util;
 
+import java.io.OutputStream;
+
 import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
 import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -26,7 +32,9 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.NonBlockingStringWriter;
 import com.helger.phase4.marshaller.Ebms3NamespaceHandler;
 import com.helger.xml.serialize.write.EXMLSerializeIndent;
@@ -49,6 +57,22 @@ public final class AS4XMLHelper
     XWS.setSerializeXMLDeclaration (EXMLSerializeXMLDeclaration.EMIT_NO_STANDALONE);
   }
 
+  /**
+   * Creating a {@link TransformerFactory} and a {@link Transformer} is
+   * expensive, but a {@link Transformer} is not thread-safe - so keep one
+   * instance per thread and reset it before each usage.
+   */
+  private static final ThreadLocal <Transformer> TL_TRANSFORMER = ThreadLocal.withInitial ( () -> {
+    try
+    {
+      return _createTransformer ();
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new IllegalStateException ("Failed to create XML Transformer", ex);
+    }
+  });
+
   private AS4XMLHelper ()
   {}
 
@@ -58,15 +82,30 @@ public final class AS4XMLHelper
     return XMLWriter.getNodeAsString (aNode, XWS);
   }
 
+  @Nonnull
+  private static Transformer _createTransformer () throws TransformerConfigurationException
+  {
+    final TransformerFactory tf = TransformerFactory.newInstance ();
+    tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_DTD, "");
+    tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+    return tf.newTransformer ();
+  }
+
+  @Nonnull
+  private static Transformer _getTransformer ()
+  {
+    final Transformer ret = TL_TRANSFORMER.get ();
+    // Remove output properties and parameters from a previous usage
+    ret.reset ();
+    return ret;
+  }
+
   @Nonnull
   private static String _serializeRT (@Nonnull final Node aNode)
   {
     try
     {
-      final TransformerFactory tf = TransformerFactory.newInstance ();
-      tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_DTD, "");
-      tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-      final Transformer aTransformer = tf.newTransformer ();
+      final Transformer aTransformer = _getTransformer ();
 
       try (final NonBlockingStringWriter aSW = new NonBlockingStringWriter ())
       {
@@ -80,6 +119,20 @@ public final class AS4XMLHelper
     }
   }
 
+  private static void _serializeRT (@Nonnull final Node aNode, @Nonnull final Result aResult)
+  {
+    try
+    {
+      final Transformer aTransformer = _getTransformer ();
+      aTransformer.setOutputProperty (OutputKeys.ENCODING, XWS.getCharset ().name ());
+      aTransformer.transform (new DOMSource (aNode), aResult);
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize XML", ex);
+    }
+  }
+
   @Nonnull
   public static String serializeXML (@Nonnull final Node aNode)
   {
@@ -89,4 +142,46 @@ public final class AS4XMLHelper
       return _serializeRT (aNode);
     return _serializePh (aNode);
   }
+
+  /**
+   * Serialize the provided node directly into bytes, using the charset of
+   * {@link #XWS}. This avoids the intermediate String of
+   * {@link #serializeXML(Node)}.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @return The serialized bytes. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static byte [] serializeXMLToBytes (@Nonnull final Node aNode)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (16 * CGlobal.BYTES_PER_KILOBYTE))
+    {
+      // Use runtime serialization otherwise XMLDsig signature wont work
+      _serializeRT (aNode, new StreamResult (aBAOS));
+      return aBAOS.getBufferOrCopy ();
+    }
+  }
+
+  /**
+   * Serialize the provided node directly into the provided output stream, using
+   * the charset of {@link #XWS}. The created bytes are identical to the ones of
+   * {@link #serializeXMLToBytes(Node)}.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. The
+   *        stream is not closed by this method.
+   * @since 1.4.4
+   */
+  public static void serializeXML (@Nonnull final Node aNode, @Nonnull @WillNotClose final OutputStream aOS)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    // Use runtime serialization otherwise XMLDsig signature wont work
+    _serializeRT (aNode, new StreamResult (aOS));
+  }
 }
@@ -19,8 +19,10 @@ package com.helger.phase4.wss;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
@@ -34,7 +36,14 @@ import com.helger.phase4.config.AS4Configuration;
  * {@link WSSConfig#cleanUp()} is called for every invocation.<br>
  * Note: this class may only be invoked if
  * {@link AS4Configuration#isWSS4JSynchronizedSecurity()} returns
- * <code>true</code>.
+ * <code>true</code>.<br>
+ * If {@link AS4Configuration#isWSS4JSynchronizedSecurityConcurrent()} returns
+ * <code>true</code>, the actions are not serialized but run in parallel. In
+ * that case {@link WSSConfig#init()} is only called by the first and
+ * {@link WSSConfig#cleanUp()} only by the last of all concurrently active
+ * invocations, so that no action runs with uninstalled security providers.
+ * Serialized invocations take part in the same reference counting, so that
+ * switching the mode at runtime is safe.
  *
  * @author Philip Helger
  * @since 0.11.0
@@ -44,9 +53,44 @@ public final class WSSSynchronizer
 {
   private static final Lock s_aLock = new ReentrantLock ();
 
+  // Shared by the serialized and the concurrent mode
+  private static final Lock s_aRefCountLock = new ReentrantLock ();
+  @GuardedBy ("s_aRefCountLock")
+  private static int s_nActiveCount = 0;
+
   private WSSSynchronizer ()
   {}
 
+  private static void _register ()
+  {
+    s_aRefCountLock.lock ();
+    try
+    {
+      if (s_nActiveCount == 0)
+        WSSConfig.init ();
+      s_nActiveCount++;
+    }
+    finally
+    {
+      s_aRefCountLock.unlock ();
+    }
+  }
+
+  private static void _unregister ()
+  {
+    s_aRefCountLock.lock ();
+    try
+    {
+      s_nActiveCount--;
+      if (s_nActiveCount == 0)
+        WSSConfig.cleanUp ();
+    }
+    finally
+    {
+      s_aRefCountLock.unlock ();
+    }
+  }
+
   /**
    * A wrapper around {@link #call(IThrowingSupplier)} swallowing the return
    * value
@@ -63,8 +107,49 @@ public final class WSSSynchronizer
     });
   }
 
+  /**
+   * Run the provided supplier with an initialized {@link WSSConfig}. Depending
+   * on {@link AS4Configuration#isWSS4JSynchronizedSecurityConcurrent()} this
+   * either calls {@link #callLocked(IThrowingSupplier)} or
+   * {@link #callConcurrent(IThrowingSupplier)}.
+   *
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   * @param <T>
+   *        Return type
+   * @param <EX>
+   *        Exception type
+   */
   @Nullable
   public static <T, EX extends Exception> T call (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+      return callConcurrent (aSupplier);
+    return callLocked (aSupplier);
+  }
+
+  /**
+   * Run the provided supplier in a global lock, so that only one invocation is
+   * active at a time. {@link WSSConfig#init()} and {@link WSSConfig#cleanUp()}
+   * are called for every invocation, unless invocations of
+   * {@link #callConcurrent(IThrowingSupplier)} are active at the same time.
+   *
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   * @param <T>
+   *        Return type
+   * @param <EX>
+   *        Exception type
+   * @since 1.4.4
+   */
+  @Nullable
+  public static <T, EX extends Exception> T callLocked (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
   {
     ValueEnforcer.notNull (aSupplier, "Supplier");
 
@@ -72,16 +157,14 @@ public final class WSSSynchronizer
     s_aLock.lock ();
     try
     {
-      // Register
-      WSSConfig.init ();
+      _register ();
       try
       {
         return aSupplier.get ();
       }
       finally
       {
-        // Unregister
-        WSSConfig.cleanUp ();
+        _unregister ();
       }
     }
     finally
@@ -90,4 +173,58 @@ public final class WSSSynchronizer
       s_aLock.unlock ();
     }
   }
+
+  /**
+   * Run the provided supplier without serializing it against other
+   * invocations. The first invocation entering calls {@link WSSConfig#init()}
+   * and the last invocation leaving calls {@link WSSConfig#cleanUp()}. Only
+   * these transitions are locked, the supplier itself runs outside of any
+   * lock.
+   *
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   * @param <T>
+   *        Return type
+   * @param <EX>
+   *        Exception type
+   * @since 1.4.4
+   */
+  @Nullable
+  public static <T, EX extends Exception> T callConcurrent (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (aSupplier, "Supplier");
+
+    _register ();
+    try
+    {
+      return aSupplier.get ();
+    }
+    finally
+    {
+      _unregister ();
+    }
+  }
+
+  /**
+   * @return The number of invocations currently running via
+   *         {@link #callLocked(IThrowingSupplier)} or
+   *         {@link #callConcurrent(IThrowingSupplier)}. Always &ge; 0.
+   * @since 1.4.4
+   */
+  @Nonnegative
+  public static int getConcurrentActiveCount ()
+  {
+    s_aRefCountLock.lock ();
+    try
+    {
+      return s_nActiveCount;
+    }
+    finally
+    {
+      s_aRefCountLock.unlock ();
+    }
+  }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.junit.Test;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4LazyCopyInputStreamProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4LazyCopyInputStreamProviderTest
+{
+  @Test
+  public void testCopyOnFirstDemand ()
+  {
+    final byte [] aPayload = "decrypted content".getBytes (StandardCharsets.ISO_8859_1);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4LazyCopyInputStreamProvider aISP = new AS4LazyCopyInputStreamProvider (HasInputStream.once ( () -> new NonBlockingByteArrayInputStream (aPayload)),
+                                                                                      aResHelper);
+      assertTrue (aISP.isReadMultiple ());
+      assertFalse (aISP.isCopied ());
+      assertTrue (aResHelper.getAllTempFiles ().isEmpty ());
+
+      // Read more than once
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP));
+      assertTrue (aISP.isCopied ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP));
+      assertEquals (1, aResHelper.getAllTempFiles ().size ());
+    }
+  }
+
+  @Test
+  public void testModeOrder ()
+  {
+    assertSame (EAS4DecryptedAttachmentMode.LAZY_COPY,
+                EAS4DecryptedAttachmentMode.STREAMING.getMoreConservative (EAS4DecryptedAttachmentMode.LAZY_COPY));
+    assertSame (EAS4DecryptedAttachmentMode.EAGER_COPY,
+                EAS4DecryptedAttachmentMode.EAGER_COPY.getMoreConservative (EAS4DecryptedAttachmentMode.STREAMING));
+    assertSame (EAS4DecryptedAttachmentMode.STREAMING,
+                EAS4DecryptedAttachmentMode.STREAMING.getMoreConservative (EAS4DecryptedAttachmentMode.STREAMING));
+  }
+
+  @Test
+  public void testIntegrityFailureAbortsBeforeConsumer () throws Exception
+  {
+    final byte [] aPayload = "decrypted content that was tampered with".getBytes (StandardCharsets.ISO_8859_1);
+
+    // Encrypt with AES-GCM like WSS4J does for attachments
+    final KeyGenerator aKeyGen = KeyGenerator.getInstance ("AES");
+    aKeyGen.init (128);
+    final SecretKey aKey = aKeyGen.generateKey ();
+    final byte [] aIV = new byte [12];
+    new SecureRandom ().nextBytes (aIV);
+    final Cipher aEncCipher = Cipher.getInstance ("AES/GCM/NoPadding");
+    aEncCipher.init (Cipher.ENCRYPT_MODE, aKey, new GCMParameterSpec (128, aIV));
+    final byte [] aEncrypted = aEncCipher.doFinal (aPayload);
+
+    // Tamper with the ciphertext
+    aEncrypted[0] ^= 0x01;
+
+    final Cipher aDecCipher = Cipher.getInstance ("AES/GCM/NoPadding");
+    aDecCipher.init (Cipher.DECRYPT_MODE, aKey, new GCMParameterSpec (128, aIV));
+    final IHasInputStream aDecrypting = HasInputStream.once ( () -> new CipherInputStream (new NonBlockingByteArrayInputStream (aEncrypted),
+                                                                                                aDecCipher));
+
+    // The effective mode by default
+    final EAS4DecryptedAttachmentMode eMode = EAS4DecryptedAttachmentMode.STREAMING.getEffective (false);
+    assertSame (EAS4DecryptedAttachmentMode.LAZY_COPY, eMode);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4LazyCopyInputStreamProvider aISP = new AS4LazyCopyInputStreamProvider (aDecrypting, aResHelper);
+
+      // The "SPI" counting the bytes it sees
+      final AtomicInteger aSeenBytes = new AtomicInteger (0);
+      try
+      {
+        final byte [] aContent = StreamHelper.getAllBytes (aISP);
+        aSeenBytes.addAndGet (aContent == null ? 0 : aContent.length);
+        fail ("The tampered content must not be readable");
+      }
+      catch (final UncheckedIOException ex)
+      {
+        // expected
+      }
+      assertEquals (0, aSeenBytes.get ());
+      assertFalse (aISP.isCopied ());
+    }
+  }
+
+  @Test
+  public void testEffectiveMode ()
+  {
+    assertSame (EAS4DecryptedAttachmentMode.LAZY_COPY, EAS4DecryptedAttachmentMode.STREAMING.getEffective (false));
+    assertSame (EAS4DecryptedAttachmentMode.STREAMING, EAS4DecryptedAttachmentMode.STREAMING.getEffective (true));
+    assertSame (EAS4DecryptedAttachmentMode.LAZY_COPY, EAS4DecryptedAttachmentMode.LAZY_COPY.getEffective (false));
+    assertSame (EAS4DecryptedAttachmentMode.EAGER_COPY, EAS4DecryptedAttachmentMode.EAGER_COPY.getEffective (true));
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4TieredIncomingAttachmentFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TieredIncomingAttachmentFactoryTest
+{
+  @Nonnull
+  private static InternetHeaders _createHeaders ()
+  {
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, "application/octet-stream");
+    aHeaders.addHeader (CHttpHeader.CONTENT_ID, "<att@phase4>");
+    return aHeaders;
+  }
+
+  private static long _getUsedBytes (@Nonnull final AS4TieredIncomingAttachmentFactory aFactory)
+  {
+    // Pooled direct buffers stay reserved
+    final AS4DirectByteBufferPool aPool = aFactory.getDirectPool ();
+    return AS4IncomingAttachmentMemoryBudget.getReservedBytes () - (aPool == null ? 0 : aPool.getPooledBytes ());
+  }
+
+  private static void _testTier (@Nonnull final AS4TieredIncomingAttachmentFactory aFactory,
+                                 final int nSize,
+                                 final boolean bExpectTempFile) throws Exception
+  {
+    final byte [] aPayload = new byte [nSize];
+    ThreadLocalRandom.current ().nextBytes (aPayload);
+
+    final long nUsedBefore = _getUsedBytes (aFactory);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory.createAttachment (_createHeaders (),
+                                                                     new NonBlockingByteArrayInputStream (aPayload),
+                                                                     aResHelper);
+      assertEquals ("att@phase4", aAttachment.getId ());
+      assertEquals (bExpectTempFile, aResHelper.getAllTempFiles ().isNotEmpty ());
+
+      // Can be read more than once
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+    // All memory is released
+    assertEquals (nUsedBefore, _getUsedBytes (aFactory));
+  }
+
+  @Test
+  public void testTiers () throws Exception
+  {
+    final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024, 16 * 1024, 2);
+
+    // Heap
+    _testTier (aFactory, 0, false);
+    _testTier (aFactory, 1024, false);
+    // Direct buffer
+    _testTier (aFactory, 1025, false);
+    _testTier (aFactory, 16 * 1024, false);
+    // Memory mapped file
+    _testTier (aFactory, 16 * 1024 + 1, true);
+    _testTier (aFactory, 100 * 1024, true);
+  }
+
+  @Test
+  public void testDirectChunks () throws Exception
+  {
+    final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024,
+                                                                                                16 * 1024,
+                                                                                                4 * 1024,
+                                                                                                2);
+    final AS4DirectByteBufferPool aPool = aFactory.getDirectPool ();
+    assertNotNull (aPool);
+    assertEquals (4 * 1024, aPool.getBufferCapacity ());
+
+    // Only the required chunks are acquired
+    _testTier (aFactory, 1025, false);
+    assertEquals (1, aPool.getPooledBufferCount ());
+    _testTier (aFactory, 10 * 1024, false);
+    assertEquals (2, aPool.getPooledBufferCount ());
+    _testTier (aFactory, 16 * 1024, false);
+    _testTier (aFactory, 16 * 1024 + 1, true);
+    assertEquals (2, aPool.getPooledBufferCount ());
+
+    // Releases the reserved bytes of the pooled buffers
+    final long nReserved = AS4IncomingAttachmentMemoryBudget.getReservedBytes ();
+    aPool.clear ();
+    assertEquals (0, aPool.getPooledBufferCount ());
+    assertEquals (nReserved - 2 * 4 * 1024, AS4IncomingAttachmentMemoryBudget.getReservedBytes ());
+  }
+
+  @Test
+  public void testBudgetExhaustedInDirectTier () throws Exception
+  {
+    final long nOldMax = AS4IncomingAttachmentMemoryBudget.getMaxBytes ();
+    AS4IncomingAttachmentMemoryBudget.setMaxBytes (AS4IncomingAttachmentMemoryBudget.getReservedBytes () + 8 * 1024);
+    try
+    {
+      final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024,
+                                                                                                  16 * 1024,
+                                                                                                  4 * 1024,
+                                                                                                  0);
+      // Fits into 2 chunks
+      _testTier (aFactory, 8 * 1024, false);
+      // Third chunk cannot be reserved - the first 2 are spilled to disk
+      _testTier (aFactory, 12 * 1024, true);
+    }
+    finally
+    {
+      AS4IncomingAttachmentMemoryBudget.setMaxBytes (nOldMax);
+    }
+  }
+
+  private static void _testReadAfterClose (@Nonnull final AS4TieredIncomingAttachmentFactory aFactory,
+                                          final int nSize) throws Exception
+  {
+    final byte [] aPayload = new byte [nSize];
+    ThreadLocalRandom.current ().nextBytes (aPayload);
+
+    final long nUsedBefore = _getUsedBytes (aFactory);
+    final WSS4JAttachment aAttachment;
+    final InputStream aOpenedBeforeClose;
+    final ICommonsList <File> aTempFiles;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aAttachment = aFactory.createAttachment (_createHeaders (),
+                                               new NonBlockingByteArrayInputStream (aPayload),
+                                               aResHelper);
+      aTempFiles = aResHelper.getAllTempFiles ();
+      // E.g. an asynchronous SPI that is still reading
+      aOpenedBeforeClose = aAttachment.getInputStreamProvider ().getInputStream ();
+    }
+
+    // The owning resource helper is closed - the content must still be valid
+    final InputStream aOpenedAfterClose = aAttachment.getSourceStream ();
+    assertArrayEquals (aPayload, StreamHelper.getAllBytes (aOpenedBeforeClose));
+    assertArrayEquals (aPayload, StreamHelper.getAllBytes (aOpenedAfterClose));
+
+    // Released after the last reader was closed
+    assertEquals (nUsedBefore, _getUsedBytes (aFactory));
+    for (final File aFile : aTempFiles)
+      assertFalse (aFile.exists ());
+
+    // Cannot be opened anymore
+    try
+    {
+      aAttachment.getSourceStream ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadAfterClose () throws Exception
+  {
+    final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024,
+                                                                                                16 * 1024,
+                                                                                                4 * 1024,
+                                                                                                2);
+    // Direct buffer
+    _testReadAfterClose (aFactory, 10 * 1024);
+    // Memory mapped file
+    _testReadAfterClose (aFactory, 100 * 1024);
+
+    // A reused chunk must not be visible to the previous reader
+    final byte [] aPayload = new byte [10 * 1024];
+    ThreadLocalRandom.current ().nextBytes (aPayload);
+    final InputStream aIS;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory.createAttachment (_createHeaders (),
+                                                                     new NonBlockingByteArrayInputStream (aPayload),
+                                                                     aResHelper);
+      aIS = aAttachment.getInputStreamProvider ().getInputStream ();
+    }
+    // Another message - must not get the chunks that are still in use
+    _testTier (aFactory, 10 * 1024, false);
+    assertArrayEquals (aPayload, StreamHelper.getAllBytes (aIS));
+  }
+
+  @Test
+  public void testWithoutDirectBuffers () throws Exception
+  {
+    final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024, 0, 0);
+    assertEquals (0, aFactory.getDirectThreshold ());
+    _testTier (aFactory, 1024, false);
+    _testTier (aFactory, 1025, true);
+  }
+
+  @Test
+  public void testBudgetExhausted () throws Exception
+  {
+    final long nOldMax = AS4IncomingAttachmentMemoryBudget.getMaxBytes ();
+    AS4IncomingAttachmentMemoryBudget.setMaxBytes (1);
+    try
+    {
+      final AS4TieredIncomingAttachmentFactory aFactory = new AS4TieredIncomingAttachmentFactory (1024, 16 * 1024, 2);
+      // Everything spills to disk
+      _testTier (aFactory, 10, true);
+      _testTier (aFactory, 2048, true);
+      assertTrue (AS4IncomingAttachmentMemoryBudget.getReservedBytes () <= 1);
+    }
+    finally
+    {
+      AS4IncomingAttachmentMemoryBudget.setMaxBytes (nOldMax);
+    }
+  }
+}
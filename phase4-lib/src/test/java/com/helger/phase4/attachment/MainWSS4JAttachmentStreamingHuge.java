@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.InternetHeaders;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Receives a 1 GB attachment via
+ * {@link WSS4JAttachment#createIncomingFileAttachment(InternetHeaders, InputStream, AS4ResourceHelper)}
+ * and checks that the body is never held in memory. This is not a unit test,
+ * because it writes 1 GB to disk. Run it with <code>-Xmx256m</code>.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSS4JAttachmentStreamingHuge
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSS4JAttachmentStreamingHuge.class);
+  private static final long SIZE = CGlobal.BYTES_PER_GIGABYTE;
+  private static final long MAX_HEAP = 256 * CGlobal.BYTES_PER_MEGABYTE;
+
+  /**
+   * An input stream that generates the provided number of bytes without
+   * allocating them.
+   */
+  private static final class GeneratingInputStream extends InputStream
+  {
+    private final long m_nSize;
+    private long m_nPos = 0;
+
+    GeneratingInputStream (final long nSize)
+    {
+      m_nSize = nSize;
+    }
+
+    @Override
+    public int read ()
+    {
+      if (m_nPos >= m_nSize)
+        return -1;
+      return (int) (m_nPos++ & 0x7f);
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      if (m_nPos >= m_nSize)
+        return -1;
+      final int nRealLen = (int) Math.min (nLen, m_nSize - m_nPos);
+      for (int i = 0; i < nRealLen; ++i)
+        aBuf[nOfs + i] = (byte) (m_nPos++ & 0x7f);
+      return nRealLen;
+    }
+  }
+
+  private static long _getPeakHeapUsed ()
+  {
+    long ret = 0;
+    for (final MemoryPoolMXBean aPool : ManagementFactory.getMemoryPoolMXBeans ())
+      if (aPool.getType () == MemoryType.HEAP)
+        ret += aPool.getPeakUsage ().getUsed ();
+    return ret;
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final long nMaxMemory = Runtime.getRuntime ().maxMemory ();
+    if (nMaxMemory > MAX_HEAP)
+      throw new IllegalStateException ("Run this with -Xmx256m - the maximum heap is " +
+                                       (nMaxMemory / CGlobal.BYTES_PER_MEGABYTE) +
+                                       " MB");
+
+    for (final MemoryPoolMXBean aPool : ManagementFactory.getMemoryPoolMXBeans ())
+      aPool.resetPeakUsage ();
+
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, "application/octet-stream");
+    aHeaders.addHeader (CHttpHeader.CONTENT_ID, "<huge>");
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = WSS4JAttachment.createIncomingFileAttachment (aHeaders,
+                                                                                        new GeneratingInputStream (SIZE),
+                                                                                        aResHelper);
+      if (!"huge".equals (aAttachment.getId ()))
+        throw new IllegalStateException ("Unexpected attachment ID '" + aAttachment.getId () + "'");
+      if (aResHelper.getAllTempFiles ().size () != 1)
+        throw new IllegalStateException ("Expected exactly one temporary file");
+      final File aTempFile = aResHelper.getAllTempFiles ().getFirst ();
+      if (aTempFile.length () != SIZE)
+        throw new IllegalStateException ("Expected " + SIZE + " bytes but got " + aTempFile.length ());
+    }
+
+    // Receiving 1 GB within a heap of at most 256 MB proves that the body is
+    // not held in memory
+    final long nPeakHeapUsed = _getPeakHeapUsed ();
+    LOGGER.info ("Received " +
+                 (SIZE / CGlobal.BYTES_PER_MEGABYTE) +
+                 " MB with a peak heap usage of " +
+                 (nPeakHeapUsed / CGlobal.BYTES_PER_MEGABYTE) +
+                 " MB and a maximum heap of " +
+                 (nMaxMemory / CGlobal.BYTES_PER_MEGABYTE) +
+                 " MB");
+  }
+}
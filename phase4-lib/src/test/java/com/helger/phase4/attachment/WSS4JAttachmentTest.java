@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.Test;
+
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link WSS4JAttachment}.
+ *
+ * @author Philip Helger
+ */
+public final class WSS4JAttachmentTest
+{
+  @Nonnull
+  private static InternetHeaders _createHeaders (@Nonnull final String sContentID)
+  {
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, "application/octet-stream");
+    aHeaders.addHeader (CHttpHeader.CONTENT_ID, "<" + sContentID + ">");
+    return aHeaders;
+  }
+
+  @Test
+  public void testStreamingSmall () throws Exception
+  {
+    final byte [] aPayload = "Hello streaming world".getBytes (StandardCharsets.ISO_8859_1);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = WSS4JAttachment.createIncomingFileAttachment (_createHeaders ("small"),
+                                                                                        new NonBlockingByteArrayInputStream (aPayload),
+                                                                                        aResHelper);
+      assertEquals ("small", aAttachment.getId ());
+      assertEquals ("application/octet-stream", aAttachment.getMimeType ());
+      assertTrue (aResHelper.getAllTempFiles ().isEmpty ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testStreamingBase64 () throws Exception
+  {
+    final byte [] aPayload = "Hello encoded world".getBytes (StandardCharsets.ISO_8859_1);
+    final InternetHeaders aHeaders = _createHeaders ("encoded");
+    aHeaders.addHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, "base64");
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = WSS4JAttachment.createIncomingFileAttachment (aHeaders,
+                                                                                        new NonBlockingByteArrayInputStream (Base64.getMimeEncoder ()
+                                                                                                                                   .encode (aPayload)),
+                                                                                        aResHelper);
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.config.Config;
+import com.helger.config.IConfig;
+import com.helger.config.source.EConfigSourceType;
+import com.helger.config.source.MultiConfigurationValueProvider;
+import com.helger.config.source.appl.ConfigurationSourceFunction;
+import com.helger.phase4.crypto.AS4CryptoProperties;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+
+/**
+ * Test class of class {@link AS4ConfigurationSnapshot}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ConfigurationSnapshotTest
+{
+  @Test
+  public void testConstants ()
+  {
+    assertEquals (AS4CryptoProperties.ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM,
+                  AS4ConfigurationSnapshot.PROPERTY_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM);
+    assertEquals (IAS4CryptoFactory.DEFAULT_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM,
+                  AS4ConfigurationSnapshot.DEFAULT_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM);
+  }
+
+  @Test
+  public void testSetConfig ()
+  {
+    final AS4ConfigurationSnapshot aOldSnapshot = AS4Configuration.getSnapshot ();
+    // From phase4.properties
+    assertTrue (aOldSnapshot.isWSS4JSynchronizedSecurity ());
+    assertSame (aOldSnapshot, AS4Configuration.getSnapshot ());
+
+    final StringMap aMap = new StringMap ();
+    aMap.putIn (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY, "false");
+    aMap.putIn (AS4ConfigurationSnapshot.PROPERTY_ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM, "true");
+    final MultiConfigurationValueProvider aVP = AS4Configuration.createPhase4ValueProvider ();
+    aVP.addConfigurationSource (new ConfigurationSourceFunction (aMap::getAsString),
+                                EConfigSourceType.RESOURCE.getDefaultPriority () + 20);
+
+    final IConfig aOldConfig = AS4Configuration.setConfig (new Config (aVP));
+    try
+    {
+      final AS4ConfigurationSnapshot aNewSnapshot = AS4Configuration.getSnapshot ();
+      assertNotSame (aOldSnapshot, aNewSnapshot);
+      assertTrue (aNewSnapshot.getVersion () > aOldSnapshot.getVersion ());
+      assertFalse (aNewSnapshot.isWSS4JSynchronizedSecurity ());
+      assertFalse (AS4Configuration.isWSS4JSynchronizedSecurity ());
+      assertTrue (aNewSnapshot.isAllowRSA15KeyTransportAlgorithm ());
+
+      // Explicit refresh
+      final AS4ConfigurationSnapshot aRefreshed = AS4Configuration.refreshSnapshot ();
+      assertSame (aRefreshed, AS4Configuration.getSnapshot ());
+      assertTrue (aRefreshed.getVersion () > aNewSnapshot.getVersion ());
+      assertFalse (aRefreshed.isWSS4JSynchronizedSecurity ());
+    }
+    finally
+    {
+      AS4Configuration.setConfig (aOldConfig);
+    }
+    assertTrue (AS4Configuration.isWSS4JSynchronizedSecurity ());
+  }
+}
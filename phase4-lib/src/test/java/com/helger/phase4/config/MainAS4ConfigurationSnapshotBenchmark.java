@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.string.StringParser;
+import com.helger.phase4.crypto.AS4CryptoProperties;
+
+/**
+ * Compare the time and allocations per incoming message of evaluating the
+ * per-message configuration values from the {@link com.helger.config.IConfig}
+ * with reading them from the {@link AS4ConfigurationSnapshot}.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4ConfigurationSnapshotBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4ConfigurationSnapshotBenchmark.class);
+  private static final int WARMUP = 50_000;
+  private static final int COUNT = 500_000;
+
+  // The way it was done before: one crypto properties object for RSA 1.5 and
+  // the sync flag for verify/decrypt and sign
+  private static boolean _fromConfig ()
+  {
+    boolean ret = AS4CryptoProperties.createFromConfig ().isAllowRSA15KeyTransportAlgorithm ();
+    for (int i = 0; i < 2; ++i)
+    {
+      final String sValue = AS4Configuration.getConfig ().getAsString (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY);
+      ret ^= StringParser.parseBool (sValue, AS4Configuration.DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
+    }
+    return ret;
+  }
+
+  private static boolean _fromSnapshot ()
+  {
+    boolean ret = AS4Configuration.getSnapshot ().isAllowRSA15KeyTransportAlgorithm ();
+    for (int i = 0; i < 2; ++i)
+      ret ^= AS4Configuration.isWSS4JSynchronizedSecurity ();
+    return ret;
+  }
+
+  private static void _measure (final String sName, final BooleanSupplier aRun)
+  {
+    final com.sun.management.ThreadMXBean aThreadMX = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+    final long nThreadID = Thread.currentThread ().getId ();
+
+    // Avoid dead code elimination
+    int nTrue = 0;
+    for (int i = 0; i < WARMUP; ++i)
+      if (aRun.getAsBoolean ())
+        nTrue++;
+
+    final long nBytesBefore = aThreadMX.getThreadAllocatedBytes (nThreadID);
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < COUNT; ++i)
+      if (aRun.getAsBoolean ())
+        nTrue++;
+    final long nNanos = System.nanoTime () - nStart;
+    final long nBytes = aThreadMX.getThreadAllocatedBytes (nThreadID) - nBytesBefore;
+    LOGGER.info (sName +
+                 ": " +
+                 (nBytes / COUNT) +
+                 " bytes and " +
+                 (nNanos / COUNT) +
+                 " ns per message (" +
+                 nTrue +
+                 ")");
+  }
+
+  public static void main (final String [] args)
+  {
+    final ThreadMXBean aThreadMX = ManagementFactory.getThreadMXBean ();
+    if (!(aThreadMX instanceof com.sun.management.ThreadMXBean))
+    {
+      LOGGER.error ("This JVM does not support measuring thread allocations");
+      return;
+    }
+
+    _measure ("Evaluated from IConfig", MainAS4ConfigurationSnapshotBenchmark::_fromConfig);
+    _measure ("Read from snapshot", MainAS4ConfigurationSnapshotBenchmark::_fromSnapshot);
+  }
+}
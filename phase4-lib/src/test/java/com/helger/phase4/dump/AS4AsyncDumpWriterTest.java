@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+
+/**
+ * Test class for class {@link AS4AsyncDumpWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncDumpWriterTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-async-dump").toFile ();
+    try
+    {
+      final int nCount = 100;
+      final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (8, 256, 2, 4, 64, EAS4DumpOverflowPolicy.BLOCK, false);
+      try
+      {
+        for (int i = 0; i < nCount; ++i)
+          try (final OutputStream aOS = aWriter.openStream (new File (aDir, "sub/" + i + ".as4in")))
+          {
+            aOS.write (("Dump " + i).getBytes (StandardCharsets.ISO_8859_1));
+          }
+
+        // Larger than the buffer - written directly
+        try (final OutputStream aOS = aWriter.openStream (new File (aDir, "large.as4in")))
+        {
+          for (int i = 0; i < 100; ++i)
+            aOS.write ('x');
+        }
+      }
+      finally
+      {
+        aWriter.close ();
+      }
+
+      assertEquals (0, aWriter.getQueueDepth ());
+      assertEquals (0, aWriter.getQueuedBytes ());
+      assertEquals (0, aWriter.getDroppedCount ());
+      assertEquals (0, aWriter.getErrorCount ());
+      assertEquals (nCount, aWriter.getWrittenCount ());
+      assertEquals (1, aWriter.getDirectCount ());
+
+      for (int i = 0; i < nCount; ++i)
+        assertEquals ("Dump " + i,
+                      SimpleFileIO.getFileAsString (new File (aDir, "sub/" + i + ".as4in"), StandardCharsets.ISO_8859_1));
+      assertEquals (100, new File (aDir, "large.as4in").length ());
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testDrop () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-async-dump").toFile ();
+    try
+    {
+      final int nCount = 1000;
+      final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (1, 1024, 1, 1, 1024, EAS4DumpOverflowPolicy.DROP, true);
+      try
+      {
+        for (int i = 0; i < nCount; ++i)
+          try (final OutputStream aOS = aWriter.openStream (new File (aDir, i + ".as4in")))
+          {
+            aOS.write (i);
+          }
+      }
+      finally
+      {
+        aWriter.close ();
+      }
+
+      // Every dump is either written or dropped
+      assertEquals (nCount, aWriter.getWrittenCount () + aWriter.getDroppedCount ());
+      assertTrue (aWriter.getWrittenCount () > 0);
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testBoundedByBytes () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-async-dump").toFile ();
+    try
+    {
+      final int nCount = 100;
+      // Many slots, but only space for 2 dumps of 100 bytes
+      final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (1000, 200, 1, 1, 100, EAS4DumpOverflowPolicy.SPILL, false);
+      try
+      {
+        final byte [] aData = new byte [100];
+        for (int i = 0; i < nCount; ++i)
+        {
+          try (final OutputStream aOS = aWriter.openStream (new File (aDir, i + ".as4in")))
+          {
+            aOS.write (aData);
+          }
+          assertTrue (aWriter.getQueuedBytes () <= aWriter.getMaxQueuedBytes ());
+        }
+      }
+      finally
+      {
+        aWriter.close ();
+      }
+
+      assertEquals (0, aWriter.getQueuedBytes ());
+      assertEquals (nCount, aWriter.getWrittenCount ());
+      assertEquals (0, aWriter.getDroppedCount ());
+      for (int i = 0; i < nCount; ++i)
+        assertEquals (100, new File (aDir, i + ".as4in").length ());
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testWriteAfterClose () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-async-dump").toFile ();
+    try
+    {
+      final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter ();
+      final OutputStream aOS = aWriter.openStream (new File (aDir, "late.as4in"));
+      aOS.write ("late".getBytes (StandardCharsets.ISO_8859_1));
+      aWriter.close ();
+
+      // Closed after the writer was closed - written synchronously
+      aOS.close ();
+      assertEquals (1, aWriter.getWrittenCount ());
+      assertEquals ("late", SimpleFileIO.getFileAsString (new File (aDir, "late.as4in"), StandardCharsets.ISO_8859_1));
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link AS4DumpArchive}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpArchiveTest
+{
+  private static byte [] _createDump (final int nIndex)
+  {
+    return ("Content-Type: application/soap+xml\r\n\r\n<S12:Envelope><S12:Header><eb:Messaging><eb:UserMessage><eb:MessageInfo>" +
+            "<eb:Timestamp>2023-01-01T00:00:00Z</eb:Timestamp><eb:MessageId>msg-" +
+            nIndex +
+            "@phase4</eb:MessageId></eb:MessageInfo></eb:UserMessage></eb:Messaging></S12:Header><S12:Body>" +
+            StringHelper.getRepeated ('x', nIndex * 10) +
+            "</S12:Body></S12:Envelope>").getBytes (StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testFindMessageID ()
+  {
+    final byte [] aDump = _createDump (5);
+    assertEquals ("msg-5@phase4", AS4DumpArchiveOutputStream.findMessageID (aDump, aDump.length));
+    assertNull (AS4DumpArchiveOutputStream.findMessageID (new byte [10], 10));
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-dump-archive").toFile ();
+    try
+    {
+      final int nCount = 50;
+      try (final AS4DumpArchive aArchive = new AS4DumpArchive (aDir, 1024, Duration.ofHours (1)))
+      {
+        for (int i = 0; i < nCount; ++i)
+        {
+          // Use the stream as the dumpers do
+          try (final AS4DumpArchiveOutputStream aOS = new AS4DumpArchiveOutputStream (aArchive, null, "unique-" + i))
+          {
+            aOS.write (_createDump (i));
+          }
+        }
+
+        // Small segments - must have rolled
+        final ICommonsList <String> aSegments = aArchive.getAllSegmentNames ();
+        assertTrue (aSegments.size () > 1);
+
+        int nTotal = 0;
+        for (final String sSegment : aSegments)
+          nTotal += aArchive.getAllEntries (sSegment).size ();
+        assertEquals (nCount, nTotal);
+
+        for (int i = 0; i < nCount; ++i)
+        {
+          final AS4DumpArchiveEntry aEntry = aArchive.findByIncomingUniqueID ("unique-" + i);
+          assertNotNull (aEntry);
+          assertEquals ("msg-" + i + "@phase4", aEntry.getMessageID ());
+          assertArrayEquals (_createDump (i), aArchive.read (aEntry));
+          assertEquals (1, aArchive.findAllByMessageID ("msg-" + i + "@phase4").size ());
+        }
+        assertNull (aArchive.findByIncomingUniqueID ("unique-" + nCount));
+
+        // The current segment is never deleted
+        final int nDeleted = aArchive.deleteSegmentsOlderThan (Instant.now ().plusSeconds (60));
+        assertEquals (aSegments.size () - 1, nDeleted);
+        assertEquals (1, aArchive.getAllSegmentNames ().size ());
+
+        // Deleted dumps are removed from the index as well
+        final String sLastSegment = aArchive.getAllSegmentNames ().getFirst ();
+        for (int i = 0; i < nCount; ++i)
+        {
+          final AS4DumpArchiveEntry aEntry = aArchive.findByIncomingUniqueID ("unique-" + i);
+          if (aEntry != null)
+            assertEquals (sLastSegment, aEntry.getSegmentName ());
+        }
+        assertNotNull (aArchive.findByIncomingUniqueID ("unique-" + (nCount - 1)));
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testReopenAndLargeDump () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-dump-archive").toFile ();
+    try
+    {
+      // Incompressible and larger than the in-memory limit of the stream
+      final byte [] aLarge = new byte [3 * CGlobal.BYTES_PER_MEGABYTE];
+      new Random (42).nextBytes (aLarge);
+
+      try (final AS4DumpArchive aArchive = new AS4DumpArchive (aDir))
+      {
+        for (int i = 0; i < 5; ++i)
+          aArchive.append (_createDump (i), "msg-" + i + "@phase4", "unique-" + i);
+        try (final AS4DumpArchiveOutputStream aOS = new AS4DumpArchiveOutputStream (aArchive, "large@phase4", "unique-large"))
+        {
+          // Write in chunks, as the dumpers do
+          for (int i = 0; i < aLarge.length; i += 10_000)
+            aOS.write (aLarge, i, Math.min (10_000, aLarge.length - i));
+        }
+      }
+
+      // A new instance indexes the existing segments
+      try (final AS4DumpArchive aArchive = new AS4DumpArchive (aDir))
+      {
+        final AS4DumpArchiveEntry aEntry = aArchive.findByIncomingUniqueID ("unique-large");
+        assertNotNull (aEntry);
+        assertEquals (aLarge.length, aEntry.getLength ());
+        assertArrayEquals (aLarge, aArchive.read (aEntry));
+        assertEquals (1, aArchive.findAllByMessageID ("large@phase4").size ());
+
+        // Appended afterwards, indexed while writing
+        aArchive.append (_createDump (3), "msg-3@phase4", "unique-again");
+        final ICommonsList <AS4DumpArchiveEntry> aEntries = aArchive.findAllByMessageID ("msg-3@phase4");
+        assertEquals (2, aEntries.size ());
+        // Oldest first
+        assertEquals ("unique-3", aEntries.get (0).getIncomingUniqueID ());
+        assertEquals ("unique-again", aEntries.get (1).getIncomingUniqueID ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testFailedAppend () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-dump-archive").toFile ();
+    try
+    {
+      // No cached indices - every lookup reads the index files
+      try (final AS4DumpArchive aArchive = new AS4DumpArchive (aDir,
+                                                               AS4DumpArchive.DEFAULT_MAX_SEGMENT_BYTES,
+                                                               AS4DumpArchive.DEFAULT_MAX_SEGMENT_DURATION,
+                                                               0))
+      {
+        aArchive.append (_createDump (1), "msg-1@phase4", "unique-1");
+
+        // Fails after some bytes were copied
+        final InputStream aFailingIS = new NonBlockingByteArrayInputStream (new byte [100])
+        {
+          @Override
+          public int read (final byte [] aBuf, final int nOfs, final int nLen)
+          {
+            if (available () == 0)
+              throw new IllegalStateException ("Simulated failure");
+            return super.read (aBuf, nOfs, nLen);
+          }
+        };
+        try
+        {
+          aArchive.appendCompressed (aFailingIS, 200, 1000, "msg-failed@phase4", "unique-failed");
+          fail ();
+        }
+        catch (final IOException | IllegalStateException ex)
+        {
+          // expected
+        }
+
+        // A new segment is started and all offsets are still correct
+        aArchive.append (_createDump (2), "msg-2@phase4", "unique-2");
+        assertEquals (2, aArchive.getAllSegmentNames ().size ());
+        assertNull (aArchive.findByIncomingUniqueID ("unique-failed"));
+        assertEquals (0, aArchive.findAllByMessageID ("msg-failed@phase4").size ());
+        for (int i = 1; i <= 2; ++i)
+        {
+          final AS4DumpArchiveEntry aEntry = aArchive.findByIncomingUniqueID ("unique-" + i);
+          assertNotNull (aEntry);
+          assertArrayEquals (_createDump (i), aArchive.read (aEntry));
+        }
+
+        // The partial data was removed from the first segment
+        final String sFirstSegment = aArchive.getAllSegmentNames ().getFirst ();
+        final ICommonsList <AS4DumpArchiveEntry> aFirstEntries = aArchive.getAllEntries (sFirstSegment);
+        assertEquals (1, aFirstEntries.size ());
+        final AS4DumpArchiveEntry aFirst = aFirstEntries.getFirst ();
+        assertEquals (aFirst.getCompressedLength (),
+                      new File (aDir, sFirstSegment + AS4DumpArchive.SEGMENT_EXTENSION).length ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerBloomFiltered}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerBloomFilteredTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4DuplicateManagerInMemory aDelegate = new AS4DuplicateManagerInMemory ();
+    assertEquals (EContinue.CONTINUE, aDelegate.registerAndCheck ("existing", null, null));
+
+    final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (aDelegate, 10_000, 0.01, 0, 16, 0, System::currentTimeMillis);
+    // Existing content is known to the filter
+    assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("existing", null, null));
+
+    final int nCount = 1_000;
+    for (int i = 0; i < nCount; ++i)
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id" + i, "profile", null));
+    for (int i = 0; i < nCount; ++i)
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id" + i, "profile", null));
+
+    assertEquals (2L * nCount + 1, aMgr.getLookupCount ());
+    assertEquals (nCount + 1, aMgr.getDuplicateCount ());
+    assertEquals (nCount, aMgr.getShortCircuitCount () + aMgr.getFalsePositiveCount ());
+    assertTrue (aMgr.getFalsePositiveRate () < 0.05);
+
+    // Pending items are found before and after flushing
+    assertNotNull (aMgr.getItemOfMessageID ("id" + (nCount - 1)));
+    assertNull (aMgr.getItemOfMessageID ("unknown"));
+    assertEquals (nCount + 1, aMgr.size ());
+    assertEquals (nCount + 1, aDelegate.size ());
+    assertNotNull (aMgr.getItemOfMessageID ("id" + (nCount - 1)));
+
+    aMgr.clearCache ();
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id0", null, null));
+  }
+
+  @Test
+  public void testConcurrentSameMessageID () throws Exception
+  {
+    final AS4DuplicateManagerInMemory aDelegate = new AS4DuplicateManagerInMemory ();
+    // Batch size 1, so that IDs are drained while others still register
+    try (final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (aDelegate,
+                                                                                             10_000,
+                                                                                             0.01,
+                                                                                             0,
+                                                                                             1,
+                                                                                             0,
+                                                                                             System::currentTimeMillis))
+    {
+      final int nIDs = 200;
+      final int nThreads = 8;
+      final AtomicInteger aAccepted = new AtomicInteger (0);
+      final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (int t = 0; t < nThreads; ++t)
+        aFutures.add (aES.submit ( () -> {
+          for (int i = 0; i < nIDs; ++i)
+            if (aMgr.registerAndCheck ("id" + i, null, null).isContinue ())
+              aAccepted.incrementAndGet ();
+        }));
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+      // Each message ID may only be accepted once
+      assertEquals (nIDs, aAccepted.get ());
+      assertEquals (nIDs, aMgr.size ());
+    }
+  }
+
+  @Test
+  public void testTimeBasedFlush ()
+  {
+    final AS4DuplicateManagerInMemory aDelegate = new AS4DuplicateManagerInMemory ();
+    try (final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (aDelegate,
+                                                                                             10_000,
+                                                                                             0.01,
+                                                                                             0,
+                                                                                             1_000,
+                                                                                             50,
+                                                                                             System::currentTimeMillis))
+    {
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id", null, null));
+      final IAS4DuplicateItem aPending = aMgr.getItemOfMessageID ("id");
+      assertNotNull (aPending);
+
+      // Written without reaching the batch size
+      final long nEnd = System.currentTimeMillis () + 10_000;
+      while (aDelegate.isEmpty () && System.currentTimeMillis () < nEnd)
+        ThreadHelper.sleep (10);
+      final IAS4DuplicateItem aItem = aDelegate.getItemOfMessageID ("id");
+      assertNotNull (aItem);
+      // The reception date time is retained
+      assertEquals (aPending.getDateTime (), aItem.getDateTime ());
+    }
+  }
+
+  @Test
+  public void testFlushOnClose ()
+  {
+    final AS4DuplicateManagerInMemory aDelegate = new AS4DuplicateManagerInMemory ();
+    final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (aDelegate,
+                                                                                        10_000,
+                                                                                        0.01,
+                                                                                        0,
+                                                                                        1_000,
+                                                                                        60_000,
+                                                                                        System::currentTimeMillis);
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id", null, null));
+    assertTrue (aDelegate.isEmpty ());
+    aMgr.close ();
+    assertNotNull (aDelegate.getItemOfMessageID ("id"));
+  }
+
+  @Test
+  public void testRotation ()
+  {
+    final AtomicLong aNow = new AtomicLong (0);
+    final AS4RotatingBloomFilter aFilter = new AS4RotatingBloomFilter (1_000, 0.01, 3, 100, aNow::get);
+    aFilter.put ("a");
+    assertTrue (aFilter.mightContain ("a"));
+
+    // Contained for at least 2 rotation periods
+    aNow.set (100);
+    assertTrue (aFilter.mightContain ("a"));
+    aNow.set (200);
+    assertTrue (aFilter.mightContain ("a"));
+    aNow.set (300);
+    assertFalse (aFilter.mightContain ("a"));
+  }
+}
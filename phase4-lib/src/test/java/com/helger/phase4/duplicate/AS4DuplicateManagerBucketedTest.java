@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerBucketed}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerBucketedTest
+{
+  private static final OffsetDateTime BASE_DT = OffsetDateTime.of (2020, 1, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+  @Test
+  public void testRegisterAndEvict () throws Exception
+  {
+    try (final AS4DuplicateManagerBucketed aMgr = new AS4DuplicateManagerBucketed (Duration.ofMinutes (1), 4, null))
+    {
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck (null, "profile", "pmode"));
+      assertTrue (aMgr.isEmpty ());
+
+      for (int i = 0; i < 100; ++i)
+        assertEquals (EContinue.CONTINUE,
+                      aMgr.internalRegisterAndCheck (new AS4DuplicateItem (BASE_DT.plusSeconds (i * 6L), "id" + i, null, null)));
+      assertEquals (100, aMgr.size ());
+      // 100 items a 6 seconds span 10 minutes
+      assertEquals (10, aMgr.getBucketCount ());
+
+      // Duplicates in other buckets are detected
+      assertEquals (EContinue.BREAK, aMgr.internalRegisterAndCheck (new AS4DuplicateItem (BASE_DT.plusHours (1), "id0", null, null)));
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id99", null, null));
+      assertNotNull (aMgr.getItemOfMessageID ("id50"));
+      assertNull (aMgr.getItemOfMessageID ("id100"));
+
+      // Only complete buckets are evicted
+      assertEquals (30, aMgr.evictAllItemsBefore (BASE_DT.plusMinutes (3).plusSeconds (30)).size ());
+      assertEquals (70, aMgr.size ());
+      assertNull (aMgr.getItemOfMessageID ("id0"));
+      assertNotNull (aMgr.getItemOfMessageID ("id30"));
+      assertEquals (EContinue.CONTINUE, aMgr.internalRegisterAndCheck (new AS4DuplicateItem (BASE_DT.plusHours (1), "id0", null, null)));
+
+      aMgr.clearCache ();
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testJournal () throws Exception
+  {
+    final File aFile = new File ("target/junit-duplicate/incoming.journal");
+    FileOperations.deleteFileIfExisting (aFile);
+    try
+    {
+      try (final AS4DuplicateManagerBucketed aMgr = new AS4DuplicateManagerBucketed (Duration.ofMinutes (1), 4, aFile))
+      {
+        for (int i = 0; i < 20; ++i)
+          aMgr.internalRegisterAndCheck (new AS4DuplicateItem (BASE_DT.plusSeconds (i * 30L), "id" + i, "profile", i % 2 == 0 ? "pmode" : null));
+        assertEquals (10, aMgr.evictAllItemsBefore (BASE_DT.plusMinutes (5)).size ());
+      }
+
+      // Restore from the journal
+      try (final AS4DuplicateManagerBucketed aMgr = new AS4DuplicateManagerBucketed (Duration.ofMinutes (1), 4, aFile))
+      {
+        assertEquals (10, aMgr.size ());
+        assertNull (aMgr.getItemOfMessageID ("id9"));
+        final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("id10");
+        assertNotNull (aItem);
+        assertEquals ("profile", aItem.getProfileID ());
+        assertEquals ("pmode", aItem.getPModeID ());
+        assertEquals (BASE_DT.plusMinutes (5), aItem.getDateTime ());
+        assertNull (aMgr.getItemOfMessageID ("id11").getPModeID ());
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id19", null, null));
+      }
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+
+  @Test
+  public void testJournalConcurrentCompaction () throws Exception
+  {
+    final File aFile = new File ("target/junit-duplicate/incoming-concurrent.journal");
+    FileOperations.deleteFileIfExisting (aFile);
+    final int nThreads = 8;
+    final int nPerThread = 500;
+    try
+    {
+      try (final AS4DuplicateManagerBucketed aMgr = new AS4DuplicateManagerBucketed (Duration.ofMinutes (1), 16, aFile))
+      {
+        final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+        final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+        for (int t = 0; t < nThreads; ++t)
+        {
+          final int nThread = t;
+          aFutures.add (aES.submit ( () -> {
+            for (int i = 0; i < nPerThread; ++i)
+              assertEquals (EContinue.CONTINUE,
+                            aMgr.internalRegisterAndCheck (new AS4DuplicateItem (BASE_DT, "id" + nThread + "-" + i, null, null)));
+          }));
+        }
+        // Compact while registering
+        for (int i = 0; i < 20; ++i)
+          aMgr.compactJournal ();
+        for (final Future <?> aFuture : aFutures)
+          aFuture.get ();
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+      }
+
+      // No registration may be lost
+      try (final AS4DuplicateManagerBucketed aMgr = new AS4DuplicateManagerBucketed (Duration.ofMinutes (1), 16, aFile))
+      {
+        assertEquals (nThreads * nPerThread, aMgr.size ());
+      }
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+}
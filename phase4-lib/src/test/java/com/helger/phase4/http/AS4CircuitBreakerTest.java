@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CircuitBreakerTest
+{
+  private static final String URL = "http://localhost:8080/as4";
+
+  @Test
+  public void testOpenAndClose ()
+  {
+    final AS4CircuitBreakerSettings aSettings = new AS4CircuitBreakerSettings ().setWindowSize (4)
+                                                                                .setMinimumCalls (4)
+                                                                                .setFailureRateThreshold (0.5)
+                                                                                .setOpenDuration (Duration.ZERO);
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (URL, aSettings);
+    assertEquals (EAS4CircuitBreakerState.CLOSED, aCB.getState ());
+
+    // Not enough calls to open
+    for (int i = 0; i < 3; ++i)
+    {
+      assertTrue (aCB.tryAcquirePermission ());
+      aCB.onCallFinished (false, Duration.ZERO);
+    }
+    assertEquals (EAS4CircuitBreakerState.CLOSED, aCB.getState ());
+    assertEquals (1, aCB.getFailureRate (), 0.0001);
+
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.onCallFinished (true, Duration.ZERO);
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState ());
+
+    // Open duration is zero - one trial call only
+    assertTrue (aCB.tryAcquirePermission ());
+    assertEquals (EAS4CircuitBreakerState.HALF_OPEN, aCB.getState ());
+    assertFalse (aCB.tryAcquirePermission ());
+
+    // Failing trial call opens again
+    aCB.onCallFinished (false, Duration.ZERO);
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState ());
+
+    // Successful trial call closes
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.onCallFinished (true, Duration.ZERO);
+    assertEquals (EAS4CircuitBreakerState.CLOSED, aCB.getState ());
+    assertEquals (0, aCB.getFailureRate (), 0.0001);
+  }
+
+  @Test
+  public void testSlowCallsAreFailures ()
+  {
+    final AS4CircuitBreakerSettings aSettings = new AS4CircuitBreakerSettings ().setWindowSize (2)
+                                                                                .setMinimumCalls (2)
+                                                                                .setFailureRateThreshold (1)
+                                                                                .setSlowCallDuration (Duration.ofSeconds (1));
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (URL, aSettings);
+    aCB.onCallFinished (true, Duration.ofSeconds (2));
+    aCB.onCallFinished (true, Duration.ofSeconds (2));
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState ());
+    assertFalse (aCB.tryAcquirePermission ());
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+
+/**
+ * Test class for class {@link AS4HttpClientPool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4HttpClientPoolTest
+{
+  @After
+  public void after ()
+  {
+    AS4HttpClientPool.closeAll ();
+    AS4HttpClientPool.setMaxPooledClients (AS4HttpClientPool.DEFAULT_MAX_POOLED_CLIENTS);
+  }
+
+  @Nonnull
+  private static CloseableHttpClient _get (@Nonnull final HttpClientFactory aFactory) throws IOException
+  {
+    return AS4HttpClientPool.executeWithHttpClient (aFactory, aClient -> aClient);
+  }
+
+  @Nonnull
+  private static HttpClientFactory _createFactory (@Nonnull final String sUserAgent)
+  {
+    return new HttpClientFactory (new HttpClientSettings ().setUserAgent (sUserAgent));
+  }
+
+  @Test
+  public void testReuse () throws IOException
+  {
+    final HttpClientFactory aFactory1 = _createFactory ("ua1");
+    final HttpClientFactory aFactory2 = _createFactory ("ua2");
+
+    final CloseableHttpClient aClient1 = _get (aFactory1);
+    assertSame (aClient1, _get (aFactory1));
+    assertSame (aClient1, _get (aFactory1));
+    final CloseableHttpClient aClient2 = _get (aFactory2);
+    assertNotSame (aClient1, aClient2);
+
+    assertEquals (2, AS4HttpClientPool.getPooledClientCount ());
+    assertEquals (2, AS4HttpClientPool.getHitCount ());
+    assertEquals (2, AS4HttpClientPool.getMissCount ());
+
+    // Same settings, but a different factory instance - the factory might
+    // customize the client, so it is not shared
+    assertNotSame (aClient1, _get (_createFactory ("ua1")));
+    assertEquals (3, AS4HttpClientPool.getPooledClientCount ());
+
+    AS4HttpClientPool.closeAll ();
+    assertEquals (0, AS4HttpClientPool.getPooledClientCount ());
+    assertEquals (0, AS4HttpClientPool.getHitCount ());
+    assertEquals (0, AS4HttpClientPool.getMissCount ());
+  }
+
+  @Test
+  public void testEviction () throws IOException
+  {
+    AS4HttpClientPool.setMaxPooledClients (2);
+
+    final HttpClientFactory aFactory1 = _createFactory ("ua1");
+    _get (aFactory1);
+    _get (_createFactory ("ua2"));
+    // Use the first one again, so that the second one is the eldest
+    _get (aFactory1);
+    _get (_createFactory ("ua3"));
+    assertEquals (2, AS4HttpClientPool.getPooledClientCount ());
+
+    // Still pooled
+    final long nHits = AS4HttpClientPool.getHitCount ();
+    _get (aFactory1);
+    assertEquals (nHits + 1, AS4HttpClientPool.getHitCount ());
+  }
+
+  @Test
+  public void testEvictionWhileInUse () throws IOException
+  {
+    AS4HttpClientPool.setMaxPooledClients (1);
+
+    final HttpClientFactory aFactory1 = _createFactory ("ua1");
+    final CloseableHttpClient aClient1 = AS4HttpClientPool.executeWithHttpClient (aFactory1, aClient -> {
+      // Evicts the client currently in use
+      _get (_createFactory ("ua2"));
+      assertEquals (1, AS4HttpClientPool.getPooledClientCount ());
+      // The evicted client is only closed after this usage
+      return aClient;
+    });
+
+    // A new client is created for the first settings
+    assertNotSame (aClient1, _get (aFactory1));
+  }
+
+  @Test
+  public void testConcurrentCreation () throws Exception
+  {
+    final HttpClientFactory aFactory = _createFactory ("ua1");
+    final int nThreads = 8;
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final CountDownLatch aStart = new CountDownLatch (1);
+      final ICommonsList <Future <CloseableHttpClient>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> {
+          aStart.await ();
+          return _get (aFactory);
+        }));
+      aStart.countDown ();
+
+      // All threads must end up with the single published client
+      final CloseableHttpClient aClient = aFutures.getFirst ().get ();
+      for (final Future <CloseableHttpClient> aFuture : aFutures)
+        assertSame (aClient, aFuture.get ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+    assertEquals (1, AS4HttpClientPool.getPooledClientCount ());
+    assertEquals (1, AS4HttpClientPool.getMissCount ());
+    assertEquals (nThreads - 1, AS4HttpClientPool.getHitCount ());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.junit.Test;
+
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link BasicHttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class BasicHttpPosterTest
+{
+  // Nobody is listening on that port
+  private static final String URL = "http://localhost:1/as4";
+
+  @Test
+  public void testSyncRetriesViaScheduler ()
+  {
+    final AtomicInteger aRetries = new AtomicInteger (0);
+    final HttpRetrySettings aRS = new HttpRetrySettings ().setMaxRetries (2)
+                                                          .setDurationBeforeRetry (Duration.ofMillis (10))
+                                                          .setRetryJitter (0);
+    try
+    {
+      new BasicHttpPoster ().sendGenericMessageWithRetries (URL,
+                                                            null,
+                                                            new StringEntity ("dummy"),
+                                                            "msg-id",
+                                                            aRS,
+                                                            new BasicHttpClientResponseHandler (),
+                                                            null,
+                                                            (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+                                                              aRetries.incrementAndGet ();
+                                                              return EContinue.CONTINUE;
+                                                            });
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    assertEquals (2, aRetries.get ());
+    // The retry slot was released
+    assertEquals (0, AS4RetryScheduler.getActiveRetryCount ());
+  }
+
+  @Test
+  public void testSyncRetriesIgnoreConcurrentRetryLimit ()
+  {
+    // All retry slots are in use
+    AS4RetryScheduler.setMaxConcurrentRetries (1);
+    assertTrue (AS4RetryScheduler.tryAcquireRetrySlot ());
+    try
+    {
+      final AtomicInteger aRetries = new AtomicInteger (0);
+      final HttpRetrySettings aRS = new HttpRetrySettings ().setMaxRetries (2)
+                                                            .setDurationBeforeRetry (Duration.ofMillis (10))
+                                                            .setRetryJitter (0);
+      try
+      {
+        new BasicHttpPoster ().sendGenericMessageWithRetries (URL,
+                                                              null,
+                                                              new StringEntity ("dummy"),
+                                                              "msg-id",
+                                                              aRS,
+                                                              new BasicHttpClientResponseHandler (),
+                                                              null,
+                                                              (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+                                                                aRetries.incrementAndGet ();
+                                                                return EContinue.CONTINUE;
+                                                              });
+        fail ();
+      }
+      catch (final IOException ex)
+      {
+        // expected
+      }
+      // Synchronous sending still performs all retries
+      assertEquals (2, aRetries.get ());
+      assertEquals (1, AS4RetryScheduler.getActiveRetryCount ());
+    }
+    finally
+    {
+      AS4RetryScheduler.releaseRetrySlot ();
+      AS4RetryScheduler.setMaxConcurrentRetries (AS4RetryScheduler.DEFAULT_MAX_CONCURRENT_RETRIES);
+    }
+  }
+
+  @Test
+  public void testIsCircuitBreakerFailure ()
+  {
+    assertTrue (BasicHttpPoster.isCircuitBreakerFailure (new ConnectException ("refused")));
+    assertTrue (BasicHttpPoster.isCircuitBreakerFailure (new SocketTimeoutException ("timeout")));
+    assertTrue (BasicHttpPoster.isCircuitBreakerFailure (new HttpResponseException (500, "Internal Server Error")));
+    assertTrue (BasicHttpPoster.isCircuitBreakerFailure (new HttpResponseException (503, "Service Unavailable")));
+    // The destination answered
+    assertFalse (BasicHttpPoster.isCircuitBreakerFailure (new HttpResponseException (400, "Bad Request")));
+    assertFalse (BasicHttpPoster.isCircuitBreakerFailure (new HttpResponseException (404, "Not Found")));
+  }
+
+  @Test
+  public void testSchedulerShutdownRunsPending () throws Exception
+  {
+    final CountDownLatch aLatch = new CountDownLatch (1);
+    AS4RetryScheduler.schedule (aLatch::countDown, Duration.ofHours (1));
+    AS4RetryScheduler.shutdown ();
+    assertTrue (aLatch.await (1, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HttpRetrySettings}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpRetrySettingsTest
+{
+  @Test
+  public void testDurationBeforeRetry ()
+  {
+    final HttpRetrySettings aRS = new HttpRetrySettings ().setMaxRetries (5)
+                                                          .setDurationBeforeRetry (Duration.ofSeconds (1))
+                                                          .setRetryIncreaseFactor (BigDecimal.valueOf (2));
+    assertEquals (Duration.ofSeconds (1), aRS.getDurationBeforeRetry (0));
+    assertEquals (Duration.ofSeconds (1), aRS.getDurationBeforeRetry (1));
+    assertEquals (Duration.ofSeconds (2), aRS.getDurationBeforeRetry (2));
+    assertEquals (Duration.ofSeconds (4), aRS.getDurationBeforeRetry (3));
+  }
+
+  @Test
+  public void testJitter ()
+  {
+    final Duration aBase = Duration.ofSeconds (10);
+    assertEquals (aBase, HttpRetrySettings.getWithJitter (aBase, 0));
+    for (int i = 0; i < 100; ++i)
+    {
+      final Duration aJittered = HttpRetrySettings.getWithJitter (aBase, 0.2);
+      assertTrue (aJittered.compareTo (Duration.ofSeconds (8)) >= 0);
+      assertTrue (aJittered.compareTo (Duration.ofSeconds (12)) <= 0);
+    }
+
+    final HttpRetrySettings aRS = new HttpRetrySettings ().setRetryJitter (0.5);
+    final HttpRetrySettings aRS2 = new HttpRetrySettings ();
+    aRS2.assignFrom (aRS);
+    assertEquals (aRS, aRS2);
+  }
+}
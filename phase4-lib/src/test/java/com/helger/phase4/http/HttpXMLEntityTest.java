@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link HttpXMLEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpXMLEntityTest
+{
+  private static byte [] _write (final HttpXMLEntity aEntity) throws Exception
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aEntity.writeTo (aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testWrite () throws Exception
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("soap11test/ReceiptMessage.xml"));
+    assertNotNull (aDoc);
+    final byte [] aExpected = AS4XMLHelper.serializeXMLToBytes (aDoc);
+
+    for (final boolean bCache : new boolean [] { false, true })
+    {
+      final HttpXMLEntity aEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_11.getMimeType (), bCache);
+      assertTrue (aEntity.isRepeatable ());
+      assertNull (aEntity.getCachedBytes ());
+      if (bCache)
+      {
+        // Serialized eagerly
+        assertEquals (aExpected.length, aEntity.getContentLength ());
+        assertArrayEquals (aExpected, aEntity.getCachedBytes ());
+      }
+      else
+        assertEquals (-1, aEntity.getContentLength ());
+
+      // Repeatable
+      assertArrayEquals (aExpected, _write (aEntity));
+      assertArrayEquals (aExpected, _write (aEntity));
+      assertArrayEquals (aExpected, StreamHelper.getAllBytes (aEntity.getContent ()));
+
+      if (bCache)
+      {
+        assertArrayEquals (aExpected, aEntity.getCachedBytes ());
+        assertEquals (aExpected.length, aEntity.getContentLength ());
+      }
+      else
+      {
+        assertNull (aEntity.getCachedBytes ());
+        assertEquals (-1, aEntity.getContentLength ());
+      }
+    }
+  }
+
+  @Test
+  public void testDefaultHasContentLength () throws Exception
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("soap11test/ReceiptMessage.xml"));
+    assertNotNull (aDoc);
+    final byte [] aExpected = AS4XMLHelper.serializeXMLToBytes (aDoc);
+
+    // As used by the AS4Client* classes
+    final HttpXMLEntity aEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_11.getMimeType ());
+    assertTrue (aEntity.isCacheBytes ());
+    assertEquals (aExpected.length, aEntity.getContentLength ());
+    assertArrayEquals (aExpected, _write (aEntity));
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Test class for class {@link PModeIndex}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeIndexTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID,
+                                     @Nonnull final String sInitiatorID,
+                                     @Nonnull final String sResponderID,
+                                     @Nonnull final String sAgreement,
+                                     @Nonnull final String sService,
+                                     @Nonnull final String sAction)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple (sInitiatorID, "Role"),
+                      PModeParty.createSimple (sResponderID, "Role"),
+                      sAgreement,
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      new PModeLeg (null, PModeLegBusinessInformation.create (sService, sAction, null, null), null, null, null),
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    final PModeIndex aIndex = new PModeIndex (new CommonsArrayList <> ());
+    assertEquals (0, aIndex.size ());
+    assertTrue (aIndex.getAll ().isEmpty ());
+    assertTrue (aIndex.getAllIDs ().isEmpty ());
+    assertNull (aIndex.getPModeOfID ("any"));
+    assertNull (aIndex.getPModeOfID (null));
+    assertNull (aIndex.getPModeOfServiceAndAction ("s", "a"));
+    assertTrue (aIndex.getAllOfInitiatorID ("i").isEmpty ());
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final PMode p1 = _createPMode ("p1", "i1", "r1", "ag1", "s1", "a1");
+    final PMode p2 = _createPMode ("p2", "i1", "r2", "ag1", "s1", "a2");
+    final PMode p3 = _createPMode ("p3", "i2", "r2", "ag2", "s1", "a1");
+    final PModeIndex aIndex = new PModeIndex (new CommonsArrayList <> (p1, p2, p3));
+    assertEquals (3, aIndex.size ());
+    assertEquals (3, aIndex.getAllIDs ().size ());
+
+    assertSame (p1, aIndex.getPModeOfID ("p1"));
+    assertSame (p3, aIndex.getPModeOfID ("p3"));
+    assertNull (aIndex.getPModeOfID ("p4"));
+
+    assertSame (p2, aIndex.getPModeOfIDAndParties ("p2", "i1", "r2"));
+    assertNull (aIndex.getPModeOfIDAndParties ("p2", "i2", "r2"));
+
+    // First one wins
+    assertSame (p1, aIndex.getPModeOfServiceAndAction ("s1", "a1"));
+    assertSame (p2, aIndex.getPModeOfServiceAndAction ("s1", "a2"));
+    assertNull (aIndex.getPModeOfServiceAndAction ("s2", "a1"));
+
+    assertEquals (2, aIndex.getAllOfInitiatorID ("i1").size ());
+    assertEquals (1, aIndex.getAllOfInitiatorID ("i2").size ());
+    assertEquals (1, aIndex.getAllOfResponderID ("r1").size ());
+    assertEquals (2, aIndex.getAllOfResponderID ("r2").size ());
+    assertEquals (2, aIndex.getAllOfAgreement ("ag1").size ());
+    assertTrue (aIndex.getAllOfAgreement ("ag3").isEmpty ());
+
+    // Returned lists are copies
+    aIndex.getAllOfInitiatorID ("i1").clear ();
+    assertEquals (2, aIndex.getAllOfInitiatorID ("i1").size ());
+  }
+
+  @Test
+  public void testIncremental ()
+  {
+    final PMode p1 = _createPMode ("p1", "i1", "r1", "ag1", "s1", "a1");
+    final PMode p2 = _createPMode ("p2", "i1", "r2", "ag1", "s1", "a1");
+    final PModeIndex aIndex = new PModeIndex ();
+    aIndex.put (p1);
+    aIndex.put (p2);
+    assertEquals (2, aIndex.size ());
+    assertSame (p1, aIndex.getPModeOfServiceAndAction ("s1", "a1"));
+    assertEquals (2, aIndex.getAllOfInitiatorID ("i1").size ());
+
+    // Modify in place and re-index
+    final ICommonsList <IPMode> aOldList = aIndex.getAllOfInitiatorID ("i1");
+    p1.setInitiator (PModeParty.createSimple ("i2", "Role"));
+    p1.setLeg1 (new PModeLeg (null, PModeLegBusinessInformation.create ("s2", "a2", null, null), null, null, null));
+    aIndex.put (p1);
+    assertEquals (2, aIndex.size ());
+    assertEquals (1, aIndex.getAllOfInitiatorID ("i1").size ());
+    assertSame (p2, aIndex.getAllOfInitiatorID ("i1").getFirst ());
+    assertSame (p1, aIndex.getAllOfInitiatorID ("i2").getFirst ());
+    assertSame (p2, aIndex.getPModeOfServiceAndAction ("s1", "a1"));
+    assertSame (p1, aIndex.getPModeOfServiceAndAction ("s2", "a2"));
+    // Unchanged keys stay unchanged
+    assertEquals (2, aIndex.getAllOfAgreement ("ag1").size ());
+    // Previously returned lists are unaffected
+    assertEquals (2, aOldList.size ());
+
+    // Replace with a new object
+    final PMode p2b = _createPMode ("p2", "i3", "r2", "ag1", "s1", "a1");
+    aIndex.put (p2b);
+    assertEquals (2, aIndex.size ());
+    assertSame (p2b, aIndex.getPModeOfID ("p2"));
+    assertTrue (aIndex.getAllOfInitiatorID ("i1").isEmpty ());
+    assertEquals (1, aIndex.getAllOfResponderID ("r2").size ());
+    assertSame (p2b, aIndex.getPModeOfServiceAndAction ("s1", "a1"));
+
+    // Remove
+    assertSame (p1, aIndex.remove ("p1"));
+    assertNull (aIndex.remove ("p1"));
+    assertNull (aIndex.remove (null));
+    assertEquals (1, aIndex.size ());
+    assertNull (aIndex.getPModeOfID ("p1"));
+    assertNull (aIndex.getPModeOfServiceAndAction ("s2", "a2"));
+    assertTrue (aIndex.getAllOfInitiatorID ("i2").isEmpty ());
+    assertEquals (1, aIndex.getAllOfAgreement ("ag1").size ());
+  }
+
+  @Test
+  public void testNullKeys ()
+  {
+    final PMode p1 = new PMode ("p1", null, null, null, EMEP.ONE_WAY, EMEPBinding.PUSH, null, null, null, null);
+    final PModeIndex aIndex = new PModeIndex (new CommonsArrayList <> (p1));
+    assertSame (p1, aIndex.getAllOfInitiatorID (null).getFirst ());
+    assertSame (p1, aIndex.getAllOfAgreement (null).getFirst ());
+    assertNull (aIndex.getPModeOfServiceAndAction (null, null));
+
+    aIndex.remove ("p1");
+    assertTrue (aIndex.getAllOfInitiatorID (null).isEmpty ());
+  }
+
+  @Test
+  public void testBulkLoadManager ()
+  {
+    final ICommonsList <PMode> aPModes = new CommonsArrayList <> ();
+    for (int i = 0; i < 1000; ++i)
+      aPModes.add (_createPMode ("p" + i, "i" + (i % 10), "r", "ag", "s" + i, "a"));
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory (aPModes);
+    assertEquals (1000, aMgr.getAll ().size ());
+    assertEquals (100, aMgr.getAllPModesOfInitiatorID ("i3").size ());
+    assertSame (aPModes.get (17), aMgr.getPModeOfServiceAndAction ("s17", "a"));
+
+    // Incremental modifications afterwards
+    aMgr.deletePMode ("p17");
+    assertNull (aMgr.getPModeOfServiceAndAction ("s17", "a"));
+    assertEquals (99, aMgr.getAllPModesOfInitiatorID ("i7").size ());
+    aMgr.createPMode (_createPMode ("p17", "i7", "r", "ag", "s17", "a"));
+    assertEquals (100, aMgr.getAllPModesOfInitiatorID ("i7").size ());
+  }
+}
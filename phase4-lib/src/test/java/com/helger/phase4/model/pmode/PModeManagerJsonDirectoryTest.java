@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Test class for class {@link PModeManagerJsonDirectory}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerJsonDirectoryTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID, @Nonnull final String sService)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple ("i", "Role"),
+                      PModeParty.createSimple ("r", "Role"),
+                      "agreement",
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      new PModeLeg (null, PModeLegBusinessInformation.create (sService, "action", null, null), null, null, null),
+                      null,
+                      null,
+                      null);
+  }
+
+  private static void _write (@Nonnull final File aDir, @Nonnull final String sFilename, @Nonnull final String sContent)
+  {
+    SimpleFileIO.writeFile (new File (aDir, sFilename), sContent, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-pmode-json").toFile ();
+    try
+    {
+      _write (aDir, "p1.json", _createPMode ("p1", "s1").getAsJson ().getAsJsonString ());
+      _write (aDir, "p2.json", _createPMode ("p2", "s2").getAsJson ().getAsJsonString ());
+      _write (aDir, "ignored.txt", "bla");
+
+      try (final PModeManagerJsonDirectory aMgr = new PModeManagerJsonDirectory (aDir, false))
+      {
+        assertEquals (1, aMgr.getReloadCount ());
+        assertEquals (2, aMgr.getAll ().size ());
+        assertNotNull (aMgr.getPModeOfID ("p1"));
+        assertEquals ("p2", aMgr.getPModeOfServiceAndAction ("s2", "action").getID ());
+
+        // Runtime PModes are added to the snapshot
+        aMgr.createOrUpdatePMode (_createPMode ("p3", "s3"));
+        assertEquals (3, aMgr.getAll ().size ());
+
+        // File based PModes win
+        final IPMode aFileP1 = aMgr.getPModeOfID ("p1");
+        aMgr.createOrUpdatePMode (_createPMode ("p1", "other"));
+        assertSame (aFileP1, aMgr.getPModeOfID ("p1"));
+        assertNull (aMgr.getPModeOfServiceAndAction ("other", "action"));
+
+        // Invalid file - previous snapshot stays
+        _write (aDir, "p4.json", "{ invalid");
+        assertTrue (aMgr.reload ().isFailure ());
+        assertEquals (3, aMgr.getAll ().size ());
+        assertNull (aMgr.getPModeOfID ("p4"));
+
+        // Duplicate ID - previous snapshot stays
+        _write (aDir, "p4.json", _createPMode ("p1", "s4").getAsJson ().getAsJsonString ());
+        assertTrue (aMgr.reload ().isFailure ());
+
+        _write (aDir, "p4.json", _createPMode ("p4", "s4").getAsJson ().getAsJsonString ());
+        assertTrue (aMgr.reload ().isSuccess ());
+        assertEquals (2, aMgr.getReloadCount ());
+        assertEquals (4, aMgr.getAll ().size ());
+        assertNotNull (aMgr.getPModeOfID ("p4"));
+        assertNotNull (aMgr.getPModeOfID ("p3"));
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeIDProvider;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeParty;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.profile.AS4Profile;
+import com.helger.phase4.profile.IAS4Profile;
+
+/**
+ * Test class for class {@link PModeTemplateCache}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeTemplateCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static IAS4Profile _createProfile (@Nonnull final AtomicInteger aCounter, final boolean bPersist)
+  {
+    return new AS4Profile ("test",
+                           "Test profile",
+                           () -> null,
+                           (i, r, a) -> {
+                             aCounter.incrementAndGet ();
+                             final PMode ret = new PMode (i + "-" + r,
+                                                          PModeParty.createSimple (i, "Role"),
+                                                          PModeParty.createSimple (r, "Role"),
+                                                          "agreement",
+                                                          EMEP.ONE_WAY,
+                                                          EMEPBinding.PUSH,
+                                                          new PModeLeg (),
+                                                          null,
+                                                          null,
+                                                          null);
+                             if (bPersist)
+                               MetaAS4Manager.getPModeMgr ().createOrUpdatePMode (ret);
+                             return ret;
+                           },
+                           IPModeIDProvider.DEFAULT_DYNAMIC,
+                           false,
+                           bPersist);
+  }
+
+  @Nonnull
+  private static IAS4Profile _createProfile (@Nonnull final AtomicInteger aCounter)
+  {
+    return _createProfile (aCounter, false);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final IAS4Profile aProfile = _createProfile (aCounter);
+    final PModeTemplateCache aCache = new PModeTemplateCache (2);
+
+    final IPMode p1 = aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null);
+    assertNotNull (p1);
+    final IPMode p1Cached = aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null);
+    // The cache keeps its own copy
+    assertNotSame (p1, p1Cached);
+    // Hits are not converted again
+    assertSame (p1Cached, aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null));
+    assertEquals (p1.getID (), p1Cached.getID ());
+    assertEquals (1, aCounter.get ());
+    assertEquals (2, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // Different address is a different key
+    assertNotSame (p1, aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", "http://example.org"));
+    assertEquals (2, aCounter.get ());
+    assertEquals (2, aCache.size ());
+
+    // Evicts the least recently used entry
+    aCache.getOrCreatePModeTemplate (aProfile, "i2", "r2", null);
+    assertEquals (3, aCounter.get ());
+    assertEquals (2, aCache.size ());
+    assertNotSame (p1, aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null));
+    assertEquals (4, aCounter.get ());
+  }
+
+  @Test
+  public void testReregisteredProfile ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final PModeTemplateCache aCache = new PModeTemplateCache (10);
+
+    final IPMode p1 = aCache.getOrCreatePModeTemplate (_createProfile (aCounter), "i1", "r1", null);
+    aCache.getOrCreatePModeTemplate (_createProfile (aCounter), "i2", "r2", null);
+    assertEquals (2, aCache.size ());
+
+    // Same profile ID but a new instance
+    final IAS4Profile aNewProfile = _createProfile (aCounter);
+    assertNotSame (p1, aCache.getOrCreatePModeTemplate (aNewProfile, "i1", "r1", null));
+    assertEquals (1, aCache.getInvalidationCount ());
+    assertEquals (1, aCache.size ());
+    assertEquals (3, aCounter.get ());
+  }
+
+  @Test
+  public void testDefensiveCopy ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final IAS4Profile aProfile = _createProfile (aCounter);
+    final PModeTemplateCache aCache = new PModeTemplateCache (10);
+
+    // The instance created by the profile is not the cached one
+    final PMode p1 = (PMode) aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null);
+    p1.setAgreement ("modified");
+    p1.getResponder ().setRole ("modified");
+    final IPMode p2 = aCache.getOrCreatePModeTemplate (aProfile, "i1", "r1", null);
+    assertEquals ("agreement", p2.getAgreement ());
+    assertEquals ("Role", p2.getResponder ().getRole ());
+    assertEquals (1, aCounter.get ());
+
+    // Not persisted by the profile, so not persisted on a hit
+    assertNull (MetaAS4Manager.getPModeMgr ().getPModeOfID (p1.getID ()));
+  }
+
+  @Test
+  public void testPersistOnHit ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final IAS4Profile aProfile = _createProfile (aCounter, true);
+    final PModeTemplateCache aCache = new PModeTemplateCache (10);
+
+    final IPMode p1 = aCache.getOrCreatePModeTemplate (aProfile, "ip", "rp", null);
+    assertNotNull (MetaAS4Manager.getPModeMgr ().getPModeOfID (p1.getID ()));
+
+    // Removed in the meantime - a cache hit stores it again
+    MetaAS4Manager.getPModeMgr ().deletePMode (p1.getID ());
+    assertNull (MetaAS4Manager.getPModeMgr ().getPModeOfID (p1.getID ()));
+    final IPMode p2 = aCache.getOrCreatePModeTemplate (aProfile, "ip", "rp", null);
+    final IPMode aStored = MetaAS4Manager.getPModeMgr ().getPModeOfID (p1.getID ());
+    assertNotNull (aStored);
+    // The shared cached instance is not handed to the PMode manager
+    assertNotSame (p2, aStored);
+    assertEquals (1, aCounter.get ());
+    assertEquals (1, aCache.getHitCount ());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.phase4.AS4TestRule;
+
+/**
+ * Test class for class {@link AbstractAS4UserMessageBuilder}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractAS4UserMessageBuilderTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testSendMessageAsyncNormalCompletion () throws Exception
+  {
+    // Mandatory fields are missing
+    final CompletableFuture <ESimpleUserMessageSendResult> aFuture = Phase4Sender.builderUserMessage ()
+                                                                                 .sendMessageAsync (AS4AsyncSendManager.getExecutor ());
+    assertSame (ESimpleUserMessageSendResult.INVALID_PARAMETERS, aFuture.get ());
+  }
+
+  @Test
+  public void testSendMessageAsyncExceptionalCompletion () throws Exception
+  {
+    // An executor that is saturated
+    final CompletableFuture <ESimpleUserMessageSendResult> aFuture = Phase4Sender.builderUserMessage ()
+                                                                                 .sendMessageAsync (r -> {
+                                                                                   throw new RejectedExecutionException ("saturated");
+                                                                                 });
+    assertTrue (aFuture.isCompletedExceptionally ());
+    try
+    {
+      aFuture.get ();
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      assertTrue (ex.getCause () instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  public void testSendMessageAsyncBoundedQueue () throws Exception
+  {
+    // One thread, one queued task
+    final ExecutorService aES = AS4AsyncSendManager.createDefaultExecutorService (1, 1);
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    try
+    {
+      aES.execute ( () -> {
+        try
+        {
+          aBlock.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      });
+      final CompletableFuture <ESimpleUserMessageSendResult> aQueued = Phase4Sender.builderUserMessage ()
+                                                                                   .sendMessageAsync (aES);
+      final CompletableFuture <ESimpleUserMessageSendResult> aRejected = Phase4Sender.builderUserMessage ()
+                                                                                     .sendMessageAsync (aES);
+      assertTrue (aRejected.isCompletedExceptionally ());
+
+      aBlock.countDown ();
+      assertSame (ESimpleUserMessageSendResult.INVALID_PARAMETERS, aQueued.get ());
+    }
+    finally
+    {
+      aBlock.countDown ();
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.phase4.soap.ESoapVersion;
+
+/**
+ * Test class for class {@link AS4EbmsPreScanner}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4EbmsPreScannerTest
+{
+  private static final String USER_MESSAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                             "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"" +
+                                             " xmlns:eb=\"http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/\">" +
+                                             "<S12:Header><eb:Messaging><eb:UserMessage>" +
+                                             "<eb:MessageInfo><eb:Timestamp>2020-01-01T00:00:00Z</eb:Timestamp>" +
+                                             "<eb:MessageId> msg-1@phase4 </eb:MessageId></eb:MessageInfo>" +
+                                             "<eb:PartyInfo>" +
+                                             "<eb:From><eb:PartyId>sender</eb:PartyId><eb:Role>r1</eb:Role></eb:From>" +
+                                             "<eb:To><eb:PartyId>receiver</eb:PartyId><eb:Role>r2</eb:Role></eb:To>" +
+                                             "</eb:PartyInfo>" +
+                                             "<eb:CollaborationInfo>" +
+                                             "<eb:AgreementRef pmode=\"pm-1\">agreement</eb:AgreementRef>" +
+                                             "<eb:Service>svc</eb:Service><eb:Action>act</eb:Action>" +
+                                             "<eb:ConversationId>conv</eb:ConversationId>" +
+                                             "</eb:CollaborationInfo>" +
+                                             "</eb:UserMessage></eb:Messaging></S12:Header>" +
+                                             "<S12:Body><eb:MessageId>ignored</eb:MessageId></S12:Body></S12:Envelope>";
+
+  @Test
+  public void testUserMessage ()
+  {
+    final AS4EbmsPreScanInfo aInfo = AS4EbmsPreScanner.scan (new NonBlockingByteArrayInputStream (USER_MESSAGE.getBytes (StandardCharsets.UTF_8)));
+    assertNotNull (aInfo);
+    assertEquals (ESoapVersion.SOAP_12, aInfo.getSoapVersion ());
+    assertTrue (aInfo.isUserMessage ());
+    assertFalse (aInfo.isSignalMessage ());
+    assertEquals ("msg-1@phase4", aInfo.getMessageID ());
+    assertNull (aInfo.getRefToMessageID ());
+    assertEquals ("pm-1", aInfo.getPModeID ());
+    assertEquals ("agreement", aInfo.getAgreementRef ());
+    assertEquals ("svc", aInfo.getService ());
+    assertEquals ("act", aInfo.getAction ());
+    assertEquals ("sender", aInfo.getAllFromPartyIDs ().getFirst ());
+    assertEquals ("receiver", aInfo.getAllToPartyIDs ().getFirst ());
+    assertTrue (aInfo.hasPModeResolutionInformation ());
+  }
+
+  @Test
+  public void testInvalid ()
+  {
+    assertNull (AS4EbmsPreScanner.scan (new NonBlockingByteArrayInputStream ("<a><b></a>".getBytes (StandardCharsets.UTF_8))));
+
+    // DTDs are not supported
+    assertNull (AS4EbmsPreScanner.scan (new NonBlockingByteArrayInputStream (("<!DOCTYPE a [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>" +
+                                                                                "<a>&x;</a>").getBytes (StandardCharsets.UTF_8))));
+  }
+}
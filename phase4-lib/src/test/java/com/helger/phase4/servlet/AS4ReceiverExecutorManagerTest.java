@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+
+/**
+ * Test class for class {@link AS4ReceiverExecutorManager}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ReceiverExecutorManagerTest
+{
+  @After
+  public void after ()
+  {
+    AS4ReceiverExecutorManager.setExecutor (null);
+    AS4ReceiverExecutorManager.setAsyncResponseExecutor (null);
+  }
+
+  @Test
+  public void testCustomExecutor ()
+  {
+    final Executor aDefault = AS4ReceiverExecutorManager.getExecutor ();
+    assertNotNull (aDefault);
+    assertSame (aDefault, AS4ReceiverExecutorManager.getExecutor ());
+
+    final Executor aCustom = Runnable::run;
+    AS4ReceiverExecutorManager.setExecutor (aCustom);
+    assertSame (aCustom, AS4ReceiverExecutorManager.getExecutor ());
+
+    // Back to a new default one
+    AS4ReceiverExecutorManager.setExecutor (null);
+    assertNotSame (aCustom, AS4ReceiverExecutorManager.getExecutor ());
+  }
+
+  @Test
+  public void testPlatformThreads () throws Exception
+  {
+    final ExecutorService aES = AS4ReceiverExecutorManager.createPlatformThreadExecutorService (2, 10);
+    try
+    {
+      final Thread aThread = CompletableFuture.supplyAsync (Thread::currentThread, aES).get ();
+      assertTrue (aThread.isDaemon ());
+      assertTrue (aThread.getName ().contains ("-receiver-"));
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+
+  @Test
+  public void testVirtualThreads () throws Exception
+  {
+    final ExecutorService aES = AS4ReceiverExecutorManager.createVirtualThreadExecutorService (10);
+    // Only available on Java 21+
+    if (aES != null)
+      try
+      {
+        assertEquals (Integer.valueOf (42), CompletableFuture.supplyAsync ( () -> Integer.valueOf (42), aES).get ());
+      }
+      finally
+      {
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+      }
+  }
+
+  private static void _assertRejectsWhenSaturated (@Nonnull final ExecutorService aES,
+                                                   final int nMaxAccepted) throws Exception
+  {
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    try
+    {
+      for (int i = 0; i < nMaxAccepted; ++i)
+        aES.execute ( () -> {
+          try
+          {
+            aBlock.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+        });
+      try
+      {
+        aES.execute ( () -> {});
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+    }
+    finally
+    {
+      aBlock.countDown ();
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+
+  @Test
+  public void testPlatformThreadsBounded () throws Exception
+  {
+    // 2 running plus 3 queued
+    _assertRejectsWhenSaturated (AS4ReceiverExecutorManager.createPlatformThreadExecutorService (2, 3), 5);
+  }
+
+  @Test
+  public void testVirtualThreadsBounded () throws Exception
+  {
+    final ExecutorService aES = AS4ReceiverExecutorManager.createVirtualThreadExecutorService (3);
+    // Only available on Java 21+
+    if (aES != null)
+      _assertRejectsWhenSaturated (aES, 3);
+  }
+
+  @Test
+  public void testShutdown ()
+  {
+    final Executor aDefault = AS4ReceiverExecutorManager.getExecutor ();
+    assertTrue (aDefault instanceof ExecutorService);
+    AS4ReceiverExecutorManager.shutdown ();
+    assertTrue (((ExecutorService) aDefault).isShutdown ());
+
+    // A new one is created on demand
+    assertNotSame (aDefault, AS4ReceiverExecutorManager.getExecutor ());
+  }
+
+  @Test
+  public void testSeparateAsyncResponseExecutor ()
+  {
+    final Executor aReceiver = AS4ReceiverExecutorManager.getExecutor ();
+    final Executor aResponse = AS4ReceiverExecutorManager.getAsyncResponseExecutor ();
+    assertNotNull (aResponse);
+    assertNotSame (aReceiver, aResponse);
+    assertSame (aResponse, AS4ReceiverExecutorManager.getAsyncResponseExecutor ());
+
+    // Replacing one does not affect the other
+    final Executor aCustom = Runnable::run;
+    AS4ReceiverExecutorManager.setAsyncResponseExecutor (aCustom);
+    assertSame (aCustom, AS4ReceiverExecutorManager.getAsyncResponseExecutor ());
+    assertSame (aReceiver, AS4ReceiverExecutorManager.getExecutor ());
+    assertTrue (((ExecutorService) aResponse).isShutdown ());
+
+    // Custom executors are not shut down
+    AS4ReceiverExecutorManager.shutdown ();
+    assertTrue (((ExecutorService) aReceiver).isShutdown ());
+    assertSame (aCustom, AS4ReceiverExecutorManager.getAsyncResponseExecutor ());
+  }
+}
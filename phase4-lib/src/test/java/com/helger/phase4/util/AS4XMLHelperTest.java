@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AS4XMLHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4XMLHelperTest
+{
+  @Test
+  public void testSerializeXMLToBytes ()
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("soap11test/ReceiptMessage.xml"));
+    assertNotNull (aDoc);
+
+    // Must be identical to the String based serialization
+    assertArrayEquals (AS4XMLHelper.serializeXML (aDoc).getBytes (AS4XMLHelper.XWS.getCharset ()),
+                       AS4XMLHelper.serializeXMLToBytes (aDoc));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.IMimeType;
+import com.helger.phase4.http.HttpXMLEntity;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Compare the allocations per receipt of serializing the response document
+ * for the SPIs, the HTTP response and the dumper separately with serializing it
+ * only once.
+ *
+ * @author Philip Helger
+ */
+public final class MainResponseSerializationBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainResponseSerializationBenchmark.class);
+  private static final int WARMUP = 5_000;
+  private static final int COUNT = 20_000;
+
+  @FunctionalInterface
+  private interface IRun
+  {
+    void run () throws IOException;
+  }
+
+  // The way it was done before: entity for the SPIs, String for the response
+  private static void _serializeThreeTimes (final Document aDoc, final IMimeType aMimeType) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      new HttpXMLEntity (aDoc, aMimeType).writeTo (aBAOS);
+      aBAOS.getBufferOrCopy ();
+    }
+    AS4XMLHelper.serializeXML (aDoc).getBytes (AS4XMLHelper.XWS.getCharset ());
+  }
+
+  private static void _serializeOnce (final Document aDoc)
+  {
+    AS4XMLHelper.serializeXMLToBytes (aDoc);
+  }
+
+  private static void _measure (final String sName, final IRun aRun) throws IOException
+  {
+    final com.sun.management.ThreadMXBean aThreadMX = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+    final long nThreadID = Thread.currentThread ().getId ();
+
+    for (int i = 0; i < WARMUP; ++i)
+      aRun.run ();
+
+    final long nBytesBefore = aThreadMX.getThreadAllocatedBytes (nThreadID);
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < COUNT; ++i)
+      aRun.run ();
+    final long nNanos = System.nanoTime () - nStart;
+    final long nBytes = aThreadMX.getThreadAllocatedBytes (nThreadID) - nBytesBefore;
+    LOGGER.info (sName + ": " + (nBytes / COUNT) + " bytes and " + (nNanos / COUNT / 1000) + " us per receipt");
+  }
+
+  public static void main (final String [] args) throws IOException
+  {
+    final ThreadMXBean aThreadMX = ManagementFactory.getThreadMXBean ();
+    if (!(aThreadMX instanceof com.sun.management.ThreadMXBean))
+    {
+      LOGGER.error ("This JVM does not support measuring thread allocations");
+      return;
+    }
+
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("soap11test/ReceiptMessage.xml"));
+    final IMimeType aMimeType = ESoapVersion.SOAP_11.getMimeType ();
+
+    _measure ("Serialized for SPIs, response and dumper", () -> _serializeThreeTimes (aDoc, aMimeType));
+    _measure ("Serialized once", () -> _serializeOnce (aDoc));
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.duplicate.AS4DuplicateItem;
+import com.helger.phase4.duplicate.IAS4DuplicateItem;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+
+/**
+ * A duplicate manager persisting into MVStore maps. The main map is indexed by
+ * message ID, and a second map is indexed by creation time, so that eviction
+ * only touches the items to be evicted. Registrations are not committed
+ * explicitly but in batches by the MVStore background writer.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class AS4DuplicateManagerMVStore implements IAS4DuplicateManager
+{
+  public static final String MAP_NAME = "duplicate";
+  public static final String TIME_INDEX_MAP_NAME = "duplicate-time";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerMVStore.class);
+  private static final char TIME_INDEX_SEPARATOR = ' ';
+
+  /**
+   * Helper class to access the protected constructor with date time.
+   */
+  private static final class MVStoreDuplicateItem extends AS4DuplicateItem
+  {
+    MVStoreDuplicateItem (@Nonnull final OffsetDateTime aDT,
+                          @Nonnull @Nonempty final String sMessageID,
+                          @Nullable final String sProfileID,
+                          @Nullable final String sPModeID)
+    {
+      super (aDT, sMessageID, sProfileID, sPModeID);
+    }
+  }
+
+  private final MVStore m_aStore;
+  private final MVMap <String, byte []> m_aMap;
+  private final MVMap <String, String> m_aTimeIndex;
+
+  public AS4DuplicateManagerMVStore (@Nonnull final MVStore aStore)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    m_aStore = aStore;
+    m_aMap = aStore.openMap (MAP_NAME);
+    m_aTimeIndex = aStore.openMap (TIME_INDEX_MAP_NAME);
+
+    if (m_aTimeIndex.sizeAsLong () != m_aMap.sizeAsLong ())
+    {
+      // E.g. after a crash between the two writes
+      LOGGER.warn ("Rebuilding duplicate time index in MVStore");
+      m_aTimeIndex.clear ();
+      for (final Map.Entry <String, byte []> aEntry : m_aMap.entrySet ())
+        m_aTimeIndex.put (_getTimeIndexKey (_decode (aEntry.getKey (), aEntry.getValue ())), "");
+      m_aStore.commit ();
+    }
+  }
+
+  @Nonnull
+  private static String _getTimeKey (@Nonnull final OffsetDateTime aDT)
+  {
+    // Fixed length, so that the lexicographic order is the time order
+    return StringHelper.getLeadingZero (aDT.toInstant ().toEpochMilli (), 19);
+  }
+
+  @Nonnull
+  private static String _getTimeIndexKey (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    return _getTimeKey (aItem.getDateTime ()) + TIME_INDEX_SEPARATOR + aItem.getMessageID ();
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    aDOS.writeBoolean (s != null);
+    if (s != null)
+      aDOS.writeUTF (s);
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    return aDIS.readBoolean () ? aDIS.readUTF () : null;
+  }
+
+  @Nonnull
+  private static byte [] _encode (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      final OffsetDateTime aDT = aItem.getDateTime ();
+      aDOS.writeLong (aDT.toInstant ().toEpochMilli ());
+      aDOS.writeInt (aDT.getOffset ().getTotalSeconds ());
+      _writeString (aDOS, aItem.getProfileID ());
+      _writeString (aDOS, aItem.getPModeID ());
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+  }
+
+  @Nonnull
+  private static AS4DuplicateItem _decode (@Nonnull final String sMessageID, @Nonnull final byte [] aBytes)
+  {
+    try (final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aBytes)))
+    {
+      final long nEpochMillis = aDIS.readLong ();
+      final int nOffsetSecs = aDIS.readInt ();
+      final String sProfileID = _readString (aDIS);
+      final String sPModeID = _readString (aDIS);
+      return new MVStoreDuplicateItem (OffsetDateTime.ofInstant (Instant.ofEpochMilli (nEpochMillis),
+                                                                 ZoneOffset.ofTotalSeconds (nOffsetSecs)),
+                                       sMessageID,
+                                       sProfileID,
+                                       sPModeID);
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+  }
+
+  /**
+   * Register the provided item, keeping its date time. This is e.g. used for
+   * migration.
+   *
+   * @param aItem
+   *        The item to be registered. May not be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} if the item was registered,
+   *         {@link EContinue#BREAK} if an item with the same message ID is
+   *         already contained.
+   */
+  @Nonnull
+  public EContinue registerItem (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+
+    if (m_aMap.putIfAbsent (aItem.getMessageID (), _encode (aItem)) != null)
+    {
+      // ID already in use
+      return EContinue.BREAK;
+    }
+    m_aTimeIndex.put (_getTimeIndexKey (aItem), "");
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    return registerItem (new AS4DuplicateItem (sMessageID, sProfileID, sPModeID));
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    if (m_aMap.isEmpty ())
+      return EChange.UNCHANGED;
+
+    m_aMap.clear ();
+    m_aTimeIndex.clear ();
+    m_aStore.commit ();
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    // Collect all index keys lower than the reference time
+    final String sRefKey = _getTimeKey (aRefDT);
+    final ICommonsList <String> aIndexKeys = new CommonsArrayList <> ();
+    final Iterator <String> it = m_aTimeIndex.keyIterator (null);
+    while (it.hasNext ())
+    {
+      final String sKey = it.next ();
+      if (sKey.compareTo (sRefKey) >= 0)
+        break;
+      aIndexKeys.add (sKey);
+    }
+
+    final ICommonsList <String> ret = new CommonsArrayList <> (aIndexKeys.size ());
+    for (final String sKey : aIndexKeys)
+    {
+      final String sMessageID = sKey.substring (sKey.indexOf (TIME_INDEX_SEPARATOR) + 1);
+      m_aTimeIndex.remove (sKey);
+      if (m_aMap.remove (sMessageID) != null)
+        ret.add (sMessageID);
+    }
+    return ret;
+  }
+
+  public void forEachMessageID (@Nonnull final Consumer <? super String> aConsumer)
+  {
+    // Iterates the keys without decoding the values
+    final Iterator <String> it = m_aMap.keyIterator (null);
+    while (it.hasNext ())
+      aConsumer.accept (it.next ());
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aMap.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final byte [] aBytes = m_aMap.get (sMessageID);
+    return aBytes == null ? null : _decode (sMessageID, aBytes);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    final ICommonsList <IAS4DuplicateItem> ret = new CommonsArrayList <> ();
+    for (final Map.Entry <String, byte []> aEntry : m_aMap.entrySet ())
+      ret.add (_decode (aEntry.getKey (), aEntry.getValue ()));
+    return ret;
+  }
+}
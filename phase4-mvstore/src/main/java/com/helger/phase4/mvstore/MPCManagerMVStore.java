@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.model.mpc.IMPC;
+import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.model.mpc.MPCManagerInMemory;
+
+/**
+ * Manager for {@link MPC} objects persisting into an MVStore map. All objects
+ * are kept in memory and each change is written and committed directly.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class MPCManagerMVStore implements IMPCManager
+{
+  public static final String MAP_NAME = "mpc";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPCManagerMVStore.class);
+
+  private final MVStore m_aStore;
+  private final MVMap <String, String> m_aMap;
+  private final MPCManagerInMemory m_aMem = new MPCManagerInMemory ();
+  private final SimpleLock m_aStoreLock = new SimpleLock ();
+
+  public MPCManagerMVStore (@Nonnull final MVStore aStore)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    m_aStore = aStore;
+    m_aMap = aStore.openMap (MAP_NAME);
+
+    for (final Map.Entry <String, String> aEntry : m_aMap.entrySet ())
+    {
+      final MPC aMPC = MVStoreHelper.getFromXML (aEntry.getValue (), MPC.class);
+      if (aMPC == null)
+        LOGGER.error ("Failed to read MPC with ID '" + aEntry.getKey () + "' from MVStore");
+      else
+        if (!m_aMem.containsWithID (aMPC.getID ()))
+          m_aMem.createMPC (aMPC);
+    }
+
+    // The default MPC is always present
+    if (!m_aMap.containsKey (CAS4.DEFAULT_MPC_ID))
+      _persist (CAS4.DEFAULT_MPC_ID);
+  }
+
+  private void _persist (@Nonnull final String sID)
+  {
+    m_aStoreLock.locked ( () -> {
+      final IMPC aMPC = m_aMem.getMPCOfID (sID);
+      if (aMPC == null)
+        m_aMap.remove (sID);
+      else
+        m_aMap.put (sID, MVStoreHelper.getAsXML (aMPC));
+      m_aStore.commit ();
+    });
+  }
+
+  public void createMPC (@Nonnull final MPC aMPC)
+  {
+    m_aMem.createMPC (aMPC);
+    _persist (aMPC.getID ());
+  }
+
+  @Nonnull
+  public EChange updateMPC (@Nonnull final IMPC aMPC)
+  {
+    final EChange eChange = m_aMem.updateMPC (aMPC);
+    if (eChange.isChanged ())
+      _persist (aMPC.getID ());
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange markMPCDeleted (@Nullable final String sMPCID)
+  {
+    final EChange eChange = m_aMem.markMPCDeleted (sMPCID);
+    if (eChange.isChanged ())
+      _persist (sMPCID);
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange deleteMPC (@Nullable final String sMPCID)
+  {
+    final EChange eChange = m_aMem.deleteMPC (sMPCID);
+    if (eChange.isChanged ())
+      _persist (sMPCID);
+    return eChange;
+  }
+
+  @Nullable
+  public IMPC getMPCOfID (@Nullable final String sID)
+  {
+    return m_aMem.getMPCOfID (sID);
+  }
+
+  public boolean containsWithID (@Nullable final String sID)
+  {
+    return m_aMem.containsWithID (sID);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Internal helper for storing objects with a registered micro type converter
+ * as XML strings in an MVStore map.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@Immutable
+final class MVStoreHelper
+{
+  private static final String ELEMENT_ITEM = "item";
+
+  private MVStoreHelper ()
+  {}
+
+  @Nonnull
+  static String getAsXML (@Nonnull final Object aObj)
+  {
+    final IMicroElement eItem = MicroTypeConverter.convertToMicroElement (aObj, ELEMENT_ITEM);
+    if (eItem == null)
+      throw new IllegalStateException ("Failed to convert " + aObj + " to XML");
+    return MicroWriter.getNodeAsString (eItem);
+  }
+
+  @Nullable
+  static <T> T getFromXML (@Nonnull final String sXML, @Nonnull final Class <T> aClass)
+  {
+    final IMicroDocument aDoc = MicroReader.readMicroXML (sXML);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      return null;
+    return MicroTypeConverter.convertToNative (aDoc.getDocumentElement (), aClass);
+  }
+}
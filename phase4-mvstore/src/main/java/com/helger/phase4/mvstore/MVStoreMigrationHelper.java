@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.dao.DAOException;
+import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.IAS4DuplicateItem;
+import com.helger.phase4.mgr.ManagerFactoryPersistingFileSystem;
+import com.helger.phase4.model.mpc.IMPC;
+import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.model.mpc.MPCManager;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeManager;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.app.io.WebFileIO;
+
+/**
+ * Migration from the XML files used by
+ * {@link ManagerFactoryPersistingFileSystem} into an MVStore used by
+ * {@link ManagerFactoryMVStore}. This must be called before the
+ * {@link com.helger.phase4.mgr.MetaAS4Manager} is initialized, after
+ * {@link WebFileIO} was initialized. Objects that are already contained in the
+ * MVStore are not overwritten, so the migration can be run multiple times.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@Immutable
+public final class MVStoreMigrationHelper
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MVStoreMigrationHelper.class);
+
+  private MVStoreMigrationHelper ()
+  {}
+
+  private static boolean _exists (@Nonnull final String sFilename)
+  {
+    final File aFile = WebFileIO.getDataIO ().getFile (sFilename);
+    return aFile.isFile ();
+  }
+
+  /**
+   * Copy all MPCs, PModes and incoming duplicates from the XML files in the
+   * {@link WebFileIO} data directory into the MVStore of the provided factory.
+   * Non-existing XML files are ignored.
+   *
+   * @param aTarget
+   *        The MVStore factory to migrate to. May not be <code>null</code>.
+   * @throws Phase4Exception
+   *         If an XML file cannot be read
+   */
+  public static void migrateFromXML (@Nonnull final ManagerFactoryMVStore aTarget) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (aTarget, "Target");
+
+    final MVStore aStore = aTarget.getStore ();
+    try
+    {
+      if (_exists (ManagerFactoryPersistingFileSystem.MPC_XML))
+      {
+        // MPCs first, as PModes may reference them
+        final MPCManagerMVStore aMPCMgr = new MPCManagerMVStore (aStore);
+        int nCount = 0;
+        for (final IMPC aMPC : new MPCManager (ManagerFactoryPersistingFileSystem.MPC_XML).getAll ())
+          if (aMPC instanceof MPC && !aMPCMgr.containsWithID (aMPC.getID ()))
+          {
+            aMPCMgr.createMPC ((MPC) aMPC);
+            nCount++;
+          }
+        LOGGER.info ("Migrated " + nCount + " MPCs to MVStore");
+      }
+
+      if (_exists (ManagerFactoryPersistingFileSystem.PMODE_XML))
+      {
+        final PModeManagerMVStore aPModeMgr = new PModeManagerMVStore (aStore);
+        int nCount = 0;
+        for (final IPMode aPMode : new PModeManager (ManagerFactoryPersistingFileSystem.PMODE_XML).getAll ())
+          if (aPMode instanceof PMode && aPModeMgr.getPModeOfID (aPMode.getID ()) == null)
+          {
+            aPModeMgr.createPMode ((PMode) aPMode);
+            nCount++;
+          }
+        LOGGER.info ("Migrated " + nCount + " PModes to MVStore");
+      }
+
+      if (_exists (ManagerFactoryPersistingFileSystem.INCOMING_DUPLICATE_XML))
+      {
+        final AS4DuplicateManagerMVStore aDuplicateMgr = new AS4DuplicateManagerMVStore (aStore);
+        int nCount = 0;
+        for (final IAS4DuplicateItem aItem : new AS4DuplicateManager (ManagerFactoryPersistingFileSystem.INCOMING_DUPLICATE_XML).getAll ())
+          if (aDuplicateMgr.registerItem (aItem).isContinue ())
+            nCount++;
+        LOGGER.info ("Migrated " + nCount + " incoming duplicates to MVStore");
+      }
+    }
+    catch (final DAOException ex)
+    {
+      throw new Phase4Exception ("Error reading XML based managers for migration", ex);
+    }
+    aStore.commit ();
+  }
+}
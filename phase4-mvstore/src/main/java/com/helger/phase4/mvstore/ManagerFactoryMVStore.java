@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.io.File;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.mgr.IAS4TimestampManager;
+import com.helger.phase4.mgr.IManagerFactory;
+import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.profile.AS4ProfileManager;
+import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.photon.app.io.WebFileIO;
+
+/**
+ * Implementation of {@link IManagerFactory} creating managers that are
+ * persisting into a single embedded H2 MVStore file. In contrast to
+ * {@link com.helger.phase4.mgr.ManagerFactoryPersistingFileSystem} only the
+ * changed entries are written, and the content is read lazily upon startup.
+ * Duplicate registrations are committed in batches by the MVStore background
+ * writer, all other changes are committed directly.<br>
+ * Use {@link com.helger.phase4.mgr.MetaAS4Manager#setFactory(IManagerFactory)}
+ * to activate it.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class ManagerFactoryMVStore implements IManagerFactory, AutoCloseable
+{
+  public static final String DEFAULT_FILENAME = "as4-store.mv.db";
+  public static final int DEFAULT_AUTO_COMMIT_DELAY_MS = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ManagerFactoryMVStore.class);
+
+  private final File m_aFile;
+  private final int m_nAutoCommitDelayMS;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private MVStore m_aStore;
+
+  /**
+   * Constructor using the file {@link #DEFAULT_FILENAME} in the
+   * {@link WebFileIO} data directory. The file is resolved when the first
+   * manager is created.
+   */
+  public ManagerFactoryMVStore ()
+  {
+    this (null, DEFAULT_AUTO_COMMIT_DELAY_MS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aFile
+   *        The MVStore file to use. May be <code>null</code> to use the file
+   *        {@link #DEFAULT_FILENAME} in the {@link WebFileIO} data directory.
+   * @param nAutoCommitDelayMS
+   *        The maximum delay in milliseconds after which uncommitted changes
+   *        (like duplicate registrations) are written to disk. Must be &ge; 0.
+   *        0 disables auto-commit.
+   */
+  public ManagerFactoryMVStore (@Nullable final File aFile, @Nonnegative final int nAutoCommitDelayMS)
+  {
+    ValueEnforcer.isGE0 (nAutoCommitDelayMS, "AutoCommitDelayMS");
+    m_aFile = aFile;
+    m_nAutoCommitDelayMS = nAutoCommitDelayMS;
+  }
+
+  /**
+   * @return The underlying MVStore. It is opened on first access. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public MVStore getStore ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      if (m_aStore == null)
+      {
+        final File aFile = m_aFile != null ? m_aFile : WebFileIO.getDataIO ().getFile (DEFAULT_FILENAME);
+        FileHelper.ensureParentDirectoryIsPresent (aFile);
+        LOGGER.info ("Opening MVStore '" + aFile.getAbsolutePath () + "'");
+        m_aStore = new MVStore.Builder ().fileName (aFile.getAbsolutePath ()).autoCommitDelay (m_nAutoCommitDelayMS).open ();
+      }
+      return m_aStore;
+    });
+  }
+
+  @Nonnull
+  public IMPCManager createMPCManager ()
+  {
+    return new MPCManagerMVStore (getStore ());
+  }
+
+  @Nonnull
+  public IPModeManager createPModeManager ()
+  {
+    return new PModeManagerMVStore (getStore ());
+  }
+
+  @Nonnull
+  public IAS4DuplicateManager createDuplicateManager ()
+  {
+    return new AS4DuplicateManagerMVStore (getStore ());
+  }
+
+  @Nonnull
+  public IAS4ProfileManager createProfileManager ()
+  {
+    // Always in memory
+    return new AS4ProfileManager ();
+  }
+
+  @Nonnull
+  public IAS4TimestampManager createTimestampManager ()
+  {
+    return IAS4TimestampManager.createDefaultInstance ();
+  }
+
+  /**
+   * Commit all pending changes and close the underlying store. Afterwards the
+   * created managers may no longer be used.
+   */
+  public void close ()
+  {
+    m_aLock.locked ( () -> {
+      if (m_aStore != null)
+      {
+        m_aStore.close ();
+        m_aStore = null;
+      }
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile)
+                                       .append ("AutoCommitDelayMS", m_nAutoCommitDelayMS)
+                                       .getToString ();
+  }
+}
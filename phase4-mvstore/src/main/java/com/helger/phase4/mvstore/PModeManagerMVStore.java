@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeManagerInMemory;
+
+/**
+ * Manager for {@link PMode} objects persisting into an MVStore map. All objects
+ * are kept in memory and each change only writes the changed PMode and
+ * commits directly.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+@ThreadSafe
+public class PModeManagerMVStore implements IPModeManager
+{
+  public static final String MAP_NAME = "pmode";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PModeManagerMVStore.class);
+
+  private final MVStore m_aStore;
+  private final MVMap <String, String> m_aMap;
+  private final PModeManagerInMemory m_aMem;
+  private final SimpleLock m_aStoreLock = new SimpleLock ();
+
+  public PModeManagerMVStore (@Nonnull final MVStore aStore)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    m_aStore = aStore;
+    m_aMap = aStore.openMap (MAP_NAME);
+
+    final ICommonsList <PMode> aPModes = new CommonsArrayList <> (m_aMap.size ());
+    for (final Map.Entry <String, String> aEntry : m_aMap.entrySet ())
+    {
+      final PMode aPMode = MVStoreHelper.getFromXML (aEntry.getValue (), PMode.class);
+      if (aPMode == null)
+        LOGGER.error ("Failed to read PMode with ID '" + aEntry.getKey () + "' from MVStore");
+      else
+        aPModes.add (aPMode);
+    }
+    // Build the index only once
+    m_aMem = new PModeManagerInMemory (aPModes);
+  }
+
+  private void _persist (@Nonnull final String sID)
+  {
+    m_aStoreLock.locked ( () -> {
+      final IPMode aPMode = m_aMem.getPModeOfID (sID);
+      if (aPMode == null)
+        m_aMap.remove (sID);
+      else
+        m_aMap.put (sID, MVStoreHelper.getAsXML (aPMode));
+      m_aStore.commit ();
+    });
+  }
+
+  public void createPMode (@Nonnull final PMode aPMode)
+  {
+    m_aMem.createPMode (aPMode);
+    _persist (aPMode.getID ());
+  }
+
+  @Nonnull
+  public EChange updatePMode (@Nonnull final IPMode aPMode)
+  {
+    final EChange eChange = m_aMem.updatePMode (aPMode);
+    if (eChange.isChanged ())
+      _persist (aPMode.getID ());
+    return eChange;
+  }
+
+  @Nonnull
+  public void createOrUpdatePMode (@Nonnull final PMode aPMode)
+  {
+    m_aMem.createOrUpdatePMode (aPMode);
+    _persist (aPMode.getID ());
+  }
+
+  @Nonnull
+  public EChange markPModeDeleted (@Nullable final String sPModeID)
+  {
+    final EChange eChange = m_aMem.markPModeDeleted (sPModeID);
+    if (eChange.isChanged ())
+      _persist (sPModeID);
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange deletePMode (@Nullable final String sPModeID)
+  {
+    final EChange eChange = m_aMem.deletePMode (sPModeID);
+    if (eChange.isChanged ())
+      _persist (sPModeID);
+    return eChange;
+  }
+
+  @Nullable
+  public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    return m_aMem.findFirst (aFilter);
+  }
+
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aMem.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfInitiatorID (@Nullable final String sInitiatorID)
+  {
+    return m_aMem.getAllPModesOfInitiatorID (sInitiatorID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfResponderID (@Nullable final String sResponderID)
+  {
+    return m_aMem.getAllPModesOfResponderID (sResponderID);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aMem.getAllPModesOfAgreement (sAgreement);
+  }
+
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    return m_aMem.getPModeOfID (sID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAll ()
+  {
+    return m_aMem.getAll ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIDs ()
+  {
+    return m_aMem.getAllIDs ();
+  }
+}
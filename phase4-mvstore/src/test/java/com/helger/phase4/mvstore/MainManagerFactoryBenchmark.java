@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.timing.StopWatch;
+import com.helger.dao.DAOException;
+import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.mgr.ManagerFactoryPersistingFileSystem;
+import com.helger.photon.app.io.WebFileIO;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.web.scope.mgr.WebScopeManager;
+
+/**
+ * Compare startup time and write throughput of the XML based duplicate manager
+ * with the MVStore based duplicate manager.
+ *
+ * @author Philip Helger
+ */
+public final class MainManagerFactoryBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainManagerFactoryBenchmark.class);
+  private static final int COUNT = 20_000;
+
+  private static void _register (final String sName, final IAS4DuplicateManager aMgr)
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < COUNT; ++i)
+      aMgr.registerAndCheck ("msg-" + i, "profile", "pmode");
+    final long nMillis = Math.max (1, aSW.stopAndGetMillis ());
+    LOGGER.info (sName + ": registered " + COUNT + " message IDs in " + nMillis + " ms (" + (COUNT * 1000L / nMillis) + "/s)");
+  }
+
+  public static void main (final String [] args) throws DAOException
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    final File aBaseDir = new File ("target/benchmark").getAbsoluteFile ();
+    new FileOperationManager ().deleteDirRecursiveIfExisting (aBaseDir);
+    WebFileIO.initPaths (aBaseDir, aBaseDir.getAbsolutePath (), false);
+    try
+    {
+      // XML variant
+      _register ("XML", new AS4DuplicateManager (ManagerFactoryPersistingFileSystem.INCOMING_DUPLICATE_XML));
+      StopWatch aSW = StopWatch.createdStarted ();
+      final int nXMLSize = new AS4DuplicateManager (ManagerFactoryPersistingFileSystem.INCOMING_DUPLICATE_XML).size ();
+      LOGGER.info ("XML: startup with " + nXMLSize + " message IDs took " + aSW.stopAndGetMillis () + " ms");
+
+      // MVStore variant
+      final File aFile = WebFileIO.getDataIO ().getFile (ManagerFactoryMVStore.DEFAULT_FILENAME);
+      try (final ManagerFactoryMVStore aFactory = new ManagerFactoryMVStore (aFile, ManagerFactoryMVStore.DEFAULT_AUTO_COMMIT_DELAY_MS))
+      {
+        _register ("MVStore", aFactory.createDuplicateManager ());
+      }
+      aSW = StopWatch.createdStarted ();
+      try (final ManagerFactoryMVStore aFactory = new ManagerFactoryMVStore (aFile, ManagerFactoryMVStore.DEFAULT_AUTO_COMMIT_DELAY_MS))
+      {
+        final int nMVStoreSize = aFactory.createDuplicateManager ().size ();
+        LOGGER.info ("MVStore: startup with " + nMVStoreSize + " message IDs took " + aSW.stopAndGetMillis () + " ms");
+      }
+    }
+    finally
+    {
+      WebScopeManager.onGlobalEnd ();
+    }
+  }
+}
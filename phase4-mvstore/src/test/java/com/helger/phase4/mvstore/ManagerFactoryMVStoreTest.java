@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mvstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.duplicate.IAS4DuplicateItem;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeParty;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+
+/**
+ * Test class for class {@link ManagerFactoryMVStore}.
+ *
+ * @author Philip Helger
+ */
+public final class ManagerFactoryMVStoreTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new PhotonAppWebTestRule ();
+
+  @Test
+  public void testPersistence ()
+  {
+    final File aFile = new File ("target/junit-mvstore/persistence.mv.db");
+    FileOperations.deleteFileIfExisting (aFile);
+
+    try (final ManagerFactoryMVStore aFactory = new ManagerFactoryMVStore (aFile, 0))
+    {
+      final IMPCManager aMPCMgr = aFactory.createMPCManager ();
+      aMPCMgr.createMPC (new MPC ("mpc1"));
+
+      final IPModeManager aPModeMgr = aFactory.createPModeManager ();
+      aPModeMgr.createPMode (new PMode ("pmode1",
+                                        PModeParty.createSimple ("initiator", CAS4.DEFAULT_INITIATOR_URL),
+                                        PModeParty.createSimple ("responder", CAS4.DEFAULT_RESPONDER_URL),
+                                        "agreement",
+                                        EMEP.ONE_WAY,
+                                        EMEPBinding.PUSH,
+                                        null,
+                                        null,
+                                        null,
+                                        null));
+
+      final IAS4DuplicateManager aDuplicateMgr = aFactory.createDuplicateManager ();
+      assertEquals (EContinue.CONTINUE, aDuplicateMgr.registerAndCheck ("msg1", "profile", "pmode1"));
+      assertEquals (EContinue.BREAK, aDuplicateMgr.registerAndCheck ("msg1", "profile", "pmode1"));
+    }
+
+    // Re-open
+    try (final ManagerFactoryMVStore aFactory = new ManagerFactoryMVStore (aFile, 0))
+    {
+      final IMPCManager aMPCMgr = aFactory.createMPCManager ();
+      assertTrue (aMPCMgr.containsWithID (CAS4.DEFAULT_MPC_ID));
+      assertTrue (aMPCMgr.containsWithID ("mpc1"));
+
+      final IPMode aPMode = aFactory.createPModeManager ().getPModeOfID ("pmode1");
+      assertNotNull (aPMode);
+      assertEquals ("initiator", aPMode.getInitiatorID ());
+      assertEquals ("agreement", aPMode.getAgreement ());
+
+      final IAS4DuplicateManager aDuplicateMgr = aFactory.createDuplicateManager ();
+      assertEquals (1, aDuplicateMgr.size ());
+      final IAS4DuplicateItem aItem = aDuplicateMgr.getItemOfMessageID ("msg1");
+      assertNotNull (aItem);
+      assertEquals ("profile", aItem.getProfileID ());
+      assertEquals ("pmode1", aItem.getPModeID ());
+      assertNull (aDuplicateMgr.getItemOfMessageID ("msg2"));
+      assertEquals (EContinue.BREAK, aDuplicateMgr.registerAndCheck ("msg1", null, null));
+
+      // Evict
+      assertEquals (0, aDuplicateMgr.evictAllItemsBefore (aItem.getDateTime ()).size ());
+      assertEquals (1,
+                    aDuplicateMgr.evictAllItemsBefore (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusMinutes (1))
+                                 .size ());
+      assertTrue (aDuplicateMgr.isEmpty ());
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+}
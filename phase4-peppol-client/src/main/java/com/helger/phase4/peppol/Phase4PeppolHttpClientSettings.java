@@ -18,6 +18,7 @@ package com.helger.phase4.peppol;
 
 import java.security.GeneralSecurityException;
 
+import javax.annotation.Nonnull;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 
@@ -25,9 +26,11 @@ import org.apache.hc.core5.util.Timeout;
 
 import com.helger.commons.ws.TrustManagerTrustAll;
 import com.helger.http.tls.ETLSVersion;
+import com.helger.httpclient.HttpClientFactory;
 import com.helger.httpclient.HttpClientSettings;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.CAS4Version;
+import com.helger.phase4.http.AS4HttpClientPool;
 
 /**
  * Special {@link HttpClientSettings} with better defaults for Peppol.
@@ -58,4 +61,33 @@ public class Phase4PeppolHttpClientSettings extends HttpClientSettings
     // Set an explicit user agent
     setUserAgent (CAS4.LIB_NAME + "/" + CAS4Version.BUILD_VERSION + " " + CAS4.LIB_URL);
   }
+
+  private static final class SharedFactoryHolder
+  {
+    static final HttpClientFactory INSTANCE;
+    static
+    {
+      try
+      {
+        INSTANCE = new HttpClientFactory (new Phase4PeppolHttpClientSettings ());
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw new IllegalStateException ("Failed to create shared Peppol HttpClientFactory", ex);
+      }
+    }
+  }
+
+  /**
+   * @return A single {@link HttpClientFactory} instance using the default
+   *         Peppol settings. Using the same factory for all transmissions
+   *         allows {@link AS4HttpClientPool} to reuse connections. The returned
+   *         object must not be modified. Never <code>null</code>.
+   * @since 1.4.4
+   */
+  @Nonnull
+  public static HttpClientFactory getSharedHttpClientFactory ()
+  {
+    return SharedFactoryHolder.INSTANCE;
+  }
 }
@@ -64,6 +64,7 @@ import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.http.AS4HttpClientPool;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.profile.peppol.PeppolPMode;
@@ -345,7 +346,10 @@ public final class Phase4PeppolSender
       try
       {
         // Use the Peppol specific timeout settings
-        httpClientFactory (new Phase4PeppolHttpClientSettings ());
+        if (AS4HttpClientPool.isEnabled ())
+          httpClientFactory (Phase4PeppolHttpClientSettings.getSharedHttpClientFactory ());
+        else
+          httpClientFactory (new Phase4PeppolHttpClientSettings ());
         agreementRef (PeppolPMode.DEFAULT_AGREEMENT_ID);
         fromPartyIDType (PeppolPMode.DEFAULT_PARTY_TYPE_ID);
         fromRole (CAS4.DEFAULT_INITIATOR_URL);
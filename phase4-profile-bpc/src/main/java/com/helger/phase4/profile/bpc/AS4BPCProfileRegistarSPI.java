@@ -57,7 +57,8 @@ public final class AS4BPCProfileRegistarSPI implements IAS4ProfileRegistrarSPI
                                                 BPCCompatibilityValidator::new,
                                                 aDefaultPModeProvider,
                                                 PMODE_ID_PROVIDER,
-                                                false);
+                                                false,
+                                                true);
     aRegistrar.registerProfile (aProfile);
     aRegistrar.setDefaultProfile (aProfile);
   }
@@ -64,7 +64,8 @@ public final class AS4CEFProfileRegistarSPI implements IAS4ProfileRegistrarSPI
                                                           () -> new CEFCompatibilityValidator ().setExpectFourCornerModel (true),
                                                           aDefaultPModeProvider,
                                                           PMODE_ID_PROVIDER,
-                                                          false);
+                                                          false,
+                                                          true);
     aRegistrar.registerProfile (aProfileFourCorner);
 
     if (LOGGER.isDebugEnabled ())
@@ -74,7 +75,8 @@ public final class AS4CEFProfileRegistarSPI implements IAS4ProfileRegistrarSPI
                                                          () -> new CEFCompatibilityValidator ().setExpectFourCornerModel (false),
                                                          aDefaultPModeProvider,
                                                          PMODE_ID_PROVIDER,
-                                                         false);
+                                                         false,
+                                                         true);
     aRegistrar.registerProfile (aProfileTwoCorner);
 
     // The four corner profile is the default
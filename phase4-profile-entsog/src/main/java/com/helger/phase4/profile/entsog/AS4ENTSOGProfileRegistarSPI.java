@@ -56,7 +56,8 @@ public final class AS4ENTSOGProfileRegistarSPI implements IAS4ProfileRegistrarSP
                                                 ENTSOGCompatibilityValidator::new,
                                                 aDefaultPModeProvider,
                                                 PMODE_ID_PROVIDER,
-                                                false);
+                                                false,
+                                                true);
     aRegistrar.registerProfile (aProfile);
     aRegistrar.setDefaultProfile (aProfile);
   }
@@ -53,7 +53,8 @@ public final class AS4PeppolProfileRegistarSPI implements IAS4ProfileRegistrarSP
                                                 PeppolCompatibilityValidator::new,
                                                 aDefaultPModeProvider,
                                                 PMODE_ID_PROVIDER,
-                                                false);
+                                                false,
+                                                true);
     aRegistrar.registerProfile (aProfile);
     aRegistrar.setDefaultProfile (aProfile);
   }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.servlet;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import com.helger.phase4.servlet.AS4AsyncServlet;
+import com.helger.phase4.servlet.AS4XServletHandler;
+
+/**
+ * Test version of {@link AS4AsyncServlet} with an executor that rejects all
+ * requests, as if it was saturated.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public final class MockRejectingAS4AsyncServlet extends AS4AsyncServlet
+{
+  public MockRejectingAS4AsyncServlet ()
+  {
+    super (new AS4XServletHandler (), aTask -> {
+      throw new RejectedExecutionException ("Saturated for testing");
+    }, DEFAULT_MAX_IN_MEMORY_BYTES, DEFAULT_ASYNC_TIMEOUT_MS);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.servlet;
+
+import com.helger.phase4.servlet.AS4AsyncServlet;
+import com.helger.phase4.servlet.AS4XServletHandler;
+
+/**
+ * Test version of {@link AS4AsyncServlet} with an executor that never runs the
+ * processing, so that every request times out. All request bodies are spooled
+ * to a temporary file.
+ *
+ * @author Philip Helger
+ * @since 1.4.4
+ */
+public final class MockTimingOutAS4AsyncServlet extends AS4AsyncServlet
+{
+  public static final long TIMEOUT_MS = 500;
+
+  public MockTimingOutAS4AsyncServlet ()
+  {
+    super (new AS4XServletHandler (), aTask -> {
+      // Never run
+    }, 0, TIMEOUT_MS);
+  }
+}
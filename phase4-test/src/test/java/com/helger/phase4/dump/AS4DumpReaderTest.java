@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.AS4CryptParams;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.http.HttpMimeMessageEntity;
+import com.helger.phase4.messaging.crypto.AS4Encryptor;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.server.AbstractAS4TestSetUp;
+import com.helger.phase4.server.message.MockMessages;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.web.scope.mgr.WebScopeManager;
+
+/**
+ * Round trip test for class {@link AS4DumpReader}: encrypted messages are
+ * dumped with {@link AS4IncomingDumperFileBased} and decrypted again.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpReaderTest extends AbstractAS4TestSetUp
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+
+  private static AS4ResourceHelper s_aResMgr;
+
+  private final IAS4CryptoFactory m_aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    s_aResMgr = new AS4ResourceHelper ();
+  }
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    s_aResMgr.close ();
+    s_aResMgr = null;
+    WebScopeManager.onGlobalEnd ();
+  }
+
+  @Nonnull
+  private static byte [] _createPayload (final int nIndex)
+  {
+    return ("<root><index>" + nIndex + "</index></root>").getBytes (StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create an encrypted user message with one attachment and dump it like an
+   * incoming message.
+   */
+  @Nonnull
+  private File _dumpEncryptedMessage (@Nonnull final File aDir, final int nIndex) throws Exception
+  {
+    final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
+    aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment (Phase4OutgoingAttachment.builder ()
+                                                                                            .data (_createPayload (nIndex))
+                                                                                            .mimeTypeXML ()
+                                                                                            .build (),
+                                                                    s_aResMgr));
+    final AS4UserMessage aMsg = MockMessages.createUserMessageNotSigned (SOAP_VERSION, null, aAttachments);
+    final AS4MimeMessage aMimeMsg = AS4Encryptor.encryptMimeMessage (SOAP_VERSION,
+                                                                     aMsg.getAsSoapDocument (),
+                                                                     aAttachments,
+                                                                     m_aCryptoFactory,
+                                                                     false,
+                                                                     s_aResMgr,
+                                                                     AS4CryptParams.createDefault ().setAlias ("ph-as4"));
+    final HttpHeaderMap aHeaders = MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+
+    final File aFile = new File (aDir, "dump-" + nIndex + AS4IncomingDumperFileBased.IFileProvider.DEFAULT_FILE_EXTENSION);
+    final AS4IncomingDumperFileBased aDumper = new AS4IncomingDumperFileBased ( (aMessageMetadata, aHttpHeaderMap) -> aFile);
+    try (final OutputStream aOS = aDumper.onNewRequest (AS4IncomingMessageMetadata.createForRequest (), aHeaders))
+    {
+      HttpMimeMessageEntity.create (aMimeMsg).writeTo (aOS);
+    }
+    return aFile;
+  }
+
+  @Test
+  public void testSingle () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-dump-reader").toFile ();
+    try
+    {
+      final File aFile = _dumpEncryptedMessage (aDir, 1);
+
+      final AtomicInteger aHeaderCount = new AtomicInteger (0);
+      final AtomicInteger aCount = new AtomicInteger (0);
+      AS4DumpReader.decryptAS4In (aFile, m_aCryptoFactory, aHM -> aHeaderCount.set (aHM.getCount ()), (nIndex, aPayload) -> {
+        assertEquals (0, nIndex);
+        assertArrayEquals (_createPayload (1), aPayload);
+        aCount.incrementAndGet ();
+      });
+      assertEquals (1, aCount.get ());
+      assertTrue (aHeaderCount.get () > 0);
+
+      // The mapping was released, so the file can be deleted (on Windows)
+      assertTrue (FileOperationManager.INSTANCE.deleteFile (aFile).isSuccess ());
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testBulk () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-dump-reader").toFile ();
+    try
+    {
+      final int nCount = 5;
+      for (int i = 0; i < nCount; ++i)
+        _dumpEncryptedMessage (aDir, i);
+
+      final ICommonsMap <String, byte []> aDecrypted = new CommonsConcurrentHashMap <> ();
+      final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+      final int nSuccess = AS4DumpReader.decryptAS4InBulk (aDir,
+                                                           m_aCryptoFactory,
+                                                           3,
+                                                           new AS4DumpReader.IBulkDecryptedPayloadConsumer ()
+                                                           {
+                                                             public void accept (final String sSource,
+                                                                                 final int nAttachmentIndex,
+                                                                                 final byte [] aPayload)
+                                                             {
+                                                               aDecrypted.put (new File (sSource).getName (), aPayload);
+                                                             }
+
+                                                             @Override
+                                                             public void onError (final String sSource, final Exception aException)
+                                                             {
+                                                               synchronized (aErrors)
+                                                               {
+                                                                 aErrors.add (sSource);
+                                                               }
+                                                             }
+                                                           });
+      assertTrue (aErrors.toString (), aErrors.isEmpty ());
+      assertEquals (nCount, nSuccess);
+      assertEquals (nCount, aDecrypted.size ());
+      for (int i = 0; i < nCount; ++i)
+        assertArrayEquals (_createPayload (i),
+                           aDecrypted.get ("dump-" + i + AS4IncomingDumperFileBased.IFileProvider.DEFAULT_FILE_EXTENSION));
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
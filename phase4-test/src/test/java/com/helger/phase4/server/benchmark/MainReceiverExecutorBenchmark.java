@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.phase4.servlet.AS4ReceiverExecutorManager;
+
+/**
+ * Compare the throughput and the number of threads of the receiver executors
+ * with blocking SPIs. Each simulated request blocks for some milliseconds, as
+ * an SPI calling a database or a downstream system would do. Run with Java 21+
+ * to include the virtual thread executor.
+ *
+ * @author Philip Helger
+ */
+public final class MainReceiverExecutorBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainReceiverExecutorBenchmark.class);
+  private static final int CONCURRENT_REQUESTS = 5_000;
+  private static final long SPI_BLOCKING_MILLIS = 50;
+
+  private static void _run (@Nonnull final String sName, @Nonnull final ExecutorService aES) throws InterruptedException
+  {
+    final ThreadMXBean aThreadMX = ManagementFactory.getThreadMXBean ();
+    aThreadMX.resetPeakThreadCount ();
+    final int nThreadsBefore = aThreadMX.getThreadCount ();
+
+    final long [] aLatencyNanos = new long [CONCURRENT_REQUESTS];
+    final CountDownLatch aDone = new CountDownLatch (CONCURRENT_REQUESTS);
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < CONCURRENT_REQUESTS; ++i)
+    {
+      final int nIndex = i;
+      aES.execute ( () -> {
+        // The blocking SPI
+        ThreadHelper.sleep (SPI_BLOCKING_MILLIS);
+        aLatencyNanos[nIndex] = System.nanoTime () - nStart;
+        aDone.countDown ();
+      });
+    }
+    aDone.await ();
+    final long nDurationNanos = System.nanoTime () - nStart;
+    final int nPeakThreads = aThreadMX.getPeakThreadCount ();
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+    Arrays.sort (aLatencyNanos);
+    LOGGER.info (sName +
+                 ": " +
+                 CONCURRENT_REQUESTS +
+                 " requests in " +
+                 TimeUnit.NANOSECONDS.toMillis (nDurationNanos) +
+                 " ms (" +
+                 (CONCURRENT_REQUESTS * TimeUnit.SECONDS.toNanos (1) / nDurationNanos) +
+                 "/s); p50=" +
+                 TimeUnit.NANOSECONDS.toMillis (aLatencyNanos[CONCURRENT_REQUESTS / 2]) +
+                 " ms; p99=" +
+                 TimeUnit.NANOSECONDS.toMillis (aLatencyNanos[CONCURRENT_REQUESTS * 99 / 100]) +
+                 " ms; peak threads=" +
+                 nPeakThreads +
+                 " (" +
+                 nThreadsBefore +
+                 " before)");
+  }
+
+  public static void main (final String [] args) throws InterruptedException
+  {
+    _run ("Platform threads (default size " + AS4ReceiverExecutorManager.DEFAULT_MAX_PLATFORM_THREADS + ")",
+          AS4ReceiverExecutorManager.createPlatformThreadExecutorService (AS4ReceiverExecutorManager.DEFAULT_MAX_PLATFORM_THREADS,
+                                                                          CONCURRENT_REQUESTS));
+    _run ("Platform threads (size 500)", AS4ReceiverExecutorManager.createPlatformThreadExecutorService (500, CONCURRENT_REQUESTS));
+
+    final ExecutorService aVirtual = AS4ReceiverExecutorManager.createVirtualThreadExecutorService (CONCURRENT_REQUESTS);
+    if (aVirtual != null)
+      _run ("Virtual threads", aVirtual);
+    else
+      LOGGER.warn ("Virtual threads are not available in this runtime - use Java 21 or later");
+  }
+}
@@ -132,11 +132,21 @@ public abstract class AbstractUserMessageTestSetUp extends AbstractAS4TestSetUp
     }
   }
 
+  /**
+   * @return The URL of the AS4 server to send to. Never <code>null</code>.
+   *         Override to send to a different servlet.
+   */
+  @Nonnull
+  protected String getServerURL ()
+  {
+    return MockJettySetup.getServerAddressFromSettings ();
+  }
+
   @Nonnull
   private HttpPost _createPost ()
   {
     final IConfig aConfig = AS4Configuration.getConfig ();
-    final String sURL = MockJettySetup.getServerAddressFromSettings ();
+    final String sURL = getServerURL ();
 
     LOGGER.info ("The following test case will only work if there is a local AS4 server running @ " + sURL);
     final HttpPost aPost = new HttpPost (sURL);
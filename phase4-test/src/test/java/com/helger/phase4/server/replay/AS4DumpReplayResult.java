@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.replay;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+
+/**
+ * The result of a single {@link AS4DumpReplayer} run.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpReplayResult
+{
+  private final int m_nRequestCount;
+  private final int m_nSuccessCount;
+  private final long m_nDurationNanos;
+  private final long [] m_aSortedLatencyNanos;
+  private final ICommonsOrderedMap <String, Long> m_aAllocatedBytes;
+
+  AS4DumpReplayResult (@Nonnegative final int nSuccessCount,
+                       @Nonnegative final long nDurationNanos,
+                       @Nonnull final long [] aLatencyNanos,
+                       @Nonnull final Map <String, Long> aAllocatedBytes)
+  {
+    ValueEnforcer.isGE0 (nSuccessCount, "SuccessCount");
+    ValueEnforcer.isGE0 (nDurationNanos, "DurationNanos");
+    ValueEnforcer.notNull (aLatencyNanos, "LatencyNanos");
+    ValueEnforcer.notNull (aAllocatedBytes, "AllocatedBytes");
+    m_nRequestCount = aLatencyNanos.length;
+    m_nSuccessCount = nSuccessCount;
+    m_nDurationNanos = nDurationNanos;
+    m_aSortedLatencyNanos = aLatencyNanos.clone ();
+    Arrays.sort (m_aSortedLatencyNanos);
+    m_aAllocatedBytes = new CommonsLinkedHashMap <> (aAllocatedBytes);
+  }
+
+  /**
+   * @return The total number of replayed requests. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getRequestCount ()
+  {
+    return m_nRequestCount;
+  }
+
+  /**
+   * @return The number of requests that were answered with a 2xx status code
+   *         and did not contain an ebMS error. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSuccessCount ()
+  {
+    return m_nSuccessCount;
+  }
+
+  /**
+   * @return The number of requests that failed. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getFailureCount ()
+  {
+    return m_nRequestCount - m_nSuccessCount;
+  }
+
+  /**
+   * @return The wall clock duration of the whole run in milliseconds.
+   */
+  @Nonnegative
+  public long getDurationMillis ()
+  {
+    return TimeUnit.NANOSECONDS.toMillis (m_nDurationNanos);
+  }
+
+  /**
+   * @return The number of requests per second over the whole run.
+   */
+  public double getThroughputPerSecond ()
+  {
+    if (m_nDurationNanos == 0)
+      return 0;
+    return m_nRequestCount * (double) TimeUnit.SECONDS.toNanos (1) / m_nDurationNanos;
+  }
+
+  /**
+   * Get the latency at the provided percentile.
+   *
+   * @param dPercentile
+   *        The percentile in the range 0 to 100, e.g. 99.9.
+   * @return The latency in microseconds or 0 if no request was sent.
+   */
+  @Nonnegative
+  public long getLatencyMicros (final double dPercentile)
+  {
+    ValueEnforcer.isBetweenInclusive (dPercentile, "Percentile", 0, 100);
+    if (m_aSortedLatencyNanos.length == 0)
+      return 0;
+    // Nearest rank method
+    final int nRank = (int) Math.ceil (dPercentile / 100 * m_aSortedLatencyNanos.length);
+    final int nIndex = Math.max (0, Math.min (m_aSortedLatencyNanos.length - 1, nRank - 1));
+    return TimeUnit.NANOSECONDS.toMicros (m_aSortedLatencyNanos[nIndex]);
+  }
+
+  /**
+   * @return The allocated bytes per stage, in the order the stages were
+   *         measured. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Long> getAllAllocatedBytes ()
+  {
+    return m_aAllocatedBytes.getClone ();
+  }
+
+  /**
+   * @return A multi line human readable report. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getAsReport ()
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    aSB.append ("Requests:   ")
+       .append (m_nRequestCount)
+       .append (" (")
+       .append (m_nSuccessCount)
+       .append (" successful, ")
+       .append (getFailureCount ())
+       .append (" failed)\n");
+    aSB.append ("Duration:   ").append (getDurationMillis ()).append (" ms\n");
+    aSB.append ("Throughput: ").append (String.format ("%.1f", Double.valueOf (getThroughputPerSecond ()))).append (" requests/s\n");
+    aSB.append ("Latency:    ");
+    for (final double d : new double [] { 50, 90, 99, 99.9, 100 })
+      aSB.append ("p").append (d == 100 ? "max" : Double.toString (d)).append ('=').append (getLatencyMicros (d)).append ("us ");
+    aSB.append ('\n');
+    final double dSeconds = m_nDurationNanos / (double) TimeUnit.SECONDS.toNanos (1);
+    for (final Map.Entry <String, Long> aEntry : m_aAllocatedBytes.entrySet ())
+    {
+      final long nBytes = aEntry.getValue ().longValue ();
+      aSB.append ("Allocated [")
+         .append (aEntry.getKey ())
+         .append ("]: ")
+         .append (nBytes / CGlobal.BYTES_PER_KILOBYTE)
+         .append (" KB total, ")
+         .append (m_nRequestCount == 0 ? 0 : nBytes / m_nRequestCount)
+         .append (" bytes/request, ")
+         .append (String.format ("%.1f", Double.valueOf (dSeconds == 0 ? 0 : nBytes / dSeconds / CGlobal.BYTES_PER_MEGABYTE)))
+         .append (" MB/s\n");
+    }
+    return aSB.toString ();
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientHelper;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.dump.AS4DumpReader;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Replay a corpus of <code>.as4in</code> dumps against a running AS4 servlet
+ * to get a benchmark based on real traffic. The requests are sent with a
+ * configurable concurrency and an optional fixed rate. Because the receiver
+ * detects duplicate message IDs, the IDs can be rewritten for every request.
+ * Note: rewriting the message ID breaks the signature of signed messages. For
+ * signed corpora disable the rewriting and clear the duplicate store between
+ * the iterations instead - that only works if the servlet runs in the same
+ * JVM.<br>
+ * The allocations are measured per stage with the thread allocation counters
+ * of the JVM, if available. The stage "receiver" contains all allocations of
+ * the other threads of this JVM, so it is dominated by the servlet if that
+ * runs in the same JVM.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpReplayer
+{
+  public static final int DEFAULT_CONCURRENCY = 4;
+  public static final int DEFAULT_ITERATIONS = 1;
+  public static final boolean DEFAULT_REWRITE_MESSAGE_IDS = true;
+  public static final boolean DEFAULT_CLEAR_DUPLICATES_BETWEEN_ITERATIONS = false;
+
+  public static final String STAGE_PREPARE = "prepare";
+  public static final String STAGE_SEND = "send";
+  public static final String STAGE_RECEIVER = "receiver";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpReplayer.class);
+  private static final Pattern PATTERN_MESSAGE_ID = Pattern.compile ("(<(?:[\\w\\-]+:)?MessageId>)([^<]*)(</(?:[\\w\\-]+:)?MessageId>)");
+  private static final Pattern PATTERN_EBMS_ERROR = Pattern.compile ("<(?:[\\w\\-]+:)?Error[\\s>]");
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean ();
+  private static final AtomicInteger RUN_COUNTER = new AtomicInteger (0);
+
+  private static final class ReplayDump
+  {
+    private final String m_sName;
+    private final HttpHeaderMap m_aHeaders;
+    private final byte [] m_aBody;
+
+    ReplayDump (@Nonnull final String sName, @Nonnull final HttpHeaderMap aHeaders, @Nonnull final byte [] aBody)
+    {
+      m_sName = sName;
+      m_aHeaders = aHeaders;
+      m_aBody = aBody;
+    }
+  }
+
+  private final String m_sTargetURL;
+  private int m_nConcurrency = DEFAULT_CONCURRENCY;
+  private double m_dRatePerSecond = 0;
+  private int m_nIterations = DEFAULT_ITERATIONS;
+  private boolean m_bRewriteMessageIDs = DEFAULT_REWRITE_MESSAGE_IDS;
+  private boolean m_bClearDuplicatesBetweenIterations = DEFAULT_CLEAR_DUPLICATES_BETWEEN_ITERATIONS;
+
+  /**
+   * @param sTargetURL
+   *        The URL of the AS4 servlet to replay to. May neither be
+   *        <code>null</code> nor empty.
+   */
+  public AS4DumpReplayer (@Nonnull @Nonempty final String sTargetURL)
+  {
+    ValueEnforcer.notEmpty (sTargetURL, "TargetURL");
+    m_sTargetURL = sTargetURL;
+  }
+
+  /**
+   * @param nConcurrency
+   *        The number of requests sent in parallel. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4DumpReplayer setConcurrency (@Nonnegative final int nConcurrency)
+  {
+    ValueEnforcer.isGT0 (nConcurrency, "Concurrency");
+    m_nConcurrency = nConcurrency;
+    return this;
+  }
+
+  /**
+   * @param dRatePerSecond
+   *        The maximum number of requests per second over all threads. Use 0
+   *        to send as fast as possible. If a rate is set, the latency is
+   *        measured from the scheduled send time, so that a slow receiver is
+   *        not hidden by the pacing.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4DumpReplayer setRatePerSecond (final double dRatePerSecond)
+  {
+    ValueEnforcer.isTrue (dRatePerSecond >= 0, "RatePerSecond must be >= 0");
+    m_dRatePerSecond = dRatePerSecond;
+    return this;
+  }
+
+  /**
+   * @param nIterations
+   *        How often the whole corpus should be replayed. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4DumpReplayer setIterations (@Nonnegative final int nIterations)
+  {
+    ValueEnforcer.isGT0 (nIterations, "Iterations");
+    m_nIterations = nIterations;
+    return this;
+  }
+
+  /**
+   * @param bRewriteMessageIDs
+   *        <code>true</code> to give each replayed request a unique ebMS
+   *        message ID.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4DumpReplayer setRewriteMessageIDs (final boolean bRewriteMessageIDs)
+  {
+    m_bRewriteMessageIDs = bRewriteMessageIDs;
+    return this;
+  }
+
+  /**
+   * @param bClearDuplicatesBetweenIterations
+   *        <code>true</code> to clear the incoming duplicate store after each
+   *        iteration. Only effective if the servlet runs in this JVM.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4DumpReplayer setClearDuplicatesBetweenIterations (final boolean bClearDuplicatesBetweenIterations)
+  {
+    m_bClearDuplicatesBetweenIterations = bClearDuplicatesBetweenIterations;
+    return this;
+  }
+
+  /**
+   * Replace the content of all ebMS <code>MessageId</code> elements by
+   * appending a suffix.
+   *
+   * @param aBody
+   *        The HTTP body. May not be <code>null</code>.
+   * @param sSuffix
+   *        The suffix to append. May not be <code>null</code>.
+   * @return The modified body. Never <code>null</code>.
+   */
+  @Nonnull
+  static byte [] rewriteMessageIDs (@Nonnull final byte [] aBody, @Nonnull final String sSuffix)
+  {
+    // ISO-8859-1 maps each byte to exactly one char and back
+    final String sBody = new String (aBody, StandardCharsets.ISO_8859_1);
+    final Matcher aMatcher = PATTERN_MESSAGE_ID.matcher (sBody);
+    if (!aMatcher.find ())
+      return aBody;
+
+    final StringBuffer aSB = new StringBuffer (sBody.length () + sSuffix.length ());
+    do
+    {
+      aMatcher.appendReplacement (aSB, Matcher.quoteReplacement (aMatcher.group (1) + aMatcher.group (2) + sSuffix + aMatcher.group (3)));
+    } while (aMatcher.find ());
+    aMatcher.appendTail (aSB);
+    return aSB.toString ().getBytes (StandardCharsets.ISO_8859_1);
+  }
+
+  @Nonnull
+  private static ReplayDump _readDump (@Nonnull final File aFile) throws IOException
+  {
+    final ByteBuffer aBuffer = AS4DumpReader.mapDumpFile (aFile);
+    try
+    {
+      final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+      final int nHttpEnd = AS4DumpReader.readHttpHeaders (aBuffer, aHeaders);
+      if (nHttpEnd < 0)
+        throw new IOException ("Failed to find the end of the HTTP headers in " + aFile.getAbsolutePath ());
+
+      // The body starts after the empty line
+      final byte [] aBody = new byte [aBuffer.limit () - nHttpEnd - 1];
+      final ByteBuffer aBodyBuffer = aBuffer.duplicate ();
+      aBodyBuffer.position (nHttpEnd + 1);
+      aBodyBuffer.get (aBody);
+      return new ReplayDump (aFile.getName (), aHeaders, aBody);
+    }
+    finally
+    {
+      // Don't keep the file locked
+      AS4IOHelper.unmap (aBuffer);
+    }
+  }
+
+  private static boolean _isForwardedHeader (@Nonnull final String sName)
+  {
+    // These are set by the HTTP client
+    final String sLC = sName.toLowerCase (Locale.ROOT);
+    return !sLC.equals (CHttpHeader.CONTENT_LENGTH.toLowerCase (Locale.ROOT)) &&
+           !sLC.equals (CHttpHeader.TRANSFER_ENCODING.toLowerCase (Locale.ROOT)) &&
+           !sLC.equals (CHttpHeader.HOST.toLowerCase (Locale.ROOT)) &&
+           !sLC.equals (CHttpHeader.CONNECTION.toLowerCase (Locale.ROOT));
+  }
+
+  private static long _getCurrentThreadAllocatedBytes ()
+  {
+    if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes (Thread.currentThread ().getId ());
+    return 0;
+  }
+
+  private static long _getAllThreadsAllocatedBytes ()
+  {
+    long ret = 0;
+    if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)
+      for (final long nBytes : ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes (THREAD_MX_BEAN.getAllThreadIds ()))
+        if (nBytes > 0)
+          ret += nBytes;
+    return ret;
+  }
+
+  private boolean _send (@Nonnull final CloseableHttpClient aHttpClient, @Nonnull final HttpPost aPost, @Nonnull final String sName)
+  {
+    try (final CloseableHttpResponse aHttpResponse = aHttpClient.execute (aPost))
+    {
+      final int nStatusCode = aHttpResponse.getCode ();
+      final HttpEntity aEntity = aHttpResponse.getEntity ();
+      final String sResponse = aEntity == null ? "" : HttpClientHelper.entityToString (aEntity, StandardCharsets.UTF_8);
+      if (nStatusCode >= 200 && nStatusCode < 300 && !PATTERN_EBMS_ERROR.matcher (sResponse).find ())
+        return true;
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Replaying '" + sName + "' failed with HTTP " + nStatusCode + ":\n" + sResponse);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Replaying '" + sName + "' failed: " + ex.getMessage ());
+    }
+    return false;
+  }
+
+  /**
+   * Replay the provided dumps.
+   *
+   * @param aDumpFiles
+   *        The <code>.as4in</code> files to replay. May not be
+   *        <code>null</code>.
+   * @return The result of the run. Never <code>null</code>.
+   * @throws IOException
+   *         If a dump file cannot be read
+   * @throws InterruptedException
+   *         If the run was interrupted
+   */
+  @Nonnull
+  public AS4DumpReplayResult replay (@Nonnull final Iterable <File> aDumpFiles) throws IOException, InterruptedException
+  {
+    ValueEnforcer.notNull (aDumpFiles, "DumpFiles");
+
+    final ICommonsList <ReplayDump> aCorpus = new CommonsArrayList <> ();
+    for (final File aFile : aDumpFiles)
+      aCorpus.add (_readDump (aFile));
+    final int nCorpusSize = aCorpus.size ();
+    LOGGER.info ("Replaying " + nCorpusSize + " dumps " + m_nIterations + " time(s) to " + m_sTargetURL);
+
+    final long [] aLatencyNanos = new long [nCorpusSize * m_nIterations];
+    final AtomicInteger aSuccessCount = new AtomicInteger (0);
+    final LongAdder aPrepareBytes = new LongAdder ();
+    final LongAdder aSendBytes = new LongAdder ();
+    final long nIntervalNanos = m_dRatePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos (1) / m_dRatePerSecond) : 0;
+
+    // One HTTP client per worker, so that the connection pool never limits
+    // the concurrency
+    final HttpClientSettings aHCS = new HttpClientSettings ();
+    aHCS.setResponseTimeout (Timeout.ofMinutes (5));
+    final ICommonsList <CloseableHttpClient> aHttpClients = new CommonsArrayList <> (m_nConcurrency);
+    for (int i = 0; i < m_nConcurrency; ++i)
+      aHttpClients.add (new HttpClientFactory (aHCS).createHttpClient ());
+
+    // Unique per run, so that several runs against one server do not clash
+    final String sMessageIDSuffix = "-replay-" +
+                                    Long.toString (System.currentTimeMillis (), Character.MAX_RADIX) +
+                                    "-" +
+                                    RUN_COUNTER.incrementAndGet () +
+                                    "-";
+    final ExecutorService aES = Executors.newFixedThreadPool (m_nConcurrency);
+    final long nAllBytesBefore = _getAllThreadsAllocatedBytes ();
+    final long nStartNanos = System.nanoTime ();
+    final AtomicLong aNextSlotNanos = new AtomicLong (nStartNanos);
+    final long nDurationNanos;
+    final long nAllBytes;
+    try
+    {
+      for (int nIteration = 0; nIteration < m_nIterations; ++nIteration)
+      {
+        final int nIterationOffset = nIteration * nCorpusSize;
+        final AtomicInteger aNextIndex = new AtomicInteger (0);
+        final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> (m_nConcurrency);
+        for (final CloseableHttpClient aHttpClient : aHttpClients)
+          aFutures.add (aES.submit ( () -> {
+            int nIndex;
+            while ((nIndex = aNextIndex.getAndIncrement ()) < nCorpusSize)
+            {
+              final ReplayDump aDump = aCorpus.get (nIndex);
+              final int nRequestIndex = nIterationOffset + nIndex;
+
+              // Stage 1: build the request
+              final long nBytes0 = _getCurrentThreadAllocatedBytes ();
+              final byte [] aBody = m_bRewriteMessageIDs ? rewriteMessageIDs (aDump.m_aBody, sMessageIDSuffix + nRequestIndex)
+                                                         : aDump.m_aBody;
+              final HttpPost aPost = new HttpPost (m_sTargetURL);
+              aDump.m_aHeaders.forEachSingleHeader ( (k, v) -> {
+                if (_isForwardedHeader (k))
+                  aPost.addHeader (k, v);
+              }, false);
+              aPost.setEntity (new ByteArrayEntity (aBody, null));
+              final long nBytes1 = _getCurrentThreadAllocatedBytes ();
+
+              // Wait for the scheduled slot
+              long nSendStartNanos = System.nanoTime ();
+              if (nIntervalNanos > 0)
+              {
+                final long nSlotNanos = aNextSlotNanos.getAndAdd (nIntervalNanos);
+                if (nSlotNanos > nSendStartNanos)
+                  LockSupport.parkNanos (nSlotNanos - nSendStartNanos);
+                nSendStartNanos = nSlotNanos;
+              }
+
+              // Stage 2: send and read the response
+              if (_send (aHttpClient, aPost, aDump.m_sName))
+                aSuccessCount.incrementAndGet ();
+              aLatencyNanos[nRequestIndex] = System.nanoTime () - nSendStartNanos;
+              final long nBytes2 = _getCurrentThreadAllocatedBytes ();
+
+              aPrepareBytes.add (nBytes1 - nBytes0);
+              aSendBytes.add (nBytes2 - nBytes1);
+            }
+          }));
+
+        for (final Future <?> aFuture : aFutures)
+          try
+          {
+            aFuture.get ();
+          }
+          catch (final ExecutionException ex)
+          {
+            throw new IllegalStateException ("Replay worker failed", ex.getCause ());
+          }
+
+        if (m_bClearDuplicatesBetweenIterations)
+          MetaAS4Manager.getIncomingDuplicateMgr ().clearCache ();
+      }
+
+      // Measure before the worker threads end
+      nDurationNanos = System.nanoTime () - nStartNanos;
+      nAllBytes = _getAllThreadsAllocatedBytes () - nAllBytesBefore;
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+      for (final CloseableHttpClient aHttpClient : aHttpClients)
+        StreamHelper.close (aHttpClient);
+    }
+
+    final ICommonsOrderedMap <String, Long> aAllocatedBytes = new CommonsLinkedHashMap <> ();
+    aAllocatedBytes.put (STAGE_PREPARE, Long.valueOf (aPrepareBytes.sum ()));
+    aAllocatedBytes.put (STAGE_SEND, Long.valueOf (aSendBytes.sum ()));
+    aAllocatedBytes.put (STAGE_RECEIVER, Long.valueOf (Math.max (0, nAllBytes - aPrepareBytes.sum () - aSendBytes.sum ())));
+    return new AS4DumpReplayResult (aSuccessCount.get (), nDurationNanos, aLatencyNanos, aAllocatedBytes);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.replay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+
+/**
+ * Test class for class {@link AS4DumpReplayer}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpReplayerTest
+{
+  @Test
+  public void testRewriteMessageIDs ()
+  {
+    final String sBody = "<eb:MessageInfo><eb:MessageId>abc@phase4</eb:MessageId>" +
+                         "<eb:RefToMessageId>ref</eb:RefToMessageId></eb:MessageInfo>";
+    final byte [] aRewritten = AS4DumpReplayer.rewriteMessageIDs (sBody.getBytes (StandardCharsets.ISO_8859_1), "-replay-1");
+    assertEquals ("<eb:MessageInfo><eb:MessageId>abc@phase4-replay-1</eb:MessageId>" +
+                  "<eb:RefToMessageId>ref</eb:RefToMessageId></eb:MessageInfo>",
+                  new String (aRewritten, StandardCharsets.ISO_8859_1));
+
+    // Binary content is kept as is
+    final byte [] aBinary = new byte [] { (byte) 0xff, 0, '<', 'M', 'e', 's', 's', 'a', 'g', 'e', 'I', 'd', '>', 'x' };
+    assertSame (aBinary, AS4DumpReplayer.rewriteMessageIDs (aBinary, "-1"));
+    final byte [] aBinary2 = "\u00ff<MessageId>x</MessageId>\u0080".getBytes (StandardCharsets.ISO_8859_1);
+    assertArrayEquals ("\u00ff<MessageId>x-1</MessageId>\u0080".getBytes (StandardCharsets.ISO_8859_1),
+                       AS4DumpReplayer.rewriteMessageIDs (aBinary2, "-1"));
+  }
+
+  @Test
+  public void testResult ()
+  {
+    final AS4DumpReplayResult aResult = new AS4DumpReplayResult (3,
+                                                                 2_000_000_000L,
+                                                                 new long [] { 4_000, 1_000, 3_000, 2_000 },
+                                                                 new CommonsLinkedHashMap <> ());
+    assertEquals (4, aResult.getRequestCount ());
+    assertEquals (1, aResult.getFailureCount ());
+    assertEquals (2000, aResult.getDurationMillis ());
+    assertEquals (2.0, aResult.getThroughputPerSecond (), 0.0001);
+    assertEquals (2, aResult.getLatencyMicros (50));
+    assertEquals (4, aResult.getLatencyMicros (99));
+    assertEquals (1, aResult.getLatencyMicros (0));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.replay;
+
+import java.io.File;
+import java.util.Comparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringParser;
+import com.helger.phase4.dump.AS4IncomingDumperFileBased;
+import com.helger.phase4.server.MockJettySetup;
+
+/**
+ * Start the AS4 servlet locally and replay a directory of <code>.as4in</code>
+ * dumps against it.<br>
+ * Arguments: <code>dump-directory [concurrency [rate-per-second [iterations]]]</code>
+ * <br>
+ * The PModes and keys of the local server must match the dumps, otherwise only
+ * the error path is measured.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4DumpReplay
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4DumpReplay.class);
+
+  public static void main (final String [] args) throws Exception
+  {
+    if (args.length < 1)
+    {
+      LOGGER.error ("Usage: MainAS4DumpReplay dump-directory [concurrency [rate-per-second [iterations]]]");
+      return;
+    }
+
+    final File aDir = new File (args[0]).getAbsoluteFile ();
+    final ICommonsList <File> aDumpFiles = new CommonsArrayList <> ();
+    final File [] aFiles = aDir.listFiles (x -> x.isFile () &&
+                                                x.getName ().endsWith (AS4IncomingDumperFileBased.IFileProvider.DEFAULT_FILE_EXTENSION));
+    if (aFiles != null)
+      aDumpFiles.addAll (aFiles);
+    aDumpFiles.sort (Comparator.comparing (File::getName));
+    if (aDumpFiles.isEmpty ())
+    {
+      LOGGER.error ("Found no dumps in " + aDir.getAbsolutePath ());
+      return;
+    }
+
+    final AS4DumpReplayer aReplayer = new AS4DumpReplayer (MockJettySetup.getServerAddressFromSettings ());
+    if (args.length > 1)
+      aReplayer.setConcurrency (StringParser.parseInt (args[1], AS4DumpReplayer.DEFAULT_CONCURRENCY));
+    if (args.length > 2)
+      aReplayer.setRatePerSecond (StringParser.parseDouble (args[2], 0));
+    if (args.length > 3)
+      aReplayer.setIterations (StringParser.parseInt (args[3], AS4DumpReplayer.DEFAULT_ITERATIONS));
+
+    MockJettySetup.startServer ();
+    try
+    {
+      // Warm up the JIT with a single pass
+      LOGGER.info ("Warming up");
+      aReplayer.replay (aDumpFiles);
+
+      final AS4DumpReplayResult aResult = aReplayer.replay (aDumpFiles);
+      LOGGER.info ("Replay result:\n" + aResult.getAsReport ());
+    }
+    finally
+    {
+      MockJettySetup.shutDownServer ();
+    }
+  }
+}
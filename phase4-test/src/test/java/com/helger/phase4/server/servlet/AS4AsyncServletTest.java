@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.phase4.http.HttpXMLEntity;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link com.helger.phase4.servlet.AS4AsyncServlet}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncServletTest extends AbstractUserMessageTestSetUpExt
+{
+  @Override
+  @Nonnull
+  protected String getServerURL ()
+  {
+    return MockJettySetup.getServerAddressFromSettings () + "async";
+  }
+
+  private static int _post (@Nonnull final String sURL, @Nonnull final Document aDoc) throws Exception
+  {
+    try (final CloseableHttpClient aHttpClient = new HttpClientFactory ().createHttpClient ())
+    {
+      final HttpPost aPost = new HttpPost (sURL);
+      aPost.setEntity (new HttpXMLEntity (aDoc, ESoapVersion.AS4_DEFAULT.getMimeType ()));
+      try (final CloseableHttpResponse aHttpResponse = aHttpClient.execute (aPost))
+      {
+        return aHttpResponse.getCode ();
+      }
+    }
+  }
+
+  private static int _getTempFileCount ()
+  {
+    File aTempDir = AS4ResourceHelper.getTempDir ();
+    if (aTempDir == null)
+      aTempDir = new File (System.getProperty ("java.io.tmpdir"));
+    final File [] aFiles = aTempDir.listFiles ( (d, sName) -> sName.startsWith ("phase4-async-"));
+    return aFiles == null ? 0 : aFiles.length;
+  }
+
+  @Test
+  public void testNormalRequest () throws Exception
+  {
+    final Document aDoc = modifyUserMessage (null, null, null, createDefaultProperties (), null, null, null);
+    sendPlainMessageAndWait (new HttpXMLEntity (aDoc, ESoapVersion.AS4_DEFAULT.getMimeType ()), true, null);
+  }
+
+  @Test
+  public void testRejectedWhenSaturated () throws Exception
+  {
+    final Document aDoc = modifyUserMessage (null, null, null, createDefaultProperties (), null, null, null);
+    assertEquals (HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                  _post (MockJettySetup.getServerAddressFromSettings () + "async-rejecting", aDoc));
+  }
+
+  @Test
+  public void testTimeoutDeletesTempFile () throws Exception
+  {
+    final int nTempFilesBefore = _getTempFileCount ();
+
+    final Document aDoc = modifyUserMessage (null, null, null, createDefaultProperties (), null, null, null);
+    assertEquals (HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                  _post (MockJettySetup.getServerAddressFromSettings () + "async-timeout", aDoc));
+
+    // The body was spooled to a temporary file, that must be gone now
+    assertEquals (nTempFilesBefore, _getTempFileCount ());
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.web.scope.mgr.WebScopeManager;
+
+/**
+ * Measure the throughput of signing and verifying SOAP requests in parallel,
+ * using the concurrent mode of {@link WSSSynchronizer}. The same work is done
+ * per thread, so ideal scaling keeps the duration constant.
+ *
+ * @author Philip Helger
+ */
+public final class MainSignatureConcurrencyBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainSignatureConcurrencyBenchmark.class);
+  private static final int ITERATIONS_PER_THREAD = 50;
+
+  private static long _run (final AS4CryptoFactoryProperties aCryptoFactory, final int nThreads) throws Exception
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    SignatureConcurrencyTest.runParallel (aCryptoFactory, nThreads, ITERATIONS_PER_THREAD);
+    return Math.max (aSW.stopAndGetMillis (), 1);
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+    try
+    {
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
+
+      final AS4CryptoFactoryProperties aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+
+      // Warm up
+      _run (aCryptoFactory, 1);
+
+      final int nMaxThreads = Math.min (Runtime.getRuntime ().availableProcessors (), 16);
+      final long nSingleMillis = _run (aCryptoFactory, 1);
+      LOGGER.info ("Signed and verified " + ITERATIONS_PER_THREAD + " documents with 1 thread in " + nSingleMillis + " ms");
+      for (int nThreads = 2; nThreads <= nMaxThreads; nThreads *= 2)
+      {
+        final long nMillis = _run (aCryptoFactory, nThreads);
+        final double dSpeedup = (double) nThreads * nSingleMillis / nMillis;
+        LOGGER.info ("Signed and verified " +
+                     nThreads * ITERATIONS_PER_THREAD +
+                     " documents with " +
+                     nThreads +
+                     " threads in " +
+                     nMillis +
+                     " ms - speedup " +
+                     String.format ("%.2f", Double.valueOf (dSpeedup)) +
+                     " of " +
+                     nThreads);
+      }
+    }
+    finally
+    {
+      WebScopeManager.onGlobalEnd ();
+    }
+  }
+}
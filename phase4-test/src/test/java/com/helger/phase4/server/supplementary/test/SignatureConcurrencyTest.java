@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015-2023 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.scope.mock.ScopeTestRule;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Sign and verify SOAP requests from multiple threads in parallel, using the
+ * concurrent mode of {@link WSSSynchronizer}. Every single signature must
+ * verify. See {@link MainSignatureConcurrencyBenchmark} for the throughput
+ * per thread count.
+ *
+ * @author Philip Helger
+ */
+public final class SignatureConcurrencyTest
+{
+  private static final int THREADS = 8;
+  private static final int ITERATIONS_PER_THREAD = 20;
+
+  @Rule
+  public final ScopeTestRule m_aRule = new ScopeTestRule ();
+
+  @Before
+  public void before ()
+  {
+    // Ensure WSSConfig is initialized
+    WSSConfigManager.getInstance ();
+  }
+
+  @Nonnull
+  static Document createSignedDocument (@Nonnull final AS4CryptoFactoryProperties aCryptoFactory) throws WSSecurityException
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("UserMessageWithoutWSSE.xml"));
+    final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+    aSecHeader.insertSecurityHeader ();
+
+    final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+    aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (), aCryptoFactory.getKeyPassword ());
+    aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+    aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+    aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+    return aBuilder.build (aCryptoFactory.getCrypto ());
+  }
+
+  /**
+   * Verify the signature of the provided document. An invalid signature
+   * results in an exception.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param aSignedDoc
+   *        The document created by {@link #createSignedDocument(AS4CryptoFactoryProperties)}.
+   *        May not be <code>null</code>.
+   * @throws WSSecurityException
+   *         If the signature is invalid
+   */
+  static void verifySignedDocument (@Nonnull final AS4CryptoFactoryProperties aCryptoFactory,
+                                    @Nonnull final Document aSignedDoc) throws WSSecurityException
+  {
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (WSSConfigManager.createStaticWSSConfig ());
+    final WSHandlerResult aResults = aSecEngine.processSecurityHeader (aSignedDoc,
+                                                                       null,
+                                                                       null,
+                                                                       aCryptoFactory.getCrypto ());
+    assertNotNull (aResults);
+    final List <WSSecurityEngineResult> aSignResults = aResults.getActionResults ()
+                                                               .get (Integer.valueOf (WSConstants.SIGN));
+    assertNotNull (aSignResults);
+    assertEquals (1, aSignResults.size ());
+
+    final WSSecurityEngineResult aActionResult = aSignResults.get (0);
+    assertNotNull (aActionResult.get (WSSecurityEngineResult.TAG_SIGNATURE_VALUE));
+    // Signed with our own key
+    final X509Certificate aCert = (X509Certificate) aActionResult.get (WSSecurityEngineResult.TAG_X509_CERTIFICATE);
+    assertEquals (aCryptoFactory.getCertificate (), aCert);
+  }
+
+  static void signAndVerify (@Nonnull final AS4CryptoFactoryProperties aCryptoFactory) throws WSSecurityException
+  {
+    WSSSynchronizer.callConcurrent ( () -> {
+      final Document aSignedDoc = createSignedDocument (aCryptoFactory);
+      verifySignedDocument (aCryptoFactory, aSignedDoc);
+      return null;
+    });
+  }
+
+  /**
+   * Sign and verify in parallel and wait for all threads.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param nThreads
+   *        Number of threads to use. Must be &gt; 0.
+   * @param nIterationsPerThread
+   *        Number of documents to be signed and verified per thread. Must be
+   *        &gt; 0.
+   * @throws Exception
+   *         The first exception of any thread, e.g. if a signature did not
+   *         verify.
+   */
+  static void runParallel (@Nonnull final AS4CryptoFactoryProperties aCryptoFactory,
+                           @Nonnegative final int nThreads,
+                           @Nonnegative final int nIterationsPerThread) throws Exception
+  {
+    final ICommonsList <Callable <Integer>> aTasks = new CommonsArrayList <> (nThreads);
+    for (int i = 0; i < nThreads; ++i)
+      aTasks.add ( () -> {
+        for (int j = 0; j < nIterationsPerThread; ++j)
+          signAndVerify (aCryptoFactory);
+        return Integer.valueOf (nIterationsPerThread);
+      });
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      int nVerified = 0;
+      for (final Future <Integer> aFuture : aES.invokeAll (aTasks))
+      {
+        try
+        {
+          nVerified += aFuture.get ().intValue ();
+        }
+        catch (final ExecutionException ex)
+        {
+          // Propagate failed assertions and exceptions of the worker
+          final Throwable aCause = ex.getCause ();
+          if (aCause instanceof Error)
+            throw (Error) aCause;
+          throw (Exception) aCause;
+        }
+      }
+      assertEquals (nThreads * nIterationsPerThread, nVerified);
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testConcurrentSignAndVerify () throws Exception
+  {
+    final AS4CryptoFactoryProperties aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    runParallel (aCryptoFactory, THREADS, ITERATIONS_PER_THREAD);
+
+    // All invocations must have been unregistered
+    assertEquals (0, WSSSynchronizer.getConcurrentActiveCount ());
+  }
+
+  @Test
+  public void testTamperedDocumentDoesNotVerify () throws Exception
+  {
+    final AS4CryptoFactoryProperties aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final Document aSignedDoc = createSignedDocument (aCryptoFactory);
+
+    // Modify the signed SOAP body
+    final Node aBody = aSignedDoc.getElementsByTagNameNS ("*", "Body").item (0);
+    assertNotNull (aBody);
+    aBody.appendChild (aSignedDoc.createTextNode ("tampered"));
+
+    try
+    {
+      verifySignedDocument (aCryptoFactory, aSignedDoc);
+      fail ("Tampered document must not verify");
+    }
+    catch (final WSSecurityException ex)
+    {
+      // Expected
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.server.supplementary.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 
@@ -34,11 +35,13 @@ import org.junit.Test;
 import org.w3c.dom.Document;
 
 import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
 import com.helger.phase4.crypto.ECryptoAlgorithmSign;
 import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.scope.mock.ScopeTestRule;
 import com.helger.xml.serialize.read.DOMReader;
@@ -103,4 +106,53 @@ public final class SignatureTest
     final STRParser.REFERENCE_TYPE referenceType = (STRParser.REFERENCE_TYPE) actionResult.get (WSSecurityEngineResult.TAG_X509_REFERENCE_TYPE);
     assertSame (STRParser.REFERENCE_TYPE.DIRECT_REF, referenceType);
   }
+
+  /**
+   * Sign, serialize with the cached transformers, re-read and verify. This
+   * ensures the serialization is byte identical across invocations and keeps
+   * the XMLDSig signature valid.
+   *
+   * @throws java.lang.Exception
+   *         Thrown when there is any problem in signing or verification
+   */
+  @Test
+  public void testX509SignatureSerializationRoundTrip () throws Exception
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+
+    final Document aDoc = _getSoapEnvelope11 ();
+    final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+    aSecHeader.insertSecurityHeader ();
+
+    final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+    aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (), aCryptoFactory.getKeyPassword ());
+    aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+    aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+    aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+    final Document aSignedDoc = aBuilder.build (aCryptoFactory.getCrypto ());
+
+    // Serialize multiple times to reuse the per-thread transformer
+    final byte [] aBytes = AS4XMLHelper.serializeXMLToBytes (aSignedDoc);
+    for (int i = 0; i < 5; ++i)
+    {
+      assertArrayEquals (aBytes, AS4XMLHelper.serializeXMLToBytes (aSignedDoc));
+      assertArrayEquals (aBytes, AS4XMLHelper.serializeXML (aSignedDoc).getBytes (AS4XMLHelper.XWS.getCharset ()));
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        AS4XMLHelper.serializeXML (aSignedDoc, aBAOS);
+        assertArrayEquals (aBytes, aBAOS.toByteArray ());
+      }
+    }
+
+    // Verify the re-read document
+    final Document aReadDoc = DOMReader.readXMLDOM (aBytes);
+    assertNotNull (aReadDoc);
+
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (WSSConfigManager.getInstance ().createWSSConfig ());
+    final WSHandlerResult aResults = aSecEngine.processSecurityHeader (aReadDoc, null, null, aCryptoFactory.getCrypto ());
+
+    final WSSecurityEngineResult aActionResult = aResults.getActionResults ().get (Integer.valueOf (WSConstants.SIGN)).get (0);
+    assertNotNull (aActionResult.get (WSSecurityEngineResult.TAG_X509_CERTIFICATE));
+  }
 }